@@ -0,0 +1,101 @@
+/*
+ * Quasar: lightweight threads and actors for the JVM.
+ * Copyright (C) 2013, Parallel Universe Software Co. All rights reserved.
+ *
+ * This program and the accompanying materials are dual-licensed under
+ * either the terms of the Eclipse Public License v1.0 as published by
+ * the Eclipse Foundation
+ *
+ *   or (per the licensee's choosing)
+ *
+ * under the terms of the GNU Lesser General Public License version 3.0
+ * as published by the Free Software Foundation.
+ */
+package co.paralleluniverse.actors;
+
+import co.paralleluniverse.fibers.Fiber;
+import co.paralleluniverse.fibers.SuspendExecution;
+import java.util.concurrent.TimeUnit;
+import jsr166e.ForkJoinPool;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The JMH version of {@link RingBenchmark}: a ring of actors passing {@value #MESSAGES} messages around.
+ * Each operation is a complete run of the ring, including spawning its actors.
+ *
+ * @author pron
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ActorRingBenchmark {
+    static final int MESSAGES = 1000;
+    @Param({"100", "1000"})
+    int ringSize;
+    @Param({"0", "10", "100"}) // 0 means an unbounded mailbox
+    int mailboxSize;
+    private ForkJoinPool fjPool;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        fjPool = new ForkJoinPool(Runtime.getRuntime().availableProcessors(), ForkJoinPool.defaultForkJoinWorkerThreadFactory, null, true);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        fjPool.shutdownNow();
+    }
+
+    @Benchmark
+    public Integer ring() throws Exception {
+        final Actor<Integer, Integer> manager = spawnActor(new BasicActor<Integer, Integer>(mailboxSize) {
+            @Override
+            protected Integer doRun() throws InterruptedException, SuspendExecution {
+                Actor<Integer, ?> a = this;
+                for (int i = 0; i < ringSize - 1; i++)
+                    a = createRelayActor(a);
+
+                a.send(1); // start things off
+
+                Integer msg = null;
+                for (int i = 0; i < MESSAGES; i++) {
+                    msg = receive();
+                    a.send(msg + 1);
+                }
+                return msg;
+            }
+        });
+        return manager.get();
+    }
+
+    private Actor<Integer, ?> createRelayActor(final Actor<Integer, ?> prev) {
+        return spawnActor(new BasicActor<Integer, Void>(mailboxSize) {
+            @Override
+            protected Void doRun() throws InterruptedException, SuspendExecution {
+                for (int i = 0; i <= MESSAGES; i++) // the manager sends one message more than it receives
+                    prev.send(receive() + 1);
+                return null;
+            }
+        });
+    }
+
+    private <Message, V> Actor<Message, V> spawnActor(Actor<Message, V> actor) {
+        new Fiber(fjPool, actor).start();
+        return actor;
+    }
+}
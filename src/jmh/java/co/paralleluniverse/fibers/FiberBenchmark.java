@@ -0,0 +1,118 @@
+/*
+ * Quasar: lightweight threads and actors for the JVM.
+ * Copyright (C) 2013, Parallel Universe Software Co. All rights reserved.
+ *
+ * This program and the accompanying materials are dual-licensed under
+ * either the terms of the Eclipse Public License v1.0 as published by
+ * the Eclipse Foundation
+ *
+ *   or (per the licensee's choosing)
+ *
+ * under the terms of the GNU Lesser General Public License version 3.0
+ * as published by the Free Software Foundation.
+ */
+package co.paralleluniverse.fibers;
+
+import co.paralleluniverse.strands.SuspendableRunnable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import jsr166e.ForkJoinPool;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The cost of spawning fibers, and of a park/unpark hand-off between two fibers.
+ *
+ * @author pron
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FiberBenchmark {
+    private static final int FIBERS = 1000;
+    private static final int HAND_OFFS = 1000;
+    private static final SuspendableRunnable NOOP = new SuspendableRunnable() {
+        @Override
+        public void run() throws SuspendExecution, InterruptedException {
+        }
+    };
+    private ForkJoinPool fjPool;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        fjPool = new ForkJoinPool(Runtime.getRuntime().availableProcessors(), ForkJoinPool.defaultForkJoinWorkerThreadFactory, null, true);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        fjPool.shutdownNow();
+    }
+
+    /**
+     * Spawns a fiber and waits for it to terminate.
+     */
+    @Benchmark
+    public void spawnAndJoin() throws Exception {
+        new Fiber<Void>(fjPool, NOOP).start().join();
+    }
+
+    /**
+     * Spawns many fibers before joining them, so that spawning isn't serialized behind termination.
+     */
+    @Benchmark
+    @OperationsPerInvocation(FIBERS)
+    public void spawnMany() throws Exception {
+        final Fiber[] fibers = new Fiber[FIBERS];
+        for (int i = 0; i < FIBERS; i++)
+            fibers[i] = new Fiber<Void>(fjPool, NOOP).start();
+        for (Fiber fiber : fibers)
+            fiber.join();
+    }
+
+    /**
+     * Two fibers taking turns, each parking until the other unparks it.
+     */
+    @Benchmark
+    @OperationsPerInvocation(HAND_OFFS)
+    public int parkUnpark() throws Exception {
+        final AtomicInteger turn = new AtomicInteger();
+        final Fiber[] fibers = new Fiber[2];
+        for (int f = 0; f < 2; f++) {
+            final int me = f;
+            fibers[f] = new Fiber<Void>(fjPool, new SuspendableRunnable() {
+                @Override
+                public void run() throws SuspendExecution, InterruptedException {
+                    for (int t = me; t < HAND_OFFS; t += 2) {
+                        awaitTurn(t);
+                        turn.set(t + 1);
+                        fibers[1 - me].unpark();
+                    }
+                }
+
+                private void awaitTurn(int t) throws SuspendExecution {
+                    while (turn.get() != t)
+                        Fiber.park();
+                }
+            });
+        }
+        fibers[0].start();
+        fibers[1].start();
+        fibers[0].join();
+        fibers[1].join();
+        return turn.get();
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * Quasar: lightweight threads and actors for the JVM.
+ * Copyright (C) 2013, Parallel Universe Software Co. All rights reserved.
+ *
+ * This program and the accompanying materials are dual-licensed under
+ * either the terms of the Eclipse Public License v1.0 as published by
+ * the Eclipse Foundation
+ *
+ *   or (per the licensee's choosing)
+ *
+ * under the terms of the GNU Lesser General Public License version 3.0
+ * as published by the Free Software Foundation.
+ */
+package co.paralleluniverse.strands.channels;
+
+import co.paralleluniverse.fibers.Fiber;
+import co.paralleluniverse.fibers.SuspendExecution;
+import co.paralleluniverse.strands.SuspendableCallable;
+import co.paralleluniverse.strands.SuspendableRunnable;
+import java.util.concurrent.TimeUnit;
+import jsr166e.ForkJoinPool;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Round trips between two fibers over a pair of channels.
+ *
+ * @author pron
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ChannelBenchmark {
+    private static final int ROUND_TRIPS = 1000;
+    @Param({"0", "16", "1024"}) // 0 means an unbounded mailbox
+    int mailboxSize;
+    private ForkJoinPool fjPool;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        fjPool = new ForkJoinPool(Runtime.getRuntime().availableProcessors(), ForkJoinPool.defaultForkJoinWorkerThreadFactory, null, true);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        fjPool.shutdownNow();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROUND_TRIPS)
+    public Integer objectRoundTrip() throws Exception {
+        final ObjectChannel<Integer> ping = ObjectChannel.create(mailboxSize);
+        final ObjectChannel<Integer> pong = ObjectChannel.create(mailboxSize);
+
+        new Fiber<Void>(fjPool, new SuspendableRunnable() {
+            @Override
+            public void run() throws SuspendExecution, InterruptedException {
+                for (int i = 0; i < ROUND_TRIPS; i++)
+                    pong.send(ping.receive());
+            }
+        }).start();
+
+        final Fiber<Integer> pinger = new Fiber<Integer>(fjPool, new SuspendableCallable<Integer>() {
+            @Override
+            public Integer run() throws SuspendExecution, InterruptedException {
+                Integer x = 0;
+                for (int i = 0; i < ROUND_TRIPS; i++) {
+                    ping.send(x);
+                    x = pong.receive() + 1;
+                }
+                return x;
+            }
+        });
+        pinger.start();
+        return pinger.get();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROUND_TRIPS)
+    public Integer intRoundTrip() throws Exception {
+        final IntChannel ping = IntChannel.create(mailboxSize);
+        final IntChannel pong = IntChannel.create(mailboxSize);
+
+        new Fiber<Void>(fjPool, new SuspendableRunnable() {
+            @Override
+            public void run() throws SuspendExecution, InterruptedException {
+                for (int i = 0; i < ROUND_TRIPS; i++)
+                    pong.send(ping.receiveInt());
+            }
+        }).start();
+
+        final Fiber<Integer> pinger = new Fiber<Integer>(fjPool, new SuspendableCallable<Integer>() {
+            @Override
+            public Integer run() throws SuspendExecution, InterruptedException {
+                int x = 0;
+                for (int i = 0; i < ROUND_TRIPS; i++) {
+                    ping.send(x);
+                    x = pong.receiveInt() + 1;
+                }
+                return x;
+            }
+        });
+        pinger.start();
+        return pinger.get();
+    }
+}
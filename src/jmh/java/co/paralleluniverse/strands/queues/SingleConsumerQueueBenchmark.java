@@ -0,0 +1,158 @@
+/*
+ * Quasar: lightweight threads and actors for the JVM.
+ * Copyright (C) 2013, Parallel Universe Software Co. All rights reserved.
+ *
+ * This program and the accompanying materials are dual-licensed under
+ * either the terms of the Eclipse Public License v1.0 as published by
+ * the Eclipse Foundation
+ *
+ *   or (per the licensee's choosing)
+ *
+ * under the terms of the GNU Lesser General Public License version 3.0
+ * as published by the Free Software Foundation.
+ */
+package co.paralleluniverse.strands.queues;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Control;
+
+/**
+ * Enqueue/dequeue throughput of the single-consumer queues with 1, 2 and 4 producers.
+ * Producers wait when the queue holds about {@code capacity} elements, so that the unbounded queues don't grow without
+ * bound when the consumer falls behind. Each producer only counts its own elements, so producers don't contend on
+ * anything but the queue.
+ *
+ * @author pron
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SingleConsumerQueueBenchmark {
+    private static final Integer VALUE = 777;
+    @Param({"array", "linked", "linkedArray", "arrayInt", "linkedInt", "linkedArrayInt"})
+    String type;
+    @Param({"1024", "32768"})
+    int capacity;
+    private SingleConsumerQueue<Integer, Object> queue;
+    private final AtomicLong dequeued = new AtomicLong();
+
+    @State(Scope.Thread)
+    public static class Producer {
+        long enqueued;
+
+        @Setup(Level.Iteration)
+        public void setup() {
+            enqueued = 0;
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void setup() {
+        queue = (SingleConsumerQueue<Integer, Object>) createQueue(type, capacity);
+        dequeued.set(0);
+    }
+
+    static SingleConsumerQueue<Integer, ?> createQueue(String type, int capacity) {
+        switch (type) {
+            case "array":
+                return new SingleConsumerArrayObjectQueue<Integer>(capacity);
+            case "linked":
+                return new SingleConsumerLinkedObjectQueue<Integer>();
+            case "linkedArray":
+                return new SingleConsumerLinkedArrayObjectQueue<Integer>();
+            case "arrayInt":
+                return new SingleConsumerArrayIntQueue(capacity);
+            case "linkedInt":
+                return new SingleConsumerLinkedIntQueue();
+            case "linkedArrayInt":
+                return new SingleConsumerLinkedArrayIntQueue();
+            default:
+                throw new IllegalArgumentException("Unknown queue type: " + type);
+        }
+    }
+
+    @Benchmark
+    @Group("p1")
+    @GroupThreads(1)
+    public boolean enq1(Control control, Producer producer) {
+        return enq(control, producer, 1);
+    }
+
+    @Benchmark
+    @Group("p1")
+    @GroupThreads(1)
+    public Integer deq1(Control control) {
+        return deq(control);
+    }
+
+    @Benchmark
+    @Group("p2")
+    @GroupThreads(2)
+    public boolean enq2(Control control, Producer producer) {
+        return enq(control, producer, 2);
+    }
+
+    @Benchmark
+    @Group("p2")
+    @GroupThreads(1)
+    public Integer deq2(Control control) {
+        return deq(control);
+    }
+
+    @Benchmark
+    @Group("p4")
+    @GroupThreads(4)
+    public boolean enq4(Control control, Producer producer) {
+        return enq(control, producer, 4);
+    }
+
+    @Benchmark
+    @Group("p4")
+    @GroupThreads(1)
+    public Integer deq4(Control control) {
+        return deq(control);
+    }
+
+    private boolean enq(Control control, Producer producer, int producers) {
+        while (producer.enqueued * producers - dequeued.get() >= capacity) {
+            if (control.stopMeasurement)
+                return false;
+        }
+        while (!queue.enq(VALUE)) {
+            if (control.stopMeasurement)
+                return false;
+        }
+        producer.enqueued++;
+        return true;
+    }
+
+    private Integer deq(Control control) {
+        Object n;
+        while ((n = queue.pk()) == null) {
+            if (control.stopMeasurement)
+                return null;
+        }
+        final Integer v = queue.value(n);
+        queue.deq(n);
+        dequeued.lazySet(dequeued.get() + 1);
+        return v;
+    }
+}
@@ -14,7 +14,6 @@
 package co.paralleluniverse.actors;
 
 import co.paralleluniverse.common.monitoring.FlightRecorder;
-import co.paralleluniverse.common.monitoring.FlightRecorderMessage;
 import co.paralleluniverse.common.util.Debug;
 import co.paralleluniverse.fibers.Fiber;
 import co.paralleluniverse.fibers.Joinable;
@@ -24,10 +23,13 @@ import co.paralleluniverse.strands.Stranded;
 import co.paralleluniverse.strands.SuspendableCallable;
 import co.paralleluniverse.strands.channels.Channel;
 import co.paralleluniverse.strands.channels.Mailbox;
+import co.paralleluniverse.strands.channels.OverflowPolicy;
 import co.paralleluniverse.strands.channels.SendChannel;
 import co.paralleluniverse.strands.queues.QueueCapacityExceededException;
 import java.math.BigInteger;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.List;
 import java.util.Set;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ThreadLocalRandom;
@@ -51,11 +53,21 @@ public abstract class Actor<Message, V> implements SuspendableCallable<V>, Joina
     private volatile RuntimeException exception;
     private volatile Object deathReason;
     private ActorMonitor monitor;
+    private volatile Object registeredName;
+    private transient ReplySlot replySlot;
     protected final FlightRecorder flightRecorder;
 
     public Actor(String name, int mailboxSize) {
+        this(name, mailboxSize, OverflowPolicy.THROW);
+    }
+
+    /**
+     * @param overflowPolicy what to do with messages sent to this actor when its (bounded) mailbox is full
+     */
+    public Actor(String name, int mailboxSize, OverflowPolicy overflowPolicy) {
         this.name = name;
-        this.mailbox = Mailbox.create(mailboxSize);
+        this.mailbox = Mailbox.create(mailboxSize, overflowPolicy);
+        mailbox.setDroppedMessageChannel(droppedMessages);
 
         if (Debug.isDebug())
             this.flightRecorder = Debug.getGlobalFlightRecorder();
@@ -109,6 +121,36 @@ public abstract class Actor<Message, V> implements SuspendableCallable<V>, Joina
         return new BigInteger(80, ThreadLocalRandom.current());
     }
     
+    /**
+     * Sends a request to an actor and waits for its {@link RequestMessage#reply(Object) reply}.
+     * The reply is handed to the calling strand directly, without going through its mailbox.
+     *
+     * @throws co.paralleluniverse.fibers.TimeoutException if no reply has arrived within the given timeout
+     * @throws InterruptedException if the calling strand has been interrupted while waiting for the reply
+     * @throws IllegalStateException if the actor is not alive
+     * @throws QueueCapacityExceededException if the actor's mailbox is full, and its overflow policy has dropped the
+     * request (or throws)
+     */
+    public static <V, M extends RequestMessage<V>> V call(Actor<? super M, ?> actor, M request, long timeout, TimeUnit unit) throws SuspendExecution, InterruptedException {
+        if (!actor.mailbox.isOwnerAlive())
+            throw new IllegalStateException("Actor " + actor + " is not alive");
+        final ReplySlot slot = ReplySlot.forCurrentStrand();
+        final long id = slot.newCall();
+        request.setReplySlot(slot, id);
+        actor.send(request);
+        return (V) slot.await(id, timeout, unit);
+    }
+
+    public static <V, M extends RequestMessage<V>> V call(Actor<? super M, ?> actor, M request) throws SuspendExecution, InterruptedException {
+        return call(actor, request, 0, null);
+    }
+
+    ReplySlot replySlot() {
+        if (replySlot == null)
+            replySlot = ReplySlot.newSlot(); // only called by the actor's own strand
+        return replySlot;
+    }
+
     //<editor-fold desc="Mailbox methods">
     /////////// Mailbox methods ///////////////////////////////////
     Mailbox<Object> mailbox() {
@@ -185,8 +227,58 @@ public abstract class Actor<Message, V> implements SuspendableCallable<V>, Joina
             record(1, "Actor", "send", "Sending %s -> %s", message, this);
             if (mailbox.isOwnerAlive())
                 mailbox.send(message);
-            else
+            else {
                 record(1, "Actor", "send", "Message dropped. Owner not alive.");
+                failRequest(message, new IllegalStateException("Actor " + this + " is not alive"));
+            }
+        } catch (QueueCapacityExceededException e) {
+            throwIn(e);
+            failRequest(message, e);
+        }
+    }
+
+    /**
+     * Fails the {@link #call(Actor, RequestMessage, long, TimeUnit) call} waiting for the given message if it's a
+     * request that won't be received.
+     */
+    private static void failRequest(Object message, RuntimeException e) {
+        if (message instanceof RequestMessage)
+            ((RequestMessage<?>) message).dropped(e);
+    }
+
+    private static final SendChannel<Object> droppedMessages = new SendChannel<Object>() {
+        @Override
+        public void send(Object message) {
+            failRequest(message, new QueueCapacityExceededException());
+        }
+    };
+
+    /**
+     * Sends a message to this actor, waiting up to the given timeout for room in its mailbox if it's full.
+     *
+     * @return {@code false} if the timeout has elapsed before the message could be sent, or if this actor is not alive
+     * @see Channel#send(Object, long, TimeUnit)
+     */
+    public boolean send(Message message, long timeout, TimeUnit unit) throws SuspendExecution, InterruptedException {
+        record(1, "Actor", "send", "Sending %s -> %s", message, this);
+        if (!mailbox.isOwnerAlive()) {
+            record(1, "Actor", "send", "Message dropped. Owner not alive.");
+            failRequest(message, new IllegalStateException("Actor " + this + " is not alive"));
+            return false;
+        }
+        return mailbox.send(message, timeout, unit);
+    }
+
+    /**
+     * Sends all of the given messages to this actor, waking it only once.
+     */
+    public void sendAll(Message[] messages) {
+        try {
+            record(1, "Actor", "sendAll", "Sending %s messages -> %s", messages.length, this);
+            if (mailbox.isOwnerAlive())
+                mailbox.sendBatch(messages);
+            else
+                record(1, "Actor", "sendAll", "Messages dropped. Owner not alive.");
         } catch (QueueCapacityExceededException e) {
             throwIn(e);
         }
@@ -329,6 +421,7 @@ public abstract class Actor<Message, V> implements SuspendableCallable<V>, Joina
     public Actor register(Object name) {
         record(1, "Actor", "register", "Registering actor %s as %s", this, name);
         this.monitor = ActorRegistry.register(name, this);
+        this.registeredName = name;
         monitorAddRestart();
         return this;
     }
@@ -346,14 +439,24 @@ public abstract class Actor<Message, V> implements SuspendableCallable<V>, Joina
     }
 
     public void unregister(Object name) {
-        ActorRegistry.unregister(name);
+        ActorRegistry.unregister(name, this);
         this.monitor = null;
+        if (name.equals(registeredName))
+            this.registeredName = null;
+    }
+
+    boolean isRegisteredAs(Object name) {
+        return name.equals(registeredName);
     }
 
     public static Actor getActor(Object name) {
         return ActorRegistry.getActor(name);
     }
 
+    public static List<Actor> getActors(Collection<?> names) {
+        return ActorRegistry.getActors(names);
+    }
+
     public Actor link(Actor other) {
         record(1, "Actor", "link", "Linking actors %s, %s", this, other);
         if (!this.isDone() || !other.isDone()) {
@@ -478,42 +581,38 @@ public abstract class Actor<Message, V> implements SuspendableCallable<V>, Joina
 
     private static void record(FlightRecorder.ThreadRecorder recorder, int level, String clazz, String method, String format) {
         if (recorder != null)
-            recorder.record(level, makeFlightRecorderMessage(recorder, clazz, method, format, null));
+            recorder.record(level, clazz, method, format);
     }
 
     private static void record(FlightRecorder.ThreadRecorder recorder, int level, String clazz, String method, String format, Object arg1) {
         if (recorder != null)
-            recorder.record(level, makeFlightRecorderMessage(recorder, clazz, method, format, new Object[]{arg1}));
+            recorder.record(level, clazz, method, format, arg1);
     }
 
     private static void record(FlightRecorder.ThreadRecorder recorder, int level, String clazz, String method, String format, Object arg1, Object arg2) {
         if (recorder != null)
-            recorder.record(level, makeFlightRecorderMessage(recorder, clazz, method, format, new Object[]{arg1, arg2}));
+            recorder.record(level, clazz, method, format, arg1, arg2);
     }
 
     private static void record(FlightRecorder.ThreadRecorder recorder, int level, String clazz, String method, String format, Object arg1, Object arg2, Object arg3) {
         if (recorder != null)
-            recorder.record(level, makeFlightRecorderMessage(recorder, clazz, method, format, new Object[]{arg1, arg2, arg3}));
+            recorder.record(level, clazz, method, format, arg1, arg2, arg3);
     }
 
     private static void record(FlightRecorder.ThreadRecorder recorder, int level, String clazz, String method, String format, Object arg1, Object arg2, Object arg3, Object arg4) {
         if (recorder != null)
-            recorder.record(level, makeFlightRecorderMessage(recorder, clazz, method, format, new Object[]{arg1, arg2, arg3, arg4}));
+            recorder.record(level, clazz, method, format, arg1, arg2, arg3, arg4);
     }
 
     private static void record(FlightRecorder.ThreadRecorder recorder, int level, String clazz, String method, String format, Object arg1, Object arg2, Object arg3, Object arg4, Object arg5) {
         if (recorder != null)
-            recorder.record(level, makeFlightRecorderMessage(recorder, clazz, method, format, new Object[]{arg1, arg2, arg3, arg4, arg5}));
+            recorder.record(level, clazz, method, format, arg1, arg2, arg3, arg4, arg5);
     }
 
     private static void record(FlightRecorder.ThreadRecorder recorder, int level, String clazz, String method, String format, Object... args) {
         if (recorder != null)
-            recorder.record(level, makeFlightRecorderMessage(recorder, clazz, method, format, args));
+            recorder.record(level, clazz, method, format, args);
     }
 
-    private static FlightRecorderMessage makeFlightRecorderMessage(FlightRecorder.ThreadRecorder recorder, String clazz, String method, String format, Object[] args) {
-        return new FlightRecorderMessage(clazz, method, format, args);
-        //return ((FlightRecorderMessageFactory) recorder.getAux()).makeFlightRecorderMessage(clazz, method, format, args);
-    }
     //</editor-fold>
 }
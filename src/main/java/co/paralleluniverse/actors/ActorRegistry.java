@@ -13,7 +13,11 @@
  */
 package co.paralleluniverse.actors;
 
-import java.util.concurrent.ConcurrentMap;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import jsr166e.ConcurrentHashMapV8;
 
 /**
@@ -22,38 +26,136 @@ import jsr166e.ConcurrentHashMapV8;
  */
 public class ActorRegistry {
     // TODO: logs
-    private static final ConcurrentMap<Object, Actor> registeredActors = new ConcurrentHashMapV8<Object, Actor>();
-    private static final ConcurrentMap<Object, ActorMonitor> registeredActorMonitors = new ConcurrentHashMapV8<Object, ActorMonitor>();
+    /**
+     * The kind of monitor given to registered actors: {@code jmx} (the default) registers an MBean for each name;
+     * {@code aggregate} monitors all of them through a single {@link AggregateActorMonitor}; {@code none} doesn't
+     * monitor registered actors at all. Any other value is ignored with a warning.
+     */
+    private static final String MONITOR_TYPE = monitorType();
+    private static final ConcurrentHashMapV8<Object, Actor> registeredActors = new ConcurrentHashMapV8<Object, Actor>();
+    private static final ConcurrentHashMapV8<Object, ActorMonitor> registeredActorMonitors = new ConcurrentHashMapV8<Object, ActorMonitor>();
 
-    public static ActorMonitor register(Object name, Actor actor) {
+    private static String monitorType() {
+        // an exception here would leave the class unusable, so a bad value falls back to the default
+        final String type = System.getProperty("co.paralleluniverse.actors.monitor", "jmx");
+        switch (type) {
+            case "none":
+            case "jmx":
+            case "aggregate":
+                return type;
+            default:
+                System.err.println("QUASAR WARNING: Unrecognized actor monitor type " + type + ". Using jmx.");
+                return "jmx";
+        }
+    }
+
+    public static ActorMonitor register(final Object name, final Actor actor) {
         if (name == null)
             throw new IllegalArgumentException("name is null");
 
-        // atomically register
-        final Actor old = registeredActors.get(name);
-        if (old != null && !old.isDone())
-            throw new RuntimeException("Actor " + old + " is not dead and is already registered under " + name);
-        if (old != null && !registeredActors.remove(name, old))
-            throw new RuntimeException("Concurrent registration under the name " + name);
-        if (registeredActors.putIfAbsent(name, actor) != null)
-            throw new RuntimeException("Concurrent registration under the name " + name);
-
-        ActorMonitor monitor = registeredActorMonitors.get(name);
-        if (monitor == null) {
-            monitor = Actor.newActorMonitor(name.toString().replaceAll(":", ""));
-            registeredActorMonitors.put(name, monitor);
-        }
-        
-        monitor.setActor(actor);
+        registeredActors.compute(name, new ConcurrentHashMapV8.BiFun<Object, Actor, Actor>() {
+            @Override
+            public Actor apply(Object name, Actor old) {
+                if (old != null && old != actor && !old.isDone())
+                    throw new RuntimeException("Actor " + old + " is not dead and is already registered under " + name);
+                return actor;
+            }
+        });
+
+        final ActorMonitor monitor = getMonitor(name);
+        if (monitor != null)
+            monitor.setActor(actor);
         return monitor;
     }
 
+    private static ActorMonitor getMonitor(Object name) {
+        switch (MONITOR_TYPE) {
+            case "none":
+                return null;
+            case "jmx":
+                return registeredActorMonitors.computeIfAbsent(name, new ConcurrentHashMapV8.Fun<Object, ActorMonitor>() {
+                    @Override
+                    public ActorMonitor apply(Object name) {
+                        return Actor.newActorMonitor(name.toString().replaceAll(":", ""));
+                    }
+                });
+            case "aggregate":
+                return registeredActorMonitors.computeIfAbsent(name, new ConcurrentHashMapV8.Fun<Object, ActorMonitor>() {
+                    @Override
+                    public ActorMonitor apply(Object name) {
+                        return AggregateActorMonitor.getInstance().newMonitor(name);
+                    }
+                });
+            default:
+                throw new AssertionError(MONITOR_TYPE);
+        }
+    }
+
     public static void unregister(Object name) {
-        registeredActorMonitors.get(name).setActor(null);
-        registeredActors.remove(name);
+        final Actor actor = registeredActors.get(name);
+        if (actor != null)
+            unregister(name, actor);
+    }
+
+    /**
+     * Unregisters the given actor, unless another actor has since been registered under the same name.
+     */
+    public static void unregister(Object name, Actor actor) {
+        if (!registeredActors.remove(name, actor))
+            return;
+        final ActorMonitor monitor = "aggregate".equals(MONITOR_TYPE) ? registeredActorMonitors.remove(name) : registeredActorMonitors.get(name);
+        if (monitor != null)
+            monitor.setActor(null);
     }
 
     public static Actor getActor(Object name) {
         return registeredActors.get(name);
     }
+
+    /**
+     * Looks up several actors at once.
+     *
+     * @return the actors registered under the given names, in the same order, with {@code null} for names that aren't
+     * registered
+     */
+    public static List<Actor> getActors(Collection<?> names) {
+        final List<Actor> actors = new ArrayList<Actor>(names.size());
+        for (Object name : names)
+            actors.add(registeredActors.get(name));
+        return actors;
+    }
+
+    /**
+     * Creates a new lookup cache.
+     */
+    public static LookupCache newLookupCache() {
+        return new LookupCache();
+    }
+
+    /**
+     * Caches name lookups for a single strand (it's not thread-safe), so that frequently used names don't hit the
+     * registry. A cached actor is looked up again once it has died or has been unregistered.
+     */
+    public static final class LookupCache {
+        private final Map<Object, Actor> cache = new HashMap<Object, Actor>();
+
+        private LookupCache() {
+        }
+
+        public Actor getActor(Object name) {
+            Actor actor = cache.get(name);
+            if (actor != null && actor.isRegisteredAs(name) && !actor.isDone())
+                return actor;
+            actor = registeredActors.get(name);
+            if (actor != null)
+                cache.put(name, actor);
+            else
+                cache.remove(name);
+            return actor;
+        }
+
+        public void clear() {
+            cache.clear();
+        }
+    }
 }
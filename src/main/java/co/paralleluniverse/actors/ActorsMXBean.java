@@ -0,0 +1,64 @@
+/*
+ * Quasar: lightweight threads and actors for the JVM.
+ * Copyright (C) 2013, Parallel Universe Software Co. All rights reserved.
+ *
+ * This program and the accompanying materials are dual-licensed under
+ * either the terms of the Eclipse Public License v1.0 as published by
+ * the Eclipse Foundation
+ *
+ *   or (per the licensee's choosing)
+ *
+ * under the terms of the GNU Lesser General Public License version 3.0
+ * as published by the Free Software Foundation.
+ */
+package co.paralleluniverse.actors;
+
+import java.util.Map;
+
+/**
+ * Metrics of all actors monitored by the {@link AggregateActorMonitor}.
+ *
+ * @author pron
+ */
+public interface ActorsMXBean {
+    void refresh();
+
+    int getActorCount();
+
+    long getTotalReceivedMessages();
+
+    long getTotalRestarts();
+
+    /**
+     * The actors receiving the most messages per second, by name.
+     */
+    Map<String, Double> getTopByMessageRate();
+
+    /**
+     * The actors with the longest mailboxes, by name.
+     */
+    Map<String, Integer> getTopByQueueLength();
+
+    /**
+     * The actors that have skipped the most messages in selective receives, by name.
+     */
+    Map<String, Integer> getTopBySkippedMessages();
+
+    /**
+     * The number of actors in each message-rate bucket. Bucket {@code i > 0} holds the actors receiving between
+     * {@code 2^(i-1)} and {@code 2^i - 1} messages per second; bucket 0 those receiving less than one.
+     */
+    long[] getMessageRateHistogram();
+
+    /**
+     * The number of actors in each queue-length bucket, bucketed like {@link #getMessageRateHistogram()}.
+     */
+    long[] getQueueLengthHistogram();
+
+    /**
+     * The number of actors in each skipped-messages bucket, bucketed like {@link #getMessageRateHistogram()}.
+     */
+    long[] getSkippedMessagesHistogram();
+
+    String[] getLastDeathReasons();
+}
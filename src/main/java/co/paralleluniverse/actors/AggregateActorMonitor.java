@@ -0,0 +1,379 @@
+/*
+ * Quasar: lightweight threads and actors for the JVM.
+ * Copyright (C) 2013, Parallel Universe Software Co. All rights reserved.
+ *
+ * This program and the accompanying materials are dual-licensed under
+ * either the terms of the Eclipse Public License v1.0 as published by
+ * the Eclipse Foundation
+ *
+ *   or (per the licensee's choosing)
+ *
+ * under the terms of the GNU Lesser General Public License version 3.0
+ * as published by the Free Software Foundation.
+ */
+package co.paralleluniverse.actors;
+
+import co.paralleluniverse.common.monitoring.Counter;
+import co.paralleluniverse.common.monitoring.MonitoringServices;
+import co.paralleluniverse.common.monitoring.SimpleMBean;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.management.Notification;
+import javax.management.NotificationListener;
+
+/**
+ * Monitors all registered actors through a single MBean, instead of registering an MBean for each.
+ * <p/>
+ * Each monitored actor is given an id, and its counters are kept in primitive arrays, in stripes of
+ * {@value #STRIPE_SIZE} actors, indexed by that id. Ids are recycled when an actor is unregistered or garbage collected.
+ * The counters are only updated by the actors themselves, so, as with {@link JMXActorMonitor}, we don't mind the
+ * MBean seeing slightly stale values.
+ * <p/>
+ * Used when {@code co.paralleluniverse.actors.monitor} is set to {@code aggregate}.
+ *
+ * @author pron
+ */
+public final class AggregateActorMonitor extends SimpleMBean implements ActorsMXBean, NotificationListener {
+    private static final int STRIPE_SHIFT = 10;
+    private static final int STRIPE_SIZE = 1 << STRIPE_SHIFT;
+    private static final int STRIPE_MASK = STRIPE_SIZE - 1;
+    private static final int TOP_K = Integer.getInteger("co.paralleluniverse.actors.monitorTopK", 10);
+    private static final int HISTOGRAM_BUCKETS = 32;
+    private static final int MESSAGE_RATE = 0;
+    private static final int QUEUE_LENGTH = 1;
+    private static final int SKIPPED_MESSAGES = 2;
+    private static AggregateActorMonitor instance;
+    //
+    private volatile Stripe[] stripes = new Stripe[0];
+    private final AtomicInteger nextId = new AtomicInteger();
+    private final Queue<Integer> freeIds = new ConcurrentLinkedQueue<Integer>();
+    private final Counter restartCounter = new Counter();
+    private final Queue<String> deathReasons = new ConcurrentLinkedQueue<String>();
+    private long lastCollectTime;
+
+    public static synchronized AggregateActorMonitor getInstance() {
+        if (instance == null)
+            instance = new AggregateActorMonitor();
+        return instance;
+    }
+
+    private AggregateActorMonitor() {
+        super("quasar", "actors", "actors", null);
+        this.lastCollectTime = System.nanoTime();
+        registerMBean();
+        MonitoringServices.getInstance().addPerfNotificationListener(this, name);
+    }
+
+    /**
+     * Creates a monitor for the actor registered under the given name.
+     */
+    ActorMonitor newMonitor(Object name) {
+        return new Monitor(name.toString());
+    }
+
+    private int acquire(Monitor monitor, Actor actor) {
+        final Integer free = freeIds.poll();
+        final int id = free != null ? free : nextId.getAndIncrement();
+        final Stripe s = stripe(id);
+        final int i = id & STRIPE_MASK;
+        s.messages[i] = 0;
+        s.lastMessages[i] = 0;
+        s.messageRates[i] = 0;
+        s.skippedMessages[i] = 0;
+        s.actors[i] = new WeakReference<Actor>(actor);
+        s.owners[i] = monitor;
+        return id;
+    }
+
+    private synchronized void release(Monitor monitor, int id) {
+        final Stripe s = stripes[id >>> STRIPE_SHIFT];
+        final int i = id & STRIPE_MASK;
+        if (s.owners[i] != monitor || monitor.id != id)
+            return; // already released
+        monitor.id = -1;
+        s.owners[i] = null;
+        s.actors[i] = null;
+        freeIds.add(id);
+    }
+
+    private Stripe stripe(int id) {
+        final int k = id >>> STRIPE_SHIFT;
+        Stripe[] ss = stripes;
+        if (k < ss.length)
+            return ss[k];
+        synchronized (this) {
+            ss = stripes;
+            if (k >= ss.length) {
+                final Stripe[] grown = Arrays.copyOf(ss, k + 1);
+                for (int j = ss.length; j <= k; j++)
+                    grown[j] = new Stripe();
+                stripes = grown;
+                ss = grown;
+            }
+            return ss[k];
+        }
+    }
+
+    @Override
+    public void handleNotification(Notification notification, Object handback) {
+        if ("perfTimer".equals(notification.getType()))
+            refresh();
+    }
+
+    /**
+     * Computes message rates, and recycles the ids of actors that have been garbage collected.
+     */
+    @Override
+    public synchronized void refresh() {
+        final long now = System.nanoTime();
+        final double seconds = (now - lastCollectTime) / 1e9;
+        lastCollectTime = now;
+        final Stripe[] ss = stripes;
+        final int n = Math.min(nextId.get(), ss.length * STRIPE_SIZE);
+        for (int id = 0; id < n; id++) {
+            final Stripe s = ss[id >>> STRIPE_SHIFT];
+            final int i = id & STRIPE_MASK;
+            final Monitor owner = s.owners[i];
+            if (owner == null)
+                continue;
+            final WeakReference<Actor> ref = s.actors[i];
+            if (ref != null && ref.get() == null) {
+                release(owner, id);
+                continue;
+            }
+            final long messages = s.messages[i];
+            s.messageRates[i] = seconds > 0 ? (messages - s.lastMessages[i]) / seconds : 0;
+            s.lastMessages[i] = messages;
+        }
+    }
+
+    @Override
+    public int getActorCount() {
+        int count = 0;
+        final Stripe[] ss = stripes;
+        final int n = Math.min(nextId.get(), ss.length * STRIPE_SIZE);
+        for (int id = 0; id < n; id++) {
+            if (ss[id >>> STRIPE_SHIFT].owners[id & STRIPE_MASK] != null)
+                count++;
+        }
+        return count;
+    }
+
+    @Override
+    public long getTotalReceivedMessages() {
+        long total = 0;
+        final Stripe[] ss = stripes;
+        final int n = Math.min(nextId.get(), ss.length * STRIPE_SIZE);
+        for (int id = 0; id < n; id++) {
+            final Stripe s = ss[id >>> STRIPE_SHIFT];
+            if (s.owners[id & STRIPE_MASK] != null)
+                total += s.messages[id & STRIPE_MASK];
+        }
+        return total;
+    }
+
+    @Override
+    public long getTotalRestarts() {
+        return restartCounter.get();
+    }
+
+    @Override
+    public Map<String, Double> getTopByMessageRate() {
+        final Map<String, Double> map = new LinkedHashMap<String, Double>();
+        for (Entry e : top(MESSAGE_RATE))
+            map.put(e.name, e.value);
+        return map;
+    }
+
+    @Override
+    public Map<String, Integer> getTopByQueueLength() {
+        final Map<String, Integer> map = new LinkedHashMap<String, Integer>();
+        for (Entry e : top(QUEUE_LENGTH))
+            map.put(e.name, (int) e.value);
+        return map;
+    }
+
+    @Override
+    public Map<String, Integer> getTopBySkippedMessages() {
+        final Map<String, Integer> map = new LinkedHashMap<String, Integer>();
+        for (Entry e : top(SKIPPED_MESSAGES))
+            map.put(e.name, (int) e.value);
+        return map;
+    }
+
+    @Override
+    public long[] getMessageRateHistogram() {
+        return histogram(MESSAGE_RATE);
+    }
+
+    @Override
+    public long[] getQueueLengthHistogram() {
+        return histogram(QUEUE_LENGTH);
+    }
+
+    @Override
+    public long[] getSkippedMessagesHistogram() {
+        return histogram(SKIPPED_MESSAGES);
+    }
+
+    @Override
+    public String[] getLastDeathReasons() {
+        return deathReasons.toArray(new String[0]);
+    }
+
+    /**
+     * Returns the value of the given metric for the actor at index {@code i} of stripe {@code s}, or {@code -1} if
+     * there's no live actor there.
+     */
+    private static double value(int metric, Stripe s, int i) {
+        final WeakReference<Actor> ref = s.actors[i];
+        final Actor actor = ref != null ? ref.get() : null;
+        if (actor == null)
+            return -1;
+        switch (metric) {
+            case MESSAGE_RATE:
+                return s.messageRates[i];
+            case QUEUE_LENGTH:
+                return actor.getQueueLength();
+            case SKIPPED_MESSAGES:
+                return s.skippedMessages[i];
+            default:
+                throw new AssertionError();
+        }
+    }
+
+    private List<Entry> top(int metric) {
+        final PriorityQueue<Entry> heap = new PriorityQueue<Entry>(TOP_K + 1, ASCENDING);
+        final Stripe[] ss = stripes;
+        final int n = Math.min(nextId.get(), ss.length * STRIPE_SIZE);
+        for (int id = 0; id < n; id++) {
+            final Stripe s = ss[id >>> STRIPE_SHIFT];
+            final int i = id & STRIPE_MASK;
+            final Monitor owner = s.owners[i];
+            final double v = value(metric, s, i);
+            if (owner == null || v < 0 || (heap.size() == TOP_K && v <= heap.peek().value))
+                continue;
+            heap.add(new Entry(owner.name, v));
+            if (heap.size() > TOP_K)
+                heap.poll();
+        }
+        final List<Entry> list = new ArrayList<Entry>(heap);
+        Collections.sort(list, Collections.reverseOrder(ASCENDING));
+        return list;
+    }
+
+    private long[] histogram(int metric) {
+        final long[] histogram = new long[HISTOGRAM_BUCKETS];
+        final Stripe[] ss = stripes;
+        final int n = Math.min(nextId.get(), ss.length * STRIPE_SIZE);
+        for (int id = 0; id < n; id++) {
+            final Stripe s = ss[id >>> STRIPE_SHIFT];
+            final int i = id & STRIPE_MASK;
+            if (s.owners[i] == null)
+                continue;
+            final double v = value(metric, s, i);
+            if (v >= 0)
+                histogram[bucket(v)]++;
+        }
+        return histogram;
+    }
+
+    static int bucket(double value) {
+        if (value < 1)
+            return 0;
+        return Math.min(HISTOGRAM_BUCKETS - 1, 64 - Long.numberOfLeadingZeros((long) value));
+    }
+
+    private static final class Stripe {
+        final long[] messages = new long[STRIPE_SIZE];
+        final long[] lastMessages = new long[STRIPE_SIZE];
+        final double[] messageRates = new double[STRIPE_SIZE];
+        final int[] skippedMessages = new int[STRIPE_SIZE];
+        final WeakReference<Actor>[] actors = new WeakReference[STRIPE_SIZE];
+        final Monitor[] owners = new Monitor[STRIPE_SIZE];
+    }
+
+    private static final class Entry {
+        final String name;
+        final double value;
+
+        Entry(String name, double value) {
+            this.name = name;
+            this.value = value;
+        }
+    }
+    private static final Comparator<Entry> ASCENDING = new Comparator<Entry>() {
+        @Override
+        public int compare(Entry o1, Entry o2) {
+            return Double.compare(o1.value, o2.value);
+        }
+    };
+
+    private final class Monitor implements ActorMonitor {
+        final String name;
+        volatile int id = -1;
+
+        Monitor(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public long nanoTime() {
+            return System.nanoTime();
+        }
+
+        @Override
+        public void setActor(Actor actor) {
+            final int current = id;
+            if (current >= 0)
+                release(this, current);
+            if (actor != null)
+                id = acquire(this, actor);
+        }
+
+        @Override
+        public void addDeath(Object reason) {
+            if (reason == null)
+                reason = "normal";
+            while (deathReasons.size() > 20)
+                deathReasons.poll();
+            deathReasons.add(name + ": " + reason);
+        }
+
+        @Override
+        public void addRestart() {
+            restartCounter.inc();
+        }
+
+        @Override
+        public void addMessage() {
+            final int i = id;
+            if (i >= 0)
+                stripes[i >>> STRIPE_SHIFT].messages[i & STRIPE_MASK]++;
+        }
+
+        @Override
+        public void skippedMessage() {
+            final int i = id;
+            if (i >= 0)
+                stripes[i >>> STRIPE_SHIFT].skippedMessages[i & STRIPE_MASK]++;
+        }
+
+        @Override
+        public void resetSkippedMessages() {
+            final int i = id;
+            if (i >= 0)
+                stripes[i >>> STRIPE_SHIFT].skippedMessages[i & STRIPE_MASK] = 0;
+        }
+    }
+}
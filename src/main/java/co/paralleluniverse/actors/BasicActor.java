@@ -17,6 +17,11 @@ import co.paralleluniverse.fibers.SuspendExecution;
 import co.paralleluniverse.fibers.TimeoutException;
 import co.paralleluniverse.strands.Strand;
 import co.paralleluniverse.strands.channels.Mailbox;
+import co.paralleluniverse.strands.channels.OverflowPolicy;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -25,11 +30,23 @@ import java.util.concurrent.TimeUnit;
  */
 public abstract class BasicActor<Message, V> extends Actor<Message, V> {
     private Message currentMessage; // this works because channel is single-consumer
+    // selective receive: all messages up to and including scanPosition have been rejected by scanProcessor
+    private MessageProcessor<Message> scanProcessor;
+    private Object scanPosition;
+    private Object scanPositionMessage;
+    // receive by key: all messages up to and including indexPosition have been indexed
+    private Map<Object, ArrayDeque<Object>> index;
+    private Object indexPosition;
+    private Object indexPositionMessage;
 
     public BasicActor(String name, int mailboxSize) {
         super(name, mailboxSize);
     }
 
+    public BasicActor(String name, int mailboxSize, OverflowPolicy overflowPolicy) {
+        super(name, mailboxSize, overflowPolicy);
+    }
+
     public BasicActor(int mailboxSize) {
         this((String) null, mailboxSize);
     }
@@ -56,6 +73,33 @@ public abstract class BasicActor<Message, V> extends Actor<Message, V> {
      * @throws LwtInterruptedException
      */
     public Message receive(long timeout, TimeUnit unit, MessageProcessor<Message> proc) throws SuspendExecution, InterruptedException {
+        return receive(timeout, unit, proc, false);
+    }
+
+    /**
+     * Like {@link #receive(long, TimeUnit, MessageProcessor) receive}, but when called again with the same processor,
+     * skips the messages that processor has already rejected, so that only newly arrived messages are examined.
+     * The processor must therefore always give the same answer for the same message.
+     * <p/>
+     * <b>The scan position is tied to the processor instance</b>: pass the same instance on every call (e.g. keep it in
+     * a field), because a processor created anew for each call, such as an anonymous class instantiated at the call
+     * site, makes every call scan the mailbox from its head, just like {@link #receive(long, TimeUnit, MessageProcessor) receive}.
+     * <p/>
+     * Only unbounded mailboxes retain the scan position; a bounded mailbox is scanned from its head.
+     */
+    public Message selectiveReceive(long timeout, TimeUnit unit, MessageProcessor<Message> proc) throws SuspendExecution, InterruptedException {
+        return receive(timeout, unit, proc, true);
+    }
+
+    /**
+     * Like {@link #selectiveReceive(long, TimeUnit, MessageProcessor) selectiveReceive} with no timeout; the same
+     * processor instance must be passed on every call.
+     */
+    public Message selectiveReceive(MessageProcessor<Message> proc) throws SuspendExecution, InterruptedException {
+        return receive(0, null, proc, true);
+    }
+
+    private Message receive(long timeout, TimeUnit unit, MessageProcessor<Message> proc, boolean resume) throws SuspendExecution, InterruptedException {
         checkThrownIn();
         final Mailbox<Object> mailbox = mailbox();
         mailbox.maybeSetCurrentStrandAsOwner();
@@ -64,20 +108,24 @@ public abstract class BasicActor<Message, V> extends Actor<Message, V> {
         long now;
         long left = unit != null ? unit.toNanos(timeout) : 0;
 
+        final boolean remember = resume && mailbox.allowRetainPointers();
         monitorResetSkippedMessages();
         Object n = null;
+        if (remember && proc == scanProcessor && scanPosition != null && mailbox.value(scanPosition) == scanPositionMessage)
+            n = scanPosition;
         for (;;) {
             if (flightRecorder != null)
                 record(1, "Actor", "receive", "%s waiting for a message. %s", this, timeout > 0 ? "millis left: " + TimeUnit.MILLISECONDS.convert(left, TimeUnit.NANOSECONDS) : "");
 
             mailbox.lock();
-            n = mailbox.succ(n);
+            final Object next = mailbox.succ(n);
 
-            if (n != null) {
+            if (next != null) {
+                n = next; // n is kept across wakeups, so that only newly arrived messages are scanned
                 mailbox.unlock();
                 final Object m = mailbox.value(n);
                 if (m == currentMessage) {
-                    mailbox.del(n);
+                    n = del(n);
                     continue;
                 }
 
@@ -86,21 +134,26 @@ public abstract class BasicActor<Message, V> extends Actor<Message, V> {
                 try {
                     if (m instanceof LifecycleMessage) {
                         handleLifecycleMessage((LifecycleMessage) m);
-                        mailbox.del(n);
+                        n = del(n);
                     } else {
                         final Message msg = (Message) m;
                         currentMessage = msg;
                         if (proc.process(msg)) {
                             if (mailbox.value(n) == msg) // another call to receive from within the processor may have deleted n
-                                mailbox.del(n);
+                                del(n);
                             return msg;
                         }
                         monitorSkippedMessage();
+                        if (remember) {
+                            scanProcessor = proc;
+                            scanPosition = n;
+                            scanPositionMessage = msg;
+                        }
                     }
 
                 } catch (Exception e) {
                     if (mailbox.value(n) == m) // another call to receive from within the processor may have deleted n
-                        mailbox.del(n);
+                        del(n);
                     throw e;
                 }
             } else {
@@ -126,4 +179,224 @@ public abstract class BasicActor<Message, V> extends Actor<Message, V> {
     public Message receive(MessageProcessor<Message> proc) throws SuspendExecution, InterruptedException {
         return receive(0, null, proc);
     }
+
+    @Override
+    protected Message receive() throws SuspendExecution, InterruptedException {
+        return unindexHead(super.receive());
+    }
+
+    @Override
+    protected Message receive(long timeout, TimeUnit unit) throws SuspendExecution, InterruptedException {
+        return unindexHead(super.receive(timeout, unit));
+    }
+
+    @Override
+    protected Message tryReceive() {
+        return unindexHead(super.tryReceive());
+    }
+
+    /**
+     * Returns the key by which {@link #receiveByKey(Object, long, TimeUnit) receiveByKey} finds messages, e.g. a
+     * correlation id. Messages with a {@code null} key are not indexed.
+     * <p/>
+     * Returns {@code null} by default.
+     */
+    protected Object messageKey(Message m) {
+        return null;
+    }
+
+    /**
+     * Receives the first message whose {@link #messageKey(Object) key} equals the given one.
+     * <p/>
+     * Each message is examined once, when it is added to an index of the mailbox by key, so a lookup doesn't scan
+     * messages that have been skipped before. Only unbounded mailboxes can be indexed; a bounded mailbox is scanned.
+     */
+    public Message receiveByKey(final Object key, long timeout, TimeUnit unit) throws SuspendExecution, InterruptedException {
+        checkThrownIn();
+        final Mailbox<Object> mailbox = mailbox();
+        if (!mailbox.allowRetainPointers()) {
+            return receive(timeout, unit, new MessageProcessor<Message>() {
+                @Override
+                public boolean process(Message m) {
+                    return key.equals(messageKey(m));
+                }
+            });
+        }
+        mailbox.maybeSetCurrentStrandAsOwner();
+
+        final long start = timeout > 0 ? System.nanoTime() : 0;
+        long now;
+        long left = unit != null ? unit.toNanos(timeout) : 0;
+
+        for (;;) {
+            final Object n = takeIndexed(key);
+            if (n != null) {
+                final Message msg = (Message) mailbox.value(n);
+                del(n);
+                record(1, "Actor", "receiveByKey", "Received %s <- %s", this, msg);
+                monitorAddMessage(); // counted only once taken, as a message may be indexed long before
+                return msg;
+            }
+
+            if (flightRecorder != null)
+                record(1, "Actor", "receiveByKey", "%s waiting for a message with key %s. %s", this, key, timeout > 0 ? "millis left: " + TimeUnit.MILLISECONDS.convert(left, TimeUnit.NANOSECONDS) : "");
+
+            mailbox.lock();
+            try {
+                if (!isIndexValid() || mailbox.succ(indexPosition) != null)
+                    continue; // new messages have arrived since we've last looked
+                if (timeout > 0) {
+                    mailbox.await(left, TimeUnit.NANOSECONDS);
+
+                    now = System.nanoTime();
+                    left = start + unit.toNanos(timeout) - now;
+                    if (left <= 0) {
+                        record(1, "Actor", "receiveByKey", "%s timed out.", this);
+                        throw new TimeoutException();
+                    }
+                } else
+                    mailbox.await();
+            } finally {
+                mailbox.unlock();
+            }
+        }
+    }
+
+    public Message receiveByKey(Object key) throws SuspendExecution, InterruptedException {
+        return receiveByKey(key, 0, null);
+    }
+
+    private Object takeIndexed(Object key) {
+        indexNewMessages();
+        final ArrayDeque<Object> nodes = index.get(key);
+        if (nodes == null)
+            return null;
+        final Mailbox<Object> mailbox = mailbox();
+        Object n;
+        while ((n = nodes.poll()) != null) {
+            final Object m = mailbox.value(n);
+            if (m != null && key.equals(messageKey((Message) m))) { // the message may have been received by other means
+                if (nodes.isEmpty())
+                    index.remove(key);
+                return n;
+            }
+        }
+        index.remove(key);
+        return null;
+    }
+
+    private void indexNewMessages() {
+        if (index == null)
+            index = new HashMap<Object, ArrayDeque<Object>>();
+        if (!isIndexValid())
+            clearIndex();
+        final Mailbox<Object> mailbox = mailbox();
+        Object n = indexPosition;
+        try {
+            for (;;) {
+                final Object next = mailbox.succ(n);
+                if (next == null)
+                    break;
+                final Object m = mailbox.value(next);
+                if (m instanceof LifecycleMessage) {
+                    mailbox.del(next);
+                    monitorAddMessage();
+                    handleLifecycleMessage((LifecycleMessage) m);
+                    continue;
+                }
+                final Object key = messageKey((Message) m);
+                if (key != null) {
+                    ArrayDeque<Object> nodes = index.get(key);
+                    if (nodes == null) {
+                        nodes = new ArrayDeque<Object>(2);
+                        index.put(key, nodes);
+                    }
+                    nodes.add(next);
+                }
+                n = next;
+            }
+        } finally {
+            indexPosition = n;
+            indexPositionMessage = n != null ? mailbox.value(n) : null;
+        }
+    }
+
+    /**
+     * Deletes a message from the mailbox, and from the index if it's been indexed.
+     *
+     * @return the node preceding {@code n}
+     */
+    private Object del(Object n) {
+        final Mailbox<Object> mailbox = mailbox();
+        final Object m = mailbox.value(n);
+        final Object prev = mailbox.del(n);
+        if (index != null && indexPosition != null) {
+            if (n == indexPosition) {
+                if (prev == null) {
+                    clearIndex(); // n was the head, so all other indexed messages are gone
+                    return prev;
+                }
+                indexPosition = prev;
+                indexPositionMessage = mailbox.value(prev);
+            }
+            if (!(m instanceof LifecycleMessage))
+                unindex((Message) m);
+        }
+        return prev;
+    }
+
+    /**
+     * Called after a message has been taken from the head of the mailbox without going through the index.
+     */
+    private Message unindexHead(Message m) {
+        if (m != null && index != null && indexPosition != null) {
+            if (!isIndexValid())
+                clearIndex(); // m was the last indexed message, so all indexed messages are gone
+            else
+                unindex(m);
+        }
+        return m;
+    }
+
+    /**
+     * Removes the deleted messages from the index entry of {@code m}'s key. Otherwise, the deleted nodes would be kept
+     * until the key is looked up, and each would keep all nodes that follow it from being collected.
+     */
+    private void unindex(Message m) {
+        final Object key = messageKey(m);
+        if (key == null)
+            return;
+        final ArrayDeque<Object> nodes = index.get(key);
+        if (nodes == null)
+            return;
+        final Mailbox<Object> mailbox = mailbox();
+        for (Iterator<Object> it = nodes.iterator(); it.hasNext();) {
+            if (mailbox.value(it.next()) == null)
+                it.remove();
+        }
+        if (nodes.isEmpty())
+            index.remove(key);
+    }
+
+    /**
+     * Returns the number of messages in the receive-by-key index. Used by tests.
+     */
+    int getIndexSize() {
+        if (index == null)
+            return 0;
+        int size = 0;
+        for (ArrayDeque<Object> nodes : index.values())
+            size += nodes.size();
+        return size;
+    }
+
+    private boolean isIndexValid() {
+        return indexPosition == null || mailbox().value(indexPosition) == indexPositionMessage;
+    }
+
+    private void clearIndex() {
+        index.clear();
+        indexPosition = null;
+        indexPositionMessage = null;
+    }
 }
@@ -0,0 +1,125 @@
+/*
+ * Quasar: lightweight threads and actors for the JVM.
+ * Copyright (C) 2013, Parallel Universe Software Co. All rights reserved.
+ *
+ * This program and the accompanying materials are dual-licensed under
+ * either the terms of the Eclipse Public License v1.0 as published by
+ * the Eclipse Foundation
+ *
+ *   or (per the licensee's choosing)
+ *
+ * under the terms of the GNU Lesser General Public License version 3.0
+ * as published by the Free Software Foundation.
+ */
+package co.paralleluniverse.actors;
+
+import co.paralleluniverse.concurrent.util.UtilUnsafe;
+import co.paralleluniverse.fibers.SuspendExecution;
+import co.paralleluniverse.fibers.TimeoutException;
+import co.paralleluniverse.strands.Strand;
+import java.util.concurrent.TimeUnit;
+import sun.misc.Unsafe;
+
+/**
+ * Receives the replies to {@link Actor#call(Actor, RequestMessage, long, TimeUnit) calls} made by a single strand.
+ * A strand makes one call at a time, so the slot is reused by all of its calls, and each call is told apart by an id
+ * taken from a strand-local counter.
+ *
+ * @author pron
+ */
+final class ReplySlot {
+    private static final ThreadLocal<ReplySlot> slot = new ThreadLocal<ReplySlot>(); // fibers have their own thread locals
+    private final Strand strand;
+    private long lastId;
+    private volatile long pendingId; // the id of the call we're waiting for, or 0 once a reply has been claimed
+    private volatile long completedId;
+    private Object result;
+    private Throwable exception;
+
+    private ReplySlot(Strand strand) {
+        this.strand = strand;
+    }
+
+    static ReplySlot forCurrentStrand() {
+        final Actor actor = Actor.currentActor();
+        if (actor != null)
+            return actor.replySlot();
+        ReplySlot s = slot.get();
+        if (s == null) {
+            s = newSlot();
+            slot.set(s);
+        }
+        return s;
+    }
+
+    static ReplySlot newSlot() {
+        return new ReplySlot(Strand.currentStrand());
+    }
+
+    long newCall() {
+        final long id = ++lastId;
+        result = null;
+        exception = null;
+        pendingId = id;
+        return id;
+    }
+
+    void complete(long id, Object result, Throwable exception) {
+        if (!compareAndSetPendingId(id, 0))
+            return; // a late reply to a call that has timed out, or a second reply
+        this.result = result;
+        this.exception = exception;
+        completedId = id; // publishes result and exception
+        strand.unpark();
+    }
+
+    Object await(long id, long timeout, TimeUnit unit) throws SuspendExecution, InterruptedException {
+        final long deadline = timeout > 0 && unit != null ? System.nanoTime() + unit.toNanos(timeout) : 0;
+        boolean interrupted = false;
+        while (completedId != id) {
+            long left = 0;
+            if (deadline != 0) {
+                left = deadline - System.nanoTime();
+                if (left <= 0 && compareAndSetPendingId(id, 0))
+                    throw new TimeoutException();
+                // otherwise a reply has been claimed, and will be published momentarily
+            }
+            Strand.park(this, left, TimeUnit.NANOSECONDS);
+            if (Strand.interrupted()) {
+                if (compareAndSetPendingId(id, 0))
+                    throw new InterruptedException();
+                interrupted = true; // a reply has been claimed; we'll take it and restore the interrupt status
+            }
+        }
+        if (interrupted)
+            strand.interrupt();
+        final Object r = result;
+        final Throwable e = exception;
+        result = null;
+        exception = null;
+        if (e != null) {
+            if (e instanceof RuntimeException)
+                throw (RuntimeException) e;
+            if (e instanceof Error)
+                throw (Error) e;
+            throw new RuntimeException(e);
+        }
+        return r;
+    }
+
+    ////////////////////////////////////////////////////////////////////////
+    private static final Unsafe unsafe = UtilUnsafe.getUnsafe();
+    private static final long pendingIdOffset;
+
+    static {
+        try {
+            pendingIdOffset = unsafe.objectFieldOffset(ReplySlot.class.getDeclaredField("pendingId"));
+        } catch (Exception ex) {
+            throw new Error(ex);
+        }
+    }
+
+    private boolean compareAndSetPendingId(long expect, long update) {
+        return unsafe.compareAndSwapLong(this, pendingIdOffset, expect, update);
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ * Quasar: lightweight threads and actors for the JVM.
+ * Copyright (C) 2013, Parallel Universe Software Co. All rights reserved.
+ *
+ * This program and the accompanying materials are dual-licensed under
+ * either the terms of the Eclipse Public License v1.0 as published by
+ * the Eclipse Foundation
+ *
+ *   or (per the licensee's choosing)
+ *
+ * under the terms of the GNU Lesser General Public License version 3.0
+ * as published by the Free Software Foundation.
+ */
+package co.paralleluniverse.actors;
+
+/**
+ * A message sent with {@link Actor#call(Actor, RequestMessage, long, TimeUnit) Actor.call}. The receiving actor answers
+ * it with {@link #reply(Object) reply} or {@link #replyError(Throwable) replyError}, which hand the result directly
+ * to the waiting caller rather than through its mailbox.
+ *
+ * @author pron
+ */
+public class RequestMessage<V> {
+    private ReplySlot replySlot;
+    private long id;
+
+    void setReplySlot(ReplySlot replySlot, long id) {
+        this.replySlot = replySlot;
+        this.id = id;
+    }
+
+    /**
+     * The correlation id of this request, unique among the calls made by the calling strand.
+     */
+    public long getId() {
+        return id;
+    }
+
+    public void reply(V result) {
+        complete(result, null);
+    }
+
+    public void replyError(Throwable exception) {
+        complete(null, exception);
+    }
+
+    /**
+     * Fails the call waiting for this request, if any, as the request will never be received.
+     */
+    void dropped(RuntimeException exception) {
+        final ReplySlot s = replySlot;
+        if (s != null)
+            s.complete(id, null, exception);
+    }
+
+    private void complete(Object result, Throwable exception) {
+        final ReplySlot s = replySlot;
+        if (s == null)
+            throw new IllegalStateException("Request " + this + " has not been sent with Actor.call");
+        s.complete(id, result, exception);
+    }
+}
@@ -13,16 +13,23 @@
  */
 package co.paralleluniverse.common.monitoring;
 
+import co.paralleluniverse.common.util.Debug;
+import co.paralleluniverse.concurrent.util.UtilUnsafe;
+import java.io.File;
 import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.PrintStream;
 import java.text.MessageFormat;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
 import java.util.zip.GZIPOutputStream;
 import jsr166e.ConcurrentHashMapV8;
+import sun.misc.Unsafe;
 
 /**
  *
@@ -31,12 +38,20 @@ import jsr166e.ConcurrentHashMapV8;
 public class FlightRecorder extends SimpleMBean implements FlightRecorderMXBean {
     private static final int DEFAULT_SIZE = Integer.getInteger("co.paralleluniverse.monitoring.flightRecorderSize", 20000);
     private static final int DEFAULT_LEVEL = Integer.getInteger("co.paralleluniverse.monitoring.flightRecorderLevel", 5);
+    private static final int MAX_ARGS = 7; // messages with more arguments than that are allocated
+    private static final int RECORDER_CACHE_SIZE = 256; // must be a power of 2
+    private static final long STREAM_FILE_SIZE = Long.getLong("co.paralleluniverse.monitoring.flightRecorderStreamFileSize", 64 * 1024 * 1024);
+    private static final int STREAM_FILES = Integer.getInteger("co.paralleluniverse.monitoring.flightRecorderStreamFiles", 16);
+    private static final long STREAM_PERIOD_MILLIS = Long.getLong("co.paralleluniverse.monitoring.flightRecorderStreamPeriod", 500);
     private final ConcurrentMap<Thread, ThreadRecorder> recorders = new ConcurrentHashMapV8<Thread, ThreadRecorder>();
-    //private final ThreadLocal<ThreadRecorder> threadRecorder = new ThreadLocal<ThreadRecorder>();
+    // We can't use a ThreadLocal, as fibers swap their carrier thread's thread-locals.
+    // Instead, we keep a direct-mapped cache indexed by thread id, and fall back to the map on a miss.
+    private final ThreadRecorder[] recorderCache = new ThreadRecorder[RECORDER_CACHE_SIZE];
     private final long startWallTime;
     private final long startTimestamp;
     private boolean recording = true;
     private Object aux;
+    private FlightRecorderStreamer streamer;
 
     public FlightRecorder(String name) {
         super(null, name, "FlightRecorder", null);
@@ -47,12 +62,25 @@ public class FlightRecorder extends SimpleMBean implements FlightRecorderMXBean
 
     public void clear() {
         recorders.clear();
+        Arrays.fill(recorderCache, null);
     }
 
     public void setAux(Object aux) {
         this.aux = aux;
     }
 
+    long getStartWallTime() {
+        return startWallTime;
+    }
+
+    long getStartTimestamp() {
+        return startTimestamp;
+    }
+
+    Collection<ThreadRecorder> getThreadRecorders() {
+        return recorders.values();
+    }
+
     public ThreadRecorder init(int size, int level) {
         if(!recording)
             return null;
@@ -70,48 +98,101 @@ public class FlightRecorder extends SimpleMBean implements FlightRecorderMXBean
     }
 
     public ThreadRecorder get() {
-        ThreadRecorder recorder = recorders.get(Thread.currentThread()); // threadRecorder.get();
-        if (recorder == null)
-            return init(DEFAULT_SIZE, DEFAULT_LEVEL);
-        else
+        final Thread thread = Thread.currentThread();
+        final int index = (int) thread.getId() & (RECORDER_CACHE_SIZE - 1);
+        ThreadRecorder recorder = recorderCache[index];
+        if (recorder != null && recorder.myThread == thread)
             return recorder;
+
+        recorder = recorders.get(thread);
+        if (recorder == null)
+            recorder = init(DEFAULT_SIZE, DEFAULT_LEVEL);
+        if (recorder != null)
+            recorderCache[index] = recorder;
+        return recorder;
+    }
+
+    public boolean recordsLevel(int level) {
+        final ThreadRecorder recorder = get();
+        return recorder != null && recorder.recordsLevel(level);
     }
 
     public void record(int level, Object payload) {
-        get().record(level, payload);
+        final ThreadRecorder recorder = get();
+        if (recorder != null)
+            recorder.record(level, payload);
     }
 
     public void record(int level, Object... payload) {
-        get().record(level, payload);
+        final ThreadRecorder recorder = get();
+        if (recorder != null)
+            recorder.record(level, payload);
+    }
+
+    public void record(int level, String clazz, String method, String format) {
+        final ThreadRecorder recorder = get();
+        if (recorder != null)
+            recorder.record(level, clazz, method, format);
+    }
+
+    public void record(int level, String clazz, String method, String format, Object arg1) {
+        final ThreadRecorder recorder = get();
+        if (recorder != null)
+            recorder.record(level, clazz, method, format, arg1);
+    }
+
+    public void record(int level, String clazz, String method, String format, Object arg1, Object arg2) {
+        final ThreadRecorder recorder = get();
+        if (recorder != null)
+            recorder.record(level, clazz, method, format, arg1, arg2);
+    }
+
+    public void record(int level, String clazz, String method, String format, Object arg1, Object arg2, Object arg3) {
+        final ThreadRecorder recorder = get();
+        if (recorder != null)
+            recorder.record(level, clazz, method, format, arg1, arg2, arg3);
+    }
+
+    public void record(int level, String clazz, String method, String format, Object arg1, Object arg2, Object arg3, Object arg4) {
+        final ThreadRecorder recorder = get();
+        if (recorder != null)
+            recorder.record(level, clazz, method, format, arg1, arg2, arg3, arg4);
+    }
+
+    public void record(int level, String clazz, String method, String format, Object arg1, Object arg2, Object arg3, Object arg4, Object arg5) {
+        final ThreadRecorder recorder = get();
+        if (recorder != null)
+            recorder.record(level, clazz, method, format, arg1, arg2, arg3, arg4, arg5);
     }
     //////////////////////////////////////////////
 
+    /**
+     * A thread's ring of records.
+     * All records are preallocated, and {@link FlightRecorderMessage}s are only created when the records are read, so
+     * the {@code record(level, clazz, method, format, ...)} methods don't allocate (unless stack traces are recorded).
+     */
     public class ThreadRecorder {
         private final Thread myThread;
         private Object aux;
         private final int level;
-        //private final long startTime;
-        //private final long startTimestamp;
         private final long[] timestamps;
-        private final Object[] payloads;
+        private final RecordSlot[] slots;
         private int totalRecs;
         private int head; // points to earliest entry available for reading
         private int tail; // points to slot where next record will be written
-//    private volatile boolean sync = true;
-//    private boolean recording;
+        private volatile long published; // the number of complete records; written only by myThread
 
         private ThreadRecorder(int size, int level, Object aux) {
             this.myThread = Thread.currentThread();
             this.aux = aux;
             this.level = level;
             timestamps = new long[size];
-            payloads = new Object[size];
+            slots = new RecordSlot[size];
+            for (int i = 0; i < size; i++)
+                slots[i] = new RecordSlot();
             head = 0;
             tail = 0;
             totalRecs = 0;
-            //startTimestamp = System.nanoTime();
-            //startTime = System.currentTimeMillis();
-//        recording = true;
         }
 
         public void setAux(Object aux) {
@@ -133,6 +214,21 @@ public class FlightRecorder extends SimpleMBean implements FlightRecorderMXBean
             return totalRecs;
         }
 
+        long getPublished() {
+            return published;
+        }
+
+        int capacity() {
+            return timestamps.length;
+        }
+
+        /**
+         * Tests whether a record of the given level would be recorded, so that callers can avoid preparing its arguments.
+         */
+        public boolean recordsLevel(int level) {
+            return recording && level <= this.level;
+        }
+
         private int next(int num) {
             num++;
             if (num == timestamps.length)
@@ -144,24 +240,266 @@ public class FlightRecorder extends SimpleMBean implements FlightRecorderMXBean
             return next(i) == tail;
         }
 
-        public void record(int level, Object obj) {
+        private Object payload(int i) {
+            return slots[i].payload();
+        }
+
+        private RecordSlot nextSlot(int level) {
             assert Thread.currentThread() == myThread : "my thread: " + myThread.getName() + " current thread: " + Thread.currentThread().getName();
             if (!recording)
-                return;
+                return null;
             if (level > this.level)
-                return;
+                return null;
             totalRecs++;
+            final RecordSlot slot = slots[tail];
+            slot.beginWrite();
             timestamps[tail] = System.nanoTime();
-            payloads[tail] = obj;
             tail = next(tail);
             if (tail == head)
                 head = next(head);
-//        sync = true;
+            return slot;
+        }
+
+        public void record(int level, Object obj) {
+            final RecordSlot slot = nextSlot(level);
+            if (slot != null) {
+                slot.setPayload(obj);
+                commit(slot);
+            }
         }
 
         public void record(int level, Object... objs) {
             record(level, (Object) objs);
         }
+
+        public void record(int level, String clazz, String method, String format) {
+            final RecordSlot slot = nextSlot(level);
+            if (slot != null) {
+                slot.setMessage(clazz, method, format, 0);
+                commit(slot);
+            }
+        }
+
+        public void record(int level, String clazz, String method, String format, Object arg1) {
+            final RecordSlot slot = nextSlot(level);
+            if (slot != null) {
+                slot.setArg(0, arg1);
+                slot.setMessage(clazz, method, format, 1);
+                commit(slot);
+            }
+        }
+
+        public void record(int level, String clazz, String method, String format, Object arg1, Object arg2) {
+            final RecordSlot slot = nextSlot(level);
+            if (slot != null) {
+                slot.setArg(0, arg1);
+                slot.setArg(1, arg2);
+                slot.setMessage(clazz, method, format, 2);
+                commit(slot);
+            }
+        }
+
+        public void record(int level, String clazz, String method, String format, Object arg1, Object arg2, Object arg3) {
+            final RecordSlot slot = nextSlot(level);
+            if (slot != null) {
+                slot.setArg(0, arg1);
+                slot.setArg(1, arg2);
+                slot.setArg(2, arg3);
+                slot.setMessage(clazz, method, format, 3);
+                commit(slot);
+            }
+        }
+
+        public void record(int level, String clazz, String method, String format, Object arg1, Object arg2, Object arg3, Object arg4) {
+            final RecordSlot slot = nextSlot(level);
+            if (slot != null) {
+                slot.setArg(0, arg1);
+                slot.setArg(1, arg2);
+                slot.setArg(2, arg3);
+                slot.setArg(3, arg4);
+                slot.setMessage(clazz, method, format, 4);
+                commit(slot);
+            }
+        }
+
+        public void record(int level, String clazz, String method, String format, Object arg1, Object arg2, Object arg3, Object arg4, Object arg5) {
+            final RecordSlot slot = nextSlot(level);
+            if (slot != null) {
+                slot.setArg(0, arg1);
+                slot.setArg(1, arg2);
+                slot.setArg(2, arg3);
+                slot.setArg(3, arg4);
+                slot.setArg(4, arg5);
+                slot.setMessage(clazz, method, format, 5);
+                commit(slot);
+            }
+        }
+
+        public void record(int level, String clazz, String method, String format, Object arg1, Object arg2, Object arg3, Object arg4, Object arg5, Object arg6) {
+            final RecordSlot slot = nextSlot(level);
+            if (slot != null) {
+                slot.setArg(0, arg1);
+                slot.setArg(1, arg2);
+                slot.setArg(2, arg3);
+                slot.setArg(3, arg4);
+                slot.setArg(4, arg5);
+                slot.setArg(5, arg6);
+                slot.setMessage(clazz, method, format, 6);
+                commit(slot);
+            }
+        }
+
+        public void record(int level, String clazz, String method, String format, Object arg1, Object arg2, Object arg3, Object arg4, Object arg5, Object arg6, Object arg7) {
+            final RecordSlot slot = nextSlot(level);
+            if (slot != null) {
+                slot.setArg(0, arg1);
+                slot.setArg(1, arg2);
+                slot.setArg(2, arg3);
+                slot.setArg(3, arg4);
+                slot.setArg(4, arg5);
+                slot.setArg(5, arg6);
+                slot.setArg(6, arg7);
+                slot.setMessage(clazz, method, format, 7);
+                commit(slot);
+            }
+        }
+
+        public void record(int level, String clazz, String method, String format, Object... args) {
+            final RecordSlot slot = nextSlot(level);
+            if (slot == null)
+                return;
+            if (args == null)
+                slot.setMessage(clazz, method, format, 0);
+            else if (args.length <= MAX_ARGS) {
+                for (int i = 0; i < args.length; i++)
+                    slot.setArg(i, args[i]);
+                slot.setMessage(clazz, method, format, args.length);
+            } else
+                slot.setPayload(new FlightRecorderMessage(clazz, method, format, args));
+            commit(slot);
+        }
+
+        private void commit(RecordSlot slot) {
+            slot.endWrite();
+            unsafe.putOrderedLong(this, publishedOffset, published + 1);
+        }
+
+        /**
+         * Writes this thread's records, starting with record number {@code from}, that are still in the ring.
+         * May be called by any thread while recording is going on; records overwritten while being copied are skipped, as
+         * told by their slot's sequence stamp.
+         *
+         * @return the number of the first record that hasn't been written
+         */
+        long writeTo(FlightRecorderBinaryWriter writer, long from) throws IOException {
+            final int size = timestamps.length;
+            final long end = published;
+            final int threadId = writer.thread(myThread, totalRecs);
+            final RecordSlot copy = writer.scratch;
+            for (long s = Math.max(from, end - (size - 1)); s < end; s++) {
+                final int i = (int) (s % size);
+                final RecordSlot slot = slots[i];
+                final long seq = RecordSlot.seqOf(s, size);
+                if (slot.seq != seq)
+                    continue; // overwritten, or being overwritten
+                final long timestamp = timestamps[i];
+                copy.copyFrom(slot);
+                if (!slot.isUnchanged(seq))
+                    continue; // overwritten while we were copying it
+                writer.record(threadId, i, timestamp, copy);
+            }
+            return end;
+        }
+    }
+
+    /**
+     * A mutable, reusable record in a {@link ThreadRecorder}'s ring.
+     */
+    static final class RecordSlot {
+        // a seqlock guarding the slot against readers: odd while the slot is being written, and 2 * the number of times
+        // it's been written otherwise. Written only by the recording thread.
+        volatile long seq;
+        final Object[] args = new Object[MAX_ARGS];
+        int numArgs;
+        boolean message;
+        Object payload;
+        String clazz;
+        String method;
+        String format;
+        StackTraceElement[] stackTrace;
+
+        /**
+         * The sequence stamp of a slot once record number {@code recordNumber} has been written into it.
+         */
+        static long seqOf(long recordNumber, int ringSize) {
+            return 2 * (recordNumber / ringSize + 1);
+        }
+
+        void beginWrite() {
+            // a CAS, rather than a volatile write, so that the record's writes can't be reordered before it
+            final long s = seq;
+            unsafe.compareAndSwapLong(this, seqOffset, s, s + 1); // never fails, as readers don't change seq
+        }
+
+        void endWrite() {
+            unsafe.putOrderedLong(this, seqOffset, seq + 1);
+        }
+
+        /**
+         * Tests whether the slot's stamp is still {@code seq}, after the slot has been read.
+         * A CAS, rather than a volatile read, so that the slot's reads can't be reordered after it.
+         */
+        boolean isUnchanged(long seq) {
+            return unsafe.compareAndSwapLong(this, seqOffset, seq, seq);
+        }
+
+        void setPayload(Object payload) {
+            this.message = false;
+            this.payload = payload;
+            this.clazz = null;
+            this.method = null;
+            this.format = null;
+            this.stackTrace = null;
+            setNumArgs(0);
+        }
+
+        void setArg(int i, Object arg) {
+            args[i] = FlightRecorderMessage.toRecordingDouble(arg);
+        }
+
+        void setMessage(String clazz, String method, String format, int numArgs) {
+            this.message = true;
+            this.payload = null;
+            this.clazz = clazz;
+            this.method = method;
+            this.format = format;
+            this.stackTrace = (Debug.isRecordStackTraces() ? Thread.currentThread().getStackTrace() : null);
+            setNumArgs(numArgs);
+        }
+
+        void copyFrom(RecordSlot other) {
+            final int n = other.numArgs;
+            System.arraycopy(other.args, 0, args, 0, n);
+            this.message = other.message;
+            this.payload = other.payload;
+            this.clazz = other.clazz;
+            this.method = other.method;
+            this.format = other.format;
+            this.stackTrace = other.stackTrace;
+            setNumArgs(n);
+        }
+
+        private void setNumArgs(int n) {
+            for (int i = n; i < numArgs; i++)
+                args[i] = null; // don't retain arguments of an overwritten record
+            this.numArgs = n;
+        }
+
+        Object payload() {
+            if (!message)
+                return payload;
+            return new FlightRecorderMessage(clazz, method, format, numArgs > 0 ? Arrays.copyOf(args, numArgs) : null, stackTrace);
+        }
     }
 
     public void stop() {
@@ -197,7 +535,7 @@ public class FlightRecorder extends SimpleMBean implements FlightRecorderMXBean
                     private void readNext(int index) {
                         ThreadRecorder tr = trs[index];
                         int i = is[index];
-                        if ((i < 0 && tr.numOfElements() == 0) || tr.isLast(i)) {
+                        if (i < 0 ? tr.numOfElements() == 0 : tr.isLast(i)) {
                             is[index] = -1;
                             ts[index] = Long.MAX_VALUE;
                             ps[index] = null;
@@ -205,7 +543,7 @@ public class FlightRecorder extends SimpleMBean implements FlightRecorderMXBean
                             i = (i < 0 ? tr.head : tr.next(i));
                             is[index] = i;
                             ts[index] = tr.timestamps[i];// - startTimestamp;
-                            ps[index] = tr.payloads[i];
+                            ps[index] = tr.payload(i);
                         }
                     }
 
@@ -265,23 +603,30 @@ public class FlightRecorder extends SimpleMBean implements FlightRecorderMXBean
 
         @Override
         public String toString() {
-            StringBuilder sb = new StringBuilder();
-            sb.append(recordFormatter.format(new Object[]{
-                        formatTimestamp(timestamp),
-                        sameAsLast ? "*" : "",
-                        thread.getName(),
-                        index
-                    }));
+            return toString(timestamp, sameAsLast, thread.getName(), index, payloadToString(payload));
+        }
+
+        static String toString(long timestamp, boolean sameAsLast, String threadName, int index, String payload) {
+            final String header;
+            synchronized (recordFormatter) {
+                header = recordFormatter.format(new Object[]{
+                            formatTimestamp(timestamp),
+                            sameAsLast ? "*" : "",
+                            threadName,
+                            index
+                        });
+            }
+            return header + payload;
+        }
+
+        static String payloadToString(Object payload) {
             if (payload == null)
-                sb.append("NULL");
-            else {
-                try {
-                    sb.append(payload instanceof Object[] ? Arrays.toString((Object[]) payload) : payload.toString());
-                } catch (Exception e) {
-                    sb.append("ERROR IN toString FOR THIS PAYLOAD");
-                }
+                return "NULL";
+            try {
+                return payload instanceof Object[] ? Arrays.toString((Object[]) payload) : payload.toString();
+            } catch (Exception e) {
+                return "ERROR IN toString FOR THIS PAYLOAD";
             }
-            return sb.toString();
         }
         private static final long MILLIS_PER_SECOND = 1000;
         private static final long SECONDS_PER_MINUTE = 60;
@@ -291,7 +636,7 @@ public class FlightRecorder extends SimpleMBean implements FlightRecorderMXBean
         private static final long MILLIS_PER_HOUR = MILLIS_PER_MINUTE * MINUTES_PER_HOUR;
         private static final long MILLIS_PER_DAY = MILLIS_PER_HOUR * HOURS_PER_DAY;
 
-        private String formatTimestamp(long m) {
+        private static String formatTimestamp(long m) {
             m = m % MILLIS_PER_DAY; // since midnight
 
             long hour = m / MILLIS_PER_HOUR;
@@ -312,13 +657,13 @@ public class FlightRecorder extends SimpleMBean implements FlightRecorderMXBean
             return sb.toString();
         }
 
-        private String twoDigitDecimal(int num) {
+        private static String twoDigitDecimal(int num) {
             if (num < 10)
                 return "0" + num;
             return Integer.toString(num);
         }
 
-        private String threeDigitDecimal(int num) {
+        private static String threeDigitDecimal(int num) {
             if (num < 10)
                 return "00" + num;
             if (num < 100)
@@ -363,22 +708,112 @@ public class FlightRecorder extends SimpleMBean implements FlightRecorderMXBean
     }
 
     public synchronized void dump(PrintStream ps) {
+        final StringBuilder threads = new StringBuilder();
+        for (Map.Entry<Thread, ThreadRecorder> entry : recorders.entrySet())
+            appendThread(threads, entry.getKey().toString(), entry.getValue().getTotalRecs(), entry.getValue().numOfElements());
+        printDumpHeader(ps, threads);
+        for (Record record : getRecords())
+            ps.println(record);
+        printDumpFooter(ps);
+    }
+
+    /**
+     * Writes all records currently in the recorders to a file in the compact binary format read by
+     * {@link FlightRecorderBinaryReader}. Unlike {@link #dump(String) dump}, this doesn't stop the recording.
+     */
+    @Override
+    public void dumpBinary(String fileName) {
+        fileName = fileName.replace("~", System.getProperty("user.home"));
+        try {
+            final FlightRecorderBinaryWriter writer = new FlightRecorderBinaryWriter(new File(fileName), startWallTime, startTimestamp);
+            try {
+                for (ThreadRecorder recorder : recorders.values())
+                    recorder.writeTo(writer, 0);
+            } finally {
+                writer.close();
+            }
+            System.err.println("DUMPED FLIGHT LOG TO " + fileName);
+        } catch (IOException ex) {
+            System.err.println("EXCEPTION WHILE DUMPING FLIGHT LOG TO " + fileName);
+            ex.printStackTrace();
+        }
+    }
+
+    /**
+     * Starts continuously streaming all records into rolling files in the given directory, so that they can be
+     * read after they've been overwritten in memory.
+     *
+     * @see FlightRecorderBinaryReader#readStream(File, long, long)
+     */
+    @Override
+    public void startStreaming(String dir) {
+        startStreaming(new File(dir.replace("~", System.getProperty("user.home"))), STREAM_FILE_SIZE, STREAM_FILES, STREAM_PERIOD_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Starts continuously streaming all records into rolling files in the given directory.
+     *
+     * @param dir         the directory holding the files
+     * @param maxFileSize the size, in bytes, above which a new file is started
+     * @param maxFiles    the maximum number of files to keep
+     * @param period      how often the records are drained
+     * @param unit        {@code period}'s time unit
+     */
+    public synchronized void startStreaming(File dir, long maxFileSize, int maxFiles, long period, TimeUnit unit) {
+        if (streamer != null)
+            throw new IllegalStateException("Already streaming to " + streamer.getDirectory());
+        streamer = new FlightRecorderStreamer(this, dir, maxFileSize, maxFiles, period, unit);
+        streamer.start();
+        System.err.println("STREAMING FLIGHT LOG TO " + dir);
+    }
+
+    @Override
+    public synchronized void stopStreaming() {
+        if (streamer != null) {
+            streamer.stop();
+            streamer = null;
+        }
+    }
+
+    @Override
+    public synchronized long getStreamLostRecords() {
+        return streamer != null ? streamer.getLostRecords() : 0;
+    }
+
+    static void appendThread(StringBuilder sb, String thread, long totalRecs, int available) {
+        sb.append("THREAD ").append(thread).append(" TOTAL RECORDED: ").append(totalRecs).append(" AVAILABLE: ").append(available).append(System.lineSeparator());
+    }
+
+    static void printDumpHeader(PrintStream ps, CharSequence threads) {
         ps.println("============================");
         ps.println("=== FLIGHT RECORDER DUMP ===");
         ps.println("============================");
         ps.println();
         ps.println("AVAILABLE RECORDERS");
         ps.println("====================");
-        for (Map.Entry<Thread, ThreadRecorder> entry : recorders.entrySet())
-            ps.println("THREAD " + entry.getKey() + " TOTAL RECORDED: " + entry.getValue().getTotalRecs() + " AVAILABLE: " + entry.getValue().numOfElements());
+        ps.print(threads);
         ps.println();
         ps.println("FLIGHT LOG");
         ps.println("====================");
         ps.println();
-        for (Record record : getRecords())
-            ps.println(record);
+    }
+
+    static void printDumpFooter(PrintStream ps) {
         ps.println();
         ps.println("NO MORE RECORDS");
         ps.println("====================");
     }
+    ////////////////////////////////////
+    private static final Unsafe unsafe = UtilUnsafe.getUnsafe();
+    private static final long publishedOffset;
+    private static final long seqOffset;
+
+    static {
+        try {
+            publishedOffset = unsafe.objectFieldOffset(ThreadRecorder.class.getDeclaredField("published"));
+            seqOffset = unsafe.objectFieldOffset(RecordSlot.class.getDeclaredField("seq"));
+        } catch (Exception ex) {
+            throw new Error(ex);
+        }
+    }
 }
@@ -0,0 +1,354 @@
+/*
+ * Quasar: lightweight threads and actors for the JVM.
+ * Copyright (C) 2013, Parallel Universe Software Co. All rights reserved.
+ *
+ * This program and the accompanying materials are dual-licensed under
+ * either the terms of the Eclipse Public License v1.0 as published by
+ * the Eclipse Foundation
+ *
+ *   or (per the licensee's choosing)
+ *
+ * under the terms of the GNU Lesser General Public License version 3.0
+ * as published by the Free Software Foundation.
+ */
+package co.paralleluniverse.common.monitoring;
+
+import static co.paralleluniverse.common.monitoring.FlightRecorderBinaryWriter.*;
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads flight-recorder dumps written by {@link FlightRecorder#dumpBinary(String)} or streamed by
+ * {@link FlightRecorder#startStreaming(String)}, and turns them into the same text produced by
+ * {@link FlightRecorder#dump(String)}.
+ * <p/>
+ * Usage: {@code java co.paralleluniverse.common.monitoring.FlightRecorderBinaryReader [-from <time>] [-to <time>] <dump file or stream directory> [<text file>]}
+ * <br/>
+ * where times are either milliseconds since the epoch or {@code yyyy-MM-dd'T'HH:mm:ss}.
+ *
+ * @author pron
+ */
+public final class FlightRecorderBinaryReader {
+    private final Map<String, ThreadInfo> threads = new LinkedHashMap<String, ThreadInfo>();
+    private final List<Entry> entries = new ArrayList<Entry>();
+
+    public static void main(String[] args) throws IOException, ParseException {
+        long from = Long.MIN_VALUE;
+        long to = Long.MAX_VALUE;
+        int i = 0;
+        for (; i < args.length - 1 && args[i].startsWith("-"); i += 2) {
+            if (args[i].equals("-from"))
+                from = parseTime(args[i + 1]);
+            else if (args[i].equals("-to"))
+                to = parseTime(args[i + 1]);
+            else
+                usage();
+        }
+        if (args.length - i < 1 || args.length - i > 2)
+            usage();
+
+        final FlightRecorderBinaryReader reader = new FlightRecorderBinaryReader();
+        final File in = new File(args[i]);
+        if (in.isDirectory())
+            reader.readStream(in, from, to);
+        else
+            reader.read(in, from, to);
+
+        if (args.length - i == 1)
+            reader.print(System.out);
+        else {
+            try (PrintStream ps = new PrintStream(new FileOutputStream(args[i + 1]), false, "UTF-8")) {
+                reader.print(ps);
+            }
+        }
+    }
+
+    private static void usage() {
+        System.err.println("Usage: FlightRecorderBinaryReader [-from <time>] [-to <time>] <dump file or stream directory> [<text file>]");
+        System.exit(1);
+    }
+
+    private static long parseTime(String s) throws ParseException {
+        try {
+            return Long.parseLong(s);
+        } catch (NumberFormatException e) {
+            return new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss").parse(s).getTime();
+        }
+    }
+
+    public FlightRecorderBinaryReader() {
+    }
+
+    /**
+     * Reads the records in a binary dump file. May be called more than once to combine several dumps.
+     */
+    public void read(File file) throws IOException {
+        read(file, Long.MIN_VALUE, Long.MAX_VALUE);
+    }
+
+    /**
+     * Reads the records in a streaming directory whose wall-clock time (in milliseconds since the epoch) falls in the
+     * given range (inclusive).
+     */
+    public void readStream(File dir, long from, long to) throws IOException {
+        try (BufferedReader index = new BufferedReader(new InputStreamReader(new FileInputStream(new File(dir, FlightRecorderStreamer.INDEX_FILE)), "UTF-8"))) {
+            String line;
+            while ((line = index.readLine()) != null) {
+                final String[] fields = line.split("\t");
+                if (fields.length != 3)
+                    continue;
+                if (Long.parseLong(fields[2]) < from || Long.parseLong(fields[1]) > to)
+                    continue;
+                final File file = new File(dir, fields[0]);
+                if (file.exists()) // may have been rolled over since we've read the index
+                    read(file, from, to);
+            }
+        }
+    }
+
+    /**
+     * Reads the records in a binary dump file whose wall-clock time (in milliseconds since the epoch) falls in the
+     * given range (inclusive).
+     */
+    public void read(File file, long from, long to) throws IOException {
+        try (FileInputStream fin = new FileInputStream(file)) {
+            final DataInputStream header = new DataInputStream(fin);
+            if (header.readInt() != MAGIC)
+                throw new IOException(file + " is not a flight recorder dump");
+            final short version = header.readShort();
+            if (version != VERSION)
+                throw new IOException("Unsupported flight recorder dump version " + version + " in " + file);
+            final long length = header.readLong();
+            final long startWallTime = header.readLong();
+            final long startTimestamp = header.readLong();
+
+            // a closed file is padded past its length; one that's still being streamed has no length yet
+            final InputStream body = length >= 0 ? new LimitedInputStream(fin, length - HEADER_SIZE) : fin;
+            final DataInputStream in = new DataInputStream(new BufferedInputStream(body));
+
+            // ids are local to each file
+            final List<String> strings = new ArrayList<String>();
+            final List<ThreadInfo> fileThreads = new ArrayList<ThreadInfo>();
+            for (;;) {
+                final int tag = in.read();
+                if (tag <= 0)
+                    break; // end of file, or the unwritten tail of a file that's still being streamed
+                try {
+                    Entry e = null;
+                    switch (tag) {
+                        case STRING:
+                            in.readInt();
+                            strings.add(readString(in));
+                            break;
+                        case THREAD:
+                            in.readInt();
+                            fileThreads.add(thread(in.readLong(), readString(in), readString(in)));
+                            break;
+                        case MESSAGE:
+                            e = readMessage(in, strings, fileThreads);
+                            break;
+                        case PAYLOAD:
+                            e = new Entry(fileThreads.get(in.readInt()), in.readInt(), in.readLong(), readString(in));
+                            break;
+                        default:
+                            throw new IOException("Corrupt flight recorder dump " + file + ": unknown entry tag " + tag);
+                    }
+                    if (e != null) {
+                        e.time = startWallTime + (e.timestamp - startTimestamp) / 1000000;
+                        if (e.time >= from && e.time <= to)
+                            entries.add(e);
+                    }
+                } catch (EOFException ex) {
+                    break; // a truncated dump; keep what we've read so far
+                }
+            }
+        }
+    }
+
+    private ThreadInfo thread(long totalRecs, String desc, String name) {
+        ThreadInfo thread = threads.get(desc);
+        if (thread == null) {
+            thread = new ThreadInfo(desc, name);
+            threads.put(desc, thread);
+        }
+        thread.totalRecs = Math.max(thread.totalRecs, totalRecs);
+        return thread;
+    }
+
+    /**
+     * Prints the records read so far, ordered by time, in the format of {@link FlightRecorder#dump(PrintStream)}.
+     */
+    public void print(PrintStream ps) {
+        for (Entry e : entries)
+            e.thread.available++;
+        final StringBuilder sb = new StringBuilder();
+        for (ThreadInfo thread : threads.values())
+            FlightRecorder.appendThread(sb, thread.desc, thread.totalRecs, thread.available);
+        for (ThreadInfo thread : threads.values())
+            thread.available = 0;
+
+        FlightRecorder.printDumpHeader(ps, sb);
+        for (Entry e : sortedEntries())
+            ps.println(FlightRecorder.Record.toString(e.time, false, e.thread.name, e.index, e.text));
+        FlightRecorder.printDumpFooter(ps);
+    }
+
+    private List<Entry> sortedEntries() {
+        final List<Entry> sorted = new ArrayList<Entry>(entries);
+        Collections.sort(sorted, new Comparator<Entry>() { // stable, so records with equal timestamps keep their thread order
+            @Override
+            public int compare(Entry e1, Entry e2) {
+                return e1.timestamp < e2.timestamp ? -1 : (e1.timestamp == e2.timestamp ? 0 : 1);
+            }
+        });
+        return sorted;
+    }
+
+    private static Entry readMessage(DataInputStream in, List<String> strings, List<ThreadInfo> threads) throws IOException {
+        final ThreadInfo thread = threads.get(in.readInt());
+        final int index = in.readInt();
+        final long timestamp = in.readLong();
+        final String clazz = string(strings, in.readInt());
+        final String method = string(strings, in.readInt());
+        final String format = string(strings, in.readInt());
+        final int numArgs = in.readByte();
+        final Object[] args = numArgs > 0 ? new Object[numArgs] : null;
+        for (int i = 0; i < numArgs; i++)
+            args[i] = readArg(in);
+        final String stackTrace = in.readByte() != 0 ? readString(in) : null;
+
+        String text = new FlightRecorderMessage(clazz, method, format, args, null).toString();
+        if (stackTrace != null)
+            text += " at: " + stackTrace;
+        return new Entry(thread, index, timestamp, text);
+    }
+
+    private static String string(List<String> strings, int id) {
+        return id < 0 ? null : strings.get(id);
+    }
+
+    private static Object readArg(DataInputStream in) throws IOException {
+        final byte type = in.readByte();
+        switch (type) {
+            case NULL:
+                return null;
+            case BOOLEAN:
+                return in.readByte() != 0;
+            case BYTE:
+                return in.readByte();
+            case CHAR:
+                return in.readChar();
+            case SHORT:
+                return in.readShort();
+            case INT:
+                return in.readInt();
+            case LONG:
+                return in.readLong();
+            case FLOAT:
+                return in.readFloat();
+            case DOUBLE:
+                return in.readDouble();
+            case TEXT:
+                return readString(in);
+            default:
+                throw new IOException("Corrupt flight recorder dump: unknown argument type " + type);
+        }
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        final byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, UTF8);
+    }
+
+    private static class ThreadInfo {
+        final String desc;
+        final String name;
+        long totalRecs;
+        int available;
+
+        ThreadInfo(String desc, String name) {
+            this.desc = desc;
+            this.name = name;
+        }
+    }
+
+    private static class Entry {
+        final ThreadInfo thread;
+        final int index;
+        final long timestamp;
+        final String text;
+        long time; // wall-clock millis
+
+        Entry(ThreadInfo thread, int index, long timestamp, String text) {
+            this.thread = thread;
+            this.index = index;
+            this.timestamp = timestamp;
+            this.text = text;
+        }
+    }
+
+    private static class LimitedInputStream extends FilterInputStream {
+        private long remaining;
+
+        LimitedInputStream(InputStream in, long limit) {
+            super(in);
+            this.remaining = limit;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining <= 0)
+                return -1;
+            final int b = super.read();
+            if (b >= 0)
+                remaining--;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (remaining <= 0)
+                return -1;
+            final int n = super.read(b, off, (int) Math.min(len, remaining));
+            if (n > 0)
+                remaining -= n;
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            final long skipped = super.skip(Math.min(n, remaining));
+            remaining -= skipped;
+            return skipped;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return (int) Math.min(super.available(), remaining);
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,258 @@
+/*
+ * Quasar: lightweight threads and actors for the JVM.
+ * Copyright (C) 2013, Parallel Universe Software Co. All rights reserved.
+ *
+ * This program and the accompanying materials are dual-licensed under
+ * either the terms of the Eclipse Public License v1.0 as published by
+ * the Eclipse Foundation
+ *
+ *   or (per the licensee's choosing)
+ *
+ * under the terms of the GNU Lesser General Public License version 3.0
+ * as published by the Free Software Foundation.
+ */
+package co.paralleluniverse.common.monitoring;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Writes flight-recorder records to a memory-mapped file in a compact binary format.
+ * <p/>
+ * The file starts with a header (magic, version, length, start wall-clock time and start timestamp), followed by a
+ * sequence of tagged entries. The length is {@code -1} until the file is closed; the file is mapped in chunks, and
+ * isn't truncated on close (the last chunk may still be mapped), so readers must ignore whatever follows it. Class, method and format strings are interned: each is written once, in a {@code STRING} entry, the
+ * first time it's used, and referred to by id thereafter. Threads are likewise defined once in a {@code THREAD} entry.
+ * Timestamps are written raw (as returned by {@code System.nanoTime()}).
+ * <p/>
+ * Message arguments are written as primitives if they are boxed primitives or strings, and as their {@code toString()}
+ * otherwise.
+ *
+ * @see FlightRecorderBinaryReader
+ * @author pron
+ */
+final class FlightRecorderBinaryWriter implements Closeable {
+    static final int MAGIC = 0x51465231; // "QFR1"
+    static final short VERSION = 2;
+    static final int LENGTH_OFFSET = 4 + 2;
+    static final int HEADER_SIZE = LENGTH_OFFSET + 8 + 8 + 8;
+    // entry tags
+    static final byte STRING = 1;
+    static final byte THREAD = 2;
+    static final byte MESSAGE = 3;
+    static final byte PAYLOAD = 4;
+    // argument types
+    static final byte NULL = 0;
+    static final byte BOOLEAN = 1;
+    static final byte BYTE = 2;
+    static final byte CHAR = 3;
+    static final byte SHORT = 4;
+    static final byte INT = 5;
+    static final byte LONG = 6;
+    static final byte FLOAT = 7;
+    static final byte DOUBLE = 8;
+    static final byte TEXT = 9;
+    //
+    static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final int CHUNK_SIZE = 1 << 22;
+    private final File file;
+    private final RandomAccessFile raf;
+    private final FileChannel channel;
+    private MappedByteBuffer buffer;
+    private long bufferStart;
+    private final Map<String, Integer> strings = new HashMap<String, Integer>();
+    private final Map<Thread, Integer> threads = new IdentityHashMap<Thread, Integer>();
+    private long minTimestamp = Long.MAX_VALUE;
+    private long maxTimestamp = Long.MIN_VALUE;
+    final FlightRecorder.RecordSlot scratch = new FlightRecorder.RecordSlot();
+
+    FlightRecorderBinaryWriter(File file, long startWallTime, long startTimestamp) throws IOException {
+        this.file = file;
+        this.raf = new RandomAccessFile(file, "rw");
+        raf.setLength(0); // nothing is mapped yet
+        this.channel = raf.getChannel();
+        this.bufferStart = 0;
+        this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, CHUNK_SIZE);
+        buffer.putInt(MAGIC);
+        buffer.putShort(VERSION);
+        buffer.putLong(-1L);
+        buffer.putLong(startWallTime);
+        buffer.putLong(startTimestamp);
+    }
+
+    File getFile() {
+        return file;
+    }
+
+    /**
+     * The number of bytes written so far.
+     */
+    long size() {
+        return bufferStart + buffer.position();
+    }
+
+    long getMinTimestamp() {
+        return minTimestamp;
+    }
+
+    long getMaxTimestamp() {
+        return maxTimestamp;
+    }
+
+    int thread(Thread thread, long totalRecs) throws IOException {
+        Integer id = threads.get(thread);
+        if (id == null) {
+            id = threads.size();
+            threads.put(thread, id);
+            final byte[] desc = thread.toString().getBytes(UTF8);
+            final byte[] name = thread.getName().getBytes(UTF8);
+            ensureCapacity(1 + 4 + 8 + 4 + desc.length + 4 + name.length);
+            buffer.put(THREAD);
+            buffer.putInt(id);
+            buffer.putLong(totalRecs);
+            putBytes(desc);
+            putBytes(name);
+        }
+        return id;
+    }
+
+    void record(int threadId, int index, long timestamp, FlightRecorder.RecordSlot slot) throws IOException {
+        if (timestamp < minTimestamp)
+            minTimestamp = timestamp;
+        if (timestamp > maxTimestamp)
+            maxTimestamp = timestamp;
+
+        if (!slot.message) {
+            final byte[] text = FlightRecorder.Record.payloadToString(slot.payload).getBytes(UTF8);
+            ensureCapacity(1 + 4 + 4 + 8 + 4 + text.length);
+            buffer.put(PAYLOAD);
+            putRecordHeader(threadId, index, timestamp);
+            putBytes(text);
+            return;
+        }
+
+        final int clazz = string(slot.clazz);
+        final int method = string(slot.method);
+        final int format = string(slot.format);
+        ensureCapacity(1 + 4 + 4 + 8 + 4 + 4 + 4 + 1);
+        buffer.put(MESSAGE);
+        putRecordHeader(threadId, index, timestamp);
+        buffer.putInt(clazz);
+        buffer.putInt(method);
+        buffer.putInt(format);
+        buffer.put((byte) slot.numArgs);
+        for (int i = 0; i < slot.numArgs; i++)
+            putArg(slot.args[i]);
+        if (slot.stackTrace != null) {
+            final byte[] st = Arrays.toString(slot.stackTrace).getBytes(UTF8);
+            ensureCapacity(1 + 4 + st.length);
+            buffer.put((byte) 1);
+            putBytes(st);
+        } else {
+            ensureCapacity(1);
+            buffer.put((byte) 0);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        final long size = size();
+        buffer.force();
+        buffer = null;
+        // the mapping is only released when the buffer is collected, and truncating a mapped file fails on some
+        // platforms, so rather than trimming the unused tail of the last chunk, we record the length in the header
+        final ByteBuffer length = ByteBuffer.allocate(8);
+        length.putLong(0, size);
+        while (length.hasRemaining())
+            channel.write(length, LENGTH_OFFSET + length.position());
+        channel.force(false);
+        channel.close();
+        raf.close();
+    }
+
+    private int string(String s) throws IOException {
+        if (s == null)
+            return -1;
+        Integer id = strings.get(s);
+        if (id == null) {
+            id = strings.size();
+            strings.put(s, id);
+            final byte[] bytes = s.getBytes(UTF8);
+            ensureCapacity(1 + 4 + 4 + bytes.length);
+            buffer.put(STRING);
+            buffer.putInt(id);
+            putBytes(bytes);
+        }
+        return id;
+    }
+
+    private void putRecordHeader(int threadId, int index, long timestamp) {
+        buffer.putInt(threadId);
+        buffer.putInt(index);
+        buffer.putLong(timestamp);
+    }
+
+    private void putArg(Object arg) throws IOException {
+        ensureCapacity(1 + 8);
+        if (arg == null)
+            buffer.put(NULL);
+        else if (arg instanceof Boolean) {
+            buffer.put(BOOLEAN);
+            buffer.put((byte) (((Boolean) arg) ? 1 : 0));
+        } else if (arg instanceof Byte) {
+            buffer.put(BYTE);
+            buffer.put((Byte) arg);
+        } else if (arg instanceof Character) {
+            buffer.put(CHAR);
+            buffer.putChar((Character) arg);
+        } else if (arg instanceof Short) {
+            buffer.put(SHORT);
+            buffer.putShort((Short) arg);
+        } else if (arg instanceof Integer) {
+            buffer.put(INT);
+            buffer.putInt((Integer) arg);
+        } else if (arg instanceof Long) {
+            buffer.put(LONG);
+            buffer.putLong((Long) arg);
+        } else if (arg instanceof Float) {
+            buffer.put(FLOAT);
+            buffer.putFloat((Float) arg);
+        } else if (arg instanceof Double) {
+            buffer.put(DOUBLE);
+            buffer.putDouble((Double) arg);
+        } else {
+            String text;
+            try {
+                text = FlightRecorderMessage.printable(arg).toString();
+            } catch (Exception e) {
+                text = "ERROR IN toString FOR THIS ARGUMENT";
+            }
+            final byte[] bytes = text.getBytes(UTF8);
+            ensureCapacity(1 + 4 + bytes.length);
+            buffer.put(TEXT);
+            putBytes(bytes);
+        }
+    }
+
+    private void putBytes(byte[] bytes) {
+        buffer.putInt(bytes.length);
+        buffer.put(bytes);
+    }
+
+    private void ensureCapacity(int n) throws IOException {
+        if (buffer.remaining() >= n)
+            return;
+        bufferStart += buffer.position();
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, bufferStart, Math.max(CHUNK_SIZE, n));
+    }
+}
@@ -19,4 +19,12 @@ package co.paralleluniverse.common.monitoring;
  */
 public interface FlightRecorderMXBean {
     public void dump(String fileName);
+
+    public void dumpBinary(String fileName);
+
+    public void startStreaming(String dir);
+
+    public void stopStreaming();
+
+    public long getStreamLostRecords();
 }
@@ -40,32 +40,20 @@ public class FlightRecorderMessage {
         this.stackTrace = (Debug.isRecordStackTraces() ? Thread.currentThread().getStackTrace() : null);
     }
 
+    FlightRecorderMessage(String clazz, String method, String format, Object[] args, StackTraceElement[] stackTrace) {
+        // args have already been replaced with their recording doubles
+        this.clazz = clazz;
+        this.method = method;
+        this.format = format;
+        this.args = args;
+        this.stackTrace = stackTrace;
+    }
+
     @Override
     public String toString() {
         if (args != null) {
-            for (int i = 0; i < args.length; i++) {
-                if (args[i] != null && args[i].getClass().isArray()) {
-                    final Class t = args[i].getClass().getComponentType();
-                    if (t == Boolean.TYPE)
-                        args[i] = Arrays.toString((boolean[]) args[i]);
-                    else if (t == Byte.TYPE)
-                        args[i] = Arrays.toString((byte[]) args[i]);
-                    else if (t == Character.TYPE)
-                        args[i] = Arrays.toString((char[]) args[i]);
-                    else if (t == Short.TYPE)
-                        args[i] = Arrays.toString((short[]) args[i]);
-                    else if (t == Integer.TYPE)
-                        args[i] = Arrays.toString((int[]) args[i]);
-                    else if (t == Long.TYPE)
-                        args[i] = Arrays.toString((long[]) args[i]);
-                    else if (t == Float.TYPE)
-                        args[i] = Arrays.toString((float[]) args[i]);
-                    else if (t == Double.TYPE)
-                        args[i] = Arrays.toString((double[]) args[i]);
-                    else
-                        args[i] = Arrays.toString((Object[]) args[i]);
-                }
-            }
+            for (int i = 0; i < args.length; i++)
+                args[i] = printable(args[i]);
         }
         Object[] ps = (args != null ? new Object[args.length + 2] : new Object[2]);
         ps[0] = clazz;
@@ -86,7 +74,35 @@ public class FlightRecorderMessage {
         }
     }
 
+    static Object printable(Object obj) {
+        if (obj == null || !obj.getClass().isArray())
+            return obj;
+        final Class t = obj.getClass().getComponentType();
+        if (t == Boolean.TYPE)
+            return Arrays.toString((boolean[]) obj);
+        else if (t == Byte.TYPE)
+            return Arrays.toString((byte[]) obj);
+        else if (t == Character.TYPE)
+            return Arrays.toString((char[]) obj);
+        else if (t == Short.TYPE)
+            return Arrays.toString((short[]) obj);
+        else if (t == Integer.TYPE)
+            return Arrays.toString((int[]) obj);
+        else if (t == Long.TYPE)
+            return Arrays.toString((long[]) obj);
+        else if (t == Float.TYPE)
+            return Arrays.toString((float[]) obj);
+        else if (t == Double.TYPE)
+            return Arrays.toString((double[]) obj);
+        else
+            return Arrays.toString((Object[]) obj);
+    }
+
     public Object recordingDouble(Object obj) {
+        return toRecordingDouble(obj);
+    }
+
+    static Object toRecordingDouble(Object obj) {
         if (obj instanceof RecordingDouble)
             return ((RecordingDouble) obj).getRecordingDouble();
         if (obj instanceof java.util.Map)
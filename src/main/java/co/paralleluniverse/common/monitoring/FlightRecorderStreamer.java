@@ -0,0 +1,191 @@
+/*
+ * Quasar: lightweight threads and actors for the JVM.
+ * Copyright (C) 2013, Parallel Universe Software Co. All rights reserved.
+ *
+ * This program and the accompanying materials are dual-licensed under
+ * either the terms of the Eclipse Public License v1.0 as published by
+ * the Eclipse Foundation
+ *
+ *   or (per the licensee's choosing)
+ *
+ * under the terms of the GNU Lesser General Public License version 3.0
+ * as published by the Free Software Foundation.
+ */
+package co.paralleluniverse.common.monitoring;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Continuously drains a {@link FlightRecorder}'s thread rings into rolling, size-capped binary files (in the format
+ * written by {@link FlightRecorderBinaryWriter}), so that records survive being overwritten in memory.
+ * <p/>
+ * A background thread periodically copies every thread's newly completed records into the current file. When the file
+ * grows beyond the size cap, it's closed and a new one started; once there are more than the maximum number of files,
+ * the oldest is deleted. The directory also holds a text index file, {@value #INDEX_FILE}, listing each file along
+ * with the wall-clock time range (in milliseconds) of its records, one file per line, which
+ * {@link FlightRecorderBinaryReader#readStream(File, long, long)} uses to pull a time range.
+ *
+ * @author pron
+ */
+final class FlightRecorderStreamer {
+    static final String INDEX_FILE = "flight.idx";
+    private final FlightRecorder recorder;
+    private final File dir;
+    private final long maxFileSize;
+    private final int maxFiles;
+    private final long periodNanos;
+    private final Thread drainer;
+    private volatile boolean running = true;
+    // accessed by the drainer thread only
+    private final Map<FlightRecorder.ThreadRecorder, Long> drained = new IdentityHashMap<FlightRecorder.ThreadRecorder, Long>();
+    private final Deque<FileInfo> files = new ArrayDeque<FileInfo>();
+    private FlightRecorderBinaryWriter writer;
+    private int fileCount;
+    private volatile long lostRecords;
+
+    FlightRecorderStreamer(FlightRecorder recorder, File dir, long maxFileSize, int maxFiles, long period, TimeUnit unit) {
+        if (maxFileSize <= 0)
+            throw new IllegalArgumentException("maxFileSize must be positive: " + maxFileSize);
+        if (maxFiles <= 0)
+            throw new IllegalArgumentException("maxFiles must be positive: " + maxFiles);
+        if (!dir.isDirectory() && !dir.mkdirs())
+            throw new IllegalArgumentException("Cannot create directory " + dir);
+        this.recorder = recorder;
+        this.dir = dir;
+        this.maxFileSize = maxFileSize;
+        this.maxFiles = maxFiles;
+        this.periodNanos = unit.toNanos(period);
+        this.drainer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                runDrainer();
+            }
+        }, "flight-recorder-streamer");
+        drainer.setDaemon(true);
+    }
+
+    void start() {
+        drainer.start();
+    }
+
+    /**
+     * Stops the drainer after a final drain, and waits for it to close the current file.
+     */
+    void stop() {
+        running = false;
+        LockSupport.unpark(drainer);
+        try {
+            drainer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    File getDirectory() {
+        return dir;
+    }
+
+    /**
+     * The number of records that were overwritten in memory before the drainer got to them.
+     */
+    long getLostRecords() {
+        return lostRecords;
+    }
+
+    private void runDrainer() {
+        try {
+            for (;;) {
+                final boolean last = !running;
+                drain();
+                if (last)
+                    break;
+                LockSupport.parkNanos(this, periodNanos);
+            }
+            if (writer != null)
+                closeFile();
+        } catch (IOException e) {
+            System.err.println("EXCEPTION WHILE STREAMING FLIGHT LOG TO " + dir);
+            e.printStackTrace();
+        }
+    }
+
+    private void drain() throws IOException {
+        boolean wrote = false;
+        for (FlightRecorder.ThreadRecorder tr : recorder.getThreadRecorders()) {
+            final Long d = drained.get(tr);
+            final long from = d != null ? d : 0;
+            if (tr.getPublished() == from)
+                continue;
+            if (writer == null)
+                newFile();
+            final long available = tr.getPublished() - (tr.capacity() - 1);
+            if (available > from)
+                lostRecords += available - from;
+            drained.put(tr, tr.writeTo(writer, from));
+            wrote = true;
+            if (writer.size() >= maxFileSize) {
+                closeFile();
+                wrote = false;
+            }
+        }
+        if (wrote)
+            writeIndex();
+    }
+
+    private void newFile() throws IOException {
+        final File file = new File(dir, String.format("flight-%d-%06d.qfr", recorder.getStartWallTime(), fileCount++));
+        writer = new FlightRecorderBinaryWriter(file, recorder.getStartWallTime(), recorder.getStartTimestamp());
+    }
+
+    private void closeFile() throws IOException {
+        files.addLast(new FileInfo(writer.getFile().getName(), wallTime(writer.getMinTimestamp()), wallTime(writer.getMaxTimestamp())));
+        writer.close();
+        writer = null;
+        while (files.size() > maxFiles) {
+            final FileInfo oldest = files.removeFirst();
+            new File(dir, oldest.name).delete();
+        }
+        writeIndex();
+    }
+
+    private void writeIndex() throws IOException {
+        final File tmp = new File(dir, INDEX_FILE + ".tmp");
+        try (PrintWriter pw = new PrintWriter(new OutputStreamWriter(new FileOutputStream(tmp), "UTF-8"))) {
+            for (FileInfo f : files)
+                pw.println(f.name + '\t' + f.from + '\t' + f.to);
+            if (writer != null && writer.getMinTimestamp() <= writer.getMaxTimestamp())
+                pw.println(writer.getFile().getName() + '\t' + wallTime(writer.getMinTimestamp()) + '\t' + wallTime(writer.getMaxTimestamp()));
+        }
+        final File index = new File(dir, INDEX_FILE);
+        if (!tmp.renameTo(index)) {
+            index.delete();
+            tmp.renameTo(index);
+        }
+    }
+
+    private long wallTime(long timestamp) {
+        return recorder.getStartWallTime() + (timestamp - recorder.getStartTimestamp()) / 1000000;
+    }
+
+    private static class FileInfo {
+        final String name;
+        final long from;
+        final long to;
+
+        FileInfo(String name, long from, long to) {
+            this.name = name;
+            this.from = from;
+            this.to = to;
+        }
+    }
+}
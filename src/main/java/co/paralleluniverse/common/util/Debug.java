@@ -23,6 +23,7 @@ import java.util.concurrent.atomic.AtomicBoolean;
 public class Debug {
     private static final boolean debugMode = Boolean.getBoolean("co.paralleluniverse.debugMode");
     private static final String FLIGHT_RECORDER_DUMP_FILE = System.getProperty("co.paralleluniverse.flightRecorderDumpFile");
+    private static final String FLIGHT_RECORDER_STREAM_DIR = System.getProperty("co.paralleluniverse.flightRecorderStreamDir");
     private static final FlightRecorder flightRecorder = (Boolean.getBoolean("co.paralleluniverse.debugMode") && Boolean.getBoolean("co.paralleluniverse.globalFlightRecorder") ? new FlightRecorder("PUNIVERSE-FLIGHT-RECORDER") : null);
     private static boolean recordStackTraces = false;
     private static final boolean assertionsEnabled;
@@ -43,6 +44,9 @@ public class Debug {
             }
         }
 
+        if (flightRecorder != null && FLIGHT_RECORDER_STREAM_DIR != null && !FLIGHT_RECORDER_STREAM_DIR.trim().equals(""))
+            flightRecorder.startStreaming(FLIGHT_RECORDER_STREAM_DIR);
+
         if (debugMode) {
             Runtime.getRuntime().addShutdownHook(new Thread() {
                 @Override
@@ -13,7 +13,6 @@
 package co.paralleluniverse.concurrent.forkjoin;
 
 import co.paralleluniverse.common.monitoring.FlightRecorder;
-import co.paralleluniverse.common.monitoring.FlightRecorderMessage;
 import co.paralleluniverse.common.util.Debug;
 import co.paralleluniverse.common.util.Exceptions;
 import co.paralleluniverse.concurrent.util.UtilUnsafe;
@@ -212,32 +211,32 @@ public abstract class ParkableForkJoinTask<V> extends ForkJoinTask<V> {
 
     static void record(String method, String format) {
         if (RECORDER != null)
-            RECORDER.record(1, new FlightRecorderMessage("BlockableForkJoinTask", method, format, null));
+            RECORDER.record(1, "BlockableForkJoinTask", method, format);
     }
 
     static void record(String method, String format, Object arg1) {
         if (RECORDER != null)
-            RECORDER.record(1, new FlightRecorderMessage("BlockableForkJoinTask", method, format, new Object[]{arg1}));
+            RECORDER.record(1, "BlockableForkJoinTask", method, format, arg1);
     }
 
     static void record(String method, String format, Object arg1, Object arg2) {
         if (RECORDER != null)
-            RECORDER.record(1, new FlightRecorderMessage("BlockableForkJoinTask", method, format, new Object[]{arg1, arg2}));
+            RECORDER.record(1, "BlockableForkJoinTask", method, format, arg1, arg2);
     }
 
     static void record(String method, String format, Object arg1, Object arg2, Object arg3) {
         if (RECORDER != null)
-            RECORDER.record(1, new FlightRecorderMessage("BlockableForkJoinTask", method, format, new Object[]{arg1, arg2, arg3}));
+            RECORDER.record(1, "BlockableForkJoinTask", method, format, arg1, arg2, arg3);
     }
 
     static void record(String method, String format, Object arg1, Object arg2, Object arg3, Object arg4) {
         if (RECORDER != null)
-            RECORDER.record(1, new FlightRecorderMessage("BlockableForkJoinTask", method, format, new Object[]{arg1, arg2, arg3, arg4}));
+            RECORDER.record(1, "BlockableForkJoinTask", method, format, arg1, arg2, arg3, arg4);
     }
 
     static void record(String method, String format, Object arg1, Object arg2, Object arg3, Object arg4, Object arg5) {
         if (RECORDER != null)
-            RECORDER.record(1, new FlightRecorderMessage("BlockableForkJoinTask", method, format, new Object[]{arg1, arg2, arg3, arg4, arg5}));
+            RECORDER.record(1, "BlockableForkJoinTask", method, format, arg1, arg2, arg3, arg4, arg5);
     }
     private static final Unsafe unsafe = UtilUnsafe.getUnsafe();
     private static final long stateOffset;
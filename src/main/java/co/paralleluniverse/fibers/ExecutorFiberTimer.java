@@ -0,0 +1,82 @@
+/*
+ * Quasar: lightweight threads and actors for the JVM.
+ * Copyright (C) 2013, Parallel Universe Software Co. All rights reserved.
+ *
+ * This program and the accompanying materials are dual-licensed under
+ * either the terms of the Eclipse Public License v1.0 as published by
+ * the Eclipse Foundation
+ *
+ *   or (per the licensee's choosing)
+ *
+ * under the terms of the GNU Lesser General Public License version 3.0
+ * as published by the Free Software Foundation.
+ */
+package co.paralleluniverse.fibers;
+
+import co.paralleluniverse.common.util.NamingThreadFactory;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A {@link FiberTimer} backed by a {@link ScheduledThreadPoolExecutor}.
+ *
+ * @author pron
+ */
+public class ExecutorFiberTimer extends FiberTimer {
+    private final ScheduledThreadPoolExecutor executor;
+
+    public ExecutorFiberTimer(String name) {
+        this.executor = new ScheduledThreadPoolExecutor(1, new NamingThreadFactory(name));
+        executor.setRemoveOnCancelPolicy(true);
+    }
+
+    @Override
+    public Timeout newTimeout(Fiber<?> fiber, long delay, TimeUnit unit) {
+        return new Task(fiber, System.nanoTime() + unit.toNanos(delay));
+    }
+
+    @Override
+    public void schedule(Timeout timeout) {
+        final Task task = (Task) timeout;
+        synchronized (task) {
+            if (task.cancelled)
+                return; // cancelled before it's been scheduled
+            task.future = executor.schedule(task, task.deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+        }
+        scheduled();
+    }
+
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    private final class Task implements Runnable, Timeout {
+        private final Fiber<?> fiber;
+        final long deadline;
+        volatile ScheduledFuture<?> future;
+        volatile boolean cancelled;
+
+        Task(Fiber<?> fiber, long deadline) {
+            this.fiber = fiber;
+            this.deadline = deadline;
+        }
+
+        @Override
+        public void run() {
+            fire(fiber, this);
+        }
+
+        @Override
+        public synchronized boolean cancel() {
+            if (cancelled)
+                return false;
+            final ScheduledFuture<?> f = future;
+            if (f != null && !f.cancel(false))
+                return false; // already fired
+            cancelled = true; // if it hasn't been scheduled yet, it won't be
+            cancelled();
+            return true;
+        }
+    }
+}
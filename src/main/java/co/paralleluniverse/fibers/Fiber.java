@@ -14,10 +14,8 @@
 package co.paralleluniverse.fibers;
 
 import co.paralleluniverse.common.monitoring.FlightRecorder;
-import co.paralleluniverse.common.monitoring.FlightRecorderMessage;
 import co.paralleluniverse.common.util.Debug;
 import co.paralleluniverse.common.util.Exceptions;
-import co.paralleluniverse.common.util.NamingThreadFactory;
 import co.paralleluniverse.common.util.Objects;
 import co.paralleluniverse.common.util.VisibleForTesting;
 import co.paralleluniverse.concurrent.forkjoin.ParkableForkJoinTask;
@@ -33,8 +31,6 @@ import java.io.PrintStream;
 import java.io.Serializable;
 import java.util.Arrays;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import jsr166e.ForkJoinPool;
@@ -74,7 +70,6 @@ public class Fiber<V> extends Strand implements Joinable<V>, Serializable {
     public static enum State {
         NEW, STARTED, RUNNING, WAITING, TERMINATED
     };
-    private static final ScheduledExecutorService timeoutService = Executors.newSingleThreadScheduledExecutor(new NamingThreadFactory("fiber-timeout"));
     private static volatile UncaughtExceptionHandler defaultUncaughtExceptionHandler;
     //
     private final ForkJoinPool fjPool;
@@ -88,6 +83,8 @@ public class Fiber<V> extends Strand implements Joinable<V>, Serializable {
     private Object fiberLocals;
     private Object inheritableFiberLocals;
     private long sleepStart;
+    private final transient FiberTimer timer;
+    private transient volatile FiberTimer.Timeout pendingTimeout;
     private PostParkActions postParkActions;
     private V result;
     private volatile UncaughtExceptionHandler uncaughtExceptionHandler;
@@ -108,7 +105,13 @@ public class Fiber<V> extends Strand implements Joinable<V>, Serializable {
         this.parent = currentFiber();
         this.target = target;
         this.fjTask = new FiberForkJoinTask<V>(this);
-        this.stack = new Stack(this, stackSize > 0 ? stackSize : DEFAULT_STACK_SIZE);
+        this.timer = FiberTimer.getTimer(fjPool);
+        if (stackSize > 0)
+            this.stack = new Stack(this, stackSize);
+        else {
+            final Class<?> clazz = targetClass();
+            this.stack = new Stack(this, StackSizes.getPrimStackSize(clazz), StackSizes.getObjStackSize(clazz), StackSizes.getMethodStackSize(clazz));
+        }
         this.state = State.NEW;
 
         if (Debug.isDebug())
@@ -149,6 +152,17 @@ public class Fiber<V> extends Strand implements Joinable<V>, Serializable {
         return new VoidSuspendableCallable(runnable);
     }
 
+    /**
+     * The class whose code this fiber runs; used to learn the fiber's initial stack size.
+     */
+    private Class<?> targetClass() {
+        if (target == null)
+            return getClass();
+        if (target instanceof VoidSuspendableCallable)
+            return ((VoidSuspendableCallable) target).runnable.getClass();
+        return target.getClass();
+    }
+
     private static class VoidSuspendableCallable implements SuspendableCallable<Void> {
         private final SuspendableRunnable runnable;
 
@@ -319,14 +333,43 @@ public class Fiber<V> extends Strand implements Joinable<V>, Serializable {
         //record(2, "Fiber", "park", "Parking %s at %s", this, Arrays.toString(Thread.currentThread().getStackTrace()));
         this.postParkActions = postParkActions;
         if (timeout > 0 & unit != null) {
-            timeoutService.schedule(new Runnable() {
-                @Override
-                public void run() {
-                    fjTask.unpark();
-                }
-            }, timeout, unit);
+            final FiberTimer.Timeout t = timer.newTimeout(this, timeout, unit);
+            this.pendingTimeout = t; // published before it's scheduled, so the timer always finds it when it fires
+            timer.schedule(t); // if we're unparked in the meantime, the timeout is cancelled before it's scheduled
+        }
+        final boolean res = fjTask.park1(blocker); // throws SuspendExecution if we actually park
+        cancelTimeout(); // we've been leased, so we're not going to park
+        return res;
+    }
+
+    private void cancelTimeout() {
+        for (;;) {
+            final FiberTimer.Timeout t = pendingTimeout;
+            if (t == null)
+                return;
+            if (casPendingTimeout(t, null)) {
+                t.cancel();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Called by the {@link FiberTimer} when the given timeout expires.
+     * Unparks this fiber, unless the timeout is stale, i.e. it belongs to a park this fiber has already been woken from.
+     *
+     * @return {@code true} if the fiber has been unparked; {@code false} if the timeout was stale.
+     */
+    boolean timeoutExpired(FiberTimer.Timeout timeout) {
+        for (;;) {
+            final FiberTimer.Timeout t = pendingTimeout;
+            if (t != timeout)
+                return false;
+            if (casPendingTimeout(t, null)) {
+                fjTask.unpark();
+                return true;
+            }
         }
-        return fjTask.park1(blocker);
     }
 
     private void yield1() throws SuspendExecution {
@@ -341,6 +384,7 @@ public class Fiber<V> extends Strand implements Joinable<V>, Serializable {
         record(1, "Fiber", "exec1", "running %s %s", state, this);
         setCurrentFiber(this);
         installFiberLocals();
+        stack.running();
 
         state = State.RUNNING;
         try {
@@ -351,6 +395,7 @@ public class Fiber<V> extends Strand implements Joinable<V>, Serializable {
         } catch (SuspendExecution ex) {
             assert ex == SuspendExecution.instance;
             //stack.dump();
+            stack.parked();
             stack.resumeStack();
             state = State.WAITING;
             fjTask.doPark(false); // now we can complete parking
@@ -377,6 +422,10 @@ public class Fiber<V> extends Strand implements Joinable<V>, Serializable {
         } finally {
             restoreThreadLocals();
             setCurrentFiber(null);
+            if (state == State.TERMINATED) {
+                StackSizes.record(targetClass(), stack);
+                stack.release();
+            }
         }
     }
 
@@ -540,6 +589,7 @@ public class Fiber<V> extends Strand implements Joinable<V>, Serializable {
     public final boolean exec(Object blocker) {
         for (int i = 0; i < 30; i++) {
             if (getBlocker() == blocker && fjTask.tryUnpark()) {
+                cancelTimeout();
                 fjTask.exec();
                 return true;
             }
@@ -549,6 +599,7 @@ public class Fiber<V> extends Strand implements Joinable<V>, Serializable {
 
     @Override
     public final void unpark() {
+        cancelTimeout();
         fjTask.unpark();
     }
 
@@ -832,10 +883,12 @@ public class Fiber<V> extends Strand implements Joinable<V>, Serializable {
     }
     private static final Unsafe unsafe = UtilUnsafe.getUnsafe();
     private static final long stateOffset;
+    private static final long pendingTimeoutOffset;
 
     static {
         try {
             stateOffset = unsafe.objectFieldOffset(Fiber.class.getDeclaredField("state"));
+            pendingTimeoutOffset = unsafe.objectFieldOffset(Fiber.class.getDeclaredField("pendingTimeout"));
         } catch (Exception ex) {
             throw new AssertionError(ex);
         }
@@ -845,6 +898,10 @@ public class Fiber<V> extends Strand implements Joinable<V>, Serializable {
         return unsafe.compareAndSwapObject(this, stateOffset, expected, update);
     }
 
+    private boolean casPendingTimeout(FiberTimer.Timeout expected, FiberTimer.Timeout update) {
+        return unsafe.compareAndSwapObject(this, pendingTimeoutOffset, expected, update);
+    }
+
     //<editor-fold defaultstate="collapsed" desc="Recording">
     /////////// Recording ///////////////////////////////////
     protected final void record(int level, String clazz, String method, String format) {
@@ -894,52 +951,48 @@ public class Fiber<V> extends Strand implements Joinable<V>, Serializable {
 
     private static void record(FlightRecorder.ThreadRecorder recorder, int level, String clazz, String method, String format) {
         if (recorder != null)
-            recorder.record(level, makeFlightRecorderMessage(recorder, clazz, method, format, null));
+            recorder.record(level, clazz, method, format);
     }
 
     private static void record(FlightRecorder.ThreadRecorder recorder, int level, String clazz, String method, String format, Object arg1) {
         if (recorder != null)
-            recorder.record(level, makeFlightRecorderMessage(recorder, clazz, method, format, new Object[]{arg1}));
+            recorder.record(level, clazz, method, format, arg1);
     }
 
     private static void record(FlightRecorder.ThreadRecorder recorder, int level, String clazz, String method, String format, Object arg1, Object arg2) {
         if (recorder != null)
-            recorder.record(level, makeFlightRecorderMessage(recorder, clazz, method, format, new Object[]{arg1, arg2}));
+            recorder.record(level, clazz, method, format, arg1, arg2);
     }
 
     private static void record(FlightRecorder.ThreadRecorder recorder, int level, String clazz, String method, String format, Object arg1, Object arg2, Object arg3) {
         if (recorder != null)
-            recorder.record(level, makeFlightRecorderMessage(recorder, clazz, method, format, new Object[]{arg1, arg2, arg3}));
+            recorder.record(level, clazz, method, format, arg1, arg2, arg3);
     }
 
     private static void record(FlightRecorder.ThreadRecorder recorder, int level, String clazz, String method, String format, Object arg1, Object arg2, Object arg3, Object arg4) {
         if (recorder != null)
-            recorder.record(level, makeFlightRecorderMessage(recorder, clazz, method, format, new Object[]{arg1, arg2, arg3, arg4}));
+            recorder.record(level, clazz, method, format, arg1, arg2, arg3, arg4);
     }
 
     private static void record(FlightRecorder.ThreadRecorder recorder, int level, String clazz, String method, String format, Object arg1, Object arg2, Object arg3, Object arg4, Object arg5) {
         if (recorder != null)
-            recorder.record(level, makeFlightRecorderMessage(recorder, clazz, method, format, new Object[]{arg1, arg2, arg3, arg4, arg5}));
+            recorder.record(level, clazz, method, format, arg1, arg2, arg3, arg4, arg5);
     }
 
     private static void record(FlightRecorder.ThreadRecorder recorder, int level, String clazz, String method, String format, Object arg1, Object arg2, Object arg3, Object arg4, Object arg5, Object arg6) {
         if (recorder != null)
-            recorder.record(level, makeFlightRecorderMessage(recorder, clazz, method, format, new Object[]{arg1, arg2, arg3, arg4, arg5, arg6}));
+            recorder.record(level, clazz, method, format, arg1, arg2, arg3, arg4, arg5, arg6);
     }
 
     private static void record(FlightRecorder.ThreadRecorder recorder, int level, String clazz, String method, String format, Object arg1, Object arg2, Object arg3, Object arg4, Object arg5, Object arg6, Object arg7) {
         if (recorder != null)
-            recorder.record(level, makeFlightRecorderMessage(recorder, clazz, method, format, new Object[]{arg1, arg2, arg3, arg4, arg5, arg6, arg7}));
+            recorder.record(level, clazz, method, format, arg1, arg2, arg3, arg4, arg5, arg6, arg7);
     }
 
     private static void record(FlightRecorder.ThreadRecorder recorder, int level, String clazz, String method, String format, Object... args) {
         if (recorder != null)
-            recorder.record(level, makeFlightRecorderMessage(recorder, clazz, method, format, args));
+            recorder.record(level, clazz, method, format, args);
     }
 
-    private static FlightRecorderMessage makeFlightRecorderMessage(FlightRecorder.ThreadRecorder recorder, String clazz, String method, String format, Object[] args) {
-        return new FlightRecorderMessage(clazz, method, format, args);
-        //return ((FlightRecorderMessageFactory) recorder.getAux()).makeFlightRecorderMessage(clazz, method, format, args);
-    }
     //</editor-fold>
 }
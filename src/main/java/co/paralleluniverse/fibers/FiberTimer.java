@@ -0,0 +1,219 @@
+/*
+ * Quasar: lightweight threads and actors for the JVM.
+ * Copyright (C) 2013, Parallel Universe Software Co. All rights reserved.
+ *
+ * This program and the accompanying materials are dual-licensed under
+ * either the terms of the Eclipse Public License v1.0 as published by
+ * the Eclipse Foundation
+ *
+ *   or (per the licensee's choosing)
+ *
+ * under the terms of the GNU Lesser General Public License version 3.0
+ * as published by the Free Software Foundation.
+ */
+package co.paralleluniverse.fibers;
+
+import co.paralleluniverse.common.monitoring.Counter;
+import com.google.common.collect.MapMaker;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import jsr166e.ForkJoinPool;
+
+/**
+ * Wakes up fibers whose timed park has expired.
+ * <p/>
+ * Each {@link ForkJoinPool} gets its own timer, created on first use. The implementation is chosen with the
+ * {@code co.paralleluniverse.fibers.timer} system property: {@code wheel} (the default) for a {@link FiberTimerWheel},
+ * or {@code executor} for a single, JVM-wide {@link ExecutorFiberTimer}. A custom timer may be installed for a pool
+ * with {@link #setTimer(ForkJoinPool, FiberTimer) setTimer}.
+ * <p/>
+ * Timers created here are exposed through JMX as {@link FiberTimerMXBean}s.
+ *
+ * @author pron
+ */
+public abstract class FiberTimer {
+    private static final String TIMER_TYPE = System.getProperty("co.paralleluniverse.fibers.timer", "wheel");
+    private static final ConcurrentMap<ForkJoinPool, FiberTimer> timers = new MapMaker().weakKeys().makeMap();
+    private static volatile FiberTimer defaultTimer;
+    private static volatile ExecutorFiberTimer executorTimer;
+    private static final AtomicInteger poolTimerCounter = new AtomicInteger();
+    //
+    private final Counter scheduledCounter = new Counter();
+    private final Counter cancelledCounter = new Counter();
+    private final Counter firedCounter = new Counter();
+    private final Counter staleCounter = new Counter();
+
+    /**
+     * Returns the timer used by fibers running in the given pool.
+     *
+     * @param fjPool the fibers' pool; may be {@code null}
+     */
+    public static FiberTimer getTimer(ForkJoinPool fjPool) {
+        if (fjPool == null)
+            return getDefaultTimer();
+        FiberTimer timer = timers.get(fjPool);
+        if (timer == null) {
+            final String name = "pool-" + poolTimerCounter.incrementAndGet();
+            timer = newTimer(name);
+            final FiberTimer old = timers.putIfAbsent(fjPool, timer);
+            if (old != null)
+                timer = old; // the timer we've created has never been started, so it can simply be dropped
+            else
+                monitor(timer, name);
+        }
+        return timer;
+    }
+
+    /**
+     * Installs the timer to be used by fibers running in the given pool.
+     * Timeouts already scheduled with the previous timer are not affected.
+     */
+    public static void setTimer(ForkJoinPool fjPool, FiberTimer timer) {
+        if (fjPool == null || timer == null)
+            throw new NullPointerException();
+        timers.put(fjPool, timer);
+    }
+
+    private static FiberTimer getDefaultTimer() {
+        FiberTimer timer = defaultTimer;
+        if (timer == null) {
+            synchronized (FiberTimer.class) {
+                timer = defaultTimer;
+                if (timer == null)
+                    defaultTimer = timer = monitor(newTimer("default"), "default");
+            }
+        }
+        return timer;
+    }
+
+    /**
+     * Creates a new timer, whose monitor is only registered by {@link #monitor(FiberTimer, String) monitor}.
+     */
+    private static FiberTimer newTimer(String name) {
+        switch (TIMER_TYPE) {
+            case "wheel":
+                return new FiberTimerWheel(name);
+            case "executor":
+                return getExecutorTimer();
+            default:
+                throw new IllegalArgumentException("Unknown fiber timer type: " + TIMER_TYPE + " (must be wheel or executor)");
+        }
+    }
+
+    private static FiberTimer getExecutorTimer() {
+        ExecutorFiberTimer timer = executorTimer;
+        if (timer == null) {
+            synchronized (FiberTimer.class) {
+                timer = executorTimer;
+                if (timer == null)
+                    executorTimer = timer = withMonitor(new ExecutorFiberTimer("fiber-timeout"), "executor");
+            }
+        }
+        return timer;
+    }
+
+    private static FiberTimer monitor(FiberTimer timer, String name) {
+        if (timer != executorTimer) // the executor timer is shared, and has been registered when it was created
+            withMonitor(timer, name);
+        return timer;
+    }
+
+    private static <T extends FiberTimer> T withMonitor(T timer, String name) {
+        new JMXFiberTimerMonitor(name, timer);
+        return timer;
+    }
+
+    /**
+     * Schedules the given fiber to be unparked after the given delay.
+     *
+     * @return a handle that can be used to cancel the timeout.
+     */
+    public final Timeout schedule(Fiber<?> fiber, long delay, TimeUnit unit) {
+        final Timeout timeout = newTimeout(fiber, delay, unit);
+        schedule(timeout);
+        return timeout;
+    }
+
+    /**
+     * Creates a timeout that will unpark the given fiber once the given delay (counted from now) has elapsed, but doesn't
+     * start it until it's {@link #schedule(Timeout) scheduled}. This lets a fiber publish its timeout before the timer
+     * can fire it. The timeout may be cancelled before it's scheduled.
+     */
+    public abstract Timeout newTimeout(Fiber<?> fiber, long delay, TimeUnit unit);
+
+    /**
+     * Schedules a timeout created by {@link #newTimeout(Fiber, long, TimeUnit) newTimeout}.
+     */
+    public abstract void schedule(Timeout timeout);
+
+    /**
+     * Must be called by implementations whenever a timeout is scheduled.
+     */
+    protected final void scheduled() {
+        scheduledCounter.inc();
+    }
+
+    /**
+     * Must be called by implementations whenever a timeout is successfully cancelled.
+     */
+    protected final void cancelled() {
+        cancelledCounter.inc();
+    }
+
+    /**
+     * Must be called by implementations when a timeout expires, instead of unparking the fiber directly.
+     * The fiber is unparked only if it is still parked on the given timeout.
+     */
+    protected final void fire(Fiber<?> fiber, Timeout timeout) {
+        if (fiber.timeoutExpired(timeout))
+            firedCounter.inc();
+        else
+            staleCounter.inc();
+    }
+
+    /**
+     * The number of timeouts scheduled with this timer.
+     */
+    public long getScheduledCount() {
+        return scheduledCounter.get();
+    }
+
+    /**
+     * The number of timeouts cancelled before they expired, usually because their fiber had been unparked.
+     */
+    public long getCancelledCount() {
+        return cancelledCounter.get();
+    }
+
+    /**
+     * The number of expired timeouts that have woken up their fiber.
+     */
+    public long getFiredCount() {
+        return firedCounter.get();
+    }
+
+    /**
+     * The number of timeouts that have expired after their fiber had already been woken up, and were therefore ignored.
+     */
+    public long getStaleCount() {
+        return staleCounter.get();
+    }
+
+    public void resetCounters() {
+        scheduledCounter.reset();
+        cancelledCounter.reset();
+        firedCounter.reset();
+        staleCounter.reset();
+    }
+
+    public interface Timeout {
+        /**
+         * Cancels this timeout.
+         *
+         * @return {@code true} if the timeout has been cancelled before it fired; {@code false} if it has already
+         * fired or been cancelled.
+         */
+        boolean cancel();
+    }
+}
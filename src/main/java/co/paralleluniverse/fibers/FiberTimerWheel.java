@@ -0,0 +1,318 @@
+/*
+ * Quasar: lightweight threads and actors for the JVM.
+ * Copyright (C) 2013, Parallel Universe Software Co. All rights reserved.
+ *
+ * This program and the accompanying materials are dual-licensed under
+ * either the terms of the Eclipse Public License v1.0 as published by
+ * the Eclipse Foundation
+ *
+ *   or (per the licensee's choosing)
+ *
+ * under the terms of the GNU Lesser General Public License version 3.0
+ * as published by the Free Software Foundation.
+ */
+package co.paralleluniverse.fibers;
+
+import co.paralleluniverse.concurrent.util.UtilUnsafe;
+import co.paralleluniverse.strands.queues.SingleConsumerLinkedArrayObjectQueue;
+import co.paralleluniverse.strands.queues.SingleConsumerQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import sun.misc.Unsafe;
+
+/**
+ * A {@link FiberTimer} backed by a hashed timing wheel.
+ * <p/>
+ * Scheduling and cancelling a timeout are both O(1): new and cancelled timeouts are handed over to the wheel's ticker
+ * thread through lock-free queues, and the ticker is the only thread that touches the wheel's buckets. Timeouts fire
+ * at tick granularity (1ms by default), never early.
+ * <p/>
+ * The ticker thread is started when the first timeout is scheduled, and terminates after the wheel has been empty
+ * for a while.
+ *
+ * @author pron
+ */
+public class FiberTimerWheel extends FiberTimer {
+    private static final int DEFAULT_WHEEL_SIZE = Integer.getInteger("co.paralleluniverse.fibers.timerWheelSize", 512);
+    private static final long DEFAULT_TICK_MICROS = Long.getLong("co.paralleluniverse.fibers.timerTickMicros", 1000);
+    private static final long IDLE_LINGER_NANOS = TimeUnit.SECONDS.toNanos(1);
+    private static final int STOPPED = 0;
+    private static final int RUNNING = 1;
+    private static final int IDLE = 2;
+    //
+    private final String name;
+    private final long tickNanos;
+    private final int mask;
+    private final Bucket[] wheel;
+    private final long startTime;
+    private final SingleConsumerQueue<Entry, ?> newTimeouts = new SingleConsumerLinkedArrayObjectQueue<Entry>();
+    private final SingleConsumerQueue<Entry, ?> cancelledTimeouts = new SingleConsumerLinkedArrayObjectQueue<Entry>();
+    private volatile int tickerState;
+    private volatile Thread ticker;
+    // accessed by the ticker thread only
+    private long tick;
+    private int pending;
+
+    public FiberTimerWheel(String name, int wheelSize, long tickDuration, TimeUnit unit) {
+        if (wheelSize <= 0)
+            throw new IllegalArgumentException("wheelSize must be positive: " + wheelSize);
+        if (tickDuration <= 0)
+            throw new IllegalArgumentException("tickDuration must be positive: " + tickDuration);
+        this.name = name;
+        this.tickNanos = unit.toNanos(tickDuration);
+        final int size = nextPowerOfTwo(wheelSize);
+        this.mask = size - 1;
+        this.wheel = new Bucket[size];
+        for (int i = 0; i < size; i++)
+            wheel[i] = new Bucket();
+        this.startTime = System.nanoTime();
+        this.tickerState = STOPPED;
+    }
+
+    public FiberTimerWheel(String name) {
+        this(name, DEFAULT_WHEEL_SIZE, DEFAULT_TICK_MICROS, TimeUnit.MICROSECONDS);
+    }
+
+    @Override
+    public Timeout newTimeout(Fiber<?> fiber, long delay, TimeUnit unit) {
+        return new Entry(fiber, System.nanoTime() - startTime + unit.toNanos(delay));
+    }
+
+    @Override
+    public void schedule(Timeout timeout) {
+        newTimeouts.enq((Entry) timeout); // a cancelled entry is dropped when it's transferred to the wheel
+        scheduled();
+        wakeTicker();
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public String toString() {
+        return "FiberTimerWheel{" + name + '}';
+    }
+
+    private void wakeTicker() {
+        for (;;) {
+            switch (tickerState) {
+                case RUNNING:
+                    return;
+                case IDLE:
+                    if (compareAndSetTickerState(IDLE, RUNNING)) {
+                        LockSupport.unpark(ticker);
+                        return;
+                    }
+                    break;
+                case STOPPED:
+                    if (compareAndSetTickerState(STOPPED, RUNNING)) {
+                        startTicker();
+                        return;
+                    }
+                    break;
+            }
+        }
+    }
+
+    private void startTicker() {
+        final Thread t = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                runTicker();
+            }
+        }, "fiber-timer-" + name);
+        t.setDaemon(true);
+        this.ticker = t;
+        t.start();
+    }
+
+    private void runTicker() {
+        tick = currentTick();
+        for (;;) {
+            transferNewTimeouts();
+            removeCancelledTimeouts();
+
+            if (pending == 0) {
+                tickerState = IDLE;
+                if (!newTimeouts.isEmpty()) {
+                    // a timeout may have been scheduled after we've drained the queue but before it saw the IDLE state
+                    compareAndSetTickerState(IDLE, RUNNING);
+                    continue;
+                }
+                LockSupport.parkNanos(this, IDLE_LINGER_NANOS);
+                if (compareAndSetTickerState(IDLE, STOPPED))
+                    return;
+                tick = currentTick(); // the wheel is empty, so we can skip the ticks we've missed
+                continue;
+            }
+
+            waitForNextTick();
+            expireTimeouts(wheel[(int) tick & mask]);
+            tick++;
+        }
+    }
+
+    private long currentTick() {
+        return (System.nanoTime() - startTime) / tickNanos;
+    }
+
+    private void waitForNextTick() {
+        final long deadline = startTime + (tick + 1) * tickNanos;
+        for (;;) {
+            final long left = deadline - System.nanoTime();
+            if (left <= 0)
+                return;
+            LockSupport.parkNanos(this, left);
+        }
+    }
+
+    private void transferNewTimeouts() {
+        Entry e;
+        while ((e = newTimeouts.poll()) != null) {
+            if (e.state != Entry.PENDING)
+                continue; // cancelled before it made it to the wheel
+            final long expirationTick = e.deadline / tickNanos;
+            e.remainingRounds = (expirationTick - tick) / wheel.length;
+            wheel[(int) Math.max(expirationTick, tick) & mask].add(e);
+            pending++;
+        }
+    }
+
+    private void removeCancelledTimeouts() {
+        Entry e;
+        while ((e = cancelledTimeouts.poll()) != null) {
+            if (e.bucket != null) {
+                e.bucket.remove(e);
+                pending--;
+            }
+        }
+    }
+
+    private void expireTimeouts(Bucket bucket) {
+        for (Entry e = bucket.head; e != null;) {
+            final Entry next = e.next;
+            if (e.state != Entry.PENDING) {
+                bucket.remove(e);
+                pending--;
+            } else if (e.remainingRounds <= 0) {
+                bucket.remove(e);
+                pending--;
+                e.expire();
+            } else
+                e.remainingRounds--;
+            e = next;
+        }
+    }
+
+    private static int nextPowerOfTwo(int v) {
+        return 1 << (32 - Integer.numberOfLeadingZeros(v - 1));
+    }
+
+    private final class Entry implements Timeout {
+        static final int PENDING = 0;
+        static final int CANCELLED = 1;
+        static final int EXPIRED = 2;
+        final Fiber<?> fiber;
+        final long deadline; // nanos since startTime
+        volatile int state;
+        // accessed by the ticker thread only
+        long remainingRounds;
+        Bucket bucket;
+        Entry next;
+        Entry prev;
+
+        Entry(Fiber<?> fiber, long deadline) {
+            this.fiber = fiber;
+            this.deadline = deadline;
+        }
+
+        @Override
+        public boolean cancel() {
+            if (!compareAndSetState(this, PENDING, CANCELLED))
+                return false;
+            cancelledTimeouts.enq(this);
+            cancelled();
+            return true;
+        }
+
+        void expire() {
+            if (!compareAndSetState(this, PENDING, EXPIRED))
+                return;
+            try {
+                fire(fiber, this);
+            } catch (Throwable t) {
+                // never let a misbehaving fiber kill the ticker
+                uncaughtException(fiber, t);
+            }
+        }
+    }
+
+    /**
+     * Reports an exception thrown while waking up the given fiber to the fiber's uncaught exception handler, or, if
+     * there is none, to the ticker thread's.
+     */
+    private static void uncaughtException(Fiber<?> fiber, Throwable t) {
+        Fiber.UncaughtExceptionHandler ueh = fiber.getUncaughtExceptionHandler();
+        if (ueh == null)
+            ueh = Fiber.getDefaultUncaughtExceptionHandler();
+        if (ueh != null)
+            ueh.uncaughtException(fiber, t);
+        else {
+            final Thread ticker = Thread.currentThread();
+            ticker.getUncaughtExceptionHandler().uncaughtException(ticker, t);
+        }
+    }
+
+    private static final class Bucket {
+        Entry head;
+        Entry tail;
+
+        void add(Entry e) {
+            e.bucket = this;
+            e.prev = tail;
+            e.next = null;
+            if (tail == null)
+                head = tail = e;
+            else {
+                tail.next = e;
+                tail = e;
+            }
+        }
+
+        void remove(Entry e) {
+            if (e.prev != null)
+                e.prev.next = e.next;
+            else
+                head = e.next;
+            if (e.next != null)
+                e.next.prev = e.prev;
+            else
+                tail = e.prev;
+            e.next = null;
+            e.prev = null;
+            e.bucket = null;
+        }
+    }
+    ////////////////////////////////////////////////////////////////////////
+    private static final Unsafe unsafe = UtilUnsafe.getUnsafe();
+    private static final long tickerStateOffset;
+    private static final long entryStateOffset;
+
+    static {
+        try {
+            tickerStateOffset = unsafe.objectFieldOffset(FiberTimerWheel.class.getDeclaredField("tickerState"));
+            entryStateOffset = unsafe.objectFieldOffset(Entry.class.getDeclaredField("state"));
+        } catch (Exception ex) {
+            throw new Error(ex);
+        }
+    }
+
+    private boolean compareAndSetTickerState(int expect, int update) {
+        return unsafe.compareAndSwapInt(this, tickerStateOffset, expect, update);
+    }
+
+    private static boolean compareAndSetState(Entry e, int expect, int update) {
+        return unsafe.compareAndSwapInt(e, entryStateOffset, expect, update);
+    }
+}
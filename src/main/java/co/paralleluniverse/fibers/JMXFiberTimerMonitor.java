@@ -0,0 +1,66 @@
+/*
+ * Quasar: lightweight threads and actors for the JVM.
+ * Copyright (C) 2013, Parallel Universe Software Co. All rights reserved.
+ *
+ * This program and the accompanying materials are dual-licensed under
+ * either the terms of the Eclipse Public License v1.0 as published by
+ * the Eclipse Foundation
+ *
+ *   or (per the licensee's choosing)
+ *
+ * under the terms of the GNU Lesser General Public License version 3.0
+ * as published by the Free Software Foundation.
+ */
+package co.paralleluniverse.fibers;
+
+import co.paralleluniverse.common.monitoring.SimpleMBean;
+import java.lang.ref.WeakReference;
+
+/**
+ * Exposes a {@link FiberTimer}'s counters through JMX.
+ *
+ * @author pron
+ */
+class JMXFiberTimerMonitor extends SimpleMBean implements FiberTimerMXBean {
+    private final WeakReference<FiberTimer> timer;
+
+    public JMXFiberTimerMonitor(String name, FiberTimer timer) {
+        super("quasar", name, "fiberTimer", null);
+        this.timer = new WeakReference<FiberTimer>(timer);
+        registerMBean();
+    }
+
+    private FiberTimer timer() {
+        final FiberTimer t = timer.get();
+        if (t == null) {
+            unregisterMBean();
+            throw new RuntimeException("Timer collected");
+        }
+        return t;
+    }
+
+    @Override
+    public long getScheduledTimeouts() {
+        return timer().getScheduledCount();
+    }
+
+    @Override
+    public long getCancelledTimeouts() {
+        return timer().getCancelledCount();
+    }
+
+    @Override
+    public long getFiredTimeouts() {
+        return timer().getFiredCount();
+    }
+
+    @Override
+    public long getStaleTimeouts() {
+        return timer().getStaleCount();
+    }
+
+    @Override
+    public void resetCounters() {
+        timer().resetCounters();
+    }
+}
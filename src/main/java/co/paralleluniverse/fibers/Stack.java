@@ -14,52 +14,141 @@ import java.util.Arrays;
  */
 public final class Stack implements Serializable {
     private static final long serialVersionUID = 12786283751253L;
+    private static final int SHRINK_AFTER_PARKS = Integer.getInteger("co.paralleluniverse.fibers.stackShrinkParks", 8);
+    private static final int FRAME_SIZE = 3; // entry, primitive TOS, object TOS
+    private static final int MIN_METHOD_SIZE = 8;
     private final Fiber fiber;
     private int methodTOS = -1;
-    private int[] method;           // holds each method's entry point as well as stack pointer
+    private int[] method;           // holds each method's entry point as well as its primitive and object stack pointers
     private long[] dataLong;        // holds primitives on stack
     private Object[] dataObject;    // holds refs on stack
-    private transient int curMethodSP;
+    private final int initialMethodSize; // if stacks are pooled, the arrays are only allocated when the fiber first runs
+    private final int initialPrimSize;
+    private final int initialObjSize;
+    private transient StackPool pool;      // the pool of poolThread
+    private transient Thread poolThread;
+    private transient int curPrimSP;
+    private transient int curObjSP;
+    private transient int methodHighWater; // the deepest the method stack has been
+    private transient int primHighWater;   // the deepest the primitive stack has been
+    private transient int objHighWater;    // the deepest the object stack has been
+    private final int minDataSize;  // the primitive and object stacks are never trimmed below this size
+    private transient int shallowParks;
 
     Stack(Fiber lwThread, int stackSize) {
-        if (stackSize <= 0) {
+        this(lwThread, stackSize, stackSize, MIN_METHOD_SIZE, stackSize);
+    }
+
+    /**
+     * Creates a stack with sizes learned from earlier fibers. Unlike an explicitly sized stack, it may be trimmed
+     * below its initial size, down to {@link Fiber#DEFAULT_STACK_SIZE}, as the learned sizes may be larger than this
+     * fiber needs.
+     */
+    Stack(Fiber lwThread, int primStackSize, int objStackSize, int methodStackSize) {
+        this(lwThread, primStackSize, objStackSize, methodStackSize, Fiber.DEFAULT_STACK_SIZE);
+    }
+
+    private Stack(Fiber lwThread, int primStackSize, int objStackSize, int methodStackSize, int minDataSize) {
+        if (primStackSize <= 0 || objStackSize <= 0) {
             throw new IllegalArgumentException("stackSize");
         }
+        if (methodStackSize <= FRAME_SIZE) {
+            throw new IllegalArgumentException("methodStackSize");
+        }
         this.fiber = lwThread;
-        this.method = new int[8];
-        this.dataLong = new long[stackSize];
-        this.dataObject = new Object[stackSize];
+        this.initialMethodSize = methodStackSize;
+        this.initialPrimSize = primStackSize;
+        this.initialObjSize = objStackSize;
+        if (!StackPool.ENABLED) {
+            this.method = new int[methodStackSize];
+            this.dataLong = new long[primStackSize];
+            this.dataObject = new Object[objStackSize];
+        }
+        this.minDataSize = minDataSize;
+    }
+
+    /**
+     * Called when the fiber starts or resumes running. If stacks are pooled, the arrays are taken the first time from the
+     * pool of the thread the fiber runs on, which is also where they're returned when it terminates, rather than from the
+     * pool of the thread that has created the fiber.
+     */
+    final void running() {
+        if (!StackPool.ENABLED || method != null)
+            return;
+        final StackPool pool = pool();
+        this.method = pool.allocInts(initialMethodSize);
+        this.dataLong = pool.allocLongs(initialPrimSize);
+        this.dataObject = pool.allocObjects(initialObjSize);
+    }
+
+    /**
+     * Returns the current thread's pool. The pool is looked up once for as long as the fiber keeps running on the same
+     * thread, and forgotten when it parks, as it may resume on another.
+     */
+    private StackPool pool() {
+        final Thread thread = Thread.currentThread();
+        if (thread != poolThread) {
+            pool = StackPool.getPool();
+            poolThread = thread;
+        }
+        return pool;
     }
 
+    /**
+     * Returns the current fiber's stack, or {@code null} if not running in a fiber, in which case instrumented methods
+     * run as if they weren't instrumented.
+     */
     public static Stack getStack() {
         final Fiber currentFiber = Fiber.currentFiber();
-        if(currentFiber == null)
-            throw new RuntimeException("Not running in a fiber");
-        return currentFiber.getStack();
+        return currentFiber != null ? currentFiber.getStack() : null;
     }
 
     /**
      * Called before a method is called.
+     * Kept for code instrumented before primitives and references were given separate stacks.
      *
      * @param entry the entry point in the method for resume
      * @param numSlots the number of required stack slots for storing the state
      */
     public final void pushMethodAndReserveSpace(int entry, int numSlots) {
+        pushMethodAndReserveSpace(entry, numSlots, numSlots);
+    }
+
+    /**
+     * Called before a method is called.
+     *
+     * @param entry the entry point in the method for resume
+     * @param numPrimSlots the number of required primitive stack slots for storing the state
+     * @param numObjSlots the number of required object stack slots for storing the state
+     */
+    public final void pushMethodAndReserveSpace(int entry, int numPrimSlots, int numObjSlots) {
         final int methodIdx = methodTOS;
 
-        if (method.length - methodIdx < 2)
+        if (method.length - methodIdx <= FRAME_SIZE) // we need room for this frame and the callee's entry
             growMethodStack();
 
-        curMethodSP = method[methodIdx - 1];
-        final int dataTOS = curMethodSP + numSlots;
+        curPrimSP = method[methodIdx - 2];
+        curObjSP = method[methodIdx - 1];
+        final int primTOS = curPrimSP + numPrimSlots;
+        final int objTOS = curObjSP + numObjSlots;
 
         method[methodIdx] = entry;
-        method[methodIdx + 1] = dataTOS;
+        method[methodIdx + 1] = primTOS;
+        method[methodIdx + 2] = objTOS;
+
+        //System.out.println("entry="+entry+" prim="+numPrimSlots+" obj="+numObjSlots+" psp="+curPrimSP+" osp="+curObjSP+" nr="+methodIdx);
 
-        //System.out.println("entry="+entry+" size="+size+" sp="+curMethodSP+" tos="+dataTOS+" nr="+methodIdx);
+        if (methodIdx + FRAME_SIZE + 1 > methodHighWater)
+            methodHighWater = methodIdx + FRAME_SIZE + 1;
+        if (primTOS > primHighWater)
+            primHighWater = primTOS;
+        if (objTOS > objHighWater)
+            objHighWater = objTOS;
 
-        if (dataTOS > dataObject.length)
-            growDataStack(dataTOS);
+        if (primTOS > dataLong.length)
+            growPrimStack(primTOS);
+        if (objTOS > dataObject.length)
+            growObjStack(objTOS);
     }
 
     /**
@@ -70,11 +159,12 @@ public final class Stack implements Serializable {
     public final void popMethod() {
         final int idx = methodTOS;
         method[idx] = 0;
-        final int oldSP = curMethodSP;
-        final int newSP = method[idx - 1];
-        curMethodSP = newSP;
-        methodTOS = idx - 2;
-        for (int i = newSP; i < oldSP; i++)
+        final int oldObjSP = curObjSP;
+        final int newObjSP = method[idx - 1];
+        curPrimSP = method[idx - 2];
+        curObjSP = newObjSP;
+        methodTOS = idx - FRAME_SIZE;
+        for (int i = newObjSP; i < oldObjSP; i++)
             dataObject[i] = null;
     }
 
@@ -85,49 +175,50 @@ public final class Stack implements Serializable {
      */
     public final int nextMethodEntry() {
         int idx = methodTOS;
-        curMethodSP = method[++idx];
+        curPrimSP = method[++idx];
+        curObjSP = method[++idx];
         methodTOS = ++idx;
         return method[idx];
     }
 
     public static void push(int value, Stack s, int idx) {
-        s.dataLong[s.curMethodSP + idx] = value;
+        s.dataLong[s.curPrimSP + idx] = value;
     }
 
     public static void push(float value, Stack s, int idx) {
-        s.dataLong[s.curMethodSP + idx] = Float.floatToRawIntBits(value);
+        s.dataLong[s.curPrimSP + idx] = Float.floatToRawIntBits(value);
     }
 
     public static void push(long value, Stack s, int idx) {
-        s.dataLong[s.curMethodSP + idx] = value;
+        s.dataLong[s.curPrimSP + idx] = value;
     }
 
     public static void push(double value, Stack s, int idx) {
-        s.dataLong[s.curMethodSP + idx] = Double.doubleToRawLongBits(value);
+        s.dataLong[s.curPrimSP + idx] = Double.doubleToRawLongBits(value);
     }
 
     public static void push(Object value, Stack s, int idx) {
-        s.dataObject[s.curMethodSP + idx] = value;
+        s.dataObject[s.curObjSP + idx] = value;
     }
 
     public final int getInt(int idx) {
-        return (int) dataLong[curMethodSP + idx];
+        return (int) dataLong[curPrimSP + idx];
     }
 
     public final float getFloat(int idx) {
-        return Float.intBitsToFloat((int) dataLong[curMethodSP + idx]);
+        return Float.intBitsToFloat((int) dataLong[curPrimSP + idx]);
     }
 
     public final long getLong(int idx) {
-        return dataLong[curMethodSP + idx];
+        return dataLong[curPrimSP + idx];
     }
 
     public final double getDouble(int idx) {
-        return Double.longBitsToDouble(dataLong[curMethodSP + idx]);
+        return Double.longBitsToDouble(dataLong[curPrimSP + idx]);
     }
 
     public final Object getObject(int idx) {
-        return dataObject[curMethodSP + idx];
+        return dataObject[curObjSP + idx];
     }
 
     public final void postRestore() {
@@ -141,27 +232,152 @@ public final class Stack implements Serializable {
         methodTOS = -1;
     }
 
-    private void growDataStack(int required) {
-        int newSize = dataObject.length;
+    /**
+     * The number of method stack slots this stack has required so far.
+     */
+    final int getMethodHighWater() {
+        return methodHighWater;
+    }
+
+    /**
+     * The number of primitive stack slots this stack has required so far.
+     */
+    final int getPrimHighWater() {
+        return primHighWater;
+    }
+
+    /**
+     * The number of object stack slots this stack has required so far.
+     */
+    final int getObjHighWater() {
+        return objHighWater;
+    }
+
+    /**
+     * Called when the fiber terminates. Returns the stack's arrays to the pool, if pooling is enabled.
+     */
+    final void release() {
+        if (!StackPool.ENABLED || method == null)
+            return;
+        final StackPool pool = pool();
+        Arrays.fill(method, 0);
+        pool.free(method);
+        pool.free(dataLong);
+        pool.free(dataObject);
+        method = null;
+        dataLong = null;
+        dataObject = null;
+        this.pool = null;
+        this.poolThread = null;
+    }
+
+    /**
+     * Called when the fiber parks, before {@link #resumeStack()}.
+     * If the fiber has parked at a shallow depth several times in a row after its stack had grown, trims the stack back
+     * to twice the depth in use (but no smaller than the default or the explicitly requested size), so that a deep
+     * excursion doesn't keep the stack large for the rest of the fiber's life.
+     */
+    final void parked() {
+        shrink();
+        pool = null; // the fiber may resume on another thread
+        poolThread = null;
+    }
+
+    private void shrink() {
+        if (SHRINK_AFTER_PARKS <= 0
+                || (dataObject.length <= minDataSize && dataLong.length <= minDataSize && method.length <= MIN_METHOD_SIZE))
+            return; // fast path - nothing to shrink
+
+        final int methodUsed = methodTOS + FRAME_SIZE + 1;
+        final int primUsed = methodTOS >= 0 ? method[methodTOS + 1] : 0;
+        final int objUsed = methodTOS >= 0 ? method[methodTOS + 2] : 0;
+        if (methodUsed * 4 > method.length && primUsed * 4 > dataLong.length && objUsed * 4 > dataObject.length) {
+            shallowParks = 0;
+            return;
+        }
+        if (++shallowParks < SHRINK_AFTER_PARKS)
+            return;
+        shallowParks = 0;
+
+        if (methodUsed * 4 <= method.length && method.length > MIN_METHOD_SIZE)
+            resizeMethodStack(Math.max(MIN_METHOD_SIZE, 2 * methodUsed), methodUsed);
+        if (primUsed * 4 <= dataLong.length && dataLong.length > minDataSize)
+            resizePrimStack(Math.max(minDataSize, 2 * primUsed), primUsed);
+        if (objUsed * 4 <= dataObject.length && dataObject.length > minDataSize)
+            resizeObjStack(Math.max(minDataSize, 2 * objUsed), objUsed);
+    }
+
+    private void growPrimStack(int required) {
+        resizePrimStack(grownSize(dataLong.length, required), dataLong.length);
+    }
+
+    private void growObjStack(int required) {
+        resizeObjStack(grownSize(dataObject.length, required), dataObject.length);
+    }
+
+    private static int grownSize(int size, int required) {
+        int newSize = size;
         do {
             newSize *= 2;
         } while (newSize < required);
-
-        dataLong = Arrays.copyOf(dataLong, newSize);
-        dataObject = Arrays.copyOf(dataObject, newSize);
+        return newSize;
     }
 
     private void growMethodStack() {
-        int newSize = method.length * 2;
-        method = Arrays.copyOf(method, newSize);
+        resizeMethodStack(method.length * 2, method.length);
+    }
+
+    private void resizePrimStack(int newSize, int used) {
+        if (StackPool.ENABLED) {
+            final StackPool pool = pool();
+            final long[] newDataLong = pool.allocLongs(newSize);
+            System.arraycopy(dataLong, 0, newDataLong, 0, used);
+            pool.free(dataLong);
+            dataLong = newDataLong;
+        } else
+            dataLong = Arrays.copyOf(dataLong, newSize);
+    }
+
+    private void resizeObjStack(int newSize, int used) {
+        if (StackPool.ENABLED) {
+            final StackPool pool = pool();
+            final Object[] newDataObject = pool.allocObjects(newSize);
+            System.arraycopy(dataObject, 0, newDataObject, 0, used);
+            pool.free(dataObject);
+            dataObject = newDataObject;
+        } else {
+            final int oldSize = dataObject.length;
+            dataObject = Arrays.copyOf(dataObject, newSize);
+            if (used < oldSize)
+                Arrays.fill(dataObject, used, Math.min(oldSize, newSize), null); // don't retain garbage above the top of the stack
+        }
+    }
+
+    private void resizeMethodStack(int newSize, int used) {
+        if (StackPool.ENABLED) {
+            final StackPool pool = pool();
+            final int[] newMethod = pool.allocInts(newSize);
+            System.arraycopy(method, 0, newMethod, 0, used);
+            Arrays.fill(method, 0);
+            pool.free(method);
+            method = newMethod;
+        } else {
+            final int oldSize = method.length;
+            method = Arrays.copyOf(method, newSize);
+            if (used < oldSize)
+                Arrays.fill(method, used, Math.min(oldSize, newSize), 0);
+        }
     }
 
     void dump() {
-        int sp = 0;
-        for (int i = 0; i <= methodTOS; i += 2) {
-            System.out.println("i=" + i + " entry=" + method[i] + " sp=" + method[i+1]);
-            for (; sp < method[i + 3]; sp++)
-                System.out.println("sp=" + sp + " long=" + dataLong[sp] + " obj=" + dataObject[sp]);
+        int psp = 0;
+        int osp = 0;
+        for (int i = FRAME_SIZE - 1; i <= methodTOS; i += FRAME_SIZE) {
+            System.out.println("i=" + i + " entry=" + method[i] + " psp=" + method[i + 1] + " osp=" + method[i + 2]);
+            for (; psp < method[i + 1]; psp++)
+                System.out.println("psp=" + psp + " long=" + dataLong[psp]);
+            for (; osp < method[i + 2]; osp++)
+                System.out.println("osp=" + osp + " obj=" + dataObject[osp]);
         }
     }
 }
@@ -0,0 +1,168 @@
+/*
+ * Quasar: lightweight threads and actors for the JVM.
+ * Copyright (C) 2013, Parallel Universe Software Co. All rights reserved.
+ *
+ * This program and the accompanying materials are dual-licensed under
+ * either the terms of the Eclipse Public License v1.0 as published by
+ * the Eclipse Foundation
+ *
+ *   or (per the licensee's choosing)
+ *
+ * under the terms of the GNU Lesser General Public License version 3.0
+ * as published by the Free Software Foundation.
+ */
+package co.paralleluniverse.fibers;
+
+import com.google.common.collect.MapMaker;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A per-thread pool of the arrays backing fiber {@link Stack}s.
+ * <p/>
+ * When enabled with the {@code co.paralleluniverse.fibers.stackPool} system property, a terminated fiber returns its stack
+ * arrays to the pool of the thread it terminated on, and fibers take their arrays (when they first run, and when their
+ * stacks grow) from the pool of the thread they're running on, so arrays circulate among the pools of the threads
+ * running fibers. Arrays are kept in power-of-two size classes, and each thread retains at most
+ * {@code co.paralleluniverse.fibers.stackPoolMaxBytes} bytes (1MB by default); arrays that don't fit are left to the GC.
+ * <p/>
+ * Each pool is only ever accessed by its own thread. We can't use a {@link ThreadLocal} because fibers swap their
+ * thread's thread-locals, so the pools are looked up by thread instead; a {@link Stack} caches its current thread's
+ * pool while its fiber is running.
+ *
+ * @author pron
+ */
+final class StackPool {
+    static final boolean ENABLED = Boolean.getBoolean("co.paralleluniverse.fibers.stackPool");
+    private static final long DEFAULT_MAX_BYTES = Long.getLong("co.paralleluniverse.fibers.stackPoolMaxBytes", 1 << 20);
+    private static final int NUM_SIZE_CLASSES = 24;
+    private static final int REF_SIZE = 8; // conservative
+    private static final ConcurrentMap<Thread, StackPool> pools = new MapMaker().weakKeys().makeMap();
+    //
+    private final long maxBytes;
+    private final Bucket[] ints = new Bucket[NUM_SIZE_CLASSES];
+    private final Bucket[] longs = new Bucket[NUM_SIZE_CLASSES];
+    private final Bucket[] objects = new Bucket[NUM_SIZE_CLASSES];
+    private long retainedBytes;
+
+    static StackPool getPool() {
+        final Thread thread = Thread.currentThread();
+        StackPool pool = pools.get(thread);
+        if (pool == null) {
+            pool = new StackPool(DEFAULT_MAX_BYTES);
+            pools.put(thread, pool); // only the current thread ever puts its own pool
+        }
+        return pool;
+    }
+
+    StackPool(long maxBytes) {
+        this.maxBytes = maxBytes;
+        for (int i = 0; i < NUM_SIZE_CLASSES; i++) {
+            ints[i] = new Bucket();
+            longs[i] = new Bucket();
+            objects[i] = new Bucket();
+        }
+    }
+
+    /**
+     * Returns the smallest pooled size that can hold {@code size} elements.
+     */
+    static int pooledSize(int size) {
+        return size <= 1 ? 1 : Integer.highestOneBit(size - 1) << 1;
+    }
+
+    int[] allocInts(int size) {
+        final int[] a = (int[]) take(ints, size);
+        if (a == null)
+            return new int[pooledSize(size)];
+        retainedBytes -= (long) a.length * 4;
+        return a;
+    }
+
+    long[] allocLongs(int size) {
+        final long[] a = (long[]) take(longs, size);
+        if (a == null)
+            return new long[pooledSize(size)];
+        retainedBytes -= (long) a.length * 8;
+        return a;
+    }
+
+    Object[] allocObjects(int size) {
+        final Object[] a = (Object[]) take(objects, size);
+        if (a == null)
+            return new Object[pooledSize(size)];
+        retainedBytes -= (long) a.length * REF_SIZE;
+        return a;
+    }
+
+    /**
+     * Returns an array to the pool. The array must be zeroed, as it is handed out as-is.
+     */
+    void free(int[] a) {
+        put(ints, a, a.length, 4);
+    }
+
+    void free(long[] a) {
+        put(longs, a, a.length, 8);
+    }
+
+    /**
+     * Returns an array to the pool. The array is cleared so as not to retain garbage.
+     */
+    void free(Object[] a) {
+        if (put(objects, a, a.length, REF_SIZE))
+            Arrays.fill(a, null);
+    }
+
+    long getRetainedBytes() {
+        return retainedBytes;
+    }
+
+    private static Object take(Bucket[] buckets, int size) {
+        final int sizeClass = ceilLog2(size);
+        if (sizeClass >= NUM_SIZE_CLASSES)
+            return null;
+        return buckets[sizeClass].pop();
+    }
+
+    private boolean put(Bucket[] buckets, Object a, int length, int elementSize) {
+        if (length == 0)
+            return false;
+        final int sizeClass = floorLog2(length);
+        if (sizeClass >= NUM_SIZE_CLASSES)
+            return false;
+        final long bytes = (long) length * elementSize;
+        if (retainedBytes + bytes > maxBytes)
+            return false;
+        buckets[sizeClass].push(a);
+        retainedBytes += bytes;
+        return true;
+    }
+
+    private static int floorLog2(int x) {
+        return 31 - Integer.numberOfLeadingZeros(x);
+    }
+
+    private static int ceilLog2(int x) {
+        return x <= 1 ? 0 : 32 - Integer.numberOfLeadingZeros(x - 1);
+    }
+
+    private static final class Bucket {
+        private Object[] items = new Object[4];
+        private int size;
+
+        void push(Object a) {
+            if (size == items.length)
+                items = Arrays.copyOf(items, size * 2);
+            items[size++] = a;
+        }
+
+        Object pop() {
+            if (size == 0)
+                return null;
+            final Object a = items[--size];
+            items[size] = null;
+            return a;
+        }
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * Quasar: lightweight threads and actors for the JVM.
+ * Copyright (C) 2013, Parallel Universe Software Co. All rights reserved.
+ *
+ * This program and the accompanying materials are dual-licensed under
+ * either the terms of the Eclipse Public License v1.0 as published by
+ * the Eclipse Foundation
+ *
+ *   or (per the licensee's choosing)
+ *
+ * under the terms of the GNU Lesser General Public License version 3.0
+ * as published by the Free Software Foundation.
+ */
+package co.paralleluniverse.fibers;
+
+import co.paralleluniverse.common.monitoring.SimpleMBean;
+import com.google.common.collect.MapMaker;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Learns the initial stack size for fibers from the stack depths reached by earlier fibers running the same target class.
+ * <p/>
+ * When a fiber terminates, the high-water marks of its method, primitive and object stacks are recorded for its target's class
+ * (or for the fiber's own class if it has no target). Fibers of that class that are later created without an explicit
+ * stack size start with stacks large enough to hold the typical depth reached by recent fibers, up to
+ * {@code co.paralleluniverse.fibers.maxLearnedStackSize} primitive and object slots each. The typical depth is a decayed
+ * average that rises quickly when fibers run deeper and falls slowly when they run shallower, so it settles near the
+ * depth most fibers reach, while the effect of a single deep outlier fades away. Learning can be turned off with
+ * {@code -Dco.paralleluniverse.fibers.adaptiveStackSize=false}.
+ *
+ * @author pron
+ */
+final class StackSizes extends SimpleMBean implements StackSizesMXBean {
+    static final boolean ENABLED = Boolean.parseBoolean(System.getProperty("co.paralleluniverse.fibers.adaptiveStackSize", "true"));
+    private static final int MAX_DATA_STACK_SIZE = Integer.getInteger("co.paralleluniverse.fibers.maxLearnedStackSize", 1024);
+    private static final int DEFAULT_METHOD_STACK_SIZE = 8;
+    private static final int SCALE_SHIFT = 4; // averages are kept in fixed point, with 4 fractional bits
+    private static final int RISE_SHIFT = 2;  // a deeper sample moves the average 1/4 of the way towards it
+    private static final int FALL_SHIFT = 4;  // a shallower sample moves the average 1/16 of the way towards it
+    private static final StackSizes instance = ENABLED ? new StackSizes() : null;
+    //
+    private final ConcurrentMap<Class<?>, Entry> sizes = new MapMaker().weakKeys().makeMap();
+
+    private StackSizes() {
+        super("quasar", "stackSizes", "fibers", null);
+        registerMBean();
+    }
+
+    /**
+     * Returns the initial primitive stack size for a new fiber of the given class.
+     */
+    static int getPrimStackSize(Class<?> clazz) {
+        if (!ENABLED)
+            return Fiber.DEFAULT_STACK_SIZE;
+        final Entry e = instance.sizes.get(clazz);
+        return e != null ? size(e.primAverage) : Fiber.DEFAULT_STACK_SIZE;
+    }
+
+    /**
+     * Returns the initial object stack size for a new fiber of the given class.
+     */
+    static int getObjStackSize(Class<?> clazz) {
+        if (!ENABLED)
+            return Fiber.DEFAULT_STACK_SIZE;
+        final Entry e = instance.sizes.get(clazz);
+        return e != null ? size(e.objAverage) : Fiber.DEFAULT_STACK_SIZE;
+    }
+
+    /**
+     * Returns the initial method stack size for a new fiber of the given class.
+     */
+    static int getMethodStackSize(Class<?> clazz) {
+        if (!ENABLED)
+            return DEFAULT_METHOD_STACK_SIZE;
+        final Entry e = instance.sizes.get(clazz);
+        return e != null ? size(e.methodAverage) : DEFAULT_METHOD_STACK_SIZE;
+    }
+
+    /**
+     * Records the stack depths reached by a terminated fiber of the given class.
+     */
+    static void record(Class<?> clazz, Stack stack) {
+        if (!ENABLED)
+            return;
+        final int prim = Math.min(Math.max(stack.getPrimHighWater(), Fiber.DEFAULT_STACK_SIZE), MAX_DATA_STACK_SIZE);
+        final int obj = Math.min(Math.max(stack.getObjHighWater(), Fiber.DEFAULT_STACK_SIZE), MAX_DATA_STACK_SIZE);
+        final int method = Math.min(Math.max(stack.getMethodHighWater(), DEFAULT_METHOD_STACK_SIZE), 3 * MAX_DATA_STACK_SIZE);
+
+        Entry e = instance.sizes.get(clazz);
+        if (e == null) {
+            e = new Entry();
+            final Entry old = instance.sizes.putIfAbsent(clazz, e);
+            if (old != null)
+                e = old;
+        }
+        // racy, but we don't mind occasionally losing a sample. We only write when an average changes, so once the depths have
+        // settled recording is read-only and doesn't contend.
+        final int primAverage = average(e.primAverage, prim);
+        if (primAverage != e.primAverage)
+            e.primAverage = primAverage;
+        final int objAverage = average(e.objAverage, obj);
+        if (objAverage != e.objAverage)
+            e.objAverage = objAverage;
+        final int methodAverage = average(e.methodAverage, method);
+        if (methodAverage != e.methodAverage)
+            e.methodAverage = methodAverage;
+    }
+
+    private static int average(int average, int sample) {
+        final int diff = (sample << SCALE_SHIFT) - average;
+        return average + (diff > 0 ? (diff + (1 << RISE_SHIFT) - 1) >> RISE_SHIFT : diff >> FALL_SHIFT);
+    }
+
+    private static int size(int average) {
+        return (average + (1 << SCALE_SHIFT) - 1) >> SCALE_SHIFT;
+    }
+
+    @Override
+    public Map<String, Integer> getPrimitiveStackSizes() {
+        final Map<String, Integer> map = new HashMap<String, Integer>();
+        for (Map.Entry<Class<?>, Entry> entry : sizes.entrySet())
+            map.put(entry.getKey().getName(), size(entry.getValue().primAverage));
+        return map;
+    }
+
+    @Override
+    public Map<String, Integer> getObjectStackSizes() {
+        final Map<String, Integer> map = new HashMap<String, Integer>();
+        for (Map.Entry<Class<?>, Entry> entry : sizes.entrySet())
+            map.put(entry.getKey().getName(), size(entry.getValue().objAverage));
+        return map;
+    }
+
+    @Override
+    public Map<String, Integer> getMethodStackSizes() {
+        final Map<String, Integer> map = new HashMap<String, Integer>();
+        for (Map.Entry<Class<?>, Entry> entry : sizes.entrySet())
+            map.put(entry.getKey().getName(), size(entry.getValue().methodAverage));
+        return map;
+    }
+
+    @Override
+    public void reset() {
+        sizes.clear();
+    }
+
+    static void resetAll() {
+        if (ENABLED)
+            instance.reset();
+    }
+
+    private static final class Entry {
+        volatile int primAverage = Fiber.DEFAULT_STACK_SIZE << SCALE_SHIFT;
+        volatile int objAverage = Fiber.DEFAULT_STACK_SIZE << SCALE_SHIFT;
+        volatile int methodAverage = DEFAULT_METHOD_STACK_SIZE << SCALE_SHIFT;
+    }
+}
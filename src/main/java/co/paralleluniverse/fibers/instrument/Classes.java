@@ -27,9 +27,16 @@ final class Classes {
     static final String EXCEPTION_NAME = Type.getInternalName(SUSPEND_EXECUTION_CLASS);
     static final String EXCEPTION_DESC = Type.getDescriptor(SUSPEND_EXECUTION_CLASS);
     static final String COROUTINE_NAME = Type.getInternalName(COROUTINE_CLASS);
+    // Strand is excluded from build-time instrumentation (see build.gradle), so calls to its park methods, which only forward to
+    // Fiber's, must not be repeated on resume. They're treated as yield methods, which the agent doesn't instrument either.
+    static final String STRAND_NAME = "co/paralleluniverse/strands/Strand";
 
     static boolean isYieldMethod(String className, String methodName) {
-        return COROUTINE_NAME.equals(className) && ("park".equals(methodName) || "yield".equals(methodName));
+        if (COROUTINE_NAME.equals(className))
+            return "park".equals(methodName) || "yield".equals(methodName);
+        if (STRAND_NAME.equals(className))
+            return "park".equals(methodName) || "parkNanos".equals(methodName) || "yield".equals(methodName);
+        return false;
     }
 
     public static int isBlockingCall(MethodInsnNode ins) {
@@ -28,7 +28,6 @@
  */
 package co.paralleluniverse.fibers.instrument;
 
-import co.paralleluniverse.fibers.Instrumented;
 import static co.paralleluniverse.fibers.instrument.Classes.isYieldMethod;
 import co.paralleluniverse.fibers.instrument.MethodDatabase.ClassEntry;
 import java.util.ArrayList;
@@ -37,7 +36,6 @@ import org.objectweb.asm.AnnotationVisitor;
 import org.objectweb.asm.ClassVisitor;
 import org.objectweb.asm.MethodVisitor;
 import org.objectweb.asm.Opcodes;
-import org.objectweb.asm.Type;
 import org.objectweb.asm.tree.MethodNode;
 import org.objectweb.asm.tree.analysis.AnalyzerException;
 
@@ -48,7 +46,9 @@ import org.objectweb.asm.tree.analysis.AnalyzerException;
  * @author pron
  */
 public class InstrumentClass extends ClassVisitor {
-    static final String ALREADY_INSTRUMENTED_NAME = Type.getDescriptor(Instrumented.class);
+    // not Type.getDescriptor(Instrumented.class): loading Instrumented here would re-enter the class loader if
+    // Instrumented itself is the first class we transform, and define it twice
+    static final String ALREADY_INSTRUMENTED_NAME = "Lco/paralleluniverse/fibers/Instrumented;";
     //static final String SUSPENDABLE_NAME = Type.getInternalName(Suspendable.class);
     private final MethodDatabase db;
     private boolean forceInstrumentation;
@@ -173,9 +173,11 @@ class InstrumentMethod {
         mv.visitTryCatchBlock(lMethodStart, lMethodEnd, lCatchAll, null);
 
         mv.visitMethodInsn(Opcodes.INVOKESTATIC, STACK_NAME, "getStack", "()L" + STACK_NAME + ";");
-        mv.visitInsn(Opcodes.DUP);
         mv.visitVarInsn(Opcodes.ASTORE, lvarStack);
+        mv.visitVarInsn(Opcodes.ALOAD, lvarStack);
+        mv.visitJumpInsn(Opcodes.IFNULL, lMethodStart); // not running in a fiber: the method runs as if uninstrumented
 
+        mv.visitVarInsn(Opcodes.ALOAD, lvarStack);
         mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, STACK_NAME, "nextMethodEntry", "()I");
         mv.visitTableSwitchInsn(1, numCodeBlocks - 1, lMethodStart, lMethodCalls);
 
@@ -190,23 +192,46 @@ class InstrumentMethod {
                 if (min.getOpcode() != Opcodes.INVOKESTATIC)
                     throw new UnableToInstrumentException("invalid call to suspending method.", className, mn.name, mn.desc);
 
-                emitStoreState(mv, i, fi);
+                final Label lNoFiber = new Label();
+                final Label lDone = new Label();
+                emitStoreState(mv, i, fi, lNoFiber);
 
                 //mv.visitFieldInsn(Opcodes.GETSTATIC, STACK_NAME, EXCEPTION_INSTANCE_NAME, EXCEPTION_DESC);
                 //mv.visitInsn(Opcodes.ATHROW);
 
-                emitRestoreOperandStack(mv, fi); // we restore the operand stack for the sake of yield calls that take arguments
+                final int numArgs = Type.getArgumentTypes(min.desc).length;
+                emitRestoreArguments(mv, fi, numArgs); // for the sake of yield calls that take arguments
                 min.accept(mv); // call the yield method
+                final boolean hasResult = isYieldWithResult(min);
+                final Label lResult = new Label();
+                if (hasResult) { // keep the result while the state is restored
+                    mv.visitVarInsn(Opcodes.ISTORE, lvarStack + 1);
+                    mv.visitJumpInsn(Opcodes.GOTO, lResult);
+                }
                 mv.visitLabel(lMethodCalls[i - 1]); // resume AFTER the call
+                if (hasResult) { // if we resume after the call, it has actually parked
+                    mv.visitInsn(Opcodes.ICONST_1);
+                    mv.visitVarInsn(Opcodes.ISTORE, lvarStack + 1);
+                    mv.visitLabel(lResult);
+                }
                 emitPostRestore(mv);
 
-                emitRestoreState(mv, i, fi);
+                emitRestoreState(mv, i, fi, numArgs); // the call has consumed its arguments
+                if (hasResult)
+                    mv.visitVarInsn(Opcodes.ILOAD, lvarStack + 1); // and left its result
+                mv.visitJumpInsn(Opcodes.GOTO, lDone);
+
+                mv.visitLabel(lNoFiber); // not running in a fiber: the operand stack is intact, so just make the call
+                min.accept(mv);
+                mv.visitLabel(lDone);
                 dumpCodeBlock(mv, i, 1);    // skip the call
             } else {
                 // normal case - call to a suspendable method - resume before the call
-                emitStoreState(mv, i, fi);
+                final Label lNoFiber = new Label();
+                emitStoreState(mv, i, fi, lNoFiber);
                 mv.visitLabel(lMethodCalls[i - 1]);
-                emitRestoreState(mv, i, fi);
+                emitRestoreState(mv, i, fi, 0);
+                mv.visitLabel(lNoFiber); // not running in a fiber: nothing has been stored, and nothing needs restoring
                 dumpCodeBlock(mv, i, 0);
             }
         }
@@ -224,7 +249,7 @@ class InstrumentMethod {
             }
         }
 
-        mv.visitMaxs(mn.maxStack + 3, mn.maxLocals + 1 + additionalLocals);
+        mv.visitMaxs(mn.maxStack + 4, mn.maxLocals + 1 + additionalLocals);
         mv.visitEnd();
     }
 
@@ -273,7 +298,7 @@ class InstrumentMethod {
                 if (start == fi.endInstruction) {
                     tcb.start = fi.createAfterLabel();
                 } else {
-                    if (end > fi.endInstruction) {
+                    if (end > fi.endInstruction && hasCodeAfterResume(fi, end)) {
                         TryCatchBlockNode tcb2 = new TryCatchBlockNode(
                                 fi.createAfterLabel(),
                                 tcb.end, tcb.handler, tcb.type);
@@ -286,6 +311,22 @@ class InstrumentMethod {
         }
     }
 
+    /**
+     * Whether any code runs between the point where the method resumes after the call ending the given block and the
+     * given instruction. Calls to yield methods aren't repeated on resume, so if one is last in a try block, the part of
+     * the block following it is empty.
+     */
+    private boolean hasCodeAfterResume(FrameInfo fi, int end) {
+        final MethodInsnNode min = (MethodInsnNode) mn.instructions.get(fi.endInstruction);
+        if (!isYieldMethod(min.owner, min.name))
+            return true;
+        for (int i = fi.endInstruction + 1; i < end; i++) {
+            if (mn.instructions.get(i).getOpcode() >= 0)
+                return true;
+        }
+        return false;
+    }
+
     private void dumpCodeBlock(MethodVisitor mv, int idx, int skip) {
         int start = codeBlocks[idx].endInstruction;
         int end = codeBlocks[idx + 1].endInstruction;
@@ -381,21 +422,33 @@ class InstrumentMethod {
     }
 
     private void emitPopMethod(MethodVisitor mv) {
+        final Label lNoFiber = new Label();
+        mv.visitVarInsn(Opcodes.ALOAD, lvarStack);
+        mv.visitJumpInsn(Opcodes.IFNULL, lNoFiber);
         mv.visitVarInsn(Opcodes.ALOAD, lvarStack);
         mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, STACK_NAME, "popMethod", "()V");
+        mv.visitLabel(lNoFiber);
     }
 
-    private void emitStoreState(MethodVisitor mv, int idx, FrameInfo fi) {
+    /**
+     * Stores the state before the call ending the code block, or, if the method isn't running in a fiber, jumps to
+     * {@code lNoFiber} with the operand stack and local variables untouched.
+     */
+    private void emitStoreState(MethodVisitor mv, int idx, FrameInfo fi, Label lNoFiber) {
         Frame f = frames[fi.endInstruction];
 
         if (fi.lBefore != null) {
             fi.lBefore.accept(mv);
         }
 
+        mv.visitVarInsn(Opcodes.ALOAD, lvarStack);
+        mv.visitJumpInsn(Opcodes.IFNULL, lNoFiber);
+
         mv.visitVarInsn(Opcodes.ALOAD, lvarStack);
         emitConst(mv, idx);
-        emitConst(mv, fi.numSlots);
-        mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, STACK_NAME, "pushMethodAndReserveSpace", "(II)V");
+        emitConst(mv, fi.numPrimSlots);
+        emitConst(mv, fi.numObjSlots);
+        mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, STACK_NAME, "pushMethodAndReserveSpace", "(III)V");
 
         // store operand stack
         for (int i = f.getStackSize(); i-- > 0;) {
@@ -424,7 +477,7 @@ class InstrumentMethod {
         }
     }
 
-    private void emitRestoreState(MethodVisitor mv, int idx, FrameInfo fi) {
+    private void emitRestoreState(MethodVisitor mv, int idx, FrameInfo fi, int numArgsToDrop) {
         Frame f = frames[fi.endInstruction];
 
         // restore local vars
@@ -442,7 +495,7 @@ class InstrumentMethod {
         }
 
         // restore operand stack
-        for (int i = 0; i < f.getStackSize(); i++) {
+        for (int i = 0; i < f.getStackSize() - numArgsToDrop; i++) {
             BasicValue v = (BasicValue) f.getStack(i);
             if (!isOmitted(v)) {
                 if (!isNullType(v)) {
@@ -460,10 +513,29 @@ class InstrumentMethod {
         }
     }
 
-    private void emitRestoreOperandStack(MethodVisitor mv, FrameInfo fi) {
+    private boolean isYieldWithResult(MethodInsnNode min) {
+        switch (Type.getReturnType(min.desc).getSort()) {
+            case Type.VOID:
+                return false;
+            case Type.BOOLEAN:
+                if (additionalLocals < 1)
+                    additionalLocals = 1;
+                return true;
+            default:
+                throw new UnableToInstrumentException("call to yield method returning " + Type.getReturnType(min.desc), className, mn.name, mn.desc);
+        }
+    }
+
+    /**
+     * Restores the top {@code numArgs} values of the operand stack, i.e. the arguments of the call ending the code block.
+     * The values below them are restored by {@link #emitRestoreState(MethodVisitor, int, FrameInfo, int) emitRestoreState}
+     * once the call returns, so that the operand stack is empty both when the call returns and when the method resumes
+     * after it.
+     */
+    private void emitRestoreArguments(MethodVisitor mv, FrameInfo fi, int numArgs) {
         Frame f = frames[fi.endInstruction];
 
-        for (int i = 0; i < f.getStackSize(); i++) {
+        for (int i = f.getStackSize() - numArgs; i < f.getStackSize(); i++) {
             BasicValue v = (BasicValue) f.getStack(i);
             if (!isOmitted(v)) {
                 if (!isNullType(v)) {
@@ -615,6 +687,7 @@ class InstrumentMethod {
         static final FrameInfo FIRST = new FrameInfo(null, 0, 0, null, null);
         final int endInstruction;
         final int numSlots;
+        final int numPrimSlots;
         final int numObjSlots;
         final int[] localSlotIndices;
         final int[] stackSlotIndices;
@@ -676,6 +749,7 @@ class InstrumentMethod {
             }
 
             numSlots = Math.max(idxPrim, idxObj);
+            numPrimSlots = idxPrim;
             numObjSlots = idxObj;
         }
 
@@ -0,0 +1,331 @@
+/*
+ * Quasar: lightweight threads and actors for the JVM.
+ * Copyright (C) 2013, Parallel Universe Software Co. All rights reserved.
+ *
+ * This program and the accompanying materials are dual-licensed under
+ * either the terms of the Eclipse Public License v1.0 as published by
+ * the Eclipse Foundation
+ *
+ *   or (per the licensee's choosing)
+ *
+ * under the terms of the GNU Lesser General Public License version 3.0
+ * as published by the Free Software Foundation.
+ */
+package co.paralleluniverse.fibers.instrument;
+
+import co.paralleluniverse.common.monitoring.Counter;
+import co.paralleluniverse.fibers.instrument.MethodDatabase.ClassEntry;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashSet;
+import java.util.ServiceLoader;
+
+/**
+ * A persistent, on-disk cache of instrumented classes, used by the {@link JavaAgent} to skip the instrumentation of
+ * classes it has already instrumented in previous runs.
+ * <p/>
+ * Entries are keyed by a hash of the original class bytes, the instrumenter's own class files and the instrumentation
+ * options. Because the instrumentation of a class also depends on other classes (which of the methods it calls are
+ * suspendable, and the class hierarchy), each entry also records the answers the {@link MethodDatabase} gave while the
+ * class was being instrumented; a cached entry is used only if the database still gives the same answers, which is
+ * cheap, as it only requires reading class headers.
+ * <p/>
+ * The cache is enabled by setting the {@code co.paralleluniverse.fibers.instrumentationCache} system property to the
+ * cache directory.
+ *
+ * @author pron
+ */
+class InstrumentationCache {
+    static final String CACHE_DIR_PROPERTY = "co.paralleluniverse.fibers.instrumentationCache";
+    private static final int MAGIC = 0x51494331; // QIC1
+    private static final String[] INSTRUMENTER_CLASSES = {
+        "InstrumentClass", "InstrumentMethod", "TypeAnalyzer", "TypeInterpreter", "NewValue", "DBClassWriter",
+        "SuspendableClassifierService", "Classes", "MethodDatabase"};
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+    private final File dir;
+    private final byte[] instrumenterDigest;
+    private final boolean check;
+    private final Counter hits = new Counter();
+    private final Counter misses = new Counter();
+
+    /**
+     * Returns the cache configured by the {@code co.paralleluniverse.fibers.instrumentationCache} system property, or
+     * {@code null} if the property isn't set or the cache can't be used.
+     */
+    static InstrumentationCache create(MethodDatabase db, boolean check) {
+        final String path = System.getProperty(CACHE_DIR_PROPERTY);
+        if (path == null)
+            return null;
+        try {
+            final InstrumentationCache cache = new InstrumentationCache(new File(path), db, check);
+            db.log(LogLevel.INFO, "Using instrumentation cache in %s", path);
+            return cache;
+        } catch (IOException e) {
+            db.error("Instrumentation cache disabled", e);
+            return null;
+        }
+    }
+
+    InstrumentationCache(File dir, MethodDatabase db, boolean check) throws IOException {
+        if (!dir.isDirectory() && !dir.mkdirs())
+            throw new IOException("Cannot create directory " + dir);
+        this.dir = dir;
+        this.check = check;
+
+        final MessageDigest md = newDigest();
+        for (String name : INSTRUMENTER_CLASSES) {
+            final InputStream is = InstrumentationCache.class.getResourceAsStream(name + ".class");
+            if (is == null)
+                throw new FileNotFoundException("Instrumenter class " + name);
+            md.update(readFully(is));
+        }
+        for (SuspendableClassifier sc : ServiceLoader.load(SuspendableClassifier.class))
+            md.update(sc.getClass().getName().getBytes("UTF-8"));
+        md.update(new byte[]{
+            (byte) (check ? 1 : 0), (byte) (db.isDebug() ? 1 : 0),
+            (byte) (db.isAllowMonitors() ? 1 : 0), (byte) (db.isAllowBlocking() ? 1 : 0)});
+        this.instrumenterDigest = md.digest();
+    }
+
+    /**
+     * Instruments the given class, or returns its cached instrumented version.
+     */
+    byte[] instrumentClass(MethodDatabase db, String className, byte[] data) {
+        final File file = file(data);
+
+        final Entry cached = load(db, file);
+        if (cached != null && cached.deps.validate(db)) {
+            hits.inc();
+            db.log(LogLevel.DEBUG, "Instrumentation cache hit: %s", className);
+            cached.classEntry.setRequiresInstrumentation(false);
+            db.recordSuspendableMethods(className, cached.classEntry);
+            return cached.bytes;
+        }
+
+        misses.inc();
+        final Dependencies deps = new Dependencies();
+        final byte[] bytes;
+        final Dependencies prev = db.startRecording(deps);
+        try {
+            bytes = JavaAgent.instrumentClass(db, data, check);
+        } finally {
+            db.stopRecording(prev);
+        }
+        final ClassEntry classEntry = db.getClassEntry(className);
+        if (classEntry != null)
+            store(db, file, new Entry(classEntry, deps, bytes));
+        return bytes;
+    }
+
+    long getHits() {
+        return hits.get();
+    }
+
+    long getMisses() {
+        return misses.get();
+    }
+
+    private File file(byte[] data) {
+        final MessageDigest md = newDigest();
+        md.update(instrumenterDigest);
+        final byte[] hash = md.digest(data);
+        final char[] name = new char[hash.length * 2];
+        for (int i = 0; i < hash.length; i++) {
+            name[2 * i] = HEX[(hash[i] >> 4) & 0xf];
+            name[2 * i + 1] = HEX[hash[i] & 0xf];
+        }
+        final String s = new String(name);
+        return new File(new File(dir, s.substring(0, 2)), s.substring(2));
+    }
+
+    private static Entry load(MethodDatabase db, File file) {
+        if (!file.isFile())
+            return null;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC)
+                return null;
+            final ClassEntry classEntry = ClassEntry.read(in);
+            final Dependencies deps = Dependencies.read(in);
+            final byte[] bytes = new byte[in.readInt()];
+            in.readFully(bytes);
+            return new Entry(classEntry, deps, bytes);
+        } catch (IOException e) {
+            db.log(LogLevel.WARNING, "Cannot read instrumentation cache file %s: %s", file, e);
+            return null;
+        }
+    }
+
+    private static void store(MethodDatabase db, File file, Entry entry) {
+        try {
+            final File parent = file.getParentFile();
+            if (!parent.isDirectory() && !parent.mkdirs() && !parent.isDirectory())
+                throw new IOException("Cannot create directory " + parent);
+            // write to a temporary file and then move it into place, so that concurrent JVMs never see a partial entry
+            final File tmp = File.createTempFile(file.getName(), ".tmp", parent);
+            try {
+                try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+                    out.writeInt(MAGIC);
+                    entry.classEntry.write(out);
+                    entry.deps.write(out);
+                    out.writeInt(entry.bytes.length);
+                    out.write(entry.bytes);
+                }
+                Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                tmp.delete();
+            }
+        } catch (IOException e) {
+            db.log(LogLevel.WARNING, "Cannot write instrumentation cache file %s: %s", file, e);
+        }
+    }
+
+    static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private static byte[] readFully(InputStream is) throws IOException {
+        try {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            final byte[] buf = new byte[4096];
+            int n;
+            while ((n = is.read(buf)) > 0)
+                out.write(buf, 0, n);
+            return out.toByteArray();
+        } finally {
+            is.close();
+        }
+    }
+
+    private static final class Entry {
+        final ClassEntry classEntry;
+        final Dependencies deps;
+        final byte[] bytes;
+
+        Entry(ClassEntry classEntry, Dependencies deps, byte[] bytes) {
+            this.classEntry = classEntry;
+            this.deps = deps;
+            this.bytes = bytes;
+        }
+    }
+
+    /**
+     * The answers the {@link MethodDatabase} has given about other classes while instrumenting a class.
+     */
+    static final class Dependencies {
+        private final LinkedHashSet<Query> queries = new LinkedHashSet<Query>();
+
+        void suspendable(String className, String methodName, String methodDesc, boolean searchSuperClass, boolean suspendable) {
+            queries.add(new Query(Query.SUSPENDABLE, className, methodName, methodDesc, searchSuperClass, suspendable, null));
+        }
+
+        void commonSuperClass(String classA, String classB, String superClass) {
+            queries.add(new Query(Query.COMMON_SUPER_CLASS, classA, classB, null, false, false, superClass));
+        }
+
+        boolean validate(MethodDatabase db) {
+            for (Query q : queries) {
+                if (!q.validate(db))
+                    return false;
+            }
+            return true;
+        }
+
+        void write(DataOutputStream out) throws IOException {
+            out.writeInt(queries.size());
+            for (Query q : queries) {
+                out.writeByte(q.kind);
+                out.writeUTF(q.a);
+                out.writeUTF(q.b);
+                if (q.kind == Query.SUSPENDABLE) {
+                    out.writeUTF(q.c);
+                    out.writeBoolean(q.searchSuperClass);
+                    out.writeBoolean(q.suspendable);
+                } else
+                    MethodDatabase.writeNullableUTF(out, q.superClass);
+            }
+        }
+
+        static Dependencies read(DataInputStream in) throws IOException {
+            final Dependencies deps = new Dependencies();
+            final int n = in.readInt();
+            for (int i = 0; i < n; i++) {
+                final byte kind = in.readByte();
+                final String a = in.readUTF();
+                final String b = in.readUTF();
+                switch (kind) {
+                    case Query.SUSPENDABLE:
+                        final String c = in.readUTF();
+                        final boolean searchSuperClass = in.readBoolean();
+                        deps.suspendable(a, b, c, searchSuperClass, in.readBoolean());
+                        break;
+                    case Query.COMMON_SUPER_CLASS:
+                        deps.commonSuperClass(a, b, MethodDatabase.readNullableUTF(in));
+                        break;
+                    default:
+                        throw new IOException("Corrupt dependency record");
+                }
+            }
+            return deps;
+        }
+    }
+
+    private static final class Query {
+        static final byte SUSPENDABLE = 1;
+        static final byte COMMON_SUPER_CLASS = 2;
+        final byte kind;
+        final String a; // class name, or first class
+        final String b; // method name, or second class
+        final String c; // method desc
+        final boolean searchSuperClass;
+        final boolean suspendable;
+        final String superClass;
+
+        Query(byte kind, String a, String b, String c, boolean searchSuperClass, boolean suspendable, String superClass) {
+            this.kind = kind;
+            this.a = a;
+            this.b = b;
+            this.c = c;
+            this.searchSuperClass = searchSuperClass;
+            this.suspendable = suspendable;
+            this.superClass = superClass;
+        }
+
+        boolean validate(MethodDatabase db) {
+            if (kind == SUSPENDABLE)
+                return db.isMethodSuspendable(a, b, c, searchSuperClass) == suspendable;
+            final String s = db.getCommonSuperClass(a, b);
+            return s == null ? superClass == null : s.equals(superClass);
+        }
+
+        @Override
+        public int hashCode() {
+            return (a.hashCode() * 31 + b.hashCode()) * 31 + (c != null ? c.hashCode() : 0) + (searchSuperClass ? 1 : 0);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Query))
+                return false;
+            final Query other = (Query) obj;
+            return kind == other.kind && a.equals(other.a) && b.equals(other.b)
+                    && (c == null ? other.c == null : c.equals(other.c)) && searchSuperClass == other.searchSuperClass;
+        }
+    }
+}
@@ -28,11 +28,32 @@
  */
 package co.paralleluniverse.fibers.instrument;
 
+import co.paralleluniverse.fibers.instrument.InstrumentationCache.Dependencies;
+import co.paralleluniverse.fibers.instrument.MethodDatabase.ClassEntry;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import jsr166e.ForkJoinPool;
 import org.apache.tools.ant.BuildException;
 import org.apache.tools.ant.DirectoryScanner;
 import org.apache.tools.ant.Project;
@@ -58,6 +79,17 @@ import org.objectweb.asm.util.CheckClassAdapter;
  * <li>debug - default: false<br/>Prints internal debugging information.</li>
  * <li>allowmonitors - default: false<br/>Allows the use of synchronized statements - this is DANGEROUS !</li>
  * <li>allowblocking - default: false<br/>Allows the use known blocking calls like Thread.sleep, Object.wait etc.</li>
+ * <li>parallel - default: false<br/>Scans and instruments the classes on several threads.</li>
+ * <li>threads - default: number of processors<br/>The number of threads used in parallel mode.</li>
+ * <li>statefile - default: none<br/>A file in which the task records the class files it has processed; class files
+ * whose contents haven't changed since the last run (even if they have been rewritten) are neither scanned nor
+ * instrumented again, unless the suspendability of the methods they call has changed. Such classes are instrumented
+ * again with destdir; without it, the build fails until they are recompiled.</li>
+ * <li>index - default: none<br/>A file to which an index of the suspendability of all classes seen is written, for use
+ * by the java agent (see {@link MethodDatabaseIndex}).</li>
+ * <li>destdir - default: none<br/>If set, the classes are written to this directory (along with unmodified copies of
+ * the classes that don't require instrumentation) rather than instrumented in place, so that the input classes are
+ * left untouched, as build tools that track their tasks' inputs and outputs require.</li>
  * </ul></p>
  * 
  * @see <a href="http://ant.apache.org/manual/CoreTypes/fileset.html">ANT FileSet</a>
@@ -72,6 +104,11 @@ public class InstrumentationTask extends Task {
     private boolean allowBlocking;
     private boolean debug;
     private boolean writeClasses = true;
+    private File index;
+    private boolean parallel;
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private File stateFile;
+    private File destDir;
     
     public void addFileSet(FileSet fs) {
         filesets.add(fs);
@@ -100,17 +137,37 @@ public class InstrumentationTask extends Task {
     public void setWriteClasses(boolean writeClasses) {
         this.writeClasses = writeClasses;
     }
+
+    public void setIndex(File index) {
+        this.index = index;
+    }
+
+    public void setParallel(boolean parallel) {
+        this.parallel = parallel;
+    }
+
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+    public void setStateFile(File stateFile) {
+        this.stateFile = stateFile;
+    }
+
+    public void setDestDir(File destDir) {
+        this.destDir = destDir;
+    }
     
     @Override
     public void execute() throws BuildException {
-        MethodDatabase db = new MethodDatabase(getClass().getClassLoader());
+        final MethodDatabase db = new MethodDatabase(getClass().getClassLoader());
         
         db.setVerbose(verbose);
         db.setDebug(debug);
         db.setAllowMonitors(allowMonitors);
         db.setAllowBlocking(allowBlocking);
         db.setLog(new Log() {
-            public void log(LogLevel level, String msg, Object... args) {
+            public synchronized void log(LogLevel level, String msg, Object... args) {
                 int msgLevel;
                 switch(level) {
                     case DEBUG:   msgLevel = Project.MSG_INFO; break;
@@ -120,12 +177,16 @@ public class InstrumentationTask extends Task {
                 }
                 InstrumentationTask.this.log(level+": "+String.format(msg, args), msgLevel);
             }
-            public void error(String msg, Exception ex) {
+            public synchronized void error(String msg, Exception ex) {
                 InstrumentationTask.this.log("ERROR: "+msg, ex, Project.MSG_ERR);
             }
         });
         
+        final ForkJoinPool pool = parallel ? new ForkJoinPool(threads) : null;
         try {
+            final ArrayList<File> files = new ArrayList<File>();
+            final ArrayList<String> classNames = new ArrayList<String>();
+            final HashMap<File, File> targets = new HashMap<File, File>();
             for(FileSet fs : filesets) {
                 DirectoryScanner ds = fs.getDirectoryScanner(getProject());
                 String[] includedFiles = ds.getIncludedFiles();
@@ -134,28 +195,146 @@ public class InstrumentationTask extends Task {
                     if(filename.endsWith(".class")) {
                         File file = new File(fs.getDir(), filename);
                         if(file.isFile()) {
-                            db.checkClass(file);
+                            files.add(file);
+                            classNames.add(filename.substring(0, filename.length() - ".class".length()).replace(File.separatorChar, '/'));
+                            targets.put(file, destDir != null ? new File(destDir, filename) : file);
                         } else {
                             log("File not found: " + filename);
                         }
                     }
                 }
             }
-            
-            db.log(LogLevel.INFO, "Instrumenting " + db.getWorkList().size() + " classes");
 
-            for(File f : db.getWorkList()) {
-                instrumentClass(db, f);
+            // classes that haven't changed since the last run have already been instrumented, and we know their entries
+            final State previous = stateFile != null && stateFile.isFile() ? State.read(stateFile) : null;
+            final ArrayList<File> changed = new ArrayList<File>();
+            final ArrayList<File> unchanged = new ArrayList<File>();
+            for(int i = 0; i < files.size(); i++) {
+                final File file = files.get(i);
+                final ClassEntry entry = previous != null ? previous.get(file) : null;
+                if(entry != null && targets.get(file).isFile()) {
+                    db.recordSuspendableMethods(classNames.get(i), entry);
+                    unchanged.add(file);
+                } else
+                    changed.add(file);
+            }
+            db.log(LogLevel.INFO, "Checking %d classes (%d unchanged)", changed.size(), files.size() - changed.size());
+
+            // all classes must be checked before any is instrumented, as instrumentation depends on the methods it calls
+            forEach(pool, changed, new FileAction() {
+                public void run(File file) {
+                    db.checkClass(file);
+                }
+            });
+
+            final ArrayList<File> workList = new ArrayList<File>(db.getWorkList());
+            // the methods an unchanged class calls may have become (or stopped being) suspendable
+            final ConcurrentHashMap<File, Dependencies> dependencies = new ConcurrentHashMap<File, Dependencies>();
+            final ArrayList<File> stale = new ArrayList<File>();
+            for(File file : unchanged) {
+                final Dependencies deps = previous.getDependencies(file);
+                if(deps == null)
+                    continue;
+                if(deps.validate(db))
+                    dependencies.put(file, deps);
+                else if(destDir != null)
+                    workList.add(file);
+                else
+                    stale.add(file);
+            }
+            // a class instrumented in place can't be instrumented again, and the state must not record it as valid
+            if(!stale.isEmpty())
+                throw new BuildException("The following classes were instrumented in place and must be recompiled, as the suspendability of methods they call has changed: " + stale);
+            Collections.sort(workList);
+            db.log(LogLevel.INFO, "Instrumenting " + workList.size() + " classes");
+
+            forEach(pool, workList, new FileAction() {
+                public void run(File file) {
+                    dependencies.put(file, instrumentClass(db, file, targets.get(file)));
+                }
+            });
+
+            if(destDir != null && writeClasses) {
+                final Set<File> instrumented = new HashSet<File>(workList);
+                for(File file : changed) {
+                    if(!instrumented.contains(file))
+                        copy(file, targets.get(file));
+                }
+                // remove the output of classes that have been deleted since the last run
+                if(previous != null) {
+                    for(String className : previous.removed(files)) {
+                        final File target = new File(destDir, className.replace('/', File.separatorChar) + ".class");
+                        if(target.delete())
+                            db.log(LogLevel.INFO, "Deleted %s", target);
+                    }
+                }
             }
+
+            if(index != null) {
+                MethodDatabaseIndex.write(index, db.getClassEntries());
+                db.log(LogLevel.INFO, "Wrote suspendables index %s", index);
+            }
+            if(stateFile != null && writeClasses)
+                State.write(stateFile, files, classNames, dependencies, db, previous);
         } catch (UnableToInstrumentException ex) {
             log(ex.getMessage());
             throw new BuildException(ex.getMessage(), ex);
+        } catch (IOException ex) {
+            throw new BuildException(ex);
+        } finally {
+            if(pool != null)
+                pool.shutdown();
         }
     }
+
+    private interface FileAction {
+        void run(File file);
+    }
+
+    private static void forEach(ForkJoinPool pool, List<File> files, final FileAction action) {
+        if(pool == null) {
+            for(File f : files)
+                action.run(f);
+            return;
+        }
+
+        final ArrayList<Callable<Void>> tasks = new ArrayList<Callable<Void>>(files.size());
+        for(final File f : files) {
+            tasks.add(new Callable<Void>() {
+                public Void call() {
+                    action.run(f);
+                    return null;
+                }
+            });
+        }
+        try {
+            for(Future<Void> future : pool.invokeAll(tasks))
+                future.get();
+        } catch (InterruptedException ex) {
+            throw new BuildException(ex);
+        } catch (ExecutionException ex) {
+            final Throwable cause = ex.getCause();
+            if(cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            if(cause instanceof Error)
+                throw (Error) cause;
+            throw new BuildException(cause);
+        }
+    }
+    
+    private static void copy(File from, File to) throws IOException {
+        to.getParentFile().mkdirs();
+        Files.copy(from.toPath(), to.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.COPY_ATTRIBUTES);
+    }
     
-    private void instrumentClass(MethodDatabase db, File f) {
+    /**
+     * Instruments a class, and returns the answers the database has given about other classes while doing so.
+     */
+    private Dependencies instrumentClass(MethodDatabase db, File f, File target) {
         db.log(LogLevel.INFO, "Instrumenting class %s", f);
         
+        final Dependencies deps = new Dependencies();
+        final Dependencies prev = db.startRecording(deps);
         try {
             ClassReader r;
             
@@ -174,7 +353,8 @@ public class InstrumentationTask extends Task {
             byte[] newClass = cw.toByteArray();
 
             if(writeClasses) {
-                FileOutputStream fos = new FileOutputStream(f);
+                target.getParentFile().mkdirs();
+                FileOutputStream fos = new FileOutputStream(target);
                 try {
                     fos.write(newClass);
                 } finally {
@@ -183,6 +363,141 @@ public class InstrumentationTask extends Task {
             }
         } catch (IOException ex) {
             throw new BuildException("Instrumenting file " + f, ex);
+        } finally {
+            db.stopRecording(prev);
+        }
+        return deps;
+    }
+
+    /**
+     * The class files processed by the last run, with their size, modification time and SHA-1 hash after
+     * instrumentation, and their class names and entries; instrumented classes also record their dependencies.
+     * <p/>
+     * A file whose modification time has changed is compared by its hash, as build tools may rewrite all class files
+     * when any source changes.
+     */
+    private static final class State {
+        private static final int MAGIC = 0x51495333; // QIS3
+        private final HashMap<String, Stamp> stamps = new HashMap<String, Stamp>();
+
+        ClassEntry get(File file) throws IOException {
+            final Stamp stamp = stamps.get(file.getAbsolutePath());
+            if(stamp == null || stamp.length != file.length())
+                return null;
+            if(stamp.lastModified != file.lastModified() && !Arrays.equals(stamp.hash, hash(file)))
+                return null;
+            return stamp.entry;
+        }
+
+        /**
+         * Returns the file's hash, computing it only if the file has been modified since the last run.
+         */
+        byte[] getHash(File file) throws IOException {
+            final Stamp stamp = stamps.get(file.getAbsolutePath());
+            if(stamp != null && stamp.length == file.length() && stamp.lastModified == file.lastModified())
+                return stamp.hash;
+            return hash(file);
+        }
+
+        static byte[] hash(File file) throws IOException {
+            return InstrumentationCache.newDigest().digest(Files.readAllBytes(file.toPath()));
+        }
+
+        Dependencies getDependencies(File file) {
+            final Stamp stamp = stamps.get(file.getAbsolutePath());
+            return stamp != null ? stamp.deps : null;
+        }
+
+        /**
+         * Returns the names of the classes processed by the last run whose files are no longer among the given ones.
+         */
+        List<String> removed(List<File> files) {
+            final HashSet<String> paths = new HashSet<String>();
+            for(File f : files)
+                paths.add(f.getAbsolutePath());
+            final ArrayList<String> removed = new ArrayList<String>();
+            for(Map.Entry<String, Stamp> e : stamps.entrySet()) {
+                if(!paths.contains(e.getKey()))
+                    removed.add(e.getValue().className);
+            }
+            return removed;
+        }
+
+        static State read(File file) throws IOException {
+            final State state = new State();
+            final DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            try {
+                if(in.readInt() != MAGIC)
+                    return state;
+                final int n = in.readInt();
+                for(int i = 0; i < n; i++) {
+                    final String path = in.readUTF();
+                    final long length = in.readLong();
+                    final long lastModified = in.readLong();
+                    final byte[] hash = new byte[in.readUnsignedByte()];
+                    in.readFully(hash);
+                    final String className = in.readUTF();
+                    final ClassEntry entry = ClassEntry.read(in);
+                    final Dependencies deps = in.readBoolean() ? Dependencies.read(in) : null;
+                    state.stamps.put(path, new Stamp(length, lastModified, hash, className, entry, deps));
+                }
+            } finally {
+                in.close();
+            }
+            return state;
+        }
+
+        static void write(File file, List<File> files, List<String> classNames, Map<File, Dependencies> dependencies, MethodDatabase db, State previous) throws IOException {
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            final DataOutputStream out = new DataOutputStream(bytes);
+            int n = 0;
+            for(int i = 0; i < files.size(); i++) {
+                final File f = files.get(i);
+                final ClassEntry entry = db.getClassEntry(classNames.get(i));
+                if(entry == null)
+                    continue;
+                out.writeUTF(f.getAbsolutePath());
+                out.writeLong(f.length());
+                out.writeLong(f.lastModified());
+                final byte[] hash = previous != null ? previous.getHash(f) : hash(f);
+                out.writeByte(hash.length);
+                out.write(hash);
+                out.writeUTF(classNames.get(i));
+                entry.write(out);
+                final Dependencies deps = dependencies.get(f);
+                out.writeBoolean(deps != null);
+                if(deps != null)
+                    deps.write(out);
+                n++;
+            }
+            out.flush();
+
+            final DataOutputStream fos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+            try {
+                fos.writeInt(MAGIC);
+                fos.writeInt(n);
+                bytes.writeTo(fos);
+            } finally {
+                fos.close();
+            }
+        }
+
+        private static final class Stamp {
+            final long length;
+            final long lastModified;
+            final byte[] hash;
+            final String className;
+            final ClassEntry entry;
+            final Dependencies deps;
+
+            Stamp(long length, long lastModified, byte[] hash, String className, ClassEntry entry, Dependencies deps) {
+                this.length = length;
+                this.lastModified = lastModified;
+                this.hash = hash;
+                this.className = className;
+                this.entry = entry;
+                this.deps = deps;
+            }
         }
     }
 }
@@ -61,6 +61,8 @@
  */
 package co.paralleluniverse.fibers.instrument;
 
+import java.io.File;
+import java.io.IOException;
 import java.io.PrintWriter;
 import java.lang.instrument.ClassFileTransformer;
 import java.lang.instrument.IllegalClassFormatException;
@@ -137,11 +139,21 @@ public class JavaAgent {
             }
         });
 
+        final String indexFile = System.getProperty(MethodDatabaseIndex.INDEX_FILE_PROPERTY);
+        if (indexFile != null) {
+            try {
+                db.setIndex(MethodDatabaseIndex.load(new File(indexFile)));
+                db.log(LogLevel.INFO, "Loaded suspendables index %s (%d classes)", indexFile, db.getIndex().size());
+            } catch (IOException e) {
+                db.error("Cannot load suspendables index " + indexFile, e);
+            }
+        }
+
         Retransform.instrumentation = instrumentation;
         Retransform.db = db;
         Retransform.classLoaders = classLoaders;
 
-        instrumentation.addTransformer(new Transformer(db, checkArg), true);
+        instrumentation.addTransformer(new Transformer(db, checkArg, InstrumentationCache.create(db, checkArg)), true);
     }
 
     public static boolean isActive() {
@@ -168,10 +180,12 @@ public class JavaAgent {
     private static class Transformer implements ClassFileTransformer {
         private final MethodDatabase db;
         private final boolean check;
+        private final InstrumentationCache cache;
 
-        public Transformer(MethodDatabase db, boolean check) {
+        public Transformer(MethodDatabase db, boolean check, InstrumentationCache cache) {
             this.db = db;
             this.check = check;
+            this.cache = cache;
         }
 
         @Override
@@ -182,11 +196,15 @@ public class JavaAgent {
             if (className.startsWith("org/objectweb/asm/"))
                 return null;
 
-            db.log(LogLevel.INFO, "TRANSFORM: %s %s", className, (db.getClassEntry(className) != null && db.getClassEntry(className).requiresInstrumentation()) ? "request" : "");
+            final boolean requested = db.getClassEntry(className) != null && db.getClassEntry(className).requiresInstrumentation();
+            db.log(LogLevel.INFO, "TRANSFORM: %s %s", className, requested ? "request" : "");
 
             classLoaders.add(new WeakReference<ClassLoader>(loader));
 
             try {
+                // retransformations are driven by changes to the method database, which the cache doesn't key on
+                if (cache != null && classBeingRedefined == null && !requested)
+                    return cache.instrumentClass(db, className, classfileBuffer);
                 return instrumentClass(db, classfileBuffer, check);
             } catch (Exception ex) {
                 db.error("Unable to instrument", ex);
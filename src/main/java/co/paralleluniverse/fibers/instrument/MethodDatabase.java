@@ -29,6 +29,8 @@
 package co.paralleluniverse.fibers.instrument;
 
 import static co.paralleluniverse.fibers.instrument.Classes.isYieldMethod;
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
@@ -39,6 +41,7 @@ import java.util.HashMap;
 import java.util.Map;
 import java.util.NavigableMap;
 import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
 import org.objectweb.asm.ClassReader;
 import org.objectweb.asm.ClassVisitor;
 import org.objectweb.asm.Opcodes;
@@ -61,6 +64,8 @@ public class MethodDatabase implements Log {
     private boolean allowMonitors;
     private boolean allowBlocking;
     private int logLevelMask;
+    private volatile ThreadLocal<InstrumentationCache.Dependencies> recording;
+    private MethodDatabaseIndex index;
 
     public MethodDatabase(ClassLoader classloader) {
         if (classloader == null) {
@@ -92,6 +97,17 @@ public class MethodDatabase implements Log {
         this.allowBlocking = allowBlocking;
     }
 
+    public MethodDatabaseIndex getIndex() {
+        return index;
+    }
+
+    /**
+     * Sets an index of class entries, which is consulted before reading a class file.
+     */
+    public synchronized void setIndex(MethodDatabaseIndex index) {
+        this.index = index;
+    }
+
     public Log getLog() {
         return log;
     }
@@ -155,8 +171,11 @@ public class MethodDatabase implements Log {
                             throw new AssertionError();
                     } else {
                         log(LogLevel.INFO, "Found class: %s", f.getPath());
-                        if (!JavaAgent.isActive())
-                            workList.add(f);
+                        if (!JavaAgent.isActive()) {
+                            synchronized (workList) {
+                                workList.add(f);
+                            }
+                        }
                     }
                 }
             }
@@ -168,6 +187,14 @@ public class MethodDatabase implements Log {
     }
 
     public boolean isMethodSuspendable(String className, String methodName, String methodDesc, boolean searchSuperClass) {
+        final boolean suspendable = isMethodSuspendable0(className, methodName, methodDesc, searchSuperClass);
+        final InstrumentationCache.Dependencies deps = recordingDependencies();
+        if (deps != null)
+            deps.suspendable(className, methodName, methodDesc, searchSuperClass, suspendable);
+        return suspendable;
+    }
+
+    private boolean isMethodSuspendable0(String className, String methodName, String methodDesc, boolean searchSuperClass) {
         if (methodName.charAt(0) == '<')
             return false;   // special methods are never suspendable
 
@@ -218,7 +245,26 @@ public class MethodDatabase implements Log {
     }
 
     public synchronized ClassEntry getClassEntry(String className) {
-        return classes.get(className);
+        ClassEntry entry = classes.get(className);
+        if (entry == null && index != null) {
+            entry = index.get(className);
+            if (entry != null)
+                classes.put(className, entry);
+        }
+        return entry;
+    }
+
+    /**
+     * Returns a snapshot of all the class entries collected so far (not including those that are only in the
+     * {@link #getIndex() index}).
+     */
+    public synchronized Map<String, ClassEntry> getClassEntries() {
+        final HashMap<String, ClassEntry> map = new HashMap<String, ClassEntry>();
+        for (Map.Entry<String, ClassEntry> entry : classes.entrySet()) {
+            if (entry.getValue() != CLASS_NOT_FOUND)
+                map.put(entry.getKey(), entry.getValue());
+        }
+        return map;
     }
     
     public synchronized Map<String, ClassEntry> getInnerClassesEntries(String className) {
@@ -244,6 +290,14 @@ public class MethodDatabase implements Log {
     }
 
     public String getCommonSuperClass(String classA, String classB) {
+        final String superClass = getCommonSuperClass0(classA, classB);
+        final InstrumentationCache.Dependencies deps = recordingDependencies();
+        if (deps != null)
+            deps.commonSuperClass(classA, classB, superClass);
+        return superClass;
+    }
+
+    private String getCommonSuperClass0(String classA, String classB) {
         ArrayList<String> listA = getSuperClasses(classA);
         ArrayList<String> listB = getSuperClasses(classB);
         if (listA == null || listB == null) {
@@ -282,6 +336,38 @@ public class MethodDatabase implements Log {
         }
     }
 
+    /**
+     * Starts recording the answers given to the current thread by {@link #isMethodSuspendable(String, String, String, boolean) isMethodSuspendable}
+     * and {@link #getCommonSuperClass(String, String) getCommonSuperClass}, i.e. the information about other classes
+     * that the instrumentation of a class depends on.
+     * Recordings nest, as instrumenting a class may load, and so instrument, another one on the same thread.
+     *
+     * @return the dependencies recorded so far by the enclosing recording, which must be passed to {@link #stopRecording(InstrumentationCache.Dependencies) stopRecording}
+     */
+    InstrumentationCache.Dependencies startRecording(InstrumentationCache.Dependencies deps) {
+        if (recording == null) {
+            synchronized (this) {
+                if (recording == null)
+                    recording = new ThreadLocal<InstrumentationCache.Dependencies>();
+            }
+        }
+        final InstrumentationCache.Dependencies prev = recording.get();
+        recording.set(deps);
+        return prev;
+    }
+
+    void stopRecording(InstrumentationCache.Dependencies prev) {
+        if (prev != null)
+            recording.set(prev);
+        else
+            recording.remove();
+    }
+
+    private InstrumentationCache.Dependencies recordingDependencies() {
+        final ThreadLocal<InstrumentationCache.Dependencies> r = recording;
+        return r != null ? r.get() : null;
+    }
+
     public ArrayList<File> getWorkList() {
         return workList;
     }
@@ -393,14 +479,14 @@ public class MethodDatabase implements Log {
     private static final ClassEntry CLASS_NOT_FOUND = new ClassEntry("<class not found>");
 
     public static final class ClassEntry {
-        private final HashMap<String, Boolean> methods;
-        private String[] interfaces;
+        private final ConcurrentHashMap<String, Boolean> methods;
+        private volatile String[] interfaces;
         final String superName;
         private volatile boolean requiresInstrumentation;
 
         public ClassEntry(String superName) {
             this.superName = superName;
-            this.methods = new HashMap<String, Boolean>();
+            this.methods = new ConcurrentHashMap<String, Boolean>();
         }
 
         public void set(String name, String desc, boolean suspendable) {
@@ -450,6 +536,48 @@ public class MethodDatabase implements Log {
         private static String key(String methodName, String methodDesc) {
             return methodName.concat(methodDesc);
         }
+
+        void write(DataOutput out) throws IOException {
+            writeNullableUTF(out, superName);
+            out.writeBoolean(requiresInstrumentation);
+            if (interfaces == null)
+                out.writeInt(-1);
+            else {
+                out.writeInt(interfaces.length);
+                for (String iface : interfaces)
+                    out.writeUTF(iface);
+            }
+            out.writeInt(methods.size());
+            for (Map.Entry<String, Boolean> entry : methods.entrySet()) {
+                out.writeUTF(entry.getKey());
+                out.writeBoolean(entry.getValue());
+            }
+        }
+
+        static ClassEntry read(DataInput in) throws IOException {
+            final ClassEntry entry = new ClassEntry(readNullableUTF(in));
+            entry.requiresInstrumentation = in.readBoolean();
+            final int numInterfaces = in.readInt();
+            if (numInterfaces >= 0) {
+                entry.interfaces = new String[numInterfaces];
+                for (int i = 0; i < numInterfaces; i++)
+                    entry.interfaces[i] = in.readUTF();
+            }
+            final int numMethods = in.readInt();
+            for (int i = 0; i < numMethods; i++)
+                entry.methods.put(in.readUTF(), in.readBoolean());
+            return entry;
+        }
+    }
+
+    static void writeNullableUTF(DataOutput out, String s) throws IOException {
+        out.writeBoolean(s != null);
+        if (s != null)
+            out.writeUTF(s);
+    }
+
+    static String readNullableUTF(DataInput in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
     }
 
     public static class ExtractSuperClass extends ClassVisitor {
@@ -0,0 +1,147 @@
+/*
+ * Quasar: lightweight threads and actors for the JVM.
+ * Copyright (C) 2013, Parallel Universe Software Co. All rights reserved.
+ *
+ * This program and the accompanying materials are dual-licensed under
+ * either the terms of the Eclipse Public License v1.0 as published by
+ * the Eclipse Foundation
+ *
+ *   or (per the licensee's choosing)
+ *
+ * under the terms of the GNU Lesser General Public License version 3.0
+ * as published by the Free Software Foundation.
+ */
+package co.paralleluniverse.fibers.instrument;
+
+import co.paralleluniverse.fibers.instrument.MethodDatabase.ClassEntry;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A persistent index of {@link ClassEntry class entries} - super class, interfaces and method suspendability - that
+ * lets a {@link MethodDatabase} answer queries about the indexed classes without reading their class files.
+ * <p/>
+ * The index is written at build time by the {@link InstrumentationTask} (see its {@code index} attribute), and loaded
+ * by the {@link JavaAgent} if the {@code co.paralleluniverse.fibers.suspendablesIndex} system property is set to its
+ * path. The file is memory-mapped; only the class names are read when it's opened, and each entry is decoded the first
+ * time it's looked up. The index must be built from the same classes the application runs with.
+ *
+ * @author pron
+ */
+public class MethodDatabaseIndex {
+    static final String INDEX_FILE_PROPERTY = "co.paralleluniverse.fibers.suspendablesIndex";
+    private static final int MAGIC = 0x51534931; // QSI1
+    private final ByteBuffer buffer;
+    private final String[] names;  // sorted
+    private final int[] offsets;
+
+    /**
+     * Writes an index of the given entries.
+     */
+    public static void write(File file, Map<String, ClassEntry> entries) throws IOException {
+        final TreeMap<String, ClassEntry> sorted = new TreeMap<String, ClassEntry>(entries);
+
+        final ByteArrayOutputStream data = new ByteArrayOutputStream();
+        final DataOutputStream dataOut = new DataOutputStream(data);
+        final int[] offsets = new int[sorted.size()];
+        int i = 0;
+        for (ClassEntry entry : sorted.values()) {
+            offsets[i++] = dataOut.size();
+            entry.write(dataOut);
+        }
+        dataOut.flush();
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(sorted.size());
+            i = 0;
+            for (String name : sorted.keySet()) {
+                out.writeUTF(name);
+                out.writeInt(offsets[i++]);
+            }
+            data.writeTo(out);
+        }
+    }
+
+    public static MethodDatabaseIndex load(File file) throws IOException {
+        final ByteBuffer buffer;
+        try (FileChannel ch = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            buffer = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+        }
+        return new MethodDatabaseIndex(buffer);
+    }
+
+    private MethodDatabaseIndex(ByteBuffer buffer) throws IOException {
+        final DataInputStream in = input(buffer, 0);
+        if (in.readInt() != MAGIC)
+            throw new IOException("Not a suspendables index");
+        final int n = in.readInt();
+        this.names = new String[n];
+        this.offsets = new int[n];
+        for (int i = 0; i < n; i++) {
+            names[i] = in.readUTF();
+            offsets[i] = in.readInt();
+        }
+        final int dataStart = buffer.capacity() - in.available();
+        for (int i = 0; i < n; i++)
+            offsets[i] += dataStart;
+        this.buffer = buffer;
+    }
+
+    /**
+     * Returns a new copy of the given class's entry, or {@code null} if the class isn't in the index.
+     */
+    public ClassEntry get(String className) {
+        final int i = Arrays.binarySearch(names, className);
+        if (i < 0)
+            return null;
+        try {
+            return ClassEntry.read(input(buffer, offsets[i]));
+        } catch (IOException e) {
+            throw new RuntimeException("Corrupt suspendables index entry for " + className, e);
+        }
+    }
+
+    public int size() {
+        return names.length;
+    }
+
+    private static DataInputStream input(ByteBuffer buffer, int position) {
+        final ByteBuffer buf = buffer.duplicate();
+        buf.position(position);
+        return new DataInputStream(new InputStream() {
+            @Override
+            public int read() {
+                return buf.hasRemaining() ? buf.get() & 0xff : -1;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) {
+                if (len == 0)
+                    return 0;
+                if (!buf.hasRemaining())
+                    return -1;
+                len = Math.min(len, buf.remaining());
+                buf.get(b, off, len);
+                return len;
+            }
+
+            @Override
+            public int available() {
+                return buf.remaining();
+            }
+        });
+    }
+}
@@ -6,6 +6,7 @@ package co.paralleluniverse.fibers.instrument;
 
 import static co.paralleluniverse.fibers.instrument.Classes.EXCEPTION_NAME;
 import co.paralleluniverse.fibers.instrument.MethodDatabase.ClassEntry;
+import java.util.ArrayList;
 import java.util.ServiceLoader;
 
 /**
@@ -13,10 +14,17 @@ import java.util.ServiceLoader;
  * @author pron
  */
 class SuspendableClassifierService {
-    private static ServiceLoader<SuspendableClassifier> loader = ServiceLoader.load(SuspendableClassifier.class);
+    private static final SuspendableClassifier[] classifiers = loadClassifiers(); // ServiceLoader isn't thread-safe
+
+    private static SuspendableClassifier[] loadClassifiers() {
+        final ArrayList<SuspendableClassifier> list = new ArrayList<SuspendableClassifier>();
+        for (SuspendableClassifier sc : ServiceLoader.load(SuspendableClassifier.class))
+            list.add(sc);
+        return list.toArray(new SuspendableClassifier[list.size()]);
+    }
 
     public static boolean isSuspendable(String className, ClassEntry classEntry, String methodName, String methodDesc, String methodSignature, String[] methodExceptions) {
-        for (SuspendableClassifier sc : loader) {
+        for (SuspendableClassifier sc : classifiers) {
             if (sc.isSuspendable(className, classEntry.superName, classEntry.getInterfaces(), methodName, methodDesc, methodSignature, methodExceptions))
                 return true;
         }
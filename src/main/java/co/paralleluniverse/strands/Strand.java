@@ -123,6 +123,19 @@ public abstract class Strand {
             LockSupport.parkNanos(blocker, nanos);
     }
 
+    /**
+     * Parks the current strand for up to the given timeout, or, like {@link Fiber#park(Object, long, TimeUnit) Fiber.park},
+     * indefinitely if the timeout is {@code 0} (or negative).
+     */
+    public static void park(Object blocker, long timeout, TimeUnit unit) throws SuspendExecution {
+        if (Fiber.currentFiber() != null)
+            Fiber.park(blocker, Math.max(timeout, 0), unit);
+        else if (timeout > 0)
+            LockSupport.parkNanos(blocker, unit.toNanos(timeout));
+        else
+            LockSupport.park(blocker);
+    }
+
     public static void dumpStack() {
         if (Fiber.currentFiber() != null)
             Fiber.dumpStack();
@@ -13,13 +13,21 @@
  */
 package co.paralleluniverse.strands.channels;
 
+import co.paralleluniverse.common.monitoring.Counter;
+import co.paralleluniverse.concurrent.util.UtilUnsafe;
 import co.paralleluniverse.fibers.SuspendExecution;
 import co.paralleluniverse.strands.OwnedSynchronizer;
 import co.paralleluniverse.strands.Strand;
 import co.paralleluniverse.strands.Stranded;
 import co.paralleluniverse.strands.queues.QueueCapacityExceededException;
+import co.paralleluniverse.strands.queues.SingleConsumerLinkedObjectQueue;
 import co.paralleluniverse.strands.queues.SingleConsumerQueue;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.TimeUnit;
+import sun.misc.Unsafe;
 
 /**
  *
@@ -29,15 +37,58 @@ public abstract class Channel<Message> implements SendChannel<Message>, Stranded
     private Object owner;
     private OwnedSynchronizer sync;
     final SingleConsumerQueue<Message, Object> queue;
+    private final OverflowPolicy overflowPolicy;
+    private final SingleConsumerQueue<Message, Object> spill; // only used by the SPILL and DROP_OLDEST policies; guarded by itself under DROP_OLDEST
+    private volatile int spillSize;
+    private volatile int waitingSenders;
+    private final Queue<Strand> senders = new ConcurrentLinkedQueue<Strand>();
+    private volatile int selectorCount;
+    private final Queue<Selector<?>> selectors = new ConcurrentLinkedQueue<Selector<?>>();
+    private final Counter overflowCounter = new Counter();
+    private final Counter droppedCounter = new Counter();
+    private volatile SendChannel<? super Message> droppedMessages;
+    private final Counter spilledCounter = new Counter();
+    private final Counter waitingSendCounter = new Counter();
 
-    Channel(Object owner, SingleConsumerQueue<Message, ?> queue) {
-        this.queue = (SingleConsumerQueue<Message, Object>) queue;
+    Channel(Object owner, SingleConsumerQueue<Message, ?> queue, OverflowPolicy overflowPolicy) {
+        this(queue, overflowPolicy);
         this.owner = owner;
         this.sync = OwnedSynchronizer.create(owner);
     }
 
-    Channel(SingleConsumerQueue<Message, ?> queue) {
+    Channel(SingleConsumerQueue<Message, ?> queue, OverflowPolicy overflowPolicy) {
         this.queue = (SingleConsumerQueue<Message, Object>) queue;
+        this.overflowPolicy = overflowPolicy;
+        this.spill = (overflowPolicy == OverflowPolicy.SPILL || overflowPolicy == OverflowPolicy.DROP_OLDEST)
+                ? (SingleConsumerQueue) new SingleConsumerLinkedObjectQueue<Message>() : null;
+    }
+
+    Channel(Object owner, SingleConsumerQueue<Message, ?> queue) {
+        this(owner, queue, OverflowPolicy.THROW);
+    }
+
+    Channel(SingleConsumerQueue<Message, ?> queue) {
+        this(queue, OverflowPolicy.THROW);
+    }
+
+    public OverflowPolicy getOverflowPolicy() {
+        return overflowPolicy;
+    }
+
+    /**
+     * Sets a channel to which the messages dropped by the {@link OverflowPolicy#DROP_NEWEST DROP_NEWEST} and
+     * {@link OverflowPolicy#DROP_OLDEST DROP_OLDEST} policies are handed, by whichever strand drops them. The channel
+     * must not block.
+     */
+    public void setDroppedMessageChannel(SendChannel<? super Message> channel) {
+        this.droppedMessages = channel;
+    }
+
+    private void dropped(Message message) {
+        droppedCounter.inc();
+        final SendChannel<? super Message> c = droppedMessages;
+        if (c != null)
+            c.send(message);
     }
 
     public Object getOwner() {
@@ -76,31 +127,270 @@ public abstract class Channel<Message> implements SendChannel<Message>, Stranded
     protected void signal() {
         if (sync != null && sync.isOwnerAlive())
             sync.signal();
+        notifySelectors();
     }
 
     protected void signalAndTryToExecNow() {
         if (sync != null && sync.isOwnerAlive())
             sync.signalAndTryToExecNow();
+        notifySelectors();
+    }
+
+    /**
+     * Registers a selector to be notified whenever a message is sent to this channel or room is made in it.
+     */
+    void register(Selector<?> selector) {
+        selectors.add(selector);
+        addSelectorCount(1);
+    }
+
+    void unregister(Selector<?> selector) {
+        if (selectors.remove(selector))
+            addSelectorCount(-1);
+    }
+
+    private void notifySelectors() {
+        if (selectorCount == 0)
+            return;
+        for (Selector<?> s : selectors)
+            s.signal();
     }
 
     @Override
     public void send(Message message) {
-        if (!queue.enq(message))
+        if (!enq(message))
             throw new QueueCapacityExceededException();
         signal();
     }
 
     public void sendSync(Message message) {
-        if (!queue.enq(message))
+        if (!enq(message))
             throw new QueueCapacityExceededException();
         signalAndTryToExecNow();
     }
 
+    /**
+     * Sends a message if the channel has room for it, without applying the {@link OverflowPolicy#DROP_NEWEST DROP_NEWEST}
+     * policy. Channels with the {@link OverflowPolicy#SPILL SPILL} or {@link OverflowPolicy#DROP_OLDEST DROP_OLDEST}
+     * policies always have room.
+     *
+     * @return {@code true} if the message has been sent
+     */
+    public boolean trySend(Message message) {
+        if (spill != null) {
+            send(message);
+            return true;
+        }
+        if (!queue.enq(message))
+            return false;
+        signal();
+        return true;
+    }
+
+    /**
+     * Sends a message, waiting up to the given timeout for room in the channel if it's full (a timeout of {@code 0}
+     * waits indefinitely). Channels with the {@link OverflowPolicy#SPILL SPILL} or
+     * {@link OverflowPolicy#DROP_OLDEST DROP_OLDEST} policies always have room.
+     *
+     * @return {@code false} if the timeout has elapsed before the message could be sent
+     */
+    public boolean send(Message message, long timeout, TimeUnit unit) throws SuspendExecution, InterruptedException {
+        if (spill != null) {
+            send(message);
+            return true;
+        }
+        if (queue.enq(message)) {
+            signal();
+            return true;
+        }
+
+        waitingSendCounter.inc();
+        final long deadline = timeout > 0 && unit != null ? System.nanoTime() + unit.toNanos(timeout) : 0;
+        final Strand strand = Strand.currentStrand();
+        for (;;) {
+            senders.add(strand);
+            addWaitingSenders(1);
+            try {
+                if (queue.enq(message)) { // room may have been made before we've registered
+                    signal();
+                    passWakeup(strand);
+                    return true;
+                }
+                long left = 0;
+                if (deadline != 0) {
+                    left = deadline - System.nanoTime();
+                    if (left <= 0) {
+                        overflowCounter.inc();
+                        return false;
+                    }
+                }
+                Strand.park(this, left, TimeUnit.NANOSECONDS);
+            } finally {
+                addWaitingSenders(-1);
+                senders.remove(strand);
+            }
+            if (Strand.interrupted())
+                throw new InterruptedException();
+        }
+    }
+
+    /**
+     * Called by a sender that has found room after waiting. As the receiver wakes only the senders at the head of the
+     * queue of waiters, which may be woken repeatedly until they leave it, passes the wake-up on to the next waiter.
+     */
+    private void passWakeup(Strand strand) {
+        if (waitingSenders <= 1)
+            return;
+        final Iterator<Strand> it = senders.iterator();
+        while (it.hasNext()) {
+            if (it.next() == strand) {
+                wakeSenders(it, 1);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Enqueues a message, applying the overflow policy if the channel is full.
+     *
+     * @return {@code false} if the channel is full and the policy is {@link OverflowPolicy#THROW THROW}
+     */
+    boolean enq(Message message) {
+        if (spill == null) {
+            if (queue.enq(message))
+                return true;
+            overflowCounter.inc();
+            if (overflowPolicy == OverflowPolicy.DROP_NEWEST) {
+                dropped(message);
+                return true;
+            }
+            return false;
+        }
+
+        if (spillSize == 0 && queue.enq(message)) // once a message has spilled, later ones must follow it
+            return true;
+        overflowCounter.inc();
+        spilledCounter.inc();
+        if (overflowPolicy == OverflowPolicy.DROP_OLDEST) {
+            // the queue's messages are all older than the spilled ones, so we keep no more than the queue's capacity
+            // spilled messages; as senders may drop the oldest of them, the spill is no longer single-consumer
+            Message oldest = null;
+            synchronized (spill) {
+                addSpillSize(1);
+                spill.enq(message);
+                if (spillSize > queue.capacity()) {
+                    final Object s = spill.pk();
+                    oldest = spill.value(s);
+                    spill.deq(s);
+                    addSpillSize(-1);
+                }
+            }
+            if (oldest != null)
+                dropped(oldest);
+            return true;
+        }
+        addSpillSize(1);
+        spill.enq(message);
+        return true;
+    }
+
+    /**
+     * Called by the receiver before looking at the queue. Moves spilled messages into the queue as room allows,
+     * and, if {@code allowDrops} and the policy is {@link OverflowPolicy#DROP_OLDEST DROP_OLDEST}, makes room for them
+     * by dropping the oldest messages.
+     */
+    void refill(boolean allowDrops) {
+        if (spill == null || spillSize == 0)
+            return;
+        if (overflowPolicy == OverflowPolicy.DROP_OLDEST) {
+            synchronized (spill) {
+                refill0(allowDrops);
+            }
+        } else
+            refill0(false);
+    }
+
+    private void refill0(boolean allowDrops) {
+        Object s;
+        while ((s = spill.pk()) != null) {
+            final Message m = spill.value(s);
+            if (!queue.enq(m)) {
+                if (!allowDrops)
+                    break;
+                final Object h = queue.pk();
+                if (h != null) {
+                    final Message oldest = queue.value(h);
+                    queue.deq(h);
+                    dropped(oldest);
+                }
+                if (!queue.enq(m))
+                    break;
+            }
+            spill.deq(s); // only now, so that senders keep spilling until m is in the queue
+            addSpillSize(-1);
+        }
+    }
+
+    /**
+     * Called by the receiver after it has removed {@code n} messages from the queue. Wakes up to {@code n} waiting
+     * senders.
+     */
+    void consumed(int n) {
+        if (n == 0)
+            return;
+        if (queue.capacity() >= 0 && fencedWaitingSenders() != 0)
+            wakeSenders(senders.iterator(), n);
+        notifySelectors();
+    }
+
+    void consumed() {
+        consumed(1);
+    }
+
+    private static void wakeSenders(Iterator<Strand> it, int n) {
+        for (int i = 0; i < n && it.hasNext(); i++)
+            it.next().unpark();
+    }
+
+    void deq(Object n) {
+        queue.deq(n);
+        consumed();
+    }
+
+    Object pk() {
+        refill(true);
+        return queue.pk();
+    }
+
+    /**
+     * Sends {@code len} messages of {@code messages}, starting at {@code off}, and then signals the owner once.
+     * <p/>
+     * The batch isn't all-or-nothing: if the channel's overflow policy is {@link OverflowPolicy#THROW THROW} and not all
+     * messages fit, the leading messages that do fit are sent before a {@link QueueCapacityExceededException} is thrown.
+     */
+    public void sendBatch(Message[] messages, int off, int len) {
+        int n = spill == null ? queue.enqAll(messages, off, len) : 0;
+        if (n < len && overflowPolicy != OverflowPolicy.THROW) {
+            for (; n < len; n++)
+                enq(messages[off + n]);
+        }
+        if (n > 0)
+            signal();
+        if (n < len) {
+            overflowCounter.inc();
+            throw new QueueCapacityExceededException();
+        }
+    }
+
+    public void sendBatch(Message[] messages) {
+        sendBatch(messages, 0, messages.length);
+    }
+
     Object receiveNode() throws SuspendExecution, InterruptedException {
         maybeSetCurrentStrandAsOwner();
         Object n;
         sync.lock();
-        while ((n = queue.pk()) == null)
+        while ((n = pk()) == null)
             sync.await();
         sync.unlock();
 
@@ -108,7 +398,7 @@ public abstract class Channel<Message> implements SendChannel<Message>, Stranded
     }
 
     Object tryReceiveNode() {
-        return queue.pk();
+        return pk();
     }
 
     Object receiveNode(long timeout, TimeUnit unit) throws SuspendExecution, InterruptedException {
@@ -123,7 +413,7 @@ public abstract class Channel<Message> implements SendChannel<Message>, Stranded
 
         sync.lock();
         try {
-            while ((n = queue.pk()) == null) {
+            while ((n = pk()) == null) {
                 sync.await(left, TimeUnit.NANOSECONDS);
 
                 left = start + unit.toNanos(timeout) - System.nanoTime();
@@ -137,7 +427,7 @@ public abstract class Channel<Message> implements SendChannel<Message>, Stranded
     }
 
     public boolean isMessageAvailable() {
-        return queue.pk() != null;
+        return queue.pk() != null || spillSize != 0; // may be called by any strand, so mustn't refill
     }
 
     public Message tryReceive() {
@@ -145,14 +435,14 @@ public abstract class Channel<Message> implements SendChannel<Message>, Stranded
         if (n == null)
             return null; // timeout
         final Message m = queue.value(n);
-        queue.deq(n);
+        deq(n);
         return m;
     }
 
     public Message receive() throws SuspendExecution, InterruptedException {
         final Object n = receiveNode();
         final Message m = queue.value(n);
-        queue.deq(n);
+        deq(n);
         return m;
     }
 
@@ -161,16 +451,136 @@ public abstract class Channel<Message> implements SendChannel<Message>, Stranded
         if (n == null)
             return null; // timeout
         final Message m = queue.value(n);
-        queue.deq(n);
+        deq(n);
         return m;
     }
 
+    /**
+     * Blocks until at least one message is available, and then receives as many of the available messages as fit in
+     * {@code buf}.
+     *
+     * @return the number of messages received
+     */
+    public int receive(Message[] buf) throws SuspendExecution, InterruptedException {
+        receiveNode();
+        final int n = queue.drainTo(buf, 0, buf.length);
+        consumed(n);
+        return n;
+    }
+
+    /**
+     * Waits up to the given timeout for at least one message to become available, and then receives as many of the
+     * available messages as fit in {@code buf}.
+     *
+     * @return the number of messages received, or {@code 0} if the timeout has elapsed
+     */
+    public int receive(Message[] buf, long timeout, TimeUnit unit) throws SuspendExecution, InterruptedException {
+        if (receiveNode(timeout, unit) == null)
+            return 0; // timeout
+        final int n = queue.drainTo(buf, 0, buf.length);
+        consumed(n);
+        return n;
+    }
+
+    /**
+     * Receives up to {@code max} of the messages currently available, without blocking.
+     *
+     * @return the number of messages received
+     */
+    public int drainTo(Collection<? super Message> c, int max) {
+        refill(true);
+        final int n = queue.drainTo(c, max);
+        consumed(n);
+        return n;
+    }
+
     private void verifySync() {
         if (sync == null)
             throw new IllegalStateException("Owning strand has not been set");
     }
     
     public int getQueueLength() {
-        return queue.size();
+        final int length = queue.size() + spillSize;
+        if (overflowPolicy == OverflowPolicy.DROP_OLDEST && queue.capacity() >= 0)
+            return Math.min(length, queue.capacity()); // the rest will be dropped when the receiver refills the queue
+        return length;
+    }
+
+    /**
+     * The number of messages sent while the channel was full (including those that have spilled).
+     */
+    public long getOverflowCount() {
+        return overflowCounter.get();
+    }
+
+    /**
+     * The number of messages dropped by the {@link OverflowPolicy#DROP_NEWEST DROP_NEWEST} and
+     * {@link OverflowPolicy#DROP_OLDEST DROP_OLDEST} policies.
+     */
+    public long getDroppedCount() {
+        return droppedCounter.get();
+    }
+
+    /**
+     * The number of messages that have been sent to the overflow queue.
+     */
+    public long getSpilledCount() {
+        return spilledCounter.get();
+    }
+
+    /**
+     * The number of {@link #send(Object, long, TimeUnit) sends} that had to wait for room.
+     */
+    public long getWaitingSendCount() {
+        return waitingSendCounter.get();
+    }
+    ////////////////////////////////////////////////////////////////////////
+    private static final Unsafe unsafe = UtilUnsafe.getUnsafe();
+    private static final long spillSizeOffset;
+    private static final long waitingSendersOffset;
+    private static final long selectorCountOffset;
+
+    static {
+        try {
+            spillSizeOffset = unsafe.objectFieldOffset(Channel.class.getDeclaredField("spillSize"));
+            waitingSendersOffset = unsafe.objectFieldOffset(Channel.class.getDeclaredField("waitingSenders"));
+            selectorCountOffset = unsafe.objectFieldOffset(Channel.class.getDeclaredField("selectorCount"));
+        } catch (Exception ex) {
+            throw new Error(ex);
+        }
+    }
+
+    private void addSpillSize(int delta) {
+        int v;
+        do {
+            v = spillSize;
+        } while (!unsafe.compareAndSwapInt(this, spillSizeOffset, v, v + delta));
+    }
+
+    private void addWaitingSenders(int delta) {
+        int v;
+        do {
+            v = waitingSenders;
+        } while (!unsafe.compareAndSwapInt(this, waitingSendersOffset, v, v + delta));
+    }
+
+    /**
+     * Reads waitingSenders with a CAS rather than a volatile read. The queue frees room with an ordered store, which a
+     * volatile read may be reordered before; we could then miss a sender that has registered, retried the full queue
+     * and parked.
+     */
+    private int fencedWaitingSenders() {
+        int v;
+        do {
+            v = waitingSenders;
+        } while (!unsafe.compareAndSwapInt(this, waitingSendersOffset, v, v));
+        return v;
+    }
+
+    private void addSelectorCount(int delta) {
+        int v;
+        do {
+            v = selectorCount;
+        } while (!unsafe.compareAndSwapInt(this, selectorCountOffset, v, v + delta));
     }
 }
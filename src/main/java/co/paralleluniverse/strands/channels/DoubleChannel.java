@@ -44,14 +44,14 @@ public class DoubleChannel extends Channel<Double> {
     public double receiveDouble() throws SuspendExecution, InterruptedException {
         final Object n = receiveNode();
         final double m = ((SingleConsumerDoubleQueue<Object>) queue).doubleValue(n);
-        queue.deq(n);
+        deq(n);
         return m;
     }
 
     public double receiveDouble(long timeout, TimeUnit unit) throws SuspendExecution, InterruptedException {
         final Object n = receiveNode(timeout, unit);
         final double m = ((SingleConsumerDoubleQueue<Object>) queue).doubleValue(n);
-        queue.deq(n);
+        deq(n);
         return m;
     }
 
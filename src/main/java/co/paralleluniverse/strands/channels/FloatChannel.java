@@ -44,14 +44,14 @@ public class FloatChannel extends Channel<Float> {
     public float receiveFloat() throws SuspendExecution, InterruptedException {
         final Object n = receiveNode();
         final float m = ((SingleConsumerFloatQueue<Object>) queue).floatValue(n);
-        queue.deq(n);
+        deq(n);
         return m;
     }
 
     public float receiveFloat(long timeout, TimeUnit unit) throws SuspendExecution, InterruptedException {
         final Object n = receiveNode(timeout, unit);
         final float m = ((SingleConsumerFloatQueue<Object>) queue).floatValue(n);
-        queue.deq(n);
+        deq(n);
         return m;
     }
 
@@ -44,17 +44,32 @@ public class IntChannel extends Channel<Integer> {
     public int receiveInt() throws SuspendExecution, InterruptedException {
         final Object n = receiveNode();
         final int m = ((SingleConsumerIntQueue<Object>) queue).intValue(n);
-        queue.deq(n);
+        deq(n);
         return m;
     }
 
     public int receiveInt(long timeout, TimeUnit unit) throws SuspendExecution, InterruptedException {
         final Object n = receiveNode(timeout, unit);
         final int m = ((SingleConsumerIntQueue<Object>) queue).intValue(n);
-        queue.deq(n);
+        deq(n);
         return m;
     }
 
+    public int receiveInts(int[] buf) throws SuspendExecution, InterruptedException {
+        receiveNode();
+        final int n = ((SingleConsumerIntQueue<Object>) queue).drainTo(buf, 0, buf.length);
+        consumed(n);
+        return n;
+    }
+
+    public int receiveInts(int[] buf, long timeout, TimeUnit unit) throws SuspendExecution, InterruptedException {
+        if (receiveNode(timeout, unit) == null)
+            return 0; // timeout
+        final int n = ((SingleConsumerIntQueue<Object>) queue).drainTo(buf, 0, buf.length);
+        consumed(n);
+        return n;
+    }
+
     public void send(int message) {
         queue.enq(message);
         signal();
@@ -44,17 +44,32 @@ public class LongChannel extends Channel<Long> {
     public long receiveLong() throws SuspendExecution, InterruptedException {
         final Object n = receiveNode();
         final long m = ((SingleConsumerLongQueue<Object>) queue).longValue(n);
-        queue.deq(n);
+        deq(n);
         return m;
     }
 
     public long receiveLong(long timeout, TimeUnit unit) throws SuspendExecution, InterruptedException {
         final Object n = receiveNode(timeout, unit);
         final long m = ((SingleConsumerLongQueue<Object>) queue).longValue(n);
-        queue.deq(n);
+        deq(n);
         return m;
     }
 
+    public int receiveLongs(long[] buf) throws SuspendExecution, InterruptedException {
+        receiveNode();
+        final int n = ((SingleConsumerLongQueue<Object>) queue).drainTo(buf, 0, buf.length);
+        consumed(n);
+        return n;
+    }
+
+    public int receiveLongs(long[] buf, long timeout, TimeUnit unit) throws SuspendExecution, InterruptedException {
+        if (receiveNode(timeout, unit) == null)
+            return 0; // timeout
+        final int n = ((SingleConsumerLongQueue<Object>) queue).drainTo(buf, 0, buf.length);
+        consumed(n);
+        return n;
+    }
+
     public void send(long message) {
         queue.enq(message);
         signal();
@@ -25,28 +25,49 @@ import java.util.concurrent.TimeUnit;
  * @author pron
  */
 public final class Mailbox<Message> extends Channel<Message> {
+    public static <Message> Mailbox<Message> create(Object owner, int mailboxSize, OverflowPolicy overflowPolicy) {
+        return new Mailbox(owner, mailboxSize > 0 ? new SingleConsumerArrayObjectQueue<Message>(mailboxSize) : new SingleConsumerLinkedObjectQueue<Message>(), overflowPolicy);
+    }
+
+    public static <Message> Mailbox<Message> create(int mailboxSize, OverflowPolicy overflowPolicy) {
+        return new Mailbox(mailboxSize > 0 ? new SingleConsumerArrayObjectQueue<Message>(mailboxSize) : new SingleConsumerLinkedObjectQueue<Message>(), overflowPolicy);
+    }
+
     public static <Message> Mailbox<Message> create(Object owner, int mailboxSize) {
-        return new Mailbox(owner, mailboxSize > 0 ? new SingleConsumerArrayObjectQueue<Message>(mailboxSize) : new SingleConsumerLinkedObjectQueue<Message>());
+        return create(owner, mailboxSize, OverflowPolicy.THROW);
     }
 
     public static <Message> Mailbox<Message> create(int mailboxSize) {
-        return new Mailbox(mailboxSize > 0 ? new SingleConsumerArrayObjectQueue<Message>(mailboxSize) : new SingleConsumerLinkedObjectQueue<Message>());
+        return create(mailboxSize, OverflowPolicy.THROW);
     }
 
-    private Mailbox(Object owner, SingleConsumerQueue<Message, ?> queue) {
-        super(owner, queue);
+    private Mailbox(Object owner, SingleConsumerQueue<Message, ?> queue, OverflowPolicy overflowPolicy) {
+        super(owner, queue, overflowPolicy);
     }
 
-    private Mailbox(SingleConsumerQueue<Message, ?> queue) {
-        super(queue);
+    private Mailbox(SingleConsumerQueue<Message, ?> queue, OverflowPolicy overflowPolicy) {
+        super(queue, overflowPolicy);
+    }
+
+    public boolean allowRetainPointers() {
+        return queue.allowRetainPointers();
     }
 
     public Object succ(Object n) {
-        return queue.succ(n);
+        if (n == null)
+            return pk();
+        Object s = queue.succ(n);
+        if (s == null) {
+            refill(false); // n may be the oldest message, so we mustn't drop it
+            s = queue.succ(n);
+        }
+        return s;
     }
 
     public Object del(Object n) {
-        return queue.del(n);
+        final Object prev = queue.del(n);
+        consumed();
+        return prev;
     }
 
     public Message value(Object n) {
@@ -0,0 +1,166 @@
+/*
+ * Quasar: lightweight threads and actors for the JVM.
+ * Copyright (C) 2013, Parallel Universe Software Co. All rights reserved.
+ *
+ * This program and the accompanying materials are dual-licensed under
+ * either the terms of the Eclipse Public License v1.0 as published by
+ * the Eclipse Foundation
+ *
+ *   or (per the licensee's choosing)
+ *
+ * under the terms of the GNU Lesser General Public License version 3.0
+ * as published by the Free Software Foundation.
+ */
+package co.paralleluniverse.strands.channels;
+
+import co.paralleluniverse.concurrent.util.UtilUnsafe;
+import co.paralleluniverse.fibers.SuspendExecution;
+import co.paralleluniverse.strands.Strand;
+import co.paralleluniverse.strands.queues.MultiConsumerArrayQueue;
+import co.paralleluniverse.strands.queues.QueueCapacityExceededException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import sun.misc.Unsafe;
+
+/**
+ * A bounded channel that may be received from by any number of strands (fibers or threads), e.g. a pool of workers
+ * pulling jobs from a single stream.
+ * <p/>
+ * Receivers that find the channel empty park, and each message sent wakes at most one of them.
+ *
+ * @author pron
+ */
+public class MultiConsumerChannel<Message> implements SendChannel<Message> {
+    public static <Message> MultiConsumerChannel<Message> create(int capacity) {
+        return new MultiConsumerChannel<Message>(new MultiConsumerArrayQueue<Message>(capacity));
+    }
+    private final MultiConsumerArrayQueue<Message> queue;
+    private final ConcurrentLinkedQueue<Waiter> waiters = new ConcurrentLinkedQueue<Waiter>();
+
+    private MultiConsumerChannel(MultiConsumerArrayQueue<Message> queue) {
+        this.queue = queue;
+    }
+
+    @Override
+    public void send(Message message) {
+        if (!queue.enq(message))
+            throw new QueueCapacityExceededException();
+        signal();
+    }
+
+    public boolean isMessageAvailable() {
+        return !queue.isEmpty();
+    }
+
+    public Message tryReceive() {
+        return queue.poll();
+    }
+
+    public Message receive() throws SuspendExecution, InterruptedException {
+        return receive(0, null);
+    }
+
+    public Message receive(long timeout, TimeUnit unit) throws SuspendExecution, InterruptedException {
+        Message m = queue.poll();
+        if (m != null)
+            return m;
+
+        final boolean timed = timeout > 0 && unit != null;
+        final long deadline = timed ? System.nanoTime() + unit.toNanos(timeout) : 0;
+        final Strand strand = Strand.currentStrand();
+        for (;;) {
+            final Waiter w = new Waiter(strand);
+            waiters.add(w);
+            m = queue.poll(); // a message sent before we've registered would not have woken us
+            if (m == null) {
+                await(w, timed, deadline);
+                m = queue.poll();
+            }
+            if (w.cancel())
+                waiters.remove(w);
+            else {
+                // we've been signalled (possibly after timing out), so we must not lose the wake-up
+                if (m == null)
+                    m = queue.poll();
+                if (!queue.isEmpty())
+                    signal(); // we may have taken a different message than the one we've been woken for, so pass the wake-up on
+            }
+
+            if (m != null)
+                return m;
+            if (Strand.interrupted())
+                throw new InterruptedException();
+            if (timed && deadline - System.nanoTime() <= 0)
+                return null; // timeout
+        }
+    }
+
+    public int getQueueLength() {
+        return queue.size();
+    }
+
+    private void signal() {
+        // the queue publishes a message with a volatile write, so this read of the waiters can't be reordered before it;
+        // a receiver that we miss here registers itself before polling the queue, and so will see the message.
+        Waiter w;
+        while ((w = waiters.poll()) != null) {
+            if (w.signal()) {
+                w.strand.unpark();
+                return;
+            }
+        }
+    }
+
+    private void await(Waiter w, boolean timed, long deadline) throws SuspendExecution {
+        while (!w.isSignalled()) {
+            long left = 0;
+            if (timed) {
+                left = deadline - System.nanoTime();
+                if (left <= 0)
+                    return;
+            }
+            Strand.park(this, left, TimeUnit.NANOSECONDS);
+            if (w.strand.isInterrupted())
+                return;
+        }
+    }
+
+    private static final class Waiter {
+        static final int WAITING = 0;
+        static final int SIGNALLED = 1;
+        static final int CANCELLED = 2;
+        final Strand strand;
+        volatile int state;
+
+        Waiter(Strand strand) {
+            this.strand = strand;
+        }
+
+        boolean isSignalled() {
+            return state == SIGNALLED;
+        }
+
+        boolean signal() {
+            return compareAndSetState(this, WAITING, SIGNALLED);
+        }
+
+        boolean cancel() {
+            return compareAndSetState(this, WAITING, CANCELLED);
+        }
+    }
+    ////////////////////////////////////////////////////////////////////////
+    private static final Unsafe unsafe = UtilUnsafe.getUnsafe();
+    private static final long waiterStateOffset;
+
+    static {
+        try {
+            waiterStateOffset = unsafe.objectFieldOffset(Waiter.class.getDeclaredField("state"));
+        } catch (Exception ex) {
+            throw new Error(ex);
+        }
+    }
+
+    private static boolean compareAndSetState(Waiter w, int expect, int update) {
+        return unsafe.compareAndSwapInt(w, waiterStateOffset, expect, update);
+    }
+}
@@ -0,0 +1,40 @@
+/*
+ * Quasar: lightweight threads and actors for the JVM.
+ * Copyright (C) 2013, Parallel Universe Software Co. All rights reserved.
+ *
+ * This program and the accompanying materials are dual-licensed under
+ * either the terms of the Eclipse Public License v1.0 as published by
+ * the Eclipse Foundation
+ *
+ *   or (per the licensee's choosing)
+ *
+ * under the terms of the GNU Lesser General Public License version 3.0
+ * as published by the Free Software Foundation.
+ */
+package co.paralleluniverse.strands.channels;
+
+/**
+ * What {@link Channel#send(Object) send} does when a bounded channel is full.
+ *
+ * @author pron
+ */
+public enum OverflowPolicy {
+    /**
+     * Throws a {@link co.paralleluniverse.strands.queues.QueueCapacityExceededException}.
+     */
+    THROW,
+    /**
+     * Drops the message being sent.
+     */
+    DROP_NEWEST,
+    /**
+     * Keeps the message being sent, and drops the oldest message in the channel, so that the channel's length never
+     * exceeds its capacity.
+     */
+    DROP_OLDEST,
+    /**
+     * Keeps the message in an unbounded overflow queue, from which it is moved to the channel as the receiver makes
+     * room.
+     */
+    SPILL
+}
@@ -0,0 +1,79 @@
+/*
+ * Quasar: lightweight threads and actors for the JVM.
+ * Copyright (C) 2013, Parallel Universe Software Co. All rights reserved.
+ *
+ * This program and the accompanying materials are dual-licensed under
+ * either the terms of the Eclipse Public License v1.0 as published by
+ * the Eclipse Foundation
+ *
+ *   or (per the licensee's choosing)
+ *
+ * under the terms of the GNU Lesser General Public License version 3.0
+ * as published by the Free Software Foundation.
+ */
+package co.paralleluniverse.strands.channels;
+
+/**
+ * An operation - a send or a receive - on a channel, to be performed by {@link Selector#select(SelectAction[]) select}
+ * once the channel is ready for it. Actions are created by {@link Selector#send(Channel, Object) Selector.send} and
+ * {@link Selector#receive(Channel) Selector.receive}.
+ *
+ * @author pron
+ */
+public final class SelectAction<Message> {
+    private final Channel<Message> channel;
+    private final boolean send;
+    private Message message;
+    int index = -1;
+
+    SelectAction(Channel<Message> channel, boolean send, Message message) {
+        this.channel = channel;
+        this.send = send;
+        this.message = message;
+    }
+
+    public Channel<Message> channel() {
+        return channel;
+    }
+
+    public boolean isSend() {
+        return send;
+    }
+
+    /**
+     * The message sent, or the one received if this is a receive action that has been performed.
+     */
+    public Message message() {
+        return message;
+    }
+
+    /**
+     * This action's position in the list of actions passed to the select that has performed it.
+     */
+    public int index() {
+        return index;
+    }
+
+    void prepare() {
+        if (!send)
+            channel.maybeSetCurrentStrandAsOwner(); // we're going to be the channel's receiver
+    }
+
+    /**
+     * Performs the action if the channel is ready for it, without blocking.
+     */
+    boolean tryPerform() {
+        if (send)
+            return channel.trySend(message);
+        final Message m = channel.tryReceive();
+        if (m == null)
+            return false;
+        this.message = m;
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        return "SelectAction{" + (send ? "send " + message + " to " : "receive from ") + channel + '}';
+    }
+}
@@ -0,0 +1,180 @@
+/*
+ * Quasar: lightweight threads and actors for the JVM.
+ * Copyright (C) 2013, Parallel Universe Software Co. All rights reserved.
+ *
+ * This program and the accompanying materials are dual-licensed under
+ * either the terms of the Eclipse Public License v1.0 as published by
+ * the Eclipse Foundation
+ *
+ *   or (per the licensee's choosing)
+ *
+ * under the terms of the GNU Lesser General Public License version 3.0
+ * as published by the Free Software Foundation.
+ */
+package co.paralleluniverse.strands.channels;
+
+import co.paralleluniverse.concurrent.util.UtilUnsafe;
+import co.paralleluniverse.fibers.SuspendExecution;
+import co.paralleluniverse.strands.Strand;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import sun.misc.Unsafe;
+
+/**
+ * Waits on several channels at once, performing exactly one of a list of {@link SelectAction actions} - sends and
+ * receives - as soon as its channel is ready for it.
+ * <p/>
+ * A selecting strand registers with each of the channels, which then notify it whenever a message is sent or room is
+ * made; however many channels become ready, the strand is unparked once, and then retries the actions. If several
+ * actions are ready, the first in the list is performed. Selecting to receive from a channel makes the selecting
+ * strand the channel's owner (as would a {@link Channel#receive() receive}).
+ * <p/>
+ * Usage:
+ * <pre>
+ * SelectAction&lt;Object&gt; sa = Selector.select(Selector.receive(requests), Selector.receive(control));
+ * if (sa.index() == 0)
+ *     handleRequest(sa.message());
+ * </pre>
+ *
+ * @author pron
+ */
+public final class Selector<Message> {
+    @SuppressWarnings("unchecked")
+    public static <Message> SelectAction<Message> send(Channel<? super Message> channel, Message message) {
+        return new SelectAction<Message>((Channel<Message>) channel, true, message);
+    }
+
+    @SuppressWarnings("unchecked")
+    public static <Message> SelectAction<Message> receive(Channel<? extends Message> channel) {
+        return new SelectAction<Message>((Channel<Message>) channel, false, null);
+    }
+
+    /**
+     * Performs one of the given actions, waiting until one of them can be performed.
+     *
+     * @return the action performed
+     */
+    @SafeVarargs
+    public static <Message> SelectAction<Message> select(SelectAction<Message>... actions) throws SuspendExecution, InterruptedException {
+        return select(0, null, actions);
+    }
+
+    /**
+     * Performs one of the given actions, waiting up to the given timeout until one of them can be performed.
+     *
+     * @return the action performed, or {@code null} if the timeout has elapsed
+     */
+    @SafeVarargs
+    public static <Message> SelectAction<Message> select(long timeout, TimeUnit unit, SelectAction<Message>... actions) throws SuspendExecution, InterruptedException {
+        final Selector<Message> selector = new Selector<Message>(actions);
+        final SelectAction<Message> sa = selector.tryPerform();
+        if (sa != null)
+            return sa;
+        return selector.await(timeout, unit);
+    }
+
+    @SuppressWarnings("unchecked")
+    public static <Message> SelectAction<Message> select(List<SelectAction<Message>> actions) throws SuspendExecution, InterruptedException {
+        return select(0, null, actions.toArray(new SelectAction[actions.size()]));
+    }
+
+    @SuppressWarnings("unchecked")
+    public static <Message> SelectAction<Message> select(long timeout, TimeUnit unit, List<SelectAction<Message>> actions) throws SuspendExecution, InterruptedException {
+        return select(timeout, unit, actions.toArray(new SelectAction[actions.size()]));
+    }
+
+    /**
+     * Performs one of the given actions if any of them can be performed immediately.
+     *
+     * @return the action performed, or {@code null} if none of them can be performed without blocking
+     */
+    @SafeVarargs
+    public static <Message> SelectAction<Message> trySelect(SelectAction<Message>... actions) {
+        return new Selector<Message>(actions).tryPerform();
+    }
+    private static final int WAITING = 0;
+    private static final int SIGNALLED = 1;
+    private final SelectAction<Message>[] actions;
+    private Strand waiter;
+    private volatile int state;
+
+    private Selector(SelectAction<Message>[] actions) {
+        this.actions = actions;
+        for (int i = 0; i < actions.length; i++) {
+            final SelectAction<Message> sa = actions[i];
+            sa.index = i;
+            sa.prepare();
+        }
+    }
+
+    private SelectAction<Message> tryPerform() {
+        for (SelectAction<Message> sa : actions) {
+            if (sa.tryPerform())
+                return sa;
+        }
+        return null;
+    }
+
+    private SelectAction<Message> await(long timeout, TimeUnit unit) throws SuspendExecution, InterruptedException {
+        final boolean timed = timeout > 0 && unit != null;
+        final long deadline = timed ? System.nanoTime() + unit.toNanos(timeout) : 0;
+        this.waiter = Strand.currentStrand();
+        register();
+        SelectAction<Message> sa;
+        for (;;) {
+            state = WAITING; // before retrying, so that a notification that comes while we're at it isn't lost
+            sa = tryPerform();
+            if (sa != null)
+                break;
+            long left = 0;
+            if (timed) {
+                left = deadline - System.nanoTime();
+                if (left <= 0)
+                    break; // timeout
+            }
+            if (state == WAITING) // otherwise we've been notified since we've tried the actions
+                Strand.park(this, left, TimeUnit.NANOSECONDS);
+            if (Strand.interrupted()) {
+                unregister();
+                throw new InterruptedException();
+            }
+        }
+        unregister();
+        return sa;
+    }
+
+    private void register() {
+        for (SelectAction<Message> sa : actions)
+            sa.channel().register(this);
+    }
+
+    private void unregister() {
+        for (SelectAction<Message> sa : actions)
+            sa.channel().unregister(this);
+    }
+
+    /**
+     * Called by a channel when it's become ready for a send or a receive. Only the first call after the selecting strand
+     * has (re)tried its actions unparks it.
+     */
+    void signal() {
+        if (state == WAITING && compareAndSetState(WAITING, SIGNALLED))
+            waiter.unpark();
+    }
+
+    ////////////////////////////////////////////////////////////////////////
+    private static final Unsafe unsafe = UtilUnsafe.getUnsafe();
+    private static final long stateOffset;
+
+    static {
+        try {
+            stateOffset = unsafe.objectFieldOffset(Selector.class.getDeclaredField("state"));
+        } catch (Exception ex) {
+            throw new Error(ex);
+        }
+    }
+
+    private boolean compareAndSetState(int expect, int update) {
+        return unsafe.compareAndSwapInt(this, stateOffset, expect, update);
+    }
+}
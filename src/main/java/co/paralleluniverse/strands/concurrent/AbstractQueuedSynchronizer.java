@@ -0,0 +1,987 @@
+/*
+ * Quasar: lightweight threads and actors for the JVM.
+ * Copyright (C) 2013, Parallel Universe Software Co. All rights reserved.
+ *
+ * This program and the accompanying materials are dual-licensed under
+ * either the terms of the Eclipse Public License v1.0 as published by
+ * the Eclipse Foundation
+ *
+ *   or (per the licensee's choosing)
+ *
+ * under the terms of the GNU Lesser General Public License version 3.0
+ * as published by the Free Software Foundation.
+ */
+package co.paralleluniverse.strands.concurrent;
+
+import co.paralleluniverse.concurrent.util.UtilUnsafe;
+import co.paralleluniverse.fibers.Fiber;
+import co.paralleluniverse.fibers.SuspendExecution;
+import co.paralleluniverse.strands.Strand;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+import sun.misc.Unsafe;
+
+/**
+ * A port of {@link java.util.concurrent.locks.AbstractQueuedSynchronizer} whose waiters may be fibers as well as
+ * threads.
+ * <p/>
+ * The synchronizer is used exactly like the original: subclasses keep their state in the synchronizer's {@code int}
+ * and implement {@link #tryAcquire(int) tryAcquire}/{@link #tryRelease(int) tryRelease} (and/or their shared
+ * counterparts), while this class maintains the CLH wait queue. The difference is that waiting strands are parked and
+ * unparked through {@link Strand}, so the acquiring methods are suspendable, and a fiber that has to wait parks rather
+ * than blocking its carrier thread. Exclusive ownership is recorded as the owning {@link Fiber} or {@link Thread}
+ * (see {@link #current()}).
+ *
+ * @author pron
+ */
+public abstract class AbstractQueuedSynchronizer implements java.io.Serializable {
+    private static final long serialVersionUID = 7373984972572414691L;
+    /**
+     * Below this many nanoseconds a timed wait spins rather than parks.
+     */
+    static final long spinForTimeoutThreshold = 1000L;
+    private transient volatile Node head;
+    private transient volatile Node tail;
+    private volatile int state;
+    private transient Object exclusiveOwner;
+
+    protected AbstractQueuedSynchronizer() {
+    }
+
+    /**
+     * Wait queue node. See {@link java.util.concurrent.locks.AbstractQueuedSynchronizer} for a description of the
+     * queue.
+     */
+    static final class Node {
+        static final Node SHARED = new Node();
+        static final Node EXCLUSIVE = null;
+        static final int CANCELLED = 1;
+        static final int SIGNAL = -1;
+        static final int CONDITION = -2;
+        static final int PROPAGATE = -3;
+        volatile int waitStatus;
+        volatile Node prev;
+        volatile Node next;
+        volatile Strand strand;
+        Node nextWaiter;
+
+        final boolean isShared() {
+            return nextWaiter == SHARED;
+        }
+
+        final Node predecessor() throws NullPointerException {
+            final Node p = prev;
+            if (p == null)
+                throw new NullPointerException();
+            return p;
+        }
+
+        Node() { // used to establish initial head or SHARED marker
+        }
+
+        Node(Strand strand, Node mode) { // used by addWaiter
+            this.nextWaiter = mode;
+            this.strand = strand;
+        }
+
+        Node(Strand strand, int waitStatus) { // used by Condition
+            this.waitStatus = waitStatus;
+            this.strand = strand;
+        }
+    }
+
+    protected final int getState() {
+        return state;
+    }
+
+    protected final void setState(int newState) {
+        state = newState;
+    }
+
+    protected final boolean compareAndSetState(int expect, int update) {
+        return unsafe.compareAndSwapInt(this, stateOffset, expect, update);
+    }
+
+    /**
+     * Sets the strand (the {@link Fiber} or {@link Thread}) that currently owns exclusive access.
+     */
+    protected final void setExclusiveOwnerStrand(Object strand) {
+        exclusiveOwner = strand;
+    }
+
+    protected final Object getExclusiveOwnerStrand() {
+        return exclusiveOwner;
+    }
+
+    /**
+     * Returns the current fiber, or the current thread if not running in a fiber.
+     * This, rather than {@link Strand#currentStrand()}, is what's compared against the exclusive owner.
+     */
+    protected static Object current() {
+        final Fiber fiber = Fiber.currentFiber();
+        return fiber != null ? fiber : Thread.currentThread();
+    }
+
+    // Queuing utilities
+    private Node enq(final Node node) {
+        for (;;) {
+            final Node t = tail;
+            if (t == null) { // must initialize
+                if (compareAndSetHead(new Node()))
+                    tail = head;
+            } else {
+                node.prev = t;
+                if (compareAndSetTail(t, node)) {
+                    t.next = node;
+                    return t;
+                }
+            }
+        }
+    }
+
+    private Node addWaiter(Node mode) {
+        final Node node = new Node(Strand.currentStrand(), mode);
+        // try the fast path of enq; backup to full enq on failure
+        final Node pred = tail;
+        if (pred != null) {
+            node.prev = pred;
+            if (compareAndSetTail(pred, node)) {
+                pred.next = node;
+                return node;
+            }
+        }
+        enq(node);
+        return node;
+    }
+
+    private void setHead(Node node) {
+        head = node;
+        node.strand = null;
+        node.prev = null;
+    }
+
+    private void unparkSuccessor(Node node) {
+        final int ws = node.waitStatus;
+        if (ws < 0)
+            compareAndSetWaitStatus(node, ws, 0);
+
+        // the strand to unpark is held in the successor, which is normally just the next node. But if cancelled or
+        // apparently null, traverse backwards from tail to find the actual non-cancelled successor.
+        Node s = node.next;
+        if (s == null || s.waitStatus > 0) {
+            s = null;
+            for (Node t = tail; t != null && t != node; t = t.prev) {
+                if (t.waitStatus <= 0)
+                    s = t;
+            }
+        }
+        if (s != null) {
+            final Strand strand = s.strand;
+            if (strand != null)
+                strand.unpark();
+        }
+    }
+
+    private void doReleaseShared() {
+        for (;;) {
+            final Node h = head;
+            if (h != null && h != tail) {
+                final int ws = h.waitStatus;
+                if (ws == Node.SIGNAL) {
+                    if (!compareAndSetWaitStatus(h, Node.SIGNAL, 0))
+                        continue; // loop to recheck cases
+                    unparkSuccessor(h);
+                } else if (ws == 0 && !compareAndSetWaitStatus(h, 0, Node.PROPAGATE))
+                    continue; // loop on failed CAS
+            }
+            if (h == head) // loop if head changed
+                break;
+        }
+    }
+
+    private void setHeadAndPropagate(Node node, int propagate) {
+        Node h = head; // record old head for check below
+        setHead(node);
+        if (propagate > 0 || h == null || h.waitStatus < 0 || (h = head) == null || h.waitStatus < 0) {
+            final Node s = node.next;
+            if (s == null || s.isShared())
+                doReleaseShared();
+        }
+    }
+
+    // Utilities for various versions of acquire
+    private void cancelAcquire(Node node) {
+        if (node == null)
+            return;
+        node.strand = null;
+
+        // skip cancelled predecessors
+        Node pred = node.prev;
+        while (pred.waitStatus > 0)
+            node.prev = pred = pred.prev;
+        final Node predNext = pred.next;
+        node.waitStatus = Node.CANCELLED;
+
+        // if we are the tail, remove ourselves
+        if (node == tail && compareAndSetTail(node, pred))
+            compareAndSetNext(pred, predNext, null);
+        else {
+            // if successor needs signal, try to set pred's next-link so it will get one. Otherwise wake it up to propagate.
+            final int ws;
+            if (pred != head
+                    && ((ws = pred.waitStatus) == Node.SIGNAL || (ws <= 0 && compareAndSetWaitStatus(pred, ws, Node.SIGNAL)))
+                    && pred.strand != null) {
+                final Node next = node.next;
+                if (next != null && next.waitStatus <= 0)
+                    compareAndSetNext(pred, predNext, next);
+            } else
+                unparkSuccessor(node);
+            node.next = node; // help GC
+        }
+    }
+
+    private static boolean shouldParkAfterFailedAcquire(Node pred, Node node) {
+        int ws = pred.waitStatus;
+        if (ws == Node.SIGNAL)
+            return true; // pred will signal us, so we can safely park
+        if (ws > 0) {
+            // pred was cancelled. Skip over predecessors and indicate retry.
+            do {
+                node.prev = pred = pred.prev;
+            } while (pred.waitStatus > 0);
+            pred.next = node;
+        } else
+            compareAndSetWaitStatus(pred, ws, Node.SIGNAL); // we need a signal, but don't park yet
+        return false;
+    }
+
+    static void selfInterrupt() {
+        Strand.currentStrand().interrupt();
+    }
+
+    private boolean parkAndCheckInterrupt() throws SuspendExecution {
+        Strand.park(this, 0, TimeUnit.NANOSECONDS);
+        return Strand.interrupted();
+    }
+
+    // Various flavors of acquire
+    final boolean acquireQueued(final Node node, int arg) throws SuspendExecution {
+        boolean failed = true;
+        try {
+            boolean interrupted = false;
+            for (;;) {
+                final Node p = node.predecessor();
+                if (p == head && tryAcquire(arg)) {
+                    setHead(node);
+                    p.next = null; // help GC
+                    failed = false;
+                    return interrupted;
+                }
+                if (shouldParkAfterFailedAcquire(p, node) && parkAndCheckInterrupt())
+                    interrupted = true;
+            }
+        } finally {
+            if (failed)
+                cancelAcquire(node);
+        }
+    }
+
+    private void doAcquireInterruptibly(int arg) throws SuspendExecution, InterruptedException {
+        final Node node = addWaiter(Node.EXCLUSIVE);
+        boolean failed = true;
+        try {
+            for (;;) {
+                final Node p = node.predecessor();
+                if (p == head && tryAcquire(arg)) {
+                    setHead(node);
+                    p.next = null; // help GC
+                    failed = false;
+                    return;
+                }
+                if (shouldParkAfterFailedAcquire(p, node) && parkAndCheckInterrupt())
+                    throw new InterruptedException();
+            }
+        } finally {
+            if (failed)
+                cancelAcquire(node);
+        }
+    }
+
+    private boolean doAcquireNanos(int arg, long nanosTimeout) throws SuspendExecution, InterruptedException {
+        if (nanosTimeout <= 0L)
+            return false;
+        final long deadline = System.nanoTime() + nanosTimeout;
+        final Node node = addWaiter(Node.EXCLUSIVE);
+        boolean failed = true;
+        try {
+            for (;;) {
+                final Node p = node.predecessor();
+                if (p == head && tryAcquire(arg)) {
+                    setHead(node);
+                    p.next = null; // help GC
+                    failed = false;
+                    return true;
+                }
+                nanosTimeout = deadline - System.nanoTime();
+                if (nanosTimeout <= 0L)
+                    return false;
+                if (shouldParkAfterFailedAcquire(p, node) && nanosTimeout > spinForTimeoutThreshold)
+                    Strand.park(this, nanosTimeout, TimeUnit.NANOSECONDS);
+                if (Strand.interrupted())
+                    throw new InterruptedException();
+            }
+        } finally {
+            if (failed)
+                cancelAcquire(node);
+        }
+    }
+
+    private void doAcquireShared(int arg) throws SuspendExecution {
+        final Node node = addWaiter(Node.SHARED);
+        boolean failed = true;
+        try {
+            boolean interrupted = false;
+            for (;;) {
+                final Node p = node.predecessor();
+                if (p == head) {
+                    final int r = tryAcquireShared(arg);
+                    if (r >= 0) {
+                        setHeadAndPropagate(node, r);
+                        p.next = null; // help GC
+                        if (interrupted)
+                            selfInterrupt();
+                        failed = false;
+                        return;
+                    }
+                }
+                if (shouldParkAfterFailedAcquire(p, node) && parkAndCheckInterrupt())
+                    interrupted = true;
+            }
+        } finally {
+            if (failed)
+                cancelAcquire(node);
+        }
+    }
+
+    private void doAcquireSharedInterruptibly(int arg) throws SuspendExecution, InterruptedException {
+        final Node node = addWaiter(Node.SHARED);
+        boolean failed = true;
+        try {
+            for (;;) {
+                final Node p = node.predecessor();
+                if (p == head) {
+                    final int r = tryAcquireShared(arg);
+                    if (r >= 0) {
+                        setHeadAndPropagate(node, r);
+                        p.next = null; // help GC
+                        failed = false;
+                        return;
+                    }
+                }
+                if (shouldParkAfterFailedAcquire(p, node) && parkAndCheckInterrupt())
+                    throw new InterruptedException();
+            }
+        } finally {
+            if (failed)
+                cancelAcquire(node);
+        }
+    }
+
+    private boolean doAcquireSharedNanos(int arg, long nanosTimeout) throws SuspendExecution, InterruptedException {
+        if (nanosTimeout <= 0L)
+            return false;
+        final long deadline = System.nanoTime() + nanosTimeout;
+        final Node node = addWaiter(Node.SHARED);
+        boolean failed = true;
+        try {
+            for (;;) {
+                final Node p = node.predecessor();
+                if (p == head) {
+                    final int r = tryAcquireShared(arg);
+                    if (r >= 0) {
+                        setHeadAndPropagate(node, r);
+                        p.next = null; // help GC
+                        failed = false;
+                        return true;
+                    }
+                }
+                nanosTimeout = deadline - System.nanoTime();
+                if (nanosTimeout <= 0L)
+                    return false;
+                if (shouldParkAfterFailedAcquire(p, node) && nanosTimeout > spinForTimeoutThreshold)
+                    Strand.park(this, nanosTimeout, TimeUnit.NANOSECONDS);
+                if (Strand.interrupted())
+                    throw new InterruptedException();
+            }
+        } finally {
+            if (failed)
+                cancelAcquire(node);
+        }
+    }
+
+    // Main exported methods
+    protected boolean tryAcquire(int arg) {
+        throw new UnsupportedOperationException();
+    }
+
+    protected boolean tryRelease(int arg) {
+        throw new UnsupportedOperationException();
+    }
+
+    protected int tryAcquireShared(int arg) {
+        throw new UnsupportedOperationException();
+    }
+
+    protected boolean tryReleaseShared(int arg) {
+        throw new UnsupportedOperationException();
+    }
+
+    protected boolean isHeldExclusively() {
+        throw new UnsupportedOperationException();
+    }
+
+    public final void acquire(int arg) throws SuspendExecution {
+        if (tryAcquire(arg))
+            return;
+        if (acquireQueued(addWaiter(Node.EXCLUSIVE), arg))
+            selfInterrupt();
+    }
+
+    public final void acquireInterruptibly(int arg) throws SuspendExecution, InterruptedException {
+        if (Strand.interrupted())
+            throw new InterruptedException();
+        if (!tryAcquire(arg))
+            doAcquireInterruptibly(arg);
+    }
+
+    public final boolean tryAcquireNanos(int arg, long nanosTimeout) throws SuspendExecution, InterruptedException {
+        if (Strand.interrupted())
+            throw new InterruptedException();
+        if (tryAcquire(arg))
+            return true;
+        return doAcquireNanos(arg, nanosTimeout);
+    }
+
+    public final boolean release(int arg) {
+        if (tryRelease(arg)) {
+            final Node h = head;
+            if (h != null && h.waitStatus != 0)
+                unparkSuccessor(h);
+            return true;
+        }
+        return false;
+    }
+
+    public final void acquireShared(int arg) throws SuspendExecution {
+        if (tryAcquireShared(arg) < 0)
+            doAcquireShared(arg);
+    }
+
+    public final void acquireSharedInterruptibly(int arg) throws SuspendExecution, InterruptedException {
+        if (Strand.interrupted())
+            throw new InterruptedException();
+        if (tryAcquireShared(arg) < 0)
+            doAcquireSharedInterruptibly(arg);
+    }
+
+    public final boolean tryAcquireSharedNanos(int arg, long nanosTimeout) throws SuspendExecution, InterruptedException {
+        if (Strand.interrupted())
+            throw new InterruptedException();
+        if (tryAcquireShared(arg) >= 0)
+            return true;
+        return doAcquireSharedNanos(arg, nanosTimeout);
+    }
+
+    public final boolean releaseShared(int arg) {
+        if (tryReleaseShared(arg)) {
+            doReleaseShared();
+            return true;
+        }
+        return false;
+    }
+
+    // Queue inspection methods
+    public final boolean hasQueuedStrands() {
+        return head != tail;
+    }
+
+    public final boolean hasContended() {
+        return head != null;
+    }
+
+    /**
+     * Returns the first (longest-waiting) strand in the queue, or {@code null} if no strands are queued.
+     */
+    public final Strand getFirstQueuedStrand() {
+        // handle only fast path, else relay
+        return (head == tail) ? null : fullGetFirstQueuedStrand();
+    }
+
+    private Strand fullGetFirstQueuedStrand() {
+        // the first node is normally head.next. Try to get its strand field, ensuring consistent reads: if the strand
+        // field is nulled out or s.prev is no longer head, then some other strand(s) concurrently performed setHead in
+        // between some of our reads. We try this twice before resorting to traversal.
+        Node h, s;
+        Strand st;
+        if (((h = head) != null && (s = h.next) != null && s.prev == head && (st = s.strand) != null)
+                || ((h = head) != null && (s = h.next) != null && s.prev == head && (st = s.strand) != null))
+            return st;
+
+        // traverse from tail back to head to find the first queued node
+        Node t = tail;
+        Strand firstStrand = null;
+        while (t != null && t != head) {
+            final Strand tt = t.strand;
+            if (tt != null)
+                firstStrand = tt;
+            t = t.prev;
+        }
+        return firstStrand;
+    }
+
+    public final boolean isQueued(Strand strand) {
+        if (strand == null)
+            throw new NullPointerException();
+        final Object s = strand.getUnderlying();
+        for (Node p = tail; p != null; p = p.prev) {
+            final Strand ps = p.strand;
+            if (ps != null && ps.getUnderlying() == s)
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Returns {@code true} if the apparent first queued strand, if one exists, is waiting in exclusive mode.
+     */
+    final boolean apparentlyFirstQueuedIsExclusive() {
+        Node h, s;
+        return (h = head) != null && (s = h.next) != null && !s.isShared() && s.strand != null;
+    }
+
+    /**
+     * Queries whether any strands have been waiting to acquire longer than the current strand. Used by fair
+     * synchronizers.
+     */
+    public final boolean hasQueuedPredecessors() {
+        final Node t = tail; // read fields in reverse initialization order
+        final Node h = head;
+        Node s;
+        return h != t && ((s = h.next) == null || s.strand == null || s.strand.getUnderlying() != current());
+    }
+
+    // Instrumentation and monitoring methods
+    public final int getQueueLength() {
+        int n = 0;
+        for (Node p = tail; p != null; p = p.prev) {
+            if (p.strand != null)
+                ++n;
+        }
+        return n;
+    }
+
+    public final Collection<Strand> getQueuedStrands() {
+        final ArrayList<Strand> list = new ArrayList<Strand>();
+        for (Node p = tail; p != null; p = p.prev) {
+            final Strand s = p.strand;
+            if (s != null)
+                list.add(s);
+        }
+        return list;
+    }
+
+    public final Collection<Strand> getExclusiveQueuedStrands() {
+        final ArrayList<Strand> list = new ArrayList<Strand>();
+        for (Node p = tail; p != null; p = p.prev) {
+            if (!p.isShared()) {
+                final Strand s = p.strand;
+                if (s != null)
+                    list.add(s);
+            }
+        }
+        return list;
+    }
+
+    public final Collection<Strand> getSharedQueuedStrands() {
+        final ArrayList<Strand> list = new ArrayList<Strand>();
+        for (Node p = tail; p != null; p = p.prev) {
+            if (p.isShared()) {
+                final Strand s = p.strand;
+                if (s != null)
+                    list.add(s);
+            }
+        }
+        return list;
+    }
+
+    @Override
+    public String toString() {
+        final int s = getState();
+        final String q = hasQueuedStrands() ? "non" : "";
+        return super.toString() + "[State = " + s + ", " + q + "empty queue]";
+    }
+
+    // Internal support methods for Conditions
+    final boolean isOnSyncQueue(Node node) {
+        if (node.waitStatus == Node.CONDITION || node.prev == null)
+            return false;
+        if (node.next != null) // if has successor, it must be on queue
+            return true;
+        // node.prev can be non-null, but not yet on queue because the CAS to place it on queue can fail. So we have to
+        // traverse from tail to make sure it actually made it. It will always be near the tail in calls to this
+        // method, and unless the CAS failed (which is unlikely), it will be there, so we hardly ever traverse much.
+        return findNodeFromTail(node);
+    }
+
+    private boolean findNodeFromTail(Node node) {
+        Node t = tail;
+        for (;;) {
+            if (t == node)
+                return true;
+            if (t == null)
+                return false;
+            t = t.prev;
+        }
+    }
+
+    final boolean transferForSignal(Node node) {
+        // if cannot change waitStatus, the node has been cancelled
+        if (!compareAndSetWaitStatus(node, Node.CONDITION, 0))
+            return false;
+
+        // splice onto queue and try to set waitStatus of predecessor to indicate that the strand is (probably) waiting.
+        // If cancelled or attempt to set waitStatus fails, wake up to resync (in which case the waitStatus can be
+        // transiently and harmlessly wrong).
+        final Node p = enq(node);
+        final int ws = p.waitStatus;
+        if (ws > 0 || !compareAndSetWaitStatus(p, ws, Node.SIGNAL))
+            node.strand.unpark();
+        return true;
+    }
+
+    final boolean transferAfterCancelledWait(Node node) {
+        if (compareAndSetWaitStatus(node, Node.CONDITION, 0)) {
+            enq(node);
+            return true;
+        }
+        // if we lost out to a signal(), then we can't proceed until it finishes its enq(). Cancelling during an
+        // incomplete transfer is both rare and transient, so just spin.
+        while (!isOnSyncQueue(node))
+            Thread.yield();
+        return false;
+    }
+
+    final int fullyRelease(Node node) {
+        boolean failed = true;
+        try {
+            final int savedState = getState();
+            if (release(savedState)) {
+                failed = false;
+                return savedState;
+            } else
+                throw new IllegalMonitorStateException();
+        } finally {
+            if (failed)
+                node.waitStatus = Node.CANCELLED;
+        }
+    }
+
+    // Instrumentation methods for conditions
+    public final boolean owns(ConditionObject condition) {
+        return condition.isOwnedBy(this);
+    }
+
+    public final boolean hasWaiters(ConditionObject condition) {
+        if (!owns(condition))
+            throw new IllegalArgumentException("Not owner");
+        return condition.hasWaiters();
+    }
+
+    public final int getWaitQueueLength(ConditionObject condition) {
+        if (!owns(condition))
+            throw new IllegalArgumentException("Not owner");
+        return condition.getWaitQueueLength();
+    }
+
+    public final Collection<Strand> getWaitingStrands(ConditionObject condition) {
+        if (!owns(condition))
+            throw new IllegalArgumentException("Not owner");
+        return condition.getWaitingStrands();
+    }
+
+    /**
+     * Condition implementation for an exclusive {@link AbstractQueuedSynchronizer}.
+     */
+    public class ConditionObject implements Condition, java.io.Serializable {
+        private static final long serialVersionUID = 1173984872572414699L;
+        private transient Node firstWaiter;
+        private transient Node lastWaiter;
+        /**
+         * Mode meaning to reinterrupt on exit from wait
+         */
+        private static final int REINTERRUPT = 1;
+        /**
+         * Mode meaning to throw InterruptedException on exit from wait
+         */
+        private static final int THROW_IE = -1;
+
+        public ConditionObject() {
+        }
+
+        // Internal methods
+        private Node addConditionWaiter() {
+            Node t = lastWaiter;
+            // if lastWaiter is cancelled, clean out
+            if (t != null && t.waitStatus != Node.CONDITION) {
+                unlinkCancelledWaiters();
+                t = lastWaiter;
+            }
+            final Node node = new Node(Strand.currentStrand(), Node.CONDITION);
+            if (t == null)
+                firstWaiter = node;
+            else
+                t.nextWaiter = node;
+            lastWaiter = node;
+            return node;
+        }
+
+        private void doSignal(Node first) {
+            do {
+                if ((firstWaiter = first.nextWaiter) == null)
+                    lastWaiter = null;
+                first.nextWaiter = null;
+            } while (!transferForSignal(first) && (first = firstWaiter) != null);
+        }
+
+        private void doSignalAll(Node first) {
+            lastWaiter = firstWaiter = null;
+            do {
+                final Node next = first.nextWaiter;
+                first.nextWaiter = null;
+                transferForSignal(first);
+                first = next;
+            } while (first != null);
+        }
+
+        private void unlinkCancelledWaiters() {
+            Node t = firstWaiter;
+            Node trail = null;
+            while (t != null) {
+                final Node next = t.nextWaiter;
+                if (t.waitStatus != Node.CONDITION) {
+                    t.nextWaiter = null;
+                    if (trail == null)
+                        firstWaiter = next;
+                    else
+                        trail.nextWaiter = next;
+                    if (next == null)
+                        lastWaiter = trail;
+                } else
+                    trail = t;
+                t = next;
+            }
+        }
+
+        // public methods
+        @Override
+        public final void signal() {
+            if (!isHeldExclusively())
+                throw new IllegalMonitorStateException();
+            final Node first = firstWaiter;
+            if (first != null)
+                doSignal(first);
+        }
+
+        @Override
+        public final void signalAll() {
+            if (!isHeldExclusively())
+                throw new IllegalMonitorStateException();
+            final Node first = firstWaiter;
+            if (first != null)
+                doSignalAll(first);
+        }
+
+        @Override
+        public final void awaitUninterruptibly() throws SuspendExecution {
+            final Node node = addConditionWaiter();
+            final int savedState = fullyRelease(node);
+            boolean interrupted = false;
+            while (!isOnSyncQueue(node)) {
+                Strand.park(this, 0, TimeUnit.NANOSECONDS);
+                if (Strand.interrupted())
+                    interrupted = true;
+            }
+            if (acquireQueued(node, savedState) || interrupted)
+                selfInterrupt();
+        }
+
+        /**
+         * Checks for interrupt, returning THROW_IE if interrupted before signalled, REINTERRUPT if after signalled, or 0
+         * if not interrupted.
+         */
+        private int checkInterruptWhileWaiting(Node node) {
+            return Strand.interrupted() ? (transferAfterCancelledWait(node) ? THROW_IE : REINTERRUPT) : 0;
+        }
+
+        private void reportInterruptAfterWait(int interruptMode) throws InterruptedException {
+            if (interruptMode == THROW_IE)
+                throw new InterruptedException();
+            else if (interruptMode == REINTERRUPT)
+                selfInterrupt();
+        }
+
+        @Override
+        public final void await() throws SuspendExecution, InterruptedException {
+            if (Strand.interrupted())
+                throw new InterruptedException();
+            final Node node = addConditionWaiter();
+            final int savedState = fullyRelease(node);
+            int interruptMode = 0;
+            while (!isOnSyncQueue(node)) {
+                Strand.park(this, 0, TimeUnit.NANOSECONDS);
+                if ((interruptMode = checkInterruptWhileWaiting(node)) != 0)
+                    break;
+            }
+            if (acquireQueued(node, savedState) && interruptMode != THROW_IE)
+                interruptMode = REINTERRUPT;
+            if (node.nextWaiter != null) // clean up if cancelled
+                unlinkCancelledWaiters();
+            if (interruptMode != 0)
+                reportInterruptAfterWait(interruptMode);
+        }
+
+        @Override
+        public final long awaitNanos(long nanosTimeout) throws SuspendExecution, InterruptedException {
+            if (Strand.interrupted())
+                throw new InterruptedException();
+            final Node node = addConditionWaiter();
+            final int savedState = fullyRelease(node);
+            final long deadline = System.nanoTime() + nanosTimeout;
+            int interruptMode = 0;
+            while (!isOnSyncQueue(node)) {
+                if (nanosTimeout <= 0L) {
+                    transferAfterCancelledWait(node);
+                    break;
+                }
+                if (nanosTimeout >= spinForTimeoutThreshold)
+                    Strand.park(this, nanosTimeout, TimeUnit.NANOSECONDS);
+                if ((interruptMode = checkInterruptWhileWaiting(node)) != 0)
+                    break;
+                nanosTimeout = deadline - System.nanoTime();
+            }
+            if (acquireQueued(node, savedState) && interruptMode != THROW_IE)
+                interruptMode = REINTERRUPT;
+            if (node.nextWaiter != null)
+                unlinkCancelledWaiters();
+            if (interruptMode != 0)
+                reportInterruptAfterWait(interruptMode);
+            return deadline - System.nanoTime();
+        }
+
+        @Override
+        public final boolean await(long time, TimeUnit unit) throws SuspendExecution, InterruptedException {
+            long nanosTimeout = unit.toNanos(time);
+            if (Strand.interrupted())
+                throw new InterruptedException();
+            final Node node = addConditionWaiter();
+            final int savedState = fullyRelease(node);
+            final long deadline = System.nanoTime() + nanosTimeout;
+            boolean timedout = false;
+            int interruptMode = 0;
+            while (!isOnSyncQueue(node)) {
+                if (nanosTimeout <= 0L) {
+                    timedout = transferAfterCancelledWait(node);
+                    break;
+                }
+                if (nanosTimeout >= spinForTimeoutThreshold)
+                    Strand.park(this, nanosTimeout, TimeUnit.NANOSECONDS);
+                if ((interruptMode = checkInterruptWhileWaiting(node)) != 0)
+                    break;
+                nanosTimeout = deadline - System.nanoTime();
+            }
+            if (acquireQueued(node, savedState) && interruptMode != THROW_IE)
+                interruptMode = REINTERRUPT;
+            if (node.nextWaiter != null)
+                unlinkCancelledWaiters();
+            if (interruptMode != 0)
+                reportInterruptAfterWait(interruptMode);
+            return !timedout;
+        }
+
+        // support for instrumentation
+        final boolean isOwnedBy(AbstractQueuedSynchronizer sync) {
+            return sync == AbstractQueuedSynchronizer.this;
+        }
+
+        protected final boolean hasWaiters() {
+            if (!isHeldExclusively())
+                throw new IllegalMonitorStateException();
+            for (Node w = firstWaiter; w != null; w = w.nextWaiter) {
+                if (w.waitStatus == Node.CONDITION)
+                    return true;
+            }
+            return false;
+        }
+
+        protected final int getWaitQueueLength() {
+            if (!isHeldExclusively())
+                throw new IllegalMonitorStateException();
+            int n = 0;
+            for (Node w = firstWaiter; w != null; w = w.nextWaiter) {
+                if (w.waitStatus == Node.CONDITION)
+                    ++n;
+            }
+            return n;
+        }
+
+        protected final Collection<Strand> getWaitingStrands() {
+            if (!isHeldExclusively())
+                throw new IllegalMonitorStateException();
+            final ArrayList<Strand> list = new ArrayList<Strand>();
+            for (Node w = firstWaiter; w != null; w = w.nextWaiter) {
+                if (w.waitStatus == Node.CONDITION) {
+                    final Strand s = w.strand;
+                    if (s != null)
+                        list.add(s);
+                }
+            }
+            return list;
+        }
+    }
+    ////////////////////////////////////////////////////////////////////////
+    private static final Unsafe unsafe = UtilUnsafe.getUnsafe();
+    private static final long stateOffset;
+    private static final long headOffset;
+    private static final long tailOffset;
+    private static final long waitStatusOffset;
+    private static final long nextOffset;
+
+    static {
+        try {
+            stateOffset = unsafe.objectFieldOffset(AbstractQueuedSynchronizer.class.getDeclaredField("state"));
+            headOffset = unsafe.objectFieldOffset(AbstractQueuedSynchronizer.class.getDeclaredField("head"));
+            tailOffset = unsafe.objectFieldOffset(AbstractQueuedSynchronizer.class.getDeclaredField("tail"));
+            waitStatusOffset = unsafe.objectFieldOffset(Node.class.getDeclaredField("waitStatus"));
+            nextOffset = unsafe.objectFieldOffset(Node.class.getDeclaredField("next"));
+        } catch (Exception ex) {
+            throw new Error(ex);
+        }
+    }
+
+    private boolean compareAndSetHead(Node update) {
+        return unsafe.compareAndSwapObject(this, headOffset, null, update);
+    }
+
+    private boolean compareAndSetTail(Node expect, Node update) {
+        return unsafe.compareAndSwapObject(this, tailOffset, expect, update);
+    }
+
+    private static boolean compareAndSetWaitStatus(Node node, int expect, int update) {
+        return unsafe.compareAndSwapInt(node, waitStatusOffset, expect, update);
+    }
+
+    private static boolean compareAndSetNext(Node node, Node expect, Node update) {
+        return unsafe.compareAndSwapObject(node, nextOffset, expect, update);
+    }
+}
@@ -0,0 +1,36 @@
+/*
+ * Quasar: lightweight threads and actors for the JVM.
+ * Copyright (C) 2013, Parallel Universe Software Co. All rights reserved.
+ *
+ * This program and the accompanying materials are dual-licensed under
+ * either the terms of the Eclipse Public License v1.0 as published by
+ * the Eclipse Foundation
+ *
+ *   or (per the licensee's choosing)
+ *
+ * under the terms of the GNU Lesser General Public License version 3.0
+ * as published by the Free Software Foundation.
+ */
+package co.paralleluniverse.strands.concurrent;
+
+import co.paralleluniverse.fibers.SuspendExecution;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A {@link java.util.concurrent.locks.Condition} that can be used by fibers as well as threads.
+ *
+ * @author pron
+ */
+public interface Condition {
+    void await() throws SuspendExecution, InterruptedException;
+
+    void awaitUninterruptibly() throws SuspendExecution;
+
+    long awaitNanos(long nanosTimeout) throws SuspendExecution, InterruptedException;
+
+    boolean await(long time, TimeUnit unit) throws SuspendExecution, InterruptedException;
+
+    void signal();
+
+    void signalAll();
+}
@@ -0,0 +1,76 @@
+/*
+ * Quasar: lightweight threads and actors for the JVM.
+ * Copyright (C) 2013, Parallel Universe Software Co. All rights reserved.
+ *
+ * This program and the accompanying materials are dual-licensed under
+ * either the terms of the Eclipse Public License v1.0 as published by
+ * the Eclipse Foundation
+ *
+ *   or (per the licensee's choosing)
+ *
+ * under the terms of the GNU Lesser General Public License version 3.0
+ * as published by the Free Software Foundation.
+ */
+package co.paralleluniverse.strands.concurrent;
+
+import co.paralleluniverse.fibers.SuspendExecution;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A {@link java.util.concurrent.CountDownLatch} that can be awaited by fibers as well as threads.
+ *
+ * @author pron
+ */
+public class CountDownLatch {
+    private final Sync sync;
+
+    public CountDownLatch(int count) {
+        if (count < 0)
+            throw new IllegalArgumentException("count < 0");
+        this.sync = new Sync(count);
+    }
+
+    public void await() throws SuspendExecution, InterruptedException {
+        sync.acquireSharedInterruptibly(1);
+    }
+
+    public boolean await(long timeout, TimeUnit unit) throws SuspendExecution, InterruptedException {
+        return sync.tryAcquireSharedNanos(1, unit.toNanos(timeout));
+    }
+
+    public void countDown() {
+        sync.releaseShared(1);
+    }
+
+    public long getCount() {
+        return sync.getState();
+    }
+
+    @Override
+    public String toString() {
+        return super.toString() + "[Count = " + sync.getState() + "]";
+    }
+
+    private static final class Sync extends AbstractQueuedSynchronizer {
+        Sync(int count) {
+            setState(count);
+        }
+
+        @Override
+        protected int tryAcquireShared(int unused) {
+            return getState() == 0 ? 1 : -1;
+        }
+
+        @Override
+        protected boolean tryReleaseShared(int unused) {
+            for (;;) {
+                final int c = getState();
+                if (c == 0)
+                    return false;
+                final int nextc = c - 1;
+                if (compareAndSetState(c, nextc))
+                    return nextc == 0;
+            }
+        }
+    }
+}
@@ -0,0 +1,37 @@
+/*
+ * Quasar: lightweight threads and actors for the JVM.
+ * Copyright (C) 2013, Parallel Universe Software Co. All rights reserved.
+ *
+ * This program and the accompanying materials are dual-licensed under
+ * either the terms of the Eclipse Public License v1.0 as published by
+ * the Eclipse Foundation
+ *
+ *   or (per the licensee's choosing)
+ *
+ * under the terms of the GNU Lesser General Public License version 3.0
+ * as published by the Free Software Foundation.
+ */
+package co.paralleluniverse.strands.concurrent;
+
+import co.paralleluniverse.fibers.SuspendExecution;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A {@link java.util.concurrent.locks.Lock} that can be used by fibers as well as threads.
+ * Acquiring it may block the calling strand, so the blocking methods are suspendable.
+ *
+ * @author pron
+ */
+public interface Lock {
+    void lock() throws SuspendExecution;
+
+    void lockInterruptibly() throws SuspendExecution, InterruptedException;
+
+    boolean tryLock();
+
+    boolean tryLock(long time, TimeUnit unit) throws SuspendExecution, InterruptedException;
+
+    void unlock();
+
+    Condition newCondition();
+}
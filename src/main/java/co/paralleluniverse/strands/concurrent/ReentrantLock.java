@@ -0,0 +1,192 @@
+/*
+ * Quasar: lightweight threads and actors for the JVM.
+ * Copyright (C) 2013, Parallel Universe Software Co. All rights reserved.
+ *
+ * This program and the accompanying materials are dual-licensed under
+ * either the terms of the Eclipse Public License v1.0 as published by
+ * the Eclipse Foundation
+ *
+ *   or (per the licensee's choosing)
+ *
+ * under the terms of the GNU Lesser General Public License version 3.0
+ * as published by the Free Software Foundation.
+ */
+package co.paralleluniverse.strands.concurrent;
+
+import co.paralleluniverse.fibers.SuspendExecution;
+import co.paralleluniverse.strands.Strand;
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A reentrant mutual exclusion {@link Lock}, like {@link java.util.concurrent.locks.ReentrantLock}, that can be used
+ * by fibers as well as threads. A fiber waiting for the lock parks, rather than blocking its carrier thread.
+ * <p/>
+ * The lock is owned by a strand, so a lock acquired by a fiber is not held by the thread it happens to be running on.
+ *
+ * @author pron
+ */
+public class ReentrantLock implements Lock {
+    private final Sync sync;
+
+    public ReentrantLock() {
+        this(false);
+    }
+
+    /**
+     * @param fair if {@code true}, the lock is granted to the longest-waiting strand; otherwise, a strand calling
+     * {@link #lock()} may barge ahead of queued ones.
+     */
+    public ReentrantLock(boolean fair) {
+        this.sync = fair ? new FairSync() : new NonfairSync();
+    }
+
+    @Override
+    public void lock() throws SuspendExecution {
+        sync.lock();
+    }
+
+    @Override
+    public void lockInterruptibly() throws SuspendExecution, InterruptedException {
+        sync.acquireInterruptibly(1);
+    }
+
+    @Override
+    public boolean tryLock() {
+        return sync.nonfairTryAcquire(1);
+    }
+
+    @Override
+    public boolean tryLock(long time, TimeUnit unit) throws SuspendExecution, InterruptedException {
+        return sync.tryAcquireNanos(1, unit.toNanos(time));
+    }
+
+    @Override
+    public void unlock() {
+        sync.release(1);
+    }
+
+    @Override
+    public Condition newCondition() {
+        return sync.new ConditionObject();
+    }
+
+    public boolean isFair() {
+        return sync instanceof FairSync;
+    }
+
+    public boolean isLocked() {
+        return sync.getState() != 0;
+    }
+
+    public boolean isHeldByCurrentStrand() {
+        return sync.isHeldExclusively();
+    }
+
+    public int getHoldCount() {
+        return sync.isHeldExclusively() ? sync.getState() : 0;
+    }
+
+    public boolean hasQueuedStrands() {
+        return sync.hasQueuedStrands();
+    }
+
+    public boolean hasQueuedStrand(Strand strand) {
+        return sync.isQueued(strand);
+    }
+
+    public int getQueueLength() {
+        return sync.getQueueLength();
+    }
+
+    protected Collection<Strand> getQueuedStrands() {
+        return sync.getQueuedStrands();
+    }
+
+    @Override
+    public String toString() {
+        final Object o = sync.getExclusiveOwnerStrand();
+        return super.toString() + (o == null ? "[Unlocked]" : "[Locked by " + o + "]");
+    }
+
+    private abstract static class Sync extends AbstractQueuedSynchronizer {
+        abstract void lock() throws SuspendExecution;
+
+        final boolean nonfairTryAcquire(int acquires) {
+            final Object current = current();
+            final int c = getState();
+            if (c == 0) {
+                if (compareAndSetState(0, acquires)) {
+                    setExclusiveOwnerStrand(current);
+                    return true;
+                }
+            } else if (current == getExclusiveOwnerStrand()) {
+                final int nextc = c + acquires;
+                if (nextc < 0) // overflow
+                    throw new Error("Maximum lock count exceeded");
+                setState(nextc);
+                return true;
+            }
+            return false;
+        }
+
+        @Override
+        protected final boolean tryRelease(int releases) {
+            if (current() != getExclusiveOwnerStrand())
+                throw new IllegalMonitorStateException();
+            final int c = getState() - releases;
+            final boolean free = (c == 0);
+            if (free)
+                setExclusiveOwnerStrand(null);
+            setState(c);
+            return free;
+        }
+
+        @Override
+        protected final boolean isHeldExclusively() {
+            return getExclusiveOwnerStrand() == current();
+        }
+    }
+
+    private static final class NonfairSync extends Sync {
+        @Override
+        void lock() throws SuspendExecution {
+            if (compareAndSetState(0, 1)) {
+                setExclusiveOwnerStrand(current());
+                return;
+            }
+            acquire(1);
+        }
+
+        @Override
+        protected boolean tryAcquire(int acquires) {
+            return nonfairTryAcquire(acquires);
+        }
+    }
+
+    private static final class FairSync extends Sync {
+        @Override
+        void lock() throws SuspendExecution {
+            acquire(1);
+        }
+
+        @Override
+        protected boolean tryAcquire(int acquires) {
+            final Object current = current();
+            final int c = getState();
+            if (c == 0) {
+                if (!hasQueuedPredecessors() && compareAndSetState(0, acquires)) {
+                    setExclusiveOwnerStrand(current);
+                    return true;
+                }
+            } else if (current == getExclusiveOwnerStrand()) {
+                final int nextc = c + acquires;
+                if (nextc < 0)
+                    throw new Error("Maximum lock count exceeded");
+                setState(nextc);
+                return true;
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,251 @@
+/*
+ * Quasar: lightweight threads and actors for the JVM.
+ * Copyright (C) 2013, Parallel Universe Software Co. All rights reserved.
+ *
+ * This program and the accompanying materials are dual-licensed under
+ * either the terms of the Eclipse Public License v1.0 as published by
+ * the Eclipse Foundation
+ *
+ *   or (per the licensee's choosing)
+ *
+ * under the terms of the GNU Lesser General Public License version 3.0
+ * as published by the Free Software Foundation.
+ */
+package co.paralleluniverse.strands.concurrent;
+
+import co.paralleluniverse.fibers.SuspendExecution;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A reentrant {@link ReadWriteLock}, like {@link java.util.concurrent.locks.ReentrantReadWriteLock}, that can be used
+ * by fibers as well as threads.
+ * <p/>
+ * The write lock may be downgraded by acquiring the read lock while holding it, but the read lock can't be upgraded.
+ * As in the JDK's non-fair mode, a new reader won't acquire the read lock while a writer is waiting at the head of the
+ * queue (unless it already holds the read lock), so a stream of overlapping readers doesn't starve writers.
+ *
+ * @author pron
+ */
+public class ReentrantReadWriteLock implements ReadWriteLock {
+    private final Sync sync = new Sync();
+    private final ReadLock readLock = new ReadLock();
+    private final WriteLock writeLock = new WriteLock();
+
+    @Override
+    public Lock readLock() {
+        return readLock;
+    }
+
+    @Override
+    public Lock writeLock() {
+        return writeLock;
+    }
+
+    public int getReadLockCount() {
+        return Sync.sharedCount(sync.getState());
+    }
+
+    public int getReadHoldCount() {
+        return sync.getReadHoldCount();
+    }
+
+    public boolean isWriteLocked() {
+        return Sync.exclusiveCount(sync.getState()) != 0;
+    }
+
+    public boolean isWriteLockedByCurrentStrand() {
+        return sync.isHeldExclusively();
+    }
+
+    public int getWriteHoldCount() {
+        return sync.isHeldExclusively() ? Sync.exclusiveCount(sync.getState()) : 0;
+    }
+
+    public boolean hasQueuedStrands() {
+        return sync.hasQueuedStrands();
+    }
+
+    public int getQueueLength() {
+        return sync.getQueueLength();
+    }
+
+    private final class ReadLock implements Lock {
+        @Override
+        public void lock() throws SuspendExecution {
+            sync.acquireShared(1);
+        }
+
+        @Override
+        public void lockInterruptibly() throws SuspendExecution, InterruptedException {
+            sync.acquireSharedInterruptibly(1);
+        }
+
+        @Override
+        public boolean tryLock() {
+            return sync.tryReadLock();
+        }
+
+        @Override
+        public boolean tryLock(long time, TimeUnit unit) throws SuspendExecution, InterruptedException {
+            return sync.tryAcquireSharedNanos(1, unit.toNanos(time));
+        }
+
+        @Override
+        public void unlock() {
+            sync.releaseShared(1);
+        }
+
+        @Override
+        public Condition newCondition() {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    private final class WriteLock implements Lock {
+        @Override
+        public void lock() throws SuspendExecution {
+            sync.acquire(1);
+        }
+
+        @Override
+        public void lockInterruptibly() throws SuspendExecution, InterruptedException {
+            sync.acquireInterruptibly(1);
+        }
+
+        @Override
+        public boolean tryLock() {
+            return sync.tryAcquire(1);
+        }
+
+        @Override
+        public boolean tryLock(long time, TimeUnit unit) throws SuspendExecution, InterruptedException {
+            return sync.tryAcquireNanos(1, unit.toNanos(time));
+        }
+
+        @Override
+        public void unlock() {
+            sync.release(1);
+        }
+
+        @Override
+        public Condition newCondition() {
+            return sync.new ConditionObject();
+        }
+    }
+
+    private static final class Sync extends AbstractQueuedSynchronizer {
+        static final int SHARED_SHIFT = 16;
+        static final int SHARED_UNIT = 1 << SHARED_SHIFT;
+        static final int MAX_COUNT = (1 << SHARED_SHIFT) - 1;
+        static final int EXCLUSIVE_MASK = (1 << SHARED_SHIFT) - 1;
+
+        static int sharedCount(int c) {
+            return c >>> SHARED_SHIFT;
+        }
+
+        static int exclusiveCount(int c) {
+            return c & EXCLUSIVE_MASK;
+        }
+
+        /**
+         * The number of read holds of a single strand.
+         */
+        static final class HoldCounter {
+            int count;
+        }
+        /**
+         * The current strand's read holds, or {@code null} if it holds none. Thread locals are fiber-local when
+         * running in a fiber.
+         */
+        private final transient ThreadLocal<HoldCounter> readHolds = new ThreadLocal<HoldCounter>();
+
+        int getReadHoldCount() {
+            final HoldCounter rh = readHolds.get();
+            return rh != null ? rh.count : 0;
+        }
+
+        @Override
+        protected boolean tryAcquire(int acquires) {
+            final Object current = current();
+            final int c = getState();
+            if (c != 0) {
+                if (exclusiveCount(c) == 0 || getExclusiveOwnerStrand() != current) // read-locked, or write-locked by someone else
+                    return false;
+                if (exclusiveCount(c) + exclusiveCount(acquires) > MAX_COUNT)
+                    throw new Error("Maximum lock count exceeded");
+                setState(c + acquires);
+                return true;
+            }
+            if (!compareAndSetState(0, acquires))
+                return false;
+            setExclusiveOwnerStrand(current);
+            return true;
+        }
+
+        @Override
+        protected boolean tryRelease(int releases) {
+            if (!isHeldExclusively())
+                throw new IllegalMonitorStateException();
+            final int nextc = getState() - releases;
+            final boolean free = exclusiveCount(nextc) == 0;
+            if (free)
+                setExclusiveOwnerStrand(null);
+            setState(nextc); // while write-locked, only the owner may change the state
+            return free;
+        }
+
+        @Override
+        protected int tryAcquireShared(int unused) {
+            return tryAcquireRead(false) ? 1 : -1;
+        }
+
+        /**
+         * Acquires the read lock if available, even if a writer is waiting.
+         */
+        boolean tryReadLock() {
+            return tryAcquireRead(true);
+        }
+
+        private boolean tryAcquireRead(boolean barge) {
+            final Object current = current();
+            HoldCounter rh = readHolds.get();
+            for (;;) {
+                final int c = getState();
+                if (exclusiveCount(c) != 0) {
+                    if (getExclusiveOwnerStrand() != current)
+                        return false;
+                    // else we hold the write lock, and waiting here would deadlock
+                } else if (!barge && rh == null && apparentlyFirstQueuedIsExclusive())
+                    return false; // let the writer go first; a reentrant read goes ahead, or it would deadlock
+                if (sharedCount(c) == MAX_COUNT)
+                    throw new Error("Maximum lock count exceeded");
+                if (compareAndSetState(c, c + SHARED_UNIT)) {
+                    if (rh == null)
+                        readHolds.set(rh = new HoldCounter());
+                    rh.count++;
+                    return true;
+                }
+            }
+        }
+
+        @Override
+        protected boolean tryReleaseShared(int unused) {
+            final HoldCounter rh = readHolds.get();
+            if (rh == null)
+                throw new IllegalMonitorStateException();
+            if (--rh.count == 0)
+                readHolds.remove();
+            for (;;) {
+                final int c = getState();
+                final int nextc = c - SHARED_UNIT;
+                if (compareAndSetState(c, nextc))
+                    return nextc == 0;
+            }
+        }
+
+        @Override
+        protected boolean isHeldExclusively() {
+            return getExclusiveOwnerStrand() == current();
+        }
+    }
+}
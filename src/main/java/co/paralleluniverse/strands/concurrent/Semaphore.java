@@ -0,0 +1,182 @@
+/*
+ * Quasar: lightweight threads and actors for the JVM.
+ * Copyright (C) 2013, Parallel Universe Software Co. All rights reserved.
+ *
+ * This program and the accompanying materials are dual-licensed under
+ * either the terms of the Eclipse Public License v1.0 as published by
+ * the Eclipse Foundation
+ *
+ *   or (per the licensee's choosing)
+ *
+ * under the terms of the GNU Lesser General Public License version 3.0
+ * as published by the Free Software Foundation.
+ */
+package co.paralleluniverse.strands.concurrent;
+
+import co.paralleluniverse.fibers.SuspendExecution;
+import co.paralleluniverse.strands.Strand;
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A counting semaphore, like {@link java.util.concurrent.Semaphore}, that can be used by fibers as well as threads.
+ *
+ * @author pron
+ */
+public class Semaphore {
+    private final Sync sync;
+
+    public Semaphore(int permits) {
+        this(permits, false);
+    }
+
+    /**
+     * @param fair if {@code true}, permits are granted to waiting strands in FIFO order.
+     */
+    public Semaphore(int permits, boolean fair) {
+        this.sync = fair ? new FairSync(permits) : new NonfairSync(permits);
+    }
+
+    public void acquire() throws SuspendExecution, InterruptedException {
+        sync.acquireSharedInterruptibly(1);
+    }
+
+    public void acquire(int permits) throws SuspendExecution, InterruptedException {
+        if (permits < 0)
+            throw new IllegalArgumentException();
+        sync.acquireSharedInterruptibly(permits);
+    }
+
+    public void acquireUninterruptibly() throws SuspendExecution {
+        sync.acquireShared(1);
+    }
+
+    public void acquireUninterruptibly(int permits) throws SuspendExecution {
+        if (permits < 0)
+            throw new IllegalArgumentException();
+        sync.acquireShared(permits);
+    }
+
+    public boolean tryAcquire() {
+        return sync.nonfairTryAcquireShared(1) >= 0;
+    }
+
+    public boolean tryAcquire(int permits) {
+        if (permits < 0)
+            throw new IllegalArgumentException();
+        return sync.nonfairTryAcquireShared(permits) >= 0;
+    }
+
+    public boolean tryAcquire(long timeout, TimeUnit unit) throws SuspendExecution, InterruptedException {
+        return sync.tryAcquireSharedNanos(1, unit.toNanos(timeout));
+    }
+
+    public boolean tryAcquire(int permits, long timeout, TimeUnit unit) throws SuspendExecution, InterruptedException {
+        if (permits < 0)
+            throw new IllegalArgumentException();
+        return sync.tryAcquireSharedNanos(permits, unit.toNanos(timeout));
+    }
+
+    public void release() {
+        sync.releaseShared(1);
+    }
+
+    public void release(int permits) {
+        if (permits < 0)
+            throw new IllegalArgumentException();
+        sync.releaseShared(permits);
+    }
+
+    public int availablePermits() {
+        return sync.getState();
+    }
+
+    public int drainPermits() {
+        return sync.drainPermits();
+    }
+
+    public boolean isFair() {
+        return sync instanceof FairSync;
+    }
+
+    public boolean hasQueuedStrands() {
+        return sync.hasQueuedStrands();
+    }
+
+    public int getQueueLength() {
+        return sync.getQueueLength();
+    }
+
+    protected Collection<Strand> getQueuedStrands() {
+        return sync.getQueuedStrands();
+    }
+
+    @Override
+    public String toString() {
+        return super.toString() + "[Permits = " + sync.getState() + "]";
+    }
+
+    private abstract static class Sync extends AbstractQueuedSynchronizer {
+        Sync(int permits) {
+            setState(permits);
+        }
+
+        final int nonfairTryAcquireShared(int acquires) {
+            for (;;) {
+                final int available = getState();
+                final int remaining = available - acquires;
+                if (remaining < 0 || compareAndSetState(available, remaining))
+                    return remaining;
+            }
+        }
+
+        @Override
+        protected final boolean tryReleaseShared(int releases) {
+            for (;;) {
+                final int current = getState();
+                final int next = current + releases;
+                if (next < current) // overflow
+                    throw new Error("Maximum permit count exceeded");
+                if (compareAndSetState(current, next))
+                    return true;
+            }
+        }
+
+        final int drainPermits() {
+            for (;;) {
+                final int current = getState();
+                if (current == 0 || compareAndSetState(current, 0))
+                    return current;
+            }
+        }
+    }
+
+    private static final class NonfairSync extends Sync {
+        NonfairSync(int permits) {
+            super(permits);
+        }
+
+        @Override
+        protected int tryAcquireShared(int acquires) {
+            return nonfairTryAcquireShared(acquires);
+        }
+    }
+
+    private static final class FairSync extends Sync {
+        FairSync(int permits) {
+            super(permits);
+        }
+
+        @Override
+        protected int tryAcquireShared(int acquires) {
+            for (;;) {
+                if (hasQueuedPredecessors())
+                    return -1;
+                final int available = getState();
+                final int remaining = available - acquires;
+                if (remaining < 0 || compareAndSetState(available, remaining))
+                    return remaining;
+            }
+        }
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * Quasar: lightweight threads and actors for the JVM.
+ * Copyright (C) 2013, Parallel Universe Software Co. All rights reserved.
+ *
+ * This program and the accompanying materials are dual-licensed under
+ * either the terms of the Eclipse Public License v1.0 as published by
+ * the Eclipse Foundation
+ *
+ *   or (per the licensee's choosing)
+ *
+ * under the terms of the GNU Lesser General Public License version 3.0
+ * as published by the Free Software Foundation.
+ */
+package co.paralleluniverse.strands.queues;
+
+import co.paralleluniverse.concurrent.util.UtilUnsafe;
+import sun.misc.Unsafe;
+
+/**
+ * A bounded, lock-free queue that supports any number of producers and consumers.
+ * <p/>
+ * Each slot carries a sequence number that tells producers and consumers whether it is ready to be written or read
+ * (based on Dmitry Vyukov's bounded MPMC queue), so a producer and a consumer only contend when they race for the same
+ * end of the queue.
+ *
+ * @author pron
+ */
+public class MultiConsumerArrayQueue<E> {
+    final int capacity;
+    final int mask;
+    private final Object[] array;
+    private final long[] sequence;
+    volatile long p001, p002, p003, p004, p005, p006, p007;
+    volatile long head; // next element to be read
+    volatile long p101, p102, p103, p104, p105, p106, p107;
+    volatile long tail; // next element to be written
+    volatile long p201, p202, p203, p204, p205, p206, p207;
+
+    public MultiConsumerArrayQueue(int capacity) {
+        this.capacity = SingleConsumerArrayQueue.nextPowerOfTwo(capacity);
+        this.mask = this.capacity - 1;
+        this.array = new Object[this.capacity];
+        this.sequence = new long[this.capacity];
+        for (int i = 0; i < this.capacity; i++)
+            sequence[i] = i;
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    /**
+     * Enqueues an element.
+     *
+     * @return {@code false} if the queue is full
+     */
+    public boolean enq(E item) {
+        if (item == null)
+            throw new IllegalArgumentException("null values not allowed");
+        for (;;) {
+            final long t = tail;
+            final int i = (int) t & mask;
+            final long d = getSequence(i) - t;
+            if (d == 0) {
+                if (compareAndSetTail(t, t + 1)) {
+                    array[i] = item;
+                    volatileSetSequence(i, t + 1); // publishes the element; volatile, see MultiConsumerChannel.signal
+                    return true;
+                }
+            } else if (d < 0)
+                return false; // the slot hasn't been consumed yet a full round ago
+        }
+    }
+
+    /**
+     * Dequeues an element.
+     *
+     * @return the element at the head of the queue, or {@code null} if the queue is empty
+     */
+    public E poll() {
+        for (;;) {
+            final long h = head;
+            final int i = (int) h & mask;
+            final long d = getSequence(i) - (h + 1);
+            if (d == 0) {
+                if (compareAndSetHead(h, h + 1)) {
+                    final E item = (E) array[i];
+                    array[i] = null;
+                    orderedSetSequence(i, h + capacity); // hands the slot back to producers
+                    return item;
+                }
+            } else if (d < 0)
+                return null; // the slot hasn't been written yet
+        }
+    }
+
+    public boolean isEmpty() {
+        final long h = head;
+        return getSequence((int) h & mask) != h + 1;
+    }
+
+    public int size() {
+        final long s = tail - head;
+        return (int) Math.max(0, Math.min(s, capacity));
+    }
+    ////////////////////////////////////////////////////////////////////////
+    private static final Unsafe unsafe = UtilUnsafe.getUnsafe();
+    private static final long headOffset;
+    private static final long tailOffset;
+    private static final int base;
+    private static final int shift;
+
+    static {
+        try {
+            headOffset = unsafe.objectFieldOffset(MultiConsumerArrayQueue.class.getDeclaredField("head"));
+            tailOffset = unsafe.objectFieldOffset(MultiConsumerArrayQueue.class.getDeclaredField("tail"));
+            base = unsafe.arrayBaseOffset(long[].class);
+            int scale = unsafe.arrayIndexScale(long[].class);
+            if ((scale & (scale - 1)) != 0)
+                throw new Error("data type scale not a power of two");
+            shift = 31 - Integer.numberOfLeadingZeros(scale);
+        } catch (Exception ex) {
+            throw new Error(ex);
+        }
+    }
+
+    private static long byteOffset(int i) {
+        return ((long) i << shift) + base;
+    }
+
+    private long getSequence(int i) {
+        return unsafe.getLongVolatile(sequence, byteOffset(i));
+    }
+
+    private void volatileSetSequence(int i, long value) {
+        unsafe.putLongVolatile(sequence, byteOffset(i), value);
+    }
+
+    private void orderedSetSequence(int i, long value) {
+        unsafe.putOrderedLong(sequence, byteOffset(i), value);
+    }
+
+    private boolean compareAndSetHead(long expect, long update) {
+        return unsafe.compareAndSwapLong(this, headOffset, expect, update);
+    }
+
+    private boolean compareAndSetTail(long expect, long update) {
+        return unsafe.compareAndSwapLong(this, tailOffset, expect, update);
+    }
+}
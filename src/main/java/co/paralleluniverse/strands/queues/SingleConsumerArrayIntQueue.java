@@ -47,4 +47,16 @@ public class SingleConsumerArrayIntQueue extends SingleConsumerArrayWordQueue<In
     public int intValue(Integer node) {
         return intValue(node.intValue());
     }
+
+    @Override
+    public int drainTo(int[] buf, int off, int len) {
+        final long h = head;
+        final long end = batchEnd(len);
+        for (long i = h; i < end; i++) {
+            awaitValue(i);
+            buf[off + (int) (i - h)] = rawValue((int) i & mask);
+        }
+        deqBatch(end);
+        return (int) (end - h);
+    }
 }
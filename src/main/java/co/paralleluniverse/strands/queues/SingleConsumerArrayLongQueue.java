@@ -47,4 +47,16 @@ public class SingleConsumerArrayLongQueue extends SingleConsumerArrayDWordQueue<
     public long longValue(Integer node) {
         return longValue(node.intValue());
     }
+
+    @Override
+    public int drainTo(long[] buf, int off, int len) {
+        final long h = head;
+        final long end = batchEnd(len);
+        for (long i = h; i < end; i++) {
+            awaitValue(i);
+            buf[off + (int) (i - h)] = rawValue((int) i & mask);
+        }
+        deqBatch(end);
+        return (int) (end - h);
+    }
 }
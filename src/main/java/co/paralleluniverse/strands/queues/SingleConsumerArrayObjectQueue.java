@@ -46,6 +46,26 @@ public class SingleConsumerArrayObjectQueue<E> extends SingleConsumerArrayQueue<
         return true;
     }
 
+    @Override
+    public int enqAll(E[] items, int off, int len) {
+        if (len <= 0)
+            return 0;
+        for (int j = off; j < off + len; j++) {
+            if (items[j] == null)
+                throw new IllegalArgumentException("null values not allowed");
+        }
+        int n = len;
+        long i;
+        while ((i = preEnq(n)) < 0) { // enqueue as many as there's room for
+            n = Math.min(n - 1, capacity - (int) (tail - head));
+            if (n <= 0)
+                return 0;
+        }
+        for (int j = 0; j < n; j++)
+            orderedSet((int) (i + j) & mask, items[off + j]); // the consumer spins on each slot in awaitValue
+        return n;
+    }
+
     @SuppressWarnings("empty-statement")
     @Override
     void awaitValue(long i) {
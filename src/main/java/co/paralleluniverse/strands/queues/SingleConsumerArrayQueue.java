@@ -14,6 +14,7 @@
 package co.paralleluniverse.strands.queues;
 
 import co.paralleluniverse.concurrent.util.UtilUnsafe;
+import java.util.Collection;
 import java.util.Iterator;
 import sun.misc.Unsafe;
 
@@ -69,10 +70,19 @@ abstract class SingleConsumerArrayQueue<E> extends SingleConsumerQueue<E, Intege
     }
 
     final long preEnq() {
+        return preEnq(1);
+    }
+
+    /**
+     * Reserves {@code n} consecutive slots.
+     *
+     * @return the index of the first reserved slot, or -1 if there isn't room for all {@code n} elements
+     */
+    final long preEnq(int n) {
         long t, w;
         for (;;) {
             t = tail;
-            w = t - capacity; // "wrap point"
+            w = t + n - 1 - capacity; // "wrap point"
 
             if (cachedHead <= w) {
                 cachedHead = head; // only time a producer reads head
@@ -80,7 +90,7 @@ abstract class SingleConsumerArrayQueue<E> extends SingleConsumerQueue<E, Intege
                     return -1;
             }
 
-            if (compareAndSetTail(t, t + 1))
+            if (compareAndSetTail(t, t + n))
                 return t;
         }
     }
@@ -97,6 +107,54 @@ abstract class SingleConsumerArrayQueue<E> extends SingleConsumerQueue<E, Intege
         orderedSetHead(newHead);//head = newHead;
     }
 
+    /**
+     * Returns the index following the last of up to {@code max} elements available for reading, starting at head.
+     * Batch operations read the elements in {@code [head, end)} and then remove them all with
+     * {@link #deqBatch(long) deqBatch(end)}, so that head is written only once per batch.
+     */
+    final long batchEnd(int max) {
+        final long h = head;
+        if (max <= 0)
+            return h;
+        long end = h + max;
+        if (end > cachedMaxReadIndex) {
+            cachedMaxReadIndex = maxReadIndex();
+            if (end > cachedMaxReadIndex)
+                end = cachedMaxReadIndex;
+        }
+        return end;
+    }
+
+    final void deqBatch(long end) {
+        for (long i = head; i < end; i++)
+            clearValue(i);
+        orderedSetHead(end);
+    }
+
+    @Override
+    public int drainTo(Collection<? super E> c, int max) {
+        final long h = head;
+        final long end = batchEnd(max);
+        for (long i = h; i < end; i++) {
+            awaitValue(i);
+            c.add(value((int) i & mask));
+        }
+        deqBatch(end);
+        return (int) (end - h);
+    }
+
+    @Override
+    public int drainTo(E[] buf, int off, int len) {
+        final long h = head;
+        final long end = batchEnd(len);
+        for (long i = h; i < end; i++) {
+            awaitValue(i);
+            buf[off + (int) (i - h)] = value((int) i & mask);
+        }
+        deqBatch(end);
+        return (int) (end - h);
+    }
+
     @Override
     @SuppressWarnings("empty-statement")
     public Integer pk() {
@@ -169,6 +227,11 @@ abstract class SingleConsumerArrayQueue<E> extends SingleConsumerQueue<E, Intege
         return (int) (tail - head);
     }
 
+    @Override
+    public int capacity() {
+        return capacity;
+    }
+
     int next(int i) {
         return (i + 1) & mask;
     }
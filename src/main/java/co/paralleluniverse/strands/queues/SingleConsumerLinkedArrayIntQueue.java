@@ -38,5 +38,21 @@ public class SingleConsumerLinkedArrayIntQueue extends SingleConsumerLinkedArray
     public int intValue(ElementPointer node) {
         return rawValue(node.n, node.i);
     }
+
+    @Override
+    public int drainTo(int[] buf, int off, int len) {
+        if (len <= 0)
+            return 0;
+        final ElementPointer ep = pk();
+        if (ep == null)
+            return 0;
+        int count = 0;
+        do {
+            buf[off + count] = rawValue(ep.n, ep.i);
+            count++;
+        } while (count < len && succ(ep) != null);
+        deq(ep);
+        return count;
+    }
     
 }
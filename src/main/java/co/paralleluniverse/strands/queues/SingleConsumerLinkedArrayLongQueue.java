@@ -38,4 +38,20 @@ public class SingleConsumerLinkedArrayLongQueue extends SingleConsumerLinkedArra
     public long longValue(ElementPointer node) {
         return rawValue(node.n, node.i);
     }
+
+    @Override
+    public int drainTo(long[] buf, int off, int len) {
+        if (len <= 0)
+            return 0;
+        final ElementPointer ep = pk();
+        if (ep == null)
+            return 0;
+        int count = 0;
+        do {
+            buf[off + count] = rawValue(ep.n, ep.i);
+            count++;
+        } while (count < len && succ(ep) != null);
+        deq(ep);
+        return count;
+    }
 }
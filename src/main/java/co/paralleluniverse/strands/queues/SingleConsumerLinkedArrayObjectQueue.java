@@ -50,6 +50,46 @@ public class SingleConsumerLinkedArrayObjectQueue<E> extends SingleConsumerLinke
         }
     }
 
+    @Override
+    public int enqAll(E[] items, int off, int len) {
+        if (len <= 0)
+            return 0;
+        final int end = off + len;
+        for (int j = off; j < end; j++) {
+            if (items[j] == null)
+                throw new IllegalArgumentException("null values not allowed");
+        }
+        int k = off;
+        for (;;) {
+            final Node t = tail;
+            for (int i = 0; i < BLOCK_SIZE && k < end; i++) {
+                if (get(t, i) == null && compareAndSetElement(t, i, null, items[k]))
+                    k++;
+            }
+            if (k == end)
+                return len;
+
+            // t is full, so we append the rest as a chain of pre-filled nodes with a single CAS
+            final ObjectNode first = (ObjectNode) newNode();
+            ObjectNode last = first;
+            for (int j = k, i = 0; j < end; j++, i++) {
+                if (i == BLOCK_SIZE) {
+                    final ObjectNode n = (ObjectNode) newNode();
+                    n.prev = last;
+                    last.next = n;
+                    last = n;
+                    i = 0;
+                }
+                last.array[i] = items[j];
+            }
+            first.prev = t;
+            if (compareAndSetTail(t, last)) {
+                t.next = first;
+                return len;
+            }
+        }
+    }
+
     @Override
     public E value(ElementPointer ep) {
         // called after hasValue so no need for a volatile read
@@ -14,6 +14,7 @@
 package co.paralleluniverse.strands.queues;
 
 import co.paralleluniverse.concurrent.util.UtilUnsafe;
+import java.util.Collection;
 import sun.misc.Unsafe;
 
 /**
@@ -73,6 +74,38 @@ abstract class SingleConsumerLinkedArrayQueue<E> extends SingleConsumerQueue<E,
         headIndex = ep.i + 1;
     }
 
+    @Override
+    public int drainTo(Collection<? super E> c, int max) {
+        if (max <= 0)
+            return 0;
+        final ElementPointer ep = pk();
+        if (ep == null)
+            return 0;
+        int count = 0;
+        do {
+            c.add(value(ep));
+            count++;
+        } while (count < max && succ(ep) != null);
+        deq(ep);
+        return count;
+    }
+
+    @Override
+    public int drainTo(E[] buf, int off, int len) {
+        if (len <= 0)
+            return 0;
+        final ElementPointer ep = pk();
+        if (ep == null)
+            return 0;
+        int count = 0;
+        do {
+            buf[off + count] = value(ep);
+            count++;
+        } while (count < len && succ(ep) != null);
+        deq(ep);
+        return count;
+    }
+
     @Override
     public ElementPointer pk() {
         return current(new ElementPointer(head, headIndex));
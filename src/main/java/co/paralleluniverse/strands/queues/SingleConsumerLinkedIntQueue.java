@@ -35,6 +35,18 @@ public class SingleConsumerLinkedIntQueue extends SingleConsumerLinkedWordQueue<
         return rawValue(node);
     }
 
+    @Override
+    public int drainTo(int[] buf, int off, int len) {
+        int count = 0;
+        Node<Integer> n;
+        while (count < len && (n = pk()) != null) {
+            buf[off + count] = rawValue(n);
+            deq(n);
+            count++;
+        }
+        return count;
+    }
+
     @Override
     public Integer value(Node<Integer> node) {
         return intValue(node);
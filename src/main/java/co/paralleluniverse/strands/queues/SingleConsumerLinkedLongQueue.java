@@ -35,6 +35,18 @@ public class SingleConsumerLinkedLongQueue extends SingleConsumerLinkedDWordQueu
         return rawValue(node);
     }
 
+    @Override
+    public int drainTo(long[] buf, int off, int len) {
+        int count = 0;
+        Node<Long> n;
+        while (count < len && (n = pk()) != null) {
+            buf[off + count] = rawValue(n);
+            deq(n);
+            count++;
+        }
+        return count;
+    }
+
     @Override
     public Long value(Node<Long> node) {
         return longValue(node);
@@ -34,6 +34,28 @@ public class SingleConsumerLinkedObjectQueue<E> extends SingleConsumerLinkedQueu
         return enq(node);
     }
 
+    @Override
+    public int enqAll(E[] items, int off, int len) {
+        if (len <= 0)
+            return 0;
+        ObjectNode<E> first = null;
+        ObjectNode<E> last = null;
+        for (int i = off; i < off + len; i++) {
+            if (items[i] == null)
+                throw new IllegalArgumentException("null values not allowed");
+            final ObjectNode<E> node = new ObjectNode<E>();
+            node.value = items[i];
+            if (last == null)
+                first = node;
+            else {
+                node.prev = last;
+                last.next = node;
+            }
+            last = node;
+        }
+        return enq(first, last) ? len : 0;
+    }
+
     @Override
     public E value(Node<E> node) {
         return ((ObjectNode<E>) node).value;
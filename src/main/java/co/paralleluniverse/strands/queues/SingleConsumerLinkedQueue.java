@@ -41,14 +41,21 @@ abstract class SingleConsumerLinkedQueue<E> extends SingleConsumerQueue<E, Singl
     abstract Node newNode();
     
     boolean enq(final Node<E> node) {
+        return enq(node, node);
+    }
+
+    /**
+     * Appends a chain of nodes, already linked to one another, with a single CAS of tail.
+     */
+    boolean enq(final Node<E> first, final Node<E> last) {
         for (;;) {
             final Node t = tail;
-            node.prev = t;
-            if (compareAndSetTail(t, node)) {
+            first.prev = t;
+            if (compareAndSetTail(t, last)) {
                 if (t == null) // can't happen when DUMMY_NODE_ALGORITHM
-                    head = node;
+                    head = first;
                 else
-                    t.next = node;
+                    t.next = first;
                 break;
             }
         }
@@ -20,4 +20,12 @@ package co.paralleluniverse.strands.queues;
 public interface SingleConsumerLongQueue<Node> {
     boolean enq(long item);
     long longValue(Node node);
+
+    /**
+     * Removes up to {@code len} elements from the head of the queue and stores them in {@code buf}, starting at
+     * {@code off}.
+     *
+     * @return the number of elements transferred
+     */
+    int drainTo(long[] buf, int off, int len);
 }
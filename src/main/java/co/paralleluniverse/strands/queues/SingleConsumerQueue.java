@@ -14,7 +14,6 @@
 package co.paralleluniverse.strands.queues;
 
 import co.paralleluniverse.common.monitoring.FlightRecorder;
-import co.paralleluniverse.common.monitoring.FlightRecorderMessage;
 import co.paralleluniverse.common.util.Debug;
 import co.paralleluniverse.common.util.Objects;
 import java.util.AbstractCollection;
@@ -32,6 +31,20 @@ public abstract class SingleConsumerQueue<E, Node> extends AbstractCollection<E>
 
     public abstract boolean enq(E element);
 
+    /**
+     * Enqueues {@code len} elements of {@code items}, starting at {@code off}.
+     * The array and linked queues reserve room for the batch, or for as much of it as fits, with a single CAS.
+     *
+     * @return the number of elements enqueued, which is less than {@code len} if the queue is full
+     */
+    public int enqAll(E[] items, int off, int len) {
+        for (int i = 0; i < len; i++) {
+            if (!enq(items[off + i]))
+                return i;
+        }
+        return len;
+    }
+
     public abstract E value(Node node);
 
     public abstract Node pk();
@@ -47,6 +60,13 @@ public abstract class SingleConsumerQueue<E, Node> extends AbstractCollection<E>
     @Override
     public abstract int size();
 
+    /**
+     * The maximum number of elements the queue can hold, or {@code -1} if it's unbounded.
+     */
+    public int capacity() {
+        return -1;
+    }
+
     @Override
     public boolean isEmpty() {
         return pk() == null;
@@ -96,6 +116,43 @@ public abstract class SingleConsumerQueue<E, Node> extends AbstractCollection<E>
         return val;
     }
 
+    /**
+     * Removes up to {@code max} elements from the head of the queue and adds them to the given collection.
+     *
+     * @return the number of elements transferred
+     */
+    public int drainTo(Collection<? super E> c, int max) {
+        int count = 0;
+        Node n;
+        while (count < max && (n = pk()) != null) {
+            c.add(value(n));
+            deq(n);
+            count++;
+        }
+        return count;
+    }
+
+    public int drainTo(Collection<? super E> c) {
+        return drainTo(c, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Removes up to {@code len} elements from the head of the queue and stores them in {@code buf}, starting at
+     * {@code off}.
+     *
+     * @return the number of elements transferred
+     */
+    public int drainTo(E[] buf, int off, int len) {
+        int count = 0;
+        Node n;
+        while (count < len && (n = pk()) != null) {
+            buf[off + count] = value(n);
+            deq(n);
+            count++;
+        }
+        return count;
+    }
+
     @Override
     public E element() {
         final E val = peek();
@@ -170,31 +227,31 @@ public abstract class SingleConsumerQueue<E, Node> extends AbstractCollection<E>
 
     static void record(String method, String format) {
         if (RECORDER != null)
-            RECORDER.record(1, new FlightRecorderMessage("SingleConsumerQueue", method, format, null));
+            RECORDER.record(1, "SingleConsumerQueue", method, format);
     }
 
     static void record(String method, String format, Object arg1) {
         if (RECORDER != null)
-            RECORDER.record(1, new FlightRecorderMessage("SingleConsumerQueue", method, format, new Object[]{arg1}));
+            RECORDER.record(1, "SingleConsumerQueue", method, format, arg1);
     }
 
     static void record(String method, String format, Object arg1, Object arg2) {
         if (RECORDER != null)
-            RECORDER.record(1, new FlightRecorderMessage("SingleConsumerQueue", method, format, new Object[]{arg1, arg2}));
+            RECORDER.record(1, "SingleConsumerQueue", method, format, arg1, arg2);
     }
 
     static void record(String method, String format, Object arg1, Object arg2, Object arg3) {
         if (RECORDER != null)
-            RECORDER.record(1, new FlightRecorderMessage("SingleConsumerQueue", method, format, new Object[]{arg1, arg2, arg3}));
+            RECORDER.record(1, "SingleConsumerQueue", method, format, arg1, arg2, arg3);
     }
 
     static void record(String method, String format, Object arg1, Object arg2, Object arg3, Object arg4) {
         if (RECORDER != null)
-            RECORDER.record(1, new FlightRecorderMessage("SingleConsumerQueue", method, format, new Object[]{arg1, arg2, arg3, arg4}));
+            RECORDER.record(1, "SingleConsumerQueue", method, format, arg1, arg2, arg3, arg4);
     }
 
     static void record(String method, String format, Object arg1, Object arg2, Object arg3, Object arg4, Object arg5) {
         if (RECORDER != null)
-            RECORDER.record(1, new FlightRecorderMessage("SingleConsumerQueue", method, format, new Object[]{arg1, arg2, arg3, arg4, arg5}));
+            RECORDER.record(1, "SingleConsumerQueue", method, format, arg1, arg2, arg3, arg4, arg5);
     }
 }
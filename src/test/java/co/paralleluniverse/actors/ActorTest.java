@@ -7,12 +7,19 @@ package co.paralleluniverse.actors;
 import co.paralleluniverse.fibers.Fiber;
 import co.paralleluniverse.fibers.SuspendExecution;
 import co.paralleluniverse.fibers.TimeoutException;
+import co.paralleluniverse.strands.Strand;
+import co.paralleluniverse.strands.SuspendableRunnable;
+import co.paralleluniverse.strands.channels.Channel;
+import co.paralleluniverse.strands.channels.OverflowPolicy;
+import co.paralleluniverse.strands.concurrent.CountDownLatch;
+import co.paralleluniverse.strands.queues.QueueCapacityExceededException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import jsr166e.ForkJoinPool;
 import org.junit.After;
 import org.junit.AfterClass;
@@ -158,6 +165,351 @@ public class ActorTest {
         assertThat(actor.get(), equalTo(Arrays.asList(1, 3, 2)));
     }
 
+    @Test
+    public void testSelectiveReceiveSkipsRejectedMessages() throws Exception {
+        final AtomicInteger processed = new AtomicInteger();
+        Actor<Message, Integer> actor = spawnActor(new BasicActor<Message, Integer>(-1) {
+            @Override
+            protected Integer doRun() throws SuspendExecution, InterruptedException {
+                final MessageProcessor<Message> big = new MessageProcessor<Message>() {
+                    public boolean process(Message m) throws SuspendExecution, InterruptedException {
+                        processed.incrementAndGet();
+                        return m.num >= 100;
+                    }
+                };
+                assertThat(selectiveReceive(big).num, is(100));
+                assertThat(selectiveReceive(big).num, is(200));
+                return receive().num;
+            }
+        });
+
+        for (int i = 1; i <= 5; i++)
+            actor.send(new Message(i));
+        actor.send(new Message(100));
+        Thread.sleep(50);
+        for (int i = 6; i <= 11; i++)
+            actor.send(new Message(i));
+        actor.send(new Message(200));
+
+        assertThat(actor.get(), is(1));
+        assertThat(processed.get(), is(13)); // each message is examined once
+    }
+
+    @Test
+    public void testReceiveByKey() throws Exception {
+        for (final int size : new int[]{-1, 100}) {
+            Actor<Message, List<Integer>> actor = spawnActor(new BasicActor<Message, List<Integer>>(size) {
+                @Override
+                protected Object messageKey(Message m) {
+                    return m.num % 2 == 0 ? m.num : null;
+                }
+
+                @Override
+                protected List<Integer> doRun() throws SuspendExecution, InterruptedException {
+                    final List<Integer> list = new ArrayList<>();
+                    list.add(receiveByKey(30).num);
+                    list.add(receiveByKey(10).num);
+                    list.add(receiveByKey(78, 1, TimeUnit.SECONDS).num);
+                    try {
+                        receiveByKey(98, 50, TimeUnit.MILLISECONDS);
+                        fail();
+                    } catch (TimeoutException e) {
+                    }
+                    list.add(receive().num);
+                    list.add(receiveByKey(2).num);
+                    return list;
+                }
+            });
+
+            for (int i = 1; i <= 50; i++)
+                actor.send(new Message(i));
+            Thread.sleep(50);
+            actor.send(new Message(78));
+
+            assertThat(actor.get(), equalTo(Arrays.asList(30, 10, 78, 1, 2)));
+        }
+    }
+
+    @Test
+    public void testReceiveByKeyMixedWithReceive() throws Exception {
+        Actor<Message, List<Integer>> actor = spawnActor(new BasicActor<Message, List<Integer>>(-1) {
+            @Override
+            protected Object messageKey(Message m) {
+                return m.num;
+            }
+
+            @Override
+            protected List<Integer> doRun() throws SuspendExecution, InterruptedException {
+                final List<Integer> list = new ArrayList<>();
+                list.add(receiveByKey(20).num); // indexes 1..19
+                list.add(getIndexSize());
+                for (int i = 0; i < 10; i++)
+                    receive();
+                list.add(getIndexSize());
+                for (final int num : new int[]{15, 19}) { // 19 is the last indexed message
+                    list.add(selectiveReceive(new MessageProcessor<Message>() {
+                        @Override
+                        public boolean process(Message m) {
+                            return m.num == num;
+                        }
+                    }).num);
+                }
+                list.add(getIndexSize());
+                list.add(receiveByKey(11).num);
+                list.add(receive().num);
+                list.add(receiveByKey(18).num);
+                list.add(getIndexSize());
+                return list;
+            }
+        });
+
+        for (int i = 1; i <= 20; i++)
+            actor.send(new Message(i));
+
+        assertThat(actor.get(), equalTo(Arrays.asList(20, 19, 9, 15, 19, 7, 11, 12, 18, 4)));
+    }
+
+    @Test
+    public void testCall() throws Exception {
+        final Actor<Request, Void> server = spawnActor(new BasicActor<Request, Void>(mailboxSize) {
+            @Override
+            protected Void doRun() throws SuspendExecution, InterruptedException {
+                for (;;) {
+                    final Request r = receive();
+                    if (r.num < 0)
+                        r.replyError(new IllegalArgumentException("negative"));
+                    else if (r.num == 0)
+                        ; // don't reply
+                    else if (r.num == 1000)
+                        return null;
+                    else
+                        r.reply(r.num * 2);
+                }
+            }
+        });
+
+        Actor<Message, Integer> client = spawnActor(new BasicActor<Message, Integer>(mailboxSize) {
+            @Override
+            protected Integer doRun() throws SuspendExecution, InterruptedException {
+                int sum = 0;
+                for (int i = 1; i <= 100; i++)
+                    sum += Actor.call(server, new Request(i), 1, TimeUnit.SECONDS);
+
+                try {
+                    Actor.call(server, new Request(-1));
+                    fail();
+                } catch (IllegalArgumentException e) {
+                    assertThat(e.getMessage(), is("negative"));
+                }
+
+                try {
+                    Actor.call(server, new Request(0), 50, TimeUnit.MILLISECONDS);
+                    fail();
+                } catch (TimeoutException e) {
+                }
+                return sum + Actor.call(server, new Request(5));
+            }
+        });
+        assertThat(client.get(), is(100 * 101 + 10));
+
+        final AtomicInteger fiberResult = new AtomicInteger();
+        new Fiber(fjPool, new SuspendableRunnable() {
+            @Override
+            public void run() throws SuspendExecution, InterruptedException {
+                fiberResult.set(Actor.call(server, new Request(21)));
+            }
+        }).start().join();
+        assertThat(fiberResult.get(), is(42));
+
+        server.send(new Request(1000));
+        server.join();
+    }
+
+    @Test
+    public void testInterruptedCall() throws Exception {
+        final Actor<Request, Void> server = spawnActor(new BasicActor<Request, Void>(mailboxSize) {
+            @Override
+            protected Void doRun() throws SuspendExecution, InterruptedException {
+                for (;;) {
+                    final Request r = receive();
+                    if (r.num == 0)
+                        ; // don't reply
+                    else if (r.num == 1000)
+                        return null;
+                    else
+                        r.reply(r.num * 2);
+                }
+            }
+        });
+
+        final Fiber caller = new Fiber(fjPool, new SuspendableRunnable() {
+            @Override
+            public void run() throws SuspendExecution, InterruptedException {
+                Actor.call(server, new Request(0));
+                fail();
+            }
+        }).start();
+        Thread.sleep(50);
+        caller.interrupt();
+        try {
+            caller.join(1, TimeUnit.SECONDS); // would time out if the interrupt were ignored
+        } catch (ExecutionException e) {
+        }
+        assertTrue(caller.isDone());
+
+        final AtomicInteger result = new AtomicInteger();
+        new Fiber(fjPool, new SuspendableRunnable() {
+            @Override
+            public void run() throws SuspendExecution, InterruptedException {
+                result.set(Actor.call(server, new Request(21)));
+            }
+        }).start().join();
+        assertThat(result.get(), is(42));
+
+        server.send(new Request(1000));
+        server.join();
+    }
+
+    @Test
+    public void testCallDeadActor() throws Exception {
+        final Actor<Request, Void> server = spawnActor(new BasicActor<Request, Void>(mailboxSize) {
+            @Override
+            protected Void doRun() throws SuspendExecution, InterruptedException {
+                return null;
+            }
+        });
+        server.join();
+
+        final AtomicBoolean failed = new AtomicBoolean();
+        new Fiber(fjPool, new SuspendableRunnable() {
+            @Override
+            public void run() throws SuspendExecution, InterruptedException {
+                try {
+                    Actor.call(server, new Request(1));
+                } catch (IllegalStateException e) {
+                    failed.set(true);
+                }
+            }
+        }).start().join(1, TimeUnit.SECONDS); // would time out if the call waited for a reply
+        assertTrue(failed.get());
+    }
+
+    @Test
+    public void testTimedSendToDeadActor() throws Exception {
+        final Actor<Request, Void> dead = spawnActor(new BasicActor<Request, Void>(mailboxSize) {
+            @Override
+            protected Void doRun() throws SuspendExecution, InterruptedException {
+                return null;
+            }
+        });
+        dead.join();
+
+        final AtomicBoolean sent = new AtomicBoolean(true);
+        final Actor<Request, Void> proxy = spawnActor(new BasicActor<Request, Void>(mailboxSize) {
+            @Override
+            protected Void doRun() throws SuspendExecution, InterruptedException {
+                sent.set(dead.send(receive(), 10, TimeUnit.MILLISECONDS));
+                return null;
+            }
+        });
+
+        final AtomicBoolean failed = new AtomicBoolean();
+        new Fiber(fjPool, new SuspendableRunnable() {
+            @Override
+            public void run() throws SuspendExecution, InterruptedException {
+                try {
+                    Actor.call(proxy, new Request(1));
+                } catch (IllegalStateException e) {
+                    failed.set(true);
+                }
+            }
+        }).start().join(1, TimeUnit.SECONDS); // would time out if the call waited for a reply
+        assertTrue(failed.get());
+        proxy.join(); // the caller is woken before send returns
+        assertFalse(sent.get());
+    }
+
+    @Test
+    public void testCallDroppedRequest() throws Exception {
+        final CountDownLatch start = new CountDownLatch(1);
+        final Actor<Request, Void> server = spawnActor(new BasicActor<Request, Void>(null, 1, OverflowPolicy.DROP_OLDEST) {
+            @Override
+            protected Void doRun() throws SuspendExecution, InterruptedException {
+                start.await();
+                while (receive().num != 1000)
+                    ;
+                return null;
+            }
+        });
+        server.send(new Request(1)); // fills the mailbox
+
+        final AtomicBoolean failed = new AtomicBoolean();
+        final Fiber caller = new Fiber(fjPool, new SuspendableRunnable() {
+            @Override
+            public void run() throws SuspendExecution, InterruptedException {
+                try {
+                    Actor.call(server, new Request(2));
+                } catch (QueueCapacityExceededException e) {
+                    failed.set(true);
+                }
+            }
+        }).start();
+        while (((Channel<Request>) server.getMailbox()).getSpilledCount() < 1) // the request has spilled
+            Thread.sleep(1);
+        server.send(new Request(1000)); // drops the request
+        caller.join(1, TimeUnit.SECONDS); // would time out if the call waited for a reply
+        assertTrue(failed.get());
+
+        start.countDown();
+        server.get();
+    }
+
+    @Test
+    public void testSendAll() throws Exception {
+        final Actor<Message, Integer> actor = new BasicActor<Message, Integer>(mailboxSize) {
+            @Override
+            protected Integer doRun() throws SuspendExecution, InterruptedException {
+                int sum = receive().num;
+                assertThat(mailbox().getQueueLength(), is(4)); // woken after the whole batch is in
+                for (int i = 0; i < 4; i++)
+                    sum += receive().num;
+                return sum;
+            }
+        };
+        final Fiber fiber = new Fiber("actor", fjPool, actor).start();
+        while (fiber.getState() != Fiber.State.WAITING)
+            Thread.sleep(1);
+
+        actor.sendAll(new Message[]{new Message(1), new Message(2), new Message(3), new Message(4), new Message(5)});
+        assertThat(actor.get(), is(15));
+    }
+
+    @Test
+    public void testSendAllOverflow() throws Exception {
+        final AtomicBoolean sent = new AtomicBoolean();
+        final Actor<Message, Void> actor = spawnActor(new BasicActor<Message, Void>(4) {
+            @Override
+            protected Void doRun() throws SuspendExecution, InterruptedException {
+                while (!sent.get()) // keep out of receive, which checks for the exception only before waiting
+                    Strand.yield();
+                receive();
+                return null;
+            }
+        });
+
+        actor.sendAll(new Message[]{new Message(1), new Message(2), new Message(3), new Message(4), new Message(5)});
+        sent.set(true);
+        try {
+            actor.get();
+            fail();
+        } catch (ExecutionException e) {
+            assertThat(e.getCause(), instanceOf(QueueCapacityExceededException.class));
+        }
+        final Channel<Message> mailbox = (Channel<Message>) actor.getMailbox();
+        assertThat(mailbox.getQueueLength(), is(4)); // the messages that fit have been sent
+        assertThat(mailbox.getOverflowCount(), is(1L));
+    }
+
     @Test
     public void whenSimpleReceiveAndTimeoutThenReturnNull() throws Exception {
         Actor<Message, Void> actor = spawnActor(new BasicActor<Message, Void>(mailboxSize) {
@@ -287,6 +639,48 @@ public class ActorTest {
         assertThat(handlerCalled.get(), is(true));
     }
 
+    @Test
+    public void testRegistry() throws Exception {
+        final Actor<Message, Void> actor1 = spawnActor(new BasicActor<Message, Void>(mailboxSize) {
+            @Override
+            protected Void doRun() throws SuspendExecution, InterruptedException {
+                receive();
+                return null;
+            }
+        });
+        final Actor<Message, Void> actor2 = spawnActor(new BasicActor<Message, Void>(mailboxSize) {
+            @Override
+            protected Void doRun() throws SuspendExecution, InterruptedException {
+                receive();
+                return null;
+            }
+        });
+        actor1.register("registry-test-1");
+        try {
+            actor2.register("registry-test-1");
+            fail();
+        } catch (RuntimeException e) {
+        }
+        actor2.register("registry-test-2");
+        assertThat(Actor.getActors(Arrays.asList("registry-test-2", "registry-test-x", "registry-test-1")),
+                equalTo(Arrays.<Actor>asList(actor2, null, actor1)));
+
+        final ActorRegistry.LookupCache cache = ActorRegistry.newLookupCache();
+        assertThat(cache.getActor("registry-test-1"), is((Actor) actor1));
+
+        actor1.send(new Message(1));
+        actor1.join();
+        actor2.register("registry-test-1"); // actor1 is dead, so its name can be taken
+        assertThat(cache.getActor("registry-test-1"), is((Actor) actor2));
+
+        actor2.unregister("registry-test-1");
+        assertThat(cache.getActor("registry-test-1"), is(nullValue()));
+        assertThat(Actor.getActor("registry-test-2"), is((Actor) actor2));
+
+        actor2.send(new Message(1));
+        actor2.join();
+    }
+
     static class Message {
         final int num;
 
@@ -295,6 +689,14 @@ public class ActorTest {
         }
     }
 
+    static class Request extends RequestMessage<Integer> {
+        final int num;
+
+        public Request(int num) {
+            this.num = num;
+        }
+    }
+
     static class ComplexMessage {
         enum Type {
             FOO, BAR, BAZ, WAT
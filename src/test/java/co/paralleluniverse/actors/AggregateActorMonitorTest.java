@@ -0,0 +1,91 @@
+/*
+ * Quasar: lightweight threads and actors for the JVM.
+ * Copyright (C) 2013, Parallel Universe Software Co. All rights reserved.
+ *
+ * This program and the accompanying materials are dual-licensed under
+ * either the terms of the Eclipse Public License v1.0 as published by
+ * the Eclipse Foundation
+ *
+ *   or (per the licensee's choosing)
+ *
+ * under the terms of the GNU Lesser General Public License version 3.0
+ * as published by the Free Software Foundation.
+ */
+package co.paralleluniverse.actors;
+
+import co.paralleluniverse.fibers.SuspendExecution;
+import java.util.Arrays;
+import java.util.Map;
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ *
+ * @author pron
+ */
+public class AggregateActorMonitorTest {
+    private final AggregateActorMonitor aggregate = AggregateActorMonitor.getInstance();
+
+    @Test
+    public void testBucket() {
+        assertThat(AggregateActorMonitor.bucket(0), is(0));
+        assertThat(AggregateActorMonitor.bucket(0.5), is(0));
+        assertThat(AggregateActorMonitor.bucket(1), is(1));
+        assertThat(AggregateActorMonitor.bucket(3), is(2));
+        assertThat(AggregateActorMonitor.bucket(4), is(3));
+        assertThat(AggregateActorMonitor.bucket(Double.MAX_VALUE), is(31));
+    }
+
+    @Test
+    public void testCounters() {
+        final int count = aggregate.getActorCount();
+        final long messages = aggregate.getTotalReceivedMessages();
+        final Actor[] actors = new Actor[3];
+        final ActorMonitor[] monitors = new ActorMonitor[actors.length];
+        for (int i = 0; i < actors.length; i++) {
+            actors[i] = new TestActor();
+            monitors[i] = aggregate.newMonitor("aggregate-test-" + i);
+            monitors[i].setActor(actors[i]);
+            for (int j = 0; j < 10 * i; j++) {
+                monitors[i].addMessage();
+                monitors[i].skippedMessage();
+            }
+        }
+        assertThat(aggregate.getActorCount(), is(count + 3));
+        assertThat(aggregate.getTotalReceivedMessages(), is(messages + 30));
+
+        final Map<String, Integer> top = aggregate.getTopBySkippedMessages();
+        assertThat(top.keySet().iterator().next(), is("aggregate-test-2"));
+        assertThat(top.get("aggregate-test-2"), is(20));
+        assertThat(top.get("aggregate-test-1"), is(10));
+
+        final long[] histogram = aggregate.getSkippedMessagesHistogram();
+        assertTrue(Arrays.toString(histogram), histogram[4] >= 1 && histogram[5] >= 1); // 10 and 20
+
+        monitors[2].resetSkippedMessages();
+        assertThat(aggregate.getTopBySkippedMessages().get("aggregate-test-2"), is(0));
+
+        monitors[1].setActor(null);
+        monitors[1].addMessage(); // ignored
+        assertThat(aggregate.getActorCount(), is(count + 2));
+        assertThat(aggregate.getTotalReceivedMessages(), is(messages + 20));
+
+        final ActorMonitor reused = aggregate.newMonitor("aggregate-test-3");
+        reused.setActor(new TestActor());
+        assertThat(aggregate.getActorCount(), is(count + 3));
+        assertThat(aggregate.getTopBySkippedMessages().get("aggregate-test-3"), is(0));
+
+        for (ActorMonitor monitor : monitors)
+            monitor.setActor(null);
+        reused.setActor(null);
+        assertThat(aggregate.getActorCount(), is(count));
+    }
+
+    static class TestActor extends BasicActor<Object, Void> {
+        @Override
+        protected Void doRun() throws SuspendExecution, InterruptedException {
+            return null;
+        }
+    }
+}
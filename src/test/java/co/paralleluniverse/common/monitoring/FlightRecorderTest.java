@@ -0,0 +1,276 @@
+/*
+ * Quasar: lightweight threads and actors for the JVM.
+ * Copyright (C) 2013, Parallel Universe Software Co. All rights reserved.
+ *
+ * This program and the accompanying materials are dual-licensed under
+ * either the terms of the Eclipse Public License v1.0 as published by
+ * the Eclipse Foundation
+ *
+ *   or (per the licensee's choosing)
+ *
+ * under the terms of the GNU Lesser General Public License version 3.0
+ * as published by the Free Software Foundation.
+ */
+package co.paralleluniverse.common.monitoring;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.PrintStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ *
+ * @author pron
+ */
+public class FlightRecorderTest {
+    private static int counter;
+    private FlightRecorder recorder;
+
+    @Before
+    public void setUp() {
+        recorder = new FlightRecorder("test-flight-recorder-" + (counter++));
+    }
+
+    @After
+    public void tearDown() {
+        recorder.unregisterMBean();
+    }
+
+    @Test
+    public void testGetReturnsSameRecorder() {
+        FlightRecorder.ThreadRecorder tr = recorder.get();
+        assertThat(recorder.get(), is(sameInstance(tr)));
+    }
+
+    @Test
+    public void testLevelFilter() {
+        recorder.init(10, 2);
+        assertThat(recorder.recordsLevel(2), is(true));
+        assertThat(recorder.recordsLevel(3), is(false));
+
+        recorder.record(1, "Foo", "bar", "one %s", "x");
+        recorder.record(3, "Foo", "bar", "three %s", "x");
+        recorder.record(2, "Foo", "bar", "two %s %s", "x", "y");
+
+        List<String> messages = messages();
+        assertThat(messages.size(), is(2));
+        assertThat(messages.get(0), is("Foo.bar one x"));
+        assertThat(messages.get(1), is("Foo.bar two x y"));
+        assertThat(recorder.get().getTotalRecs(), is(2));
+    }
+
+    @Test
+    public void testRingReusesSlots() {
+        recorder.init(4, 5);
+        recorder.record(1, "Foo", "bar", "%s %s %s", 1, 2, 3);
+        for (int i = 0; i < 10; i++)
+            recorder.record(1, "Foo", "bar", "%s", i);
+        recorder.record(1, "plain payload");
+
+        List<String> messages = messages();
+        assertThat(messages.size(), is(3)); // one slot is always kept free
+        assertThat(messages.get(0), is("Foo.bar 8"));
+        assertThat(messages.get(1), is("Foo.bar 9"));
+        assertThat(messages.get(2), is("plain payload"));
+    }
+
+    @Test
+    public void testManyArgs() {
+        recorder.init(10, 5);
+        recorder.get().record(1, "Foo", "bar", "%s%s%s%s%s%s%s", 1, 2, 3, 4, 5, 6, 7);
+        recorder.get().record(1, "Foo", "bar", "%s%s%s%s%s%s%s%s", 1, 2, 3, 4, 5, 6, 7, 8);
+
+        List<String> messages = messages();
+        assertThat(messages.get(0), is("Foo.bar 1234567"));
+        assertThat(messages.get(1), is("Foo.bar 12345678"));
+    }
+
+    @Test
+    public void testStop() {
+        recorder.init(10, 5);
+        recorder.stop();
+        assertThat(recorder.recordsLevel(1), is(false));
+        recorder.record(1, "Foo", "bar", "%s", 1);
+        assertThat(messages().isEmpty(), is(true));
+    }
+
+    @Test
+    public void testBinaryDump() throws Exception {
+        recorder.init(32, 5);
+        recorder.record(1, "Foo", "bar", "%d %s %c %.2f %b %s", 7, "str", 'c', 1.5, true, null);
+        recorder.record(1, "Foo", "bar", "%s", new int[]{1, 2});
+        recorder.record(1, "Foo", "bar", "%x", (byte) -1);
+        recorder.record(1, new Object[]{"a", 1});
+        for (int i = 0; i < 10; i++)
+            recorder.record(1, "Foo", "baz", "%d", (long) i);
+
+        final File file = File.createTempFile("flight", ".qfr");
+        try {
+            recorder.dumpBinary(file.getPath());
+            final FlightRecorderBinaryReader reader = new FlightRecorderBinaryReader();
+            reader.read(file);
+            assertThat(toString(reader), is(textDump()));
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testBinaryDumpIgnoresTail() throws Exception {
+        recorder.init(32, 5);
+        for (int i = 0; i < 10; i++)
+            recorder.record(1, "Foo", "bar", "%d", i);
+
+        final File file = File.createTempFile("flight", ".qfr");
+        try {
+            try (FileOutputStream out = new FileOutputStream(file)) {
+                final byte[] junk = new byte[1 << 16];
+                Arrays.fill(junk, (byte) 0x7f);
+                out.write(junk); // an older, longer file at the same path must not leak into the dump
+            }
+            recorder.dumpBinary(file.getPath());
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                raf.seek(FlightRecorderBinaryWriter.LENGTH_OFFSET);
+                final long length = raf.readLong();
+                assertTrue(length > FlightRecorderBinaryWriter.HEADER_SIZE && length <= raf.length());
+                raf.seek(length);
+                raf.write(new byte[]{FlightRecorderBinaryWriter.PAYLOAD, 1, 2, 3}); // garbage past the logical end
+            }
+            final FlightRecorderBinaryReader reader = new FlightRecorderBinaryReader();
+            reader.read(file);
+            assertThat(toString(reader), is(textDump()));
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testStreaming() throws Exception {
+        final File dir = createTempDir();
+        try {
+            recorder.init(16, 5);
+            recorder.startStreaming(dir, 1024, 3, 5, TimeUnit.MILLISECONDS);
+            for (int i = 0; i < 10; i++)
+                recorder.record(1, "Foo", "bar", "first %d", i);
+            Thread.sleep(50);
+            final long middle = System.currentTimeMillis();
+            Thread.sleep(50);
+            for (int i = 0; i < 10; i++)
+                recorder.record(1, "Foo", "bar", "second %d", i);
+            recorder.stopStreaming();
+
+            FlightRecorderBinaryReader reader = new FlightRecorderBinaryReader();
+            reader.readStream(dir, Long.MIN_VALUE, Long.MAX_VALUE);
+            String text = toString(reader);
+            assertThat(text, containsString("Foo.bar first 0"));
+            assertThat(text, containsString("Foo.bar second 9"));
+            assertTrue(text.indexOf("first 9") < text.indexOf("second 0"));
+
+            reader = new FlightRecorderBinaryReader();
+            reader.readStream(dir, middle, Long.MAX_VALUE);
+            text = toString(reader);
+            assertThat(text, not(containsString("Foo.bar first")));
+            assertThat(text, containsString("Foo.bar second 0"));
+            assertThat(text, containsString("Foo.bar second 9"));
+        } finally {
+            delete(dir);
+        }
+    }
+
+    @Test
+    public void testStreamingRollsFiles() throws Exception {
+        final File dir = createTempDir();
+        try {
+            recorder.init(64, 5);
+            recorder.startStreaming(dir, 512, 2, 1, TimeUnit.MILLISECONDS);
+            for (int i = 0; i < 200; i++) {
+                recorder.record(1, "Foo", "bar", "%d", i);
+                if (i % 20 == 0)
+                    Thread.sleep(5);
+            }
+            recorder.stopStreaming();
+
+            assertThat(dir.listFiles().length, is(3)); // two files and the index
+            final FlightRecorderBinaryReader reader = new FlightRecorderBinaryReader();
+            reader.readStream(dir, Long.MIN_VALUE, Long.MAX_VALUE);
+            final String text = toString(reader);
+            assertThat(text, containsString("Foo.bar 199"));
+            assertThat(text, not(containsString("Foo.bar 0\n")));
+        } finally {
+            delete(dir);
+        }
+    }
+
+    @Test
+    public void testStreamingWhileRecordingDropsTornRecords() throws Exception {
+        final File dir = createTempDir();
+        try {
+            recorder.init(8, 5); // a small ring, so that the recording thread keeps overwriting the slots being streamed
+            recorder.startStreaming(dir, 1 << 20, 2, 1, TimeUnit.MILLISECONDS);
+            final long end = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(200);
+            for (int i = 0; System.nanoTime() < end; i++)
+                recorder.record(1, "Foo", "bar", "%d %d %d", i, i, i);
+            recorder.stopStreaming();
+
+            final FlightRecorderBinaryReader reader = new FlightRecorderBinaryReader();
+            reader.readStream(dir, Long.MIN_VALUE, Long.MAX_VALUE);
+            final String[] lines = toString(reader).split("\n");
+            int records = 0;
+            for (String line : lines) {
+                if (!line.contains("Foo.bar"))
+                    continue;
+                final String[] args = line.substring(line.indexOf("Foo.bar") + "Foo.bar ".length()).split(" ");
+                assertThat(line, args[1], is(args[0]));
+                assertThat(line, args[2], is(args[0]));
+                records++;
+            }
+            assertTrue(records > 0);
+        } finally {
+            delete(dir);
+        }
+    }
+
+    private static File createTempDir() throws Exception {
+        final File dir = File.createTempFile("flight", "");
+        dir.delete();
+        dir.mkdir();
+        return dir;
+    }
+
+    private static void delete(File dir) {
+        for (File f : dir.listFiles())
+            f.delete();
+        dir.delete();
+    }
+
+    private String textDump() throws Exception {
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        final PrintStream ps = new PrintStream(baos, true, "UTF-8");
+        recorder.dump(ps);
+        return baos.toString("UTF-8");
+    }
+
+    private static String toString(FlightRecorderBinaryReader reader) throws Exception {
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        final PrintStream ps = new PrintStream(baos, true, "UTF-8");
+        reader.print(ps);
+        return baos.toString("UTF-8");
+    }
+
+    private List<String> messages() {
+        List<String> messages = new ArrayList<>();
+        for (FlightRecorder.Record r : recorder.getRecords())
+            messages.add(r.payload.toString());
+        return messages;
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * Quasar: lightweight threads and actors for the JVM.
+ * Copyright (C) 2013, Parallel Universe Software Co. All rights reserved.
+ *
+ * This program and the accompanying materials are dual-licensed under
+ * either the terms of the Eclipse Public License v1.0 as published by
+ * the Eclipse Foundation
+ *
+ *   or (per the licensee's choosing)
+ *
+ * under the terms of the GNU Lesser General Public License version 3.0
+ * as published by the Free Software Foundation.
+ */
+package co.paralleluniverse.fibers;
+
+import co.paralleluniverse.strands.SuspendableRunnable;
+import java.lang.reflect.Field;
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ *
+ * @author pron
+ */
+public class AdaptiveStackSizeTest {
+    @Before
+    public void setUp() {
+        StackSizes.resetAll();
+    }
+
+    @Test
+    public void testLearnsFromPreviousFibers() {
+        Fiber first = new Fiber(null, null, new Deep());
+        assertThat(first.getStack().getObjHighWater(), is(0));
+        assertThat(first.exec(), is(false));
+        assertThat(first.exec(), is(true));
+        assertTrue(getDataStackSize(new Fiber(null, null, new Deep())) > Fiber.DEFAULT_STACK_SIZE);
+
+        for (int i = 0; i < 16; i++)
+            run(new Fiber(null, null, new Deep()));
+
+        Fiber second = new Fiber(null, null, new Deep());
+        assertTrue(getDataStackSize(second) > Fiber.DEFAULT_STACK_SIZE);
+        assertTrue(getMethodStackSize(second) > 8);
+
+        assertThat(second.exec(), is(false));
+        assertThat(getDataStackSize(second), is(getDataStackSize(new Fiber(null, null, new Deep())))); // didn't grow
+    }
+
+    @Test
+    public void testExplicitSizeWins() {
+        Fiber first = new Fiber(null, null, new Deep());
+        first.exec();
+        first.exec();
+
+        Fiber second = new Fiber(null, null, 4, new Deep());
+        assertThat(getDataStackSize(second), is(4));
+    }
+
+    @Test
+    public void testPerClass() {
+        Fiber first = new Fiber(null, null, new Deep());
+        first.exec();
+        first.exec();
+
+        Fiber other = new Fiber(null, null, new Shallow());
+        assertThat(getDataStackSize(other), is(Fiber.DEFAULT_STACK_SIZE));
+    }
+
+    @Test
+    public void testOutlierFades() {
+        run(new Fiber(null, null, new Variable(10)));
+        final int deepSize = getDataStackSize(new Fiber(null, null, new Variable(0)));
+        assertTrue(deepSize > Fiber.DEFAULT_STACK_SIZE);
+
+        for (int i = 0; i < 64; i++)
+            run(new Fiber(null, null, new Variable(0)));
+        assertThat(getDataStackSize(new Fiber(null, null, new Variable(0))), is(Fiber.DEFAULT_STACK_SIZE));
+    }
+
+    private static void run(Fiber fiber) {
+        while (!fiber.exec())
+            ;
+    }
+
+    static class Variable implements SuspendableRunnable {
+        private final int depth;
+
+        Variable(int depth) {
+            this.depth = depth;
+        }
+
+        @Override
+        public void run() throws SuspendExecution {
+            deep(depth);
+        }
+
+        private int deep(Integer a) throws SuspendExecution {
+            if (a == 0) {
+                Fiber.park();
+                return 1;
+            }
+            return a * deep(a - 1);
+        }
+    }
+
+    static class Deep implements SuspendableRunnable {
+        @Override
+        public void run() throws SuspendExecution {
+            assertEquals(3628800, factorial(10));
+        }
+
+        private int factorial(Integer a) throws SuspendExecution {
+            if (a == 0) {
+                Fiber.park();
+                return 1;
+            }
+            return a * factorial(a - 1);
+        }
+    }
+
+    static class Shallow implements SuspendableRunnable {
+        @Override
+        public void run() throws SuspendExecution {
+            Fiber.park();
+        }
+    }
+
+    private static int getDataStackSize(Fiber c) {
+        try {
+            Field f = Stack.class.getDeclaredField("dataObject");
+            f.setAccessible(true);
+            return ((Object[]) f.get(c.getStack())).length;
+        } catch (ReflectiveOperationException ex) {
+            throw new AssertionError(ex);
+        }
+    }
+
+    private static int getMethodStackSize(Fiber c) {
+        try {
+            Field f = Stack.class.getDeclaredField("method");
+            f.setAccessible(true);
+            return ((int[]) f.get(c.getStack())).length;
+        } catch (ReflectiveOperationException ex) {
+            throw new AssertionError(ex);
+        }
+    }
+}
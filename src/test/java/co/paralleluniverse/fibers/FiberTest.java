@@ -5,8 +5,10 @@
 package co.paralleluniverse.fibers;
 
 import co.paralleluniverse.common.util.Exceptions;
+import co.paralleluniverse.strands.Strand;
 import co.paralleluniverse.strands.SuspendableRunnable;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import jsr166e.ForkJoinPool;
 import org.junit.After;
 import org.junit.AfterClass;
@@ -56,6 +58,26 @@ public class FiberTest {
         fiber.join(200, TimeUnit.MILLISECONDS);
     }
 
+    @Test
+    public void testStrandParkResumesOnce() throws Exception {
+        final AtomicInteger resumed = new AtomicInteger();
+        Fiber fiber = new Fiber(fjPool, new SuspendableRunnable() {
+            @Override
+            public void run() throws SuspendExecution, InterruptedException {
+                Strand.park(this);
+                resumed.incrementAndGet();
+                Strand.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(10));
+                resumed.incrementAndGet();
+            }
+        }).start();
+        while (fiber.getState() != Fiber.State.WAITING)
+            Thread.sleep(1);
+        fiber.unpark();
+
+        fiber.join(1, TimeUnit.SECONDS);
+        assertThat(resumed.get(), is(2));
+    }
+
     @Test
     public void testInterrupt() throws Exception {
         Fiber fiber = new Fiber(fjPool, new SuspendableRunnable() {
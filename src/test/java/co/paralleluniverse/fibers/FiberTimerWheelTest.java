@@ -0,0 +1,165 @@
+/*
+ * Quasar: lightweight threads and actors for the JVM.
+ * Copyright (C) 2013, Parallel Universe Software Co. All rights reserved.
+ *
+ * This program and the accompanying materials are dual-licensed under
+ * either the terms of the Eclipse Public License v1.0 as published by
+ * the Eclipse Foundation
+ *
+ *   or (per the licensee's choosing)
+ *
+ * under the terms of the GNU Lesser General Public License version 3.0
+ * as published by the Free Software Foundation.
+ */
+package co.paralleluniverse.fibers;
+
+import co.paralleluniverse.strands.SuspendableRunnable;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import jsr166e.ForkJoinPool;
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ *
+ * @author pron
+ */
+public class FiberTimerWheelTest {
+    private final ForkJoinPool fjPool;
+    private final FiberTimerWheel wheel;
+
+    public FiberTimerWheelTest() {
+        fjPool = new ForkJoinPool(4, ForkJoinPool.defaultForkJoinWorkerThreadFactory, null, true);
+        wheel = new FiberTimerWheel("test", 4, 1, TimeUnit.MILLISECONDS); // a tiny wheel so that timeouts span several rounds
+        FiberTimer.setTimer(fjPool, wheel);
+    }
+
+    @Test
+    public void testTimeoutDoesNotFireEarly() throws Exception {
+        final AtomicLong elapsed = new AtomicLong();
+        Fiber fiber = new Fiber(fjPool, new SuspendableRunnable() {
+            @Override
+            public void run() throws SuspendExecution {
+                final long start = System.nanoTime();
+                Fiber.sleep(30);
+                elapsed.set(System.nanoTime() - start);
+            }
+        }).start();
+
+        fiber.join(1, TimeUnit.SECONDS);
+        assertTrue("elapsed: " + elapsed.get(), elapsed.get() >= TimeUnit.MILLISECONDS.toNanos(30));
+    }
+
+    @Test
+    public void testCancel() throws Exception {
+        Fiber fiber = new Fiber(fjPool, new SuspendableRunnable() {
+            @Override
+            public void run() throws SuspendExecution {
+                Fiber.park();
+            }
+        }).start();
+        Thread.sleep(10);
+
+        FiberTimer.Timeout timeout = wheel.schedule(fiber, 20, TimeUnit.MILLISECONDS);
+        assertThat(timeout.cancel(), is(true));
+        assertThat(timeout.cancel(), is(false));
+
+        Thread.sleep(50);
+        assertThat(fiber.isAlive(), is(true));
+
+        fiber.unpark();
+        fiber.join(100, TimeUnit.MILLISECONDS);
+    }
+
+    @Test
+    public void testCancelBeforeSchedule() throws Exception {
+        Fiber fiber = new Fiber(fjPool, new SuspendableRunnable() {
+            @Override
+            public void run() throws SuspendExecution {
+                Fiber.park();
+            }
+        }).start();
+        Thread.sleep(10);
+
+        FiberTimer.Timeout timeout = wheel.newTimeout(fiber, 1, TimeUnit.MILLISECONDS);
+        assertThat(timeout.cancel(), is(true)); // as when the fiber is unparked while it's scheduling the timeout
+        wheel.schedule(timeout);
+
+        Thread.sleep(50);
+        assertThat(fiber.isAlive(), is(true));
+
+        fiber.unpark();
+        fiber.join(100, TimeUnit.MILLISECONDS);
+    }
+
+    @Test
+    public void testUnparkCancelsTimeout() throws Exception {
+        final AtomicLong parks = new AtomicLong();
+        Fiber fiber = new Fiber(fjPool, new SuspendableRunnable() {
+            @Override
+            public void run() throws SuspendExecution {
+                park(50);
+                park(0); // must not be woken by the first park's timeout
+            }
+
+            private void park(long millis) throws SuspendExecution {
+                parks.incrementAndGet();
+                Fiber.park(millis, TimeUnit.MILLISECONDS);
+            }
+        }).start();
+        Thread.sleep(10);
+
+        fiber.unpark();
+        Thread.sleep(100);
+        assertThat(parks.get(), is(2L));
+        assertThat(fiber.isAlive(), is(true));
+
+        fiber.unpark();
+        fiber.join(100, TimeUnit.MILLISECONDS);
+    }
+
+    @Test
+    public void testCounters() throws Exception {
+        Fiber fiber = new Fiber(fjPool, new SuspendableRunnable() {
+            @Override
+            public void run() throws SuspendExecution {
+                park(10);   // times out
+                park(1000); // unparked
+            }
+
+            private void park(long millis) throws SuspendExecution {
+                Fiber.park(millis, TimeUnit.MILLISECONDS);
+            }
+        }).start();
+        Thread.sleep(50);
+        fiber.unpark();
+        fiber.join(100, TimeUnit.MILLISECONDS);
+
+        assertThat(wheel.getScheduledCount(), is(2L));
+        assertThat(wheel.getFiredCount(), is(1L));
+        assertThat(wheel.getCancelledCount(), is(1L));
+        assertThat(wheel.getStaleCount(), is(0L));
+    }
+
+    @Test
+    public void testManyTimeouts() throws Exception {
+        final Random rand = new Random(1);
+        final Fiber[] fibers = new Fiber[200];
+        for (int i = 0; i < fibers.length; i++) {
+            final int millis = 1 + rand.nextInt(40);
+            fibers[i] = new Fiber(fjPool, new SuspendableRunnable() {
+                @Override
+                public void run() throws SuspendExecution {
+                    final long start = System.nanoTime();
+                    Fiber.sleep(millis);
+                    assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(millis));
+                }
+            }).start();
+        }
+
+        for (Fiber fiber : fibers)
+            fiber.join(1, TimeUnit.SECONDS);
+    }
+}
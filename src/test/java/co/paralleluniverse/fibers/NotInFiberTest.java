@@ -0,0 +1,82 @@
+/*
+ * Quasar: lightweight threads and actors for the JVM.
+ * Copyright (C) 2013, Parallel Universe Software Co. All rights reserved.
+ *
+ * This program and the accompanying materials are dual-licensed under
+ * either the terms of the Eclipse Public License v1.0 as published by
+ * the Eclipse Foundation
+ *
+ *   or (per the licensee's choosing)
+ *
+ * under the terms of the GNU Lesser General Public License version 3.0
+ * as published by the Free Software Foundation.
+ */
+package co.paralleluniverse.fibers;
+
+import co.paralleluniverse.strands.Strand;
+import co.paralleluniverse.strands.SuspendableRunnable;
+import static co.paralleluniverse.fibers.TestsHelper.exec;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Instrumented methods called outside a fiber run as if they weren't instrumented.
+ *
+ * @author pron
+ */
+public class NotInFiberTest implements SuspendableRunnable {
+    private static final List<String> EXPECTED = Arrays.asList(
+            "stack 1 2 3", "caught thrown", "finally", "returned 5", "done");
+    private final List<String> results = new ArrayList<String>();
+
+    @Override
+    public void run() throws SuspendExecution, InterruptedException {
+        // a suspendable call with values below its arguments on the operand stack
+        record("stack", 1, 2, three());
+        try {
+            thrower();
+            results.add("not thrown");
+        } catch (IllegalStateException e) {
+            results.add("caught " + e.getMessage());
+        }
+        try {
+            Strand.sleep(1);
+        } finally {
+            results.add("finally");
+        }
+        results.add("returned " + (2 + three()));
+        results.add("done");
+    }
+
+    private int three() throws SuspendExecution, InterruptedException {
+        Strand.sleep(1);
+        return 3;
+    }
+
+    private void thrower() throws SuspendExecution, InterruptedException {
+        Strand.sleep(1);
+        throw new IllegalStateException("thrown");
+    }
+
+    private void record(String label, int a, int b, int c) {
+        results.add(label + " " + a + " " + b + " " + c);
+    }
+
+    @Test
+    public void testOnThread() throws Exception {
+        run();
+        assertThat(results, equalTo(EXPECTED));
+    }
+
+    @Test
+    public void testInFiber() {
+        final Fiber co = new Fiber(null, null, this);
+        while (!exec(co))
+            ;
+        assertThat(results, equalTo(EXPECTED));
+    }
+}
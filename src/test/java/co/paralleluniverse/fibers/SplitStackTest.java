@@ -0,0 +1,83 @@
+/*
+ * Quasar: lightweight threads and actors for the JVM.
+ * Copyright (C) 2013, Parallel Universe Software Co. All rights reserved.
+ *
+ * This program and the accompanying materials are dual-licensed under
+ * either the terms of the Eclipse Public License v1.0 as published by
+ * the Eclipse Foundation
+ *
+ *   or (per the licensee's choosing)
+ *
+ * under the terms of the GNU Lesser General Public License version 3.0
+ * as published by the Free Software Foundation.
+ */
+package co.paralleluniverse.fibers;
+
+import co.paralleluniverse.strands.SuspendableRunnable;
+import java.lang.reflect.Field;
+import java.util.Arrays;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Primitives and references are kept on separate stacks, which grow independently.
+ *
+ * @author pron
+ */
+public class SplitStackTest {
+    @Test
+    public void testReferencesOnlyDontGrowPrimitiveStack() {
+        Fiber fiber = new Fiber(null, null, 2, new SuspendableRunnable() {
+            @Override
+            public void run() throws SuspendExecution {
+                Object[] res = refs(new Object[10]);
+                assertEquals(0, res.length);
+            }
+
+            private Object[] refs(Object[] box) throws SuspendExecution {
+                if (box.length == 0) {
+                    Fiber.park();
+                    return box;
+                }
+                return refs(Arrays.copyOf(box, box.length - 1));
+            }
+        });
+        assertFalse(TestsHelper.exec(fiber));
+        assertTrue(getArrayLength(fiber, "dataObject") > 10);
+        assertEquals(2, getArrayLength(fiber, "dataLong"));
+        assertTrue(TestsHelper.exec(fiber));
+    }
+
+    @Test
+    public void testMixed() {
+        Fiber fiber = new Fiber(null, null, 1, new SuspendableRunnable() {
+            @Override
+            public void run() throws SuspendExecution {
+                assertEquals(55L, sum(10, 1.5, "x"));
+            }
+
+            private long sum(int n, double d, String s) throws SuspendExecution {
+                if (n == 0) {
+                    Fiber.park();
+                    return 0;
+                }
+                final long res = n + sum(n - 1, d * 2, s + n);
+                assertEquals(1.5 * Math.pow(2, 10 - n), d, 0);
+                assertTrue(s.startsWith("x"));
+                return res;
+            }
+        });
+        assertFalse(TestsHelper.exec(fiber));
+        assertTrue(TestsHelper.exec(fiber));
+    }
+
+    private static int getArrayLength(Fiber fiber, String field) {
+        try {
+            Field f = Stack.class.getDeclaredField(field);
+            f.setAccessible(true);
+            return java.lang.reflect.Array.getLength(f.get(fiber.getStack()));
+        } catch (ReflectiveOperationException ex) {
+            throw new AssertionError(ex);
+        }
+    }
+}
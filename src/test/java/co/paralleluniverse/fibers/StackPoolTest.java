@@ -0,0 +1,78 @@
+/*
+ * Quasar: lightweight threads and actors for the JVM.
+ * Copyright (C) 2013, Parallel Universe Software Co. All rights reserved.
+ *
+ * This program and the accompanying materials are dual-licensed under
+ * either the terms of the Eclipse Public License v1.0 as published by
+ * the Eclipse Foundation
+ *
+ *   or (per the licensee's choosing)
+ *
+ * under the terms of the GNU Lesser General Public License version 3.0
+ * as published by the Free Software Foundation.
+ */
+package co.paralleluniverse.fibers;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ *
+ * @author pron
+ */
+public class StackPoolTest {
+    @Test
+    public void testPooledSize() {
+        assertThat(StackPool.pooledSize(1), is(1));
+        assertThat(StackPool.pooledSize(8), is(8));
+        assertThat(StackPool.pooledSize(9), is(16));
+        assertThat(StackPool.pooledSize(16), is(16));
+        assertThat(StackPool.pooledSize(17), is(32));
+    }
+
+    @Test
+    public void testReuse() {
+        StackPool pool = new StackPool(1 << 20);
+        long[] longs = pool.allocLongs(16);
+        Object[] objects = pool.allocObjects(10);
+        assertThat(objects.length, is(16));
+
+        objects[3] = "foo";
+        pool.free(longs);
+        pool.free(objects);
+        assertThat(pool.getRetainedBytes(), is(16L * 8 + 16L * 8));
+
+        assertThat(pool.allocLongs(16), is(sameInstance(longs)));
+        Object[] objects2 = pool.allocObjects(16);
+        assertThat(objects2, is(sameInstance(objects)));
+        assertThat(objects2[3], is(nullValue()));
+        assertThat(pool.getRetainedBytes(), is(0L));
+    }
+
+    @Test
+    public void testSizeClasses() {
+        StackPool pool = new StackPool(1 << 20);
+        long[] small = pool.allocLongs(16);
+        long[] large = pool.allocLongs(64);
+        pool.free(small);
+        pool.free(large);
+
+        assertThat(pool.allocLongs(32), is(not(sameInstance(small))));
+        assertThat(pool.allocLongs(33), is(sameInstance(large)));
+        assertThat(pool.allocLongs(9), is(sameInstance(small)));
+    }
+
+    @Test
+    public void testMaxBytes() {
+        StackPool pool = new StackPool(100);
+        long[] a = pool.allocLongs(8);
+        long[] b = pool.allocLongs(8);
+        pool.free(a);
+        pool.free(b); // exceeds cap; dropped
+        assertThat(pool.getRetainedBytes(), is(64L));
+
+        assertThat(pool.allocLongs(8), is(sameInstance(a)));
+        assertThat(pool.allocLongs(8), is(not(sameInstance(b))));
+    }
+}
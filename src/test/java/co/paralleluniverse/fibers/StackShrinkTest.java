@@ -0,0 +1,116 @@
+/*
+ * Quasar: lightweight threads and actors for the JVM.
+ * Copyright (C) 2013, Parallel Universe Software Co. All rights reserved.
+ *
+ * This program and the accompanying materials are dual-licensed under
+ * either the terms of the Eclipse Public License v1.0 as published by
+ * the Eclipse Foundation
+ *
+ *   or (per the licensee's choosing)
+ *
+ * under the terms of the GNU Lesser General Public License version 3.0
+ * as published by the Free Software Foundation.
+ */
+package co.paralleluniverse.fibers;
+
+import co.paralleluniverse.strands.SuspendableRunnable;
+import java.lang.reflect.Field;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ *
+ * @author pron
+ */
+public class StackShrinkTest implements SuspendableRunnable {
+    @Test
+    public void testShrinkAfterShallowParks() {
+        Fiber fiber = new Fiber(null, null, Fiber.DEFAULT_STACK_SIZE, this);
+        assertFalse(TestsHelper.exec(fiber)); // parked deep
+        final int deepSize = getDataStackSize(fiber);
+        assertTrue(deepSize > Fiber.DEFAULT_STACK_SIZE);
+
+        for (int i = 0; i < 4; i++)
+            assertFalse(TestsHelper.exec(fiber)); // parked shallow, but not for long enough
+        assertEquals(deepSize, getDataStackSize(fiber));
+
+        for (int i = 0; i < 8; i++)
+            assertFalse(TestsHelper.exec(fiber));
+        assertTrue(getDataStackSize(fiber) < deepSize);
+        assertTrue(getDataStackSize(fiber) >= Fiber.DEFAULT_STACK_SIZE);
+
+        while (!TestsHelper.exec(fiber)) // the fiber must still run correctly on the trimmed stack
+            ;
+    }
+
+    @Test
+    public void testShrinkBelowLearnedSize() {
+        StackSizes.resetAll();
+        for (int i = 0; i < 16; i++) {
+            Fiber fiber = new Fiber(null, null, new StackShrinkTest());
+            while (!TestsHelper.exec(fiber))
+                ;
+        }
+
+        Fiber fiber = new Fiber(null, null, new StackShrinkTest());
+        final int learnedSize = getDataStackSize(fiber);
+        assertTrue(learnedSize > Fiber.DEFAULT_STACK_SIZE);
+
+        assertFalse(TestsHelper.exec(fiber)); // parked deep
+        for (int i = 0; i < 12; i++)
+            assertFalse(TestsHelper.exec(fiber)); // parked shallow
+        assertTrue(getDataStackSize(fiber) < learnedSize);
+        assertTrue(getDataStackSize(fiber) >= Fiber.DEFAULT_STACK_SIZE);
+
+        while (!TestsHelper.exec(fiber))
+            ;
+        StackSizes.resetAll();
+    }
+
+    @Test
+    public void testDontShrinkBelowExplicitSize() {
+        Fiber fiber = new Fiber(null, null, 32, this);
+        assertFalse(TestsHelper.exec(fiber)); // parked deep
+        for (int i = 0; i < 12; i++)
+            assertFalse(TestsHelper.exec(fiber)); // parked shallow
+        assertTrue(getDataStackSize(fiber) >= 32);
+
+        while (!TestsHelper.exec(fiber))
+            ;
+    }
+
+    @Override
+    public void run() throws SuspendExecution {
+        assertEquals(3628800, factorial(10));
+        for (int i = 0; i < 20; i++)
+            assertEquals(i, shallow(i));
+        assertEquals(3628800, factorial(10)); // grows again
+    }
+
+    private int factorial(Integer a) throws SuspendExecution {
+        if (a == 0) {
+            park();
+            return 1;
+        }
+        return a * factorial(a - 1);
+    }
+
+    private int shallow(int i) throws SuspendExecution {
+        park();
+        return i;
+    }
+
+    private void park() throws SuspendExecution {
+        Fiber.park();
+    }
+
+    private static int getDataStackSize(Fiber c) {
+        try {
+            Field f = Stack.class.getDeclaredField("dataObject");
+            f.setAccessible(true);
+            return ((Object[]) f.get(c.getStack())).length;
+        } catch (ReflectiveOperationException ex) {
+            throw new AssertionError(ex);
+        }
+    }
+}
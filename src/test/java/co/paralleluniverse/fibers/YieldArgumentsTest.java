@@ -0,0 +1,40 @@
+/*
+ * Quasar: lightweight threads and actors for the JVM.
+ * Copyright (C) 2013, Parallel Universe Software Co. All rights reserved.
+ *
+ * This program and the accompanying materials are dual-licensed under
+ * either the terms of the Eclipse Public License v1.0 as published by
+ * the Eclipse Foundation
+ *
+ *   or (per the licensee's choosing)
+ *
+ * under the terms of the GNU Lesser General Public License version 3.0
+ * as published by the Free Software Foundation.
+ */
+package co.paralleluniverse.fibers;
+
+import static co.paralleluniverse.fibers.TestsHelper.exec;
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Calls to yield methods that take arguments, and aren't the last thing their method does, resume after the call.
+ * {@link co.paralleluniverse.fibers.instrument.YieldInstrumentationTest} runs the same calls instrumented by the Ant task.
+ *
+ * @author pron
+ */
+public class YieldArgumentsTest {
+    @Test
+    public void testYieldArguments() {
+        final YieldCalls calls = new YieldCalls();
+        Fiber co = new Fiber(null, null, calls);
+
+        int parks = 0;
+        while (!exec(co))
+            parks++;
+
+        assertThat(parks, is(YieldCalls.PARKS));
+        assertThat(calls.results, equalTo(YieldCalls.EXPECTED));
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Quasar: lightweight threads and actors for the JVM.
+ * Copyright (C) 2013, Parallel Universe Software Co. All rights reserved.
+ *
+ * This program and the accompanying materials are dual-licensed under
+ * either the terms of the Eclipse Public License v1.0 as published by
+ * the Eclipse Foundation
+ *
+ *   or (per the licensee's choosing)
+ *
+ * under the terms of the GNU Lesser General Public License version 3.0
+ * as published by the Free Software Foundation.
+ */
+package co.paralleluniverse.fibers;
+
+import co.paralleluniverse.strands.SuspendableRunnable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Calls to {@link Fiber}'s yield methods in the positions the instrumenter handles specially: with other values on the
+ * operand stack below the call's arguments, passing on a result, and inside try/catch and try/finally blocks, both at
+ * their end and followed by more code. Used to test both the agent and
+ * {@link co.paralleluniverse.fibers.instrument.InstrumentationTask InstrumentationTask}.
+ *
+ * @author pron
+ */
+public class YieldCalls implements SuspendableRunnable {
+    public static final int PARKS = 11;
+    public static final List<String> EXPECTED = Arrays.asList(
+            "parked true", "stack 1 2 true",
+            "try", "caught", "try end", "no exception",
+            "park 0", "finally 0", "park 1", "finally 1",
+            "throwing", "finally throw", "caught after park", "in catch true",
+            "done");
+    public final List<String> results = new ArrayList<String>();
+
+    @Override
+    public void run() throws SuspendExecution, InterruptedException {
+        final Fiber.PostParkActions noop = new Fiber.PostParkActions() {
+            @Override
+            public void run(Fiber current) {
+            }
+        };
+        // a yield passing on its result, with values (a StringBuilder, or this and some ints) below its arguments
+        results.add("parked " + Fiber.park(this, noop));
+        record("stack", 1, 2, Fiber.park(this, noop));
+
+        // try/catch, with code following the yield and with the yield ending the block
+        try {
+            Fiber.park(this);
+            results.add("try");
+            throw new IllegalStateException();
+        } catch (IllegalStateException e) {
+            results.add("caught");
+        }
+        try {
+            results.add("try end");
+            Fiber.park(); // not yield(), which would resubmit the fiber behind the test's back
+        } catch (IllegalStateException e) {
+            results.add("wrongly caught");
+        }
+        results.add("no exception");
+
+        // try/finally, with code following the yield and with the yield ending the block
+        for (int i = 0; i < 2; i++) {
+            try {
+                Fiber.park(this, 0, TimeUnit.NANOSECONDS);
+                results.add("park " + i);
+                Fiber.park(this);
+            } finally {
+                results.add("finally " + i);
+            }
+        }
+        try {
+            try {
+                Fiber.park(this);
+                results.add("throwing");
+                throw new IllegalStateException();
+            } finally {
+                results.add("finally throw");
+            }
+        } catch (IllegalStateException e) {
+            // a yield inside a handler
+            Fiber.park();
+            results.add("caught after park");
+            results.add("in catch " + Fiber.park(this, noop));
+        }
+        results.add("done");
+    }
+
+    private void record(String label, int a, int b, boolean parked) {
+        results.add(label + " " + a + " " + b + " " + parked);
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * Quasar: lightweight threads and actors for the JVM.
+ * Copyright (C) 2013, Parallel Universe Software Co. All rights reserved.
+ *
+ * This program and the accompanying materials are dual-licensed under
+ * either the terms of the Eclipse Public License v1.0 as published by
+ * the Eclipse Foundation
+ *
+ *   or (per the licensee's choosing)
+ *
+ * under the terms of the GNU Lesser General Public License version 3.0
+ * as published by the Free Software Foundation.
+ */
+package co.paralleluniverse.fibers.instrument;
+
+import co.paralleluniverse.fibers.Fiber;
+import co.paralleluniverse.fibers.SuspendExecution;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ *
+ * @author pron
+ */
+public class InstrumentationCacheTest {
+    private static final String TARGET = "co/paralleluniverse/fibers/instrument/InstrumentationCacheTest$Target";
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+    private byte[] data;
+
+    @Before
+    public void setUp() throws IOException {
+        try (InputStream is = getClass().getClassLoader().getResourceAsStream(TARGET + ".class")) {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            final byte[] buf = new byte[4096];
+            int n;
+            while ((n = is.read(buf)) > 0)
+                out.write(buf, 0, n);
+            data = out.toByteArray();
+        }
+    }
+
+    @Test
+    public void testHit() throws Exception {
+        final MethodDatabase db1 = new MethodDatabase(getClass().getClassLoader());
+        final InstrumentationCache cache1 = new InstrumentationCache(folder.getRoot(), db1, false);
+        final byte[] instrumented = cache1.instrumentClass(db1, TARGET, data);
+        assertThat(cache1.getMisses(), is(1L));
+
+        final MethodDatabase db2 = new MethodDatabase(getClass().getClassLoader());
+        final InstrumentationCache cache2 = new InstrumentationCache(folder.getRoot(), db2, false);
+        assertThat(cache2.instrumentClass(db2, TARGET, data), equalTo(instrumented));
+        assertThat(cache2.getHits(), is(1L));
+        assertThat(cache2.getMisses(), is(0L));
+        assertThat(db2.getClassEntry(TARGET).check("run", "()V"), is(Boolean.TRUE));
+        assertThat(db2.getClassEntry(TARGET).check("compute", "(I)I"), is(Boolean.FALSE));
+    }
+
+    @Test
+    public void testOptionsAreKeyed() throws Exception {
+        final MethodDatabase db1 = new MethodDatabase(getClass().getClassLoader());
+        new InstrumentationCache(folder.getRoot(), db1, false).instrumentClass(db1, TARGET, data);
+
+        final MethodDatabase db2 = new MethodDatabase(getClass().getClassLoader());
+        db2.setAllowBlocking(true);
+        final InstrumentationCache cache2 = new InstrumentationCache(folder.getRoot(), db2, false);
+        cache2.instrumentClass(db2, TARGET, data);
+        assertThat(cache2.getMisses(), is(1L));
+    }
+
+    @Test
+    public void testChangedDependency() throws Exception {
+        final MethodDatabase db1 = new MethodDatabase(getClass().getClassLoader());
+        final byte[] instrumented = new InstrumentationCache(folder.getRoot(), db1, false).instrumentClass(db1, TARGET, data);
+
+        // a database in which Fiber.park is no longer suspendable, as if the Fiber class has changed
+        final MethodDatabase db2 = new MethodDatabase(getClass().getClassLoader()) {
+            @Override
+            public boolean isMethodSuspendable(String className, String methodName, String methodDesc, boolean searchSuperClass) {
+                final boolean suspendable = super.isMethodSuspendable(className, methodName, methodDesc, searchSuperClass);
+                return className.equals("co/paralleluniverse/fibers/Fiber") && methodName.equals("park") ? false : suspendable;
+            }
+        };
+        final InstrumentationCache cache2 = new InstrumentationCache(folder.getRoot(), db2, false);
+        assertThat(cache2.instrumentClass(db2, TARGET, data), not(equalTo(instrumented)));
+        assertThat(cache2.getHits(), is(0L));
+        assertThat(cache2.getMisses(), is(1L));
+    }
+
+    @Test
+    public void testNestedRecording() throws Exception {
+        final MethodDatabase db = new MethodDatabase(getClass().getClassLoader());
+        final InstrumentationCache.Dependencies outer = new InstrumentationCache.Dependencies();
+        final InstrumentationCache.Dependencies inner = new InstrumentationCache.Dependencies();
+
+        final InstrumentationCache.Dependencies prevOuter = db.startRecording(outer);
+        assertThat(prevOuter, is(nullValue()));
+        final InstrumentationCache.Dependencies prevInner = db.startRecording(inner);
+        assertThat(prevInner, is(sameInstance(outer)));
+        db.isMethodSuspendable(TARGET, "run", "()V", false);
+        db.stopRecording(prevInner);
+        db.isMethodSuspendable(TARGET, "compute", "(I)I", false);
+        db.stopRecording(prevOuter);
+        db.isMethodSuspendable(TARGET, "toString", "()Ljava/lang/String;", false);
+
+        assertThat(queries(inner), is(1));
+        assertThat(queries(outer), is(1));
+    }
+
+    private static int queries(InstrumentationCache.Dependencies deps) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        deps.write(new DataOutputStream(bytes));
+        return new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())).readInt();
+    }
+
+    static class Target {
+        void run() throws SuspendExecution {
+            Fiber.park();
+            compute(1);
+        }
+
+        int compute(int x) {
+            return x + 1;
+        }
+    }
+}
@@ -0,0 +1,199 @@
+/*
+ * Quasar: lightweight threads and actors for the JVM.
+ * Copyright (C) 2013, Parallel Universe Software Co. All rights reserved.
+ *
+ * This program and the accompanying materials are dual-licensed under
+ * either the terms of the Eclipse Public License v1.0 as published by
+ * the Eclipse Foundation
+ *
+ *   or (per the licensee's choosing)
+ *
+ * under the terms of the GNU Lesser General Public License version 3.0
+ * as published by the Free Software Foundation.
+ */
+package co.paralleluniverse.fibers.instrument;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.util.Arrays;
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+import org.apache.tools.ant.Project;
+import org.apache.tools.ant.types.FileSet;
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests the incremental mode of {@link InstrumentationTask}, which instruments into a destination directory and keeps
+ * a state file between runs.
+ *
+ * @author pron
+ */
+public class InstrumentationTaskTest {
+    private static final long OLD = 1000000000000L; // a modification time no run could have written
+    private static final String CALLER = "public class Caller { public void run() throws co.paralleluniverse.fibers.SuspendExecution { Callee.foo(); } }";
+    private static final String SUSPENDABLE_CALLEE = "public class Callee { public static void foo() throws co.paralleluniverse.fibers.SuspendExecution { } }";
+    private static final String PLAIN_CALLEE = "public class Callee { public static void foo() { System.out.println(); } }";
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+    private File classes;
+    private File dest;
+    private File state;
+
+    @Before
+    public void setUp() throws IOException {
+        classes = folder.newFolder("classes");
+        dest = folder.newFolder("dest");
+        state = new File(folder.getRoot(), "state");
+        compile("Caller", CALLER, "Callee", SUSPENDABLE_CALLEE);
+    }
+
+    @Test
+    public void testUnchangedRun() throws Exception {
+        run();
+        final File caller = new File(dest, "Caller.class");
+        final File callee = new File(dest, "Callee.class");
+        final byte[] instrumented = Files.readAllBytes(caller.toPath());
+        assertFalse(Arrays.equals(instrumented, Files.readAllBytes(new File(classes, "Caller.class").toPath())));
+        assertTrue(caller.setLastModified(OLD));
+        assertTrue(callee.setLastModified(OLD));
+
+        run();
+        assertThat(caller.lastModified(), is(OLD));
+        assertThat(callee.lastModified(), is(OLD));
+        assertTrue(Arrays.equals(Files.readAllBytes(caller.toPath()), instrumented));
+    }
+
+    @Test
+    public void testRecompiledIdenticalClasses() throws Exception {
+        run();
+        final File caller = new File(dest, "Caller.class");
+        final File callee = new File(dest, "Callee.class");
+        assertTrue(caller.setLastModified(OLD));
+        assertTrue(callee.setLastModified(OLD));
+
+        final long modified = new File(classes, "Caller.class").lastModified();
+        compile("Caller", CALLER, "Callee", SUSPENDABLE_CALLEE); // as a build tool does when any source changes
+        assertTrue(new File(classes, "Caller.class").setLastModified(modified + 10000));
+        assertTrue(new File(classes, "Callee.class").setLastModified(modified + 10000));
+
+        run();
+        assertThat(caller.lastModified(), is(OLD));
+        assertThat(callee.lastModified(), is(OLD));
+    }
+
+    @Test
+    public void testCalleeSuspendabilityChanged() throws Exception {
+        run();
+        final File caller = new File(dest, "Caller.class");
+        final byte[] instrumented = Files.readAllBytes(caller.toPath());
+        assertTrue(caller.setLastModified(OLD));
+
+        final File callee = new File(classes, "Callee.class");
+        final long calleeModified = callee.lastModified();
+        compile("Callee", PLAIN_CALLEE); // Caller itself is left untouched
+        assertTrue(callee.setLastModified(calleeModified + 10000));
+
+        run();
+        assertThat(caller.lastModified(), is(not(OLD))); // re-instrumented
+        assertFalse(Arrays.equals(Files.readAllBytes(caller.toPath()), instrumented));
+        assertTrue(Arrays.equals(Files.readAllBytes(new File(dest, "Callee.class").toPath()), Files.readAllBytes(callee.toPath())));
+    }
+
+    @Test
+    public void testDeletedClass() throws Exception {
+        run();
+        assertTrue(new File(dest, "Caller.class").isFile());
+
+        assertTrue(new File(classes, "Caller.class").delete());
+        run();
+        assertFalse(new File(dest, "Caller.class").exists());
+        assertTrue(new File(dest, "Callee.class").isFile());
+    }
+
+    @Test
+    public void testCalleeSuspendabilityChangedInPlace() throws Exception {
+        run(null, true);
+        compile("Callee", PLAIN_CALLEE); // Caller, instrumented in place, is left untouched
+
+        for (int i = 0; i < 2; i++) { // the failure isn't forgotten by the next run
+            final String output = run(null, false);
+            assertThat(output, containsString("must be recompiled"));
+            assertThat(output, containsString("Caller.class"));
+        }
+
+        compile("Caller", CALLER);
+        run(null, true);
+    }
+
+    private void run() throws Exception {
+        run(dest, true);
+    }
+
+    /**
+     * Runs the task in a separate JVM, as the agent this test runs with makes the method database skip instrumentation.
+     * The classes are instrumented into {@code dest}, or in place if it's {@code null}.
+     *
+     * @return the task's output
+     */
+    private String run(File dest, boolean succeed) throws Exception {
+        final Process p = new ProcessBuilder(new File(System.getProperty("java.home"), "bin/java").getPath(),
+                "-cp", System.getProperty("java.class.path"),
+                getClass().getName(), classes.getPath(), dest != null ? dest.getPath() : "-", state.getPath())
+                .redirectErrorStream(true).start();
+        final String output = new String(readAll(p.getInputStream()));
+        final int exitCode = p.waitFor();
+        assertThat(output, exitCode == 0, is(succeed));
+        return output;
+    }
+
+    public static void main(String[] args) {
+        final Project project = new Project();
+        final InstrumentationTask task = new InstrumentationTask();
+        task.setProject(project);
+        final FileSet fs = new FileSet();
+        fs.setProject(project);
+        fs.setDir(new File(args[0]));
+        task.addFileSet(fs);
+        if (!args[1].equals("-"))
+            task.setDestDir(new File(args[1]));
+        task.setStateFile(new File(args[2]));
+        task.execute();
+    }
+
+    private void compile(String... namesAndSources) throws IOException {
+        final File sources = folder.newFolder();
+        final String[] args = new String[namesAndSources.length / 2 + 4];
+        args[0] = "-d";
+        args[1] = classes.getPath();
+        args[2] = "-cp";
+        args[3] = classes.getPath() + File.pathSeparator + System.getProperty("java.class.path");
+        for (int i = 0; i < namesAndSources.length; i += 2) {
+            final File source = new File(sources, namesAndSources[i] + ".java");
+            try (Writer out = new FileWriter(source)) {
+                out.write(namesAndSources[i + 1]);
+            }
+            args[4 + i / 2] = source.getPath();
+        }
+        final JavaCompiler javac = ToolProvider.getSystemJavaCompiler();
+        assertThat(javac.run(null, null, null, args), is(0));
+    }
+
+    private static byte[] readAll(InputStream is) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final byte[] buf = new byte[4096];
+        int n;
+        while ((n = is.read(buf)) > 0)
+            out.write(buf, 0, n);
+        return out.toByteArray();
+    }
+}
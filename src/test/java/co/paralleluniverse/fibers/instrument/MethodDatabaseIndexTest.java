@@ -0,0 +1,77 @@
+/*
+ * Quasar: lightweight threads and actors for the JVM.
+ * Copyright (C) 2013, Parallel Universe Software Co. All rights reserved.
+ *
+ * This program and the accompanying materials are dual-licensed under
+ * either the terms of the Eclipse Public License v1.0 as published by
+ * the Eclipse Foundation
+ *
+ *   or (per the licensee's choosing)
+ *
+ * under the terms of the GNU Lesser General Public License version 3.0
+ * as published by the Free Software Foundation.
+ */
+package co.paralleluniverse.fibers.instrument;
+
+import co.paralleluniverse.fibers.instrument.MethodDatabase.ClassEntry;
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ *
+ * @author pron
+ */
+public class MethodDatabaseIndexTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testWriteAndLoad() throws Exception {
+        final Map<String, ClassEntry> entries = new HashMap<String, ClassEntry>();
+        for (int i = 0; i < 100; i++) {
+            final ClassEntry entry = new ClassEntry(i == 0 ? "java/lang/Object" : "foo/C" + (i - 1));
+            entry.setInterfaces(i % 2 == 0 ? new String[]{"foo/I"} : null);
+            entry.set("m" + i, "()V", true);
+            entry.set("n", "(I)I", false);
+            entries.put("foo/C" + i, entry);
+        }
+        final File file = folder.newFile("suspendables.idx");
+        MethodDatabaseIndex.write(file, entries);
+
+        final MethodDatabaseIndex index = MethodDatabaseIndex.load(file);
+        assertThat(index.size(), is(100));
+        for (Map.Entry<String, ClassEntry> e : entries.entrySet()) {
+            final ClassEntry entry = index.get(e.getKey());
+            assertThat(entry, equalTo(e.getValue()));
+            assertThat(entry.getInterfaces(), equalTo(e.getValue().getInterfaces()));
+        }
+        assertThat(index.get("foo/D"), is(nullValue()));
+    }
+
+    @Test
+    public void testLookupsUseIndex() throws Exception {
+        final ClassEntry base = new ClassEntry("java/lang/Object");
+        base.set("run", "()V", true);
+        final ClassEntry derived = new ClassEntry("foo/Base");
+        derived.set("compute", "()I", false);
+        final Map<String, ClassEntry> entries = new HashMap<String, ClassEntry>();
+        entries.put("foo/Base", base);
+        entries.put("foo/Derived", derived);
+        final File file = folder.newFile("suspendables.idx");
+        MethodDatabaseIndex.write(file, entries);
+
+        // the classes don't exist, so the database can only learn about them from the index
+        final MethodDatabase db = new MethodDatabase(new ClassLoader(null) {
+        });
+        db.setIndex(MethodDatabaseIndex.load(file));
+        assertTrue(db.isMethodSuspendable("foo/Derived", "run", "()V", true));
+        assertFalse(db.isMethodSuspendable("foo/Derived", "compute", "()I", true));
+        assertThat(db.getCommonSuperClass("foo/Derived", "foo/Base"), is("foo/Base"));
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * Quasar: lightweight threads and actors for the JVM.
+ * Copyright (C) 2013, Parallel Universe Software Co. All rights reserved.
+ *
+ * This program and the accompanying materials are dual-licensed under
+ * either the terms of the Eclipse Public License v1.0 as published by
+ * the Eclipse Foundation
+ *
+ *   or (per the licensee's choosing)
+ *
+ * under the terms of the GNU Lesser General Public License version 3.0
+ * as published by the Free Software Foundation.
+ */
+package co.paralleluniverse.fibers.instrument;
+
+import co.paralleluniverse.fibers.Fiber;
+import co.paralleluniverse.fibers.TestsHelper;
+import co.paralleluniverse.fibers.YieldCalls;
+import co.paralleluniverse.strands.SuspendableRunnable;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.List;
+import org.apache.tools.ant.Project;
+import org.apache.tools.ant.types.FileSet;
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Runs the calls to yield methods in {@link YieldCalls} instrumented by {@link InstrumentationTask} rather than by the
+ * agent ({@link co.paralleluniverse.fibers.YieldArgumentsTest} runs them under the agent).
+ *
+ * @author pron
+ */
+public class YieldInstrumentationTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testYieldCallsInstrumentedByTask() throws Exception {
+        final File classes = folder.newFolder("classes");
+        final String pkg = YieldCalls.class.getPackage().getName().replace('.', '/');
+        final File source = new File(YieldCalls.class.getResource("YieldCalls.class").toURI()).getParentFile();
+        final File target = new File(classes, pkg);
+        assertTrue(target.mkdirs());
+        for (File file : source.listFiles()) {
+            if (file.getName().startsWith("YieldCalls"))
+                Files.copy(file.toPath(), new File(target, file.getName()).toPath());
+        }
+
+        final String output = run(classes);
+        assertThat(output, containsString("parks: " + YieldCalls.PARKS));
+        assertThat(output, containsString("results: " + YieldCalls.EXPECTED));
+    }
+
+    /**
+     * Instruments the classes in place and runs them, in a separate JVM without the agent this test runs with.
+     *
+     * @return the output
+     */
+    private String run(File classes) throws Exception {
+        final Process p = new ProcessBuilder(new File(System.getProperty("java.home"), "bin/java").getPath(),
+                "-cp", System.getProperty("java.class.path"),
+                getClass().getName(), classes.getPath())
+                .redirectErrorStream(true).start();
+        final String output = new String(readAll(p.getInputStream()));
+        assertThat(output, p.waitFor(), is(0));
+        return output;
+    }
+
+    public static void main(String[] args) throws Exception {
+        final File classes = new File(args[0]);
+        final Project project = new Project();
+        final InstrumentationTask task = new InstrumentationTask();
+        task.setProject(project);
+        final FileSet fs = new FileSet();
+        fs.setProject(project);
+        fs.setDir(classes);
+        task.addFileSet(fs);
+        task.execute();
+
+        final ClassLoader cl = new InstrumentedClassLoader(classes, YieldInstrumentationTest.class.getClassLoader());
+        final Class<?> clazz = cl.loadClass(YieldCalls.class.getName());
+        final Object calls = clazz.newInstance();
+        final Fiber fiber = new Fiber(null, null, (SuspendableRunnable) calls);
+        int parks = 0;
+        while (!TestsHelper.exec(fiber) && parks < 100) // uninstrumented calls would keep running from the start
+            parks++;
+        System.out.println("parks: " + parks);
+        System.out.println("results: " + (List<?>) clazz.getField("results").get(calls));
+    }
+
+    /**
+     * Loads the instrumented classes in a directory in preference to the uninstrumented ones on the class path.
+     */
+    private static class InstrumentedClassLoader extends ClassLoader {
+        private final File dir;
+
+        InstrumentedClassLoader(File dir, ClassLoader parent) {
+            super(parent);
+            this.dir = dir;
+        }
+
+        @Override
+        protected synchronized Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+            final File file = new File(dir, name.replace('.', '/') + ".class");
+            if (!file.isFile())
+                return super.loadClass(name, resolve);
+            Class<?> c = findLoadedClass(name);
+            if (c == null) {
+                try {
+                    final byte[] bytes = Files.readAllBytes(file.toPath());
+                    c = defineClass(name, bytes, 0, bytes.length);
+                } catch (IOException e) {
+                    throw new ClassNotFoundException(name, e);
+                }
+            }
+            if (resolve)
+                resolveClass(c);
+            return c;
+        }
+    }
+
+    private static byte[] readAll(InputStream is) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final byte[] buf = new byte[4096];
+        int n;
+        while ((n = is.read(buf)) > 0)
+            out.write(buf, 0, n);
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,336 @@
+/*
+ * Quasar: lightweight threads and actors for the JVM.
+ * Copyright (C) 2013, Parallel Universe Software Co. All rights reserved.
+ *
+ * This program and the accompanying materials are dual-licensed under
+ * either the terms of the Eclipse Public License v1.0 as published by
+ * the Eclipse Foundation
+ *
+ *   or (per the licensee's choosing)
+ *
+ * under the terms of the GNU Lesser General Public License version 3.0
+ * as published by the Free Software Foundation.
+ */
+package co.paralleluniverse.strands.channels;
+
+import co.paralleluniverse.fibers.Fiber;
+import co.paralleluniverse.fibers.SuspendExecution;
+import co.paralleluniverse.strands.SuspendableRunnable;
+import co.paralleluniverse.strands.queues.QueueCapacityExceededException;
+import co.paralleluniverse.strands.queues.SingleConsumerArrayObjectQueue;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import jsr166e.ForkJoinPool;
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ *
+ * @author pron
+ */
+public class ChannelBatchTest {
+    private final ForkJoinPool fjPool;
+
+    public ChannelBatchTest() {
+        fjPool = new ForkJoinPool(4, ForkJoinPool.defaultForkJoinWorkerThreadFactory, null, true);
+    }
+
+    /**
+     * Counts the times the owner is signalled.
+     */
+    private static class SignalCountingChannel extends Channel<Integer> {
+        final AtomicInteger signals = new AtomicInteger();
+
+        SignalCountingChannel(int mailboxSize, OverflowPolicy overflowPolicy) {
+            super(new SingleConsumerArrayObjectQueue<Integer>(mailboxSize), overflowPolicy);
+        }
+
+        @Override
+        protected void signal() {
+            signals.incrementAndGet();
+            super.signal();
+        }
+    }
+
+    private Fiber receive(SuspendableRunnable receiver) {
+        return new Fiber(fjPool, receiver).start();
+    }
+
+    private static void awaitWaiting(Fiber... fibers) throws InterruptedException {
+        for (Fiber fiber : fibers) {
+            while (fiber.getState() != Fiber.State.WAITING)
+                Thread.sleep(1);
+        }
+    }
+
+    @Test
+    public void testReceiveBatch() throws Exception {
+        final ObjectChannel<Integer> ch = ObjectChannel.create(8);
+        for (int i = 0; i < 6; i++)
+            ch.send(i);
+
+        receive(new SuspendableRunnable() {
+            @Override
+            public void run() throws SuspendExecution, InterruptedException {
+                final Integer[] buf = new Integer[4];
+                assertThat(ch.receive(buf), is(4));
+                assertThat(Arrays.asList(buf), equalTo(Arrays.asList(0, 1, 2, 3)));
+                assertThat(ch.receive(buf), is(2));
+                assertThat(Arrays.asList(buf[0], buf[1]), equalTo(Arrays.asList(4, 5)));
+            }
+        }).join();
+        assertThat(ch.getQueueLength(), is(0));
+    }
+
+    @Test
+    public void testReceiveBatchBlocksUntilMessageAvailable() throws Exception {
+        final ObjectChannel<Integer> ch = ObjectChannel.create(8);
+        final Integer[] buf = new Integer[4];
+        final AtomicInteger received = new AtomicInteger(-1);
+        final Fiber receiver = receive(new SuspendableRunnable() {
+            @Override
+            public void run() throws SuspendExecution, InterruptedException {
+                received.set(ch.receive(buf));
+            }
+        });
+        awaitWaiting(receiver);
+        assertThat(received.get(), is(-1));
+
+        ch.send(7);
+        receiver.join(1, TimeUnit.SECONDS);
+        assertThat(received.get(), is(1));
+        assertThat(buf[0], is(7));
+    }
+
+    @Test
+    public void testReceiveBatchTimeout() throws Exception {
+        final ObjectChannel<Integer> ch = ObjectChannel.create(8);
+        final Integer[] buf = new Integer[4];
+        final AtomicInteger timedOut = new AtomicInteger(-1);
+        final AtomicInteger received = new AtomicInteger(-1);
+        final Fiber receiver = receive(new SuspendableRunnable() {
+            @Override
+            public void run() throws SuspendExecution, InterruptedException {
+                timedOut.set(ch.receive(buf, 10, TimeUnit.MILLISECONDS));
+                received.set(ch.receive(buf, 1, TimeUnit.SECONDS));
+            }
+        });
+        while (timedOut.get() < 0)
+            Thread.sleep(1);
+        assertThat(timedOut.get(), is(0));
+        assertThat(buf[0], is(nullValue()));
+
+        ch.send(1);
+        receiver.join(1, TimeUnit.SECONDS);
+        assertThat(received.get(), is(1));
+        assertThat(buf[0], is(1));
+    }
+
+    @Test
+    public void testDrainTo() throws Exception {
+        final ObjectChannel<Integer> ch = ObjectChannel.create(8);
+        for (int i = 0; i < 5; i++)
+            ch.send(i);
+
+        final List<Integer> received = new ArrayList<Integer>();
+        assertThat(ch.drainTo(received, 3), is(3));
+        assertThat(received, equalTo(Arrays.asList(0, 1, 2)));
+        assertThat(ch.drainTo(received, 10), is(2));
+        assertThat(received, equalTo(Arrays.asList(0, 1, 2, 3, 4)));
+        assertThat(ch.drainTo(received, 10), is(0)); // doesn't block
+    }
+
+    /**
+     * A batch frees all of its slots at once, so a single receive must let every sender waiting for one of them through.
+     */
+    @Test
+    public void testReceiveBatchWakesWaitingSenders() throws Exception {
+        final ObjectChannel<Integer> ch = ObjectChannel.create(4);
+        for (int i = 0; i < 4; i++)
+            ch.send(i);
+        final Fiber[] senders = new Fiber[4];
+        for (int i = 0; i < senders.length; i++) {
+            final int m = 4 + i;
+            senders[i] = new Fiber(fjPool, new SuspendableRunnable() {
+                @Override
+                public void run() throws SuspendExecution, InterruptedException {
+                    ch.send(m, 0, null);
+                }
+            }).start();
+        }
+        awaitWaiting(senders);
+
+        final Integer[] buf = new Integer[4];
+        receive(new SuspendableRunnable() {
+            @Override
+            public void run() throws SuspendExecution, InterruptedException {
+                assertThat(ch.receive(buf), is(4));
+            }
+        }).join();
+        assertThat(Arrays.asList(buf), equalTo(Arrays.asList(0, 1, 2, 3)));
+        for (Fiber sender : senders)
+            sender.join(1, TimeUnit.SECONDS);
+        assertThat(ch.getQueueLength(), is(4));
+        final List<Integer> rest = new ArrayList<Integer>();
+        assertThat(ch.drainTo(rest, 4), is(4));
+        assertThat(new HashSet<Integer>(rest), equalTo(new HashSet<Integer>(Arrays.asList(4, 5, 6, 7))));
+    }
+
+    @Test
+    public void testReceiveInts() throws Exception {
+        final IntChannel ch = IntChannel.create(8);
+        for (int i = 0; i < 6; i++)
+            ch.send(i);
+
+        receive(new SuspendableRunnable() {
+            @Override
+            public void run() throws SuspendExecution, InterruptedException {
+                final int[] buf = new int[4];
+                assertThat(ch.receiveInts(buf), is(4));
+                assertArrayEquals(new int[]{0, 1, 2, 3}, buf);
+                assertThat(ch.receiveInts(buf, 10, TimeUnit.MILLISECONDS), is(2));
+                assertArrayEquals(new int[]{4, 5}, Arrays.copyOf(buf, 2));
+                assertThat(ch.receiveInts(buf, 10, TimeUnit.MILLISECONDS), is(0));
+            }
+        }).join();
+        assertThat(ch.getQueueLength(), is(0));
+    }
+
+    @Test
+    public void testReceiveIntsBlocksUntilMessageAvailable() throws Exception {
+        final IntChannel ch = IntChannel.create(8);
+        final int[] buf = new int[4];
+        final AtomicInteger received = new AtomicInteger(-1);
+        final Fiber receiver = receive(new SuspendableRunnable() {
+            @Override
+            public void run() throws SuspendExecution, InterruptedException {
+                received.set(ch.receiveInts(buf));
+            }
+        });
+        awaitWaiting(receiver);
+        assertThat(received.get(), is(-1));
+
+        ch.send(7);
+        receiver.join(1, TimeUnit.SECONDS);
+        assertThat(received.get(), is(1));
+        assertThat(buf[0], is(7));
+    }
+
+    @Test
+    public void testReceiveLongs() throws Exception {
+        final LongChannel ch = LongChannel.create(8);
+        for (long i = 0; i < 6; i++)
+            ch.send(i << 32);
+
+        receive(new SuspendableRunnable() {
+            @Override
+            public void run() throws SuspendExecution, InterruptedException {
+                final long[] buf = new long[4];
+                assertThat(ch.receiveLongs(buf), is(4));
+                assertArrayEquals(new long[]{0L, 1L << 32, 2L << 32, 3L << 32}, buf);
+                assertThat(ch.receiveLongs(buf, 10, TimeUnit.MILLISECONDS), is(2));
+                assertArrayEquals(new long[]{4L << 32, 5L << 32}, Arrays.copyOf(buf, 2));
+                assertThat(ch.receiveLongs(buf, 10, TimeUnit.MILLISECONDS), is(0));
+            }
+        }).join();
+        assertThat(ch.getQueueLength(), is(0));
+    }
+
+    @Test
+    public void testReceiveLongsBlocksUntilMessageAvailable() throws Exception {
+        final LongChannel ch = LongChannel.create(8);
+        final long[] buf = new long[4];
+        final AtomicInteger received = new AtomicInteger(-1);
+        final Fiber receiver = receive(new SuspendableRunnable() {
+            @Override
+            public void run() throws SuspendExecution, InterruptedException {
+                received.set(ch.receiveLongs(buf));
+            }
+        });
+        awaitWaiting(receiver);
+        assertThat(received.get(), is(-1));
+
+        ch.send(7L << 32);
+        receiver.join(1, TimeUnit.SECONDS);
+        assertThat(received.get(), is(1));
+        assertThat(buf[0], is(7L << 32));
+    }
+
+    @Test
+    public void testSendBatchSignalsOwnerOnce() throws Exception {
+        final SignalCountingChannel ch = new SignalCountingChannel(8, OverflowPolicy.THROW);
+        final Integer[] buf = new Integer[8];
+        final AtomicInteger received = new AtomicInteger(-1);
+        final Fiber receiver = receive(new SuspendableRunnable() {
+            @Override
+            public void run() throws SuspendExecution, InterruptedException {
+                received.set(ch.receive(buf));
+            }
+        });
+        awaitWaiting(receiver);
+
+        ch.sendBatch(new Integer[]{0, 1, 2, 3, 4});
+        receiver.join(1, TimeUnit.SECONDS);
+        assertThat(ch.signals.get(), is(1));
+        assertThat(received.get(), is(5)); // woken once, after the whole batch is in the queue
+        assertThat(Arrays.asList(buf).subList(0, 5), equalTo(Arrays.asList(0, 1, 2, 3, 4)));
+    }
+
+    @Test
+    public void testSendBatchThrowsAfterPartialSend() {
+        final SignalCountingChannel ch = new SignalCountingChannel(4, OverflowPolicy.THROW);
+        ch.send(0);
+        try {
+            ch.sendBatch(new Integer[]{1, 2, 3, 4, 5});
+            fail();
+        } catch (QueueCapacityExceededException e) {
+        }
+        assertThat(ch.signals.get(), is(2)); // the leading messages are still signalled
+        assertThat(ch.getOverflowCount(), is(1L));
+
+        final List<Integer> received = new ArrayList<Integer>();
+        assertThat(ch.drainTo(received, 10), is(4));
+        assertThat(received, equalTo(Arrays.asList(0, 1, 2, 3)));
+    }
+
+    @Test
+    public void testSendBatchSpill() {
+        final SignalCountingChannel ch = new SignalCountingChannel(4, OverflowPolicy.SPILL);
+        ch.sendBatch(new Integer[]{0, 1, 2, 3, 4, 5, 6, 7, 8, 9});
+        assertThat(ch.signals.get(), is(1));
+        assertThat(ch.getQueueLength(), is(10));
+        assertThat(ch.getSpilledCount(), is(6L));
+        for (int i = 0; i < 10; i++)
+            assertThat(ch.tryReceive(), is(i));
+        assertThat(ch.tryReceive(), is(nullValue()));
+        assertThat(ch.getDroppedCount(), is(0L));
+    }
+
+    @Test
+    public void testSendBatchDropNewest() {
+        final SignalCountingChannel ch = new SignalCountingChannel(4, OverflowPolicy.DROP_NEWEST);
+        ch.sendBatch(new Integer[]{0, 1, 2, 3, 4, 5});
+        assertThat(ch.signals.get(), is(1));
+        assertThat(ch.getDroppedCount(), is(2L));
+        for (int i = 0; i < 4; i++)
+            assertThat(ch.tryReceive(), is(i));
+        assertThat(ch.tryReceive(), is(nullValue()));
+    }
+
+    @Test
+    public void testSendBatchDropOldest() {
+        final SignalCountingChannel ch = new SignalCountingChannel(4, OverflowPolicy.DROP_OLDEST);
+        ch.sendBatch(new Integer[]{0, 1, 2, 3, 4, 5, 6});
+        assertThat(ch.signals.get(), is(1));
+        assertThat(ch.getQueueLength(), is(4));
+        for (int i = 3; i < 7; i++)
+            assertThat(ch.tryReceive(), is(i));
+        assertThat(ch.tryReceive(), is(nullValue()));
+        assertThat(ch.getDroppedCount(), is(3L));
+    }
+}
@@ -0,0 +1,197 @@
+/*
+ * Quasar: lightweight threads and actors for the JVM.
+ * Copyright (C) 2013, Parallel Universe Software Co. All rights reserved.
+ *
+ * This program and the accompanying materials are dual-licensed under
+ * either the terms of the Eclipse Public License v1.0 as published by
+ * the Eclipse Foundation
+ *
+ *   or (per the licensee's choosing)
+ *
+ * under the terms of the GNU Lesser General Public License version 3.0
+ * as published by the Free Software Foundation.
+ */
+package co.paralleluniverse.strands.channels;
+
+import co.paralleluniverse.fibers.Fiber;
+import co.paralleluniverse.fibers.SuspendExecution;
+import co.paralleluniverse.strands.SuspendableRunnable;
+import co.paralleluniverse.strands.queues.QueueCapacityExceededException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import jsr166e.ForkJoinPool;
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ *
+ * @author pron
+ */
+public class ChannelOverflowTest {
+    private final ForkJoinPool fjPool;
+
+    public ChannelOverflowTest() {
+        fjPool = new ForkJoinPool(4, ForkJoinPool.defaultForkJoinWorkerThreadFactory, null, true);
+    }
+
+    @Test
+    public void testThrow() {
+        final ObjectChannel<Integer> ch = ObjectChannel.create(4);
+        for (int i = 0; i < 4; i++)
+            ch.send(i);
+        try {
+            ch.send(4);
+            fail();
+        } catch (QueueCapacityExceededException e) {
+        }
+        assertThat(ch.getOverflowCount(), is(1L));
+        assertThat(ch.getQueueLength(), is(4));
+    }
+
+    @Test
+    public void testDropNewest() {
+        final ObjectChannel<Integer> ch = ObjectChannel.create(4, OverflowPolicy.DROP_NEWEST);
+        for (int i = 0; i < 6; i++)
+            ch.send(i);
+        assertThat(ch.getDroppedCount(), is(2L));
+        for (int i = 0; i < 4; i++)
+            assertThat(ch.tryReceive(), is(i));
+        assertThat(ch.tryReceive(), is(nullValue()));
+    }
+
+    @Test
+    public void testDropOldest() {
+        final ObjectChannel<Integer> ch = ObjectChannel.create(4, OverflowPolicy.DROP_OLDEST);
+        for (int i = 0; i < 7; i++)
+            ch.send(i);
+        assertThat(ch.getQueueLength(), is(4));
+        for (int i = 3; i < 7; i++)
+            assertThat(ch.tryReceive(), is(i));
+        assertThat(ch.tryReceive(), is(nullValue()));
+        assertThat(ch.getDroppedCount(), is(3L));
+    }
+
+    @Test
+    public void testDropOldestIsBounded() {
+        final ObjectChannel<Integer> ch = ObjectChannel.create(4, OverflowPolicy.DROP_OLDEST);
+        for (int i = 0; i < 10000; i++) {
+            ch.send(i);
+            assertTrue(ch.getQueueLength() <= 4);
+        }
+        assertThat(ch.getSpilledCount(), is(9996L));
+        for (int i = 9996; i < 10000; i++)
+            assertThat(ch.tryReceive(), is(i));
+        assertThat(ch.tryReceive(), is(nullValue()));
+        assertThat(ch.getDroppedCount(), is(9996L));
+    }
+
+    @Test
+    public void testSpill() {
+        final ObjectChannel<Integer> ch = ObjectChannel.create(4, OverflowPolicy.SPILL);
+        for (int i = 0; i < 10; i++)
+            ch.send(i);
+        assertThat(ch.getQueueLength(), is(10));
+        assertThat(ch.getSpilledCount(), is(6L));
+        for (int i = 0; i < 5; i++)
+            assertThat(ch.tryReceive(), is(i));
+        ch.send(10); // must not overtake the messages that have spilled
+        for (int i = 5; i < 11; i++)
+            assertThat(ch.tryReceive(), is(i));
+        assertThat(ch.tryReceive(), is(nullValue()));
+        assertThat(ch.getDroppedCount(), is(0L));
+    }
+
+    @Test
+    public void testDrainWakesAllSenders() throws Exception {
+        final ObjectChannel<Integer> ch = ObjectChannel.create(4);
+        for (int i = 0; i < 4; i++)
+            ch.send(i);
+        final Fiber[] senders = new Fiber[3];
+        for (int i = 0; i < senders.length; i++) {
+            final int m = 4 + i;
+            senders[i] = new Fiber(fjPool, new SuspendableRunnable() {
+                @Override
+                public void run() throws SuspendExecution, InterruptedException {
+                    ch.send(m, 0, null);
+                }
+            }).start();
+        }
+        Thread.sleep(50);
+        assertThat(ch.getQueueLength(), is(4));
+
+        final List<Integer> received = new ArrayList<Integer>();
+        assertThat(ch.drainTo(received, 4), is(4));
+        for (Fiber sender : senders)
+            sender.join(1, TimeUnit.SECONDS);
+        assertThat(ch.getQueueLength(), is(3));
+    }
+
+    @Test
+    public void testSendWaitsForRoom() throws Exception {
+        final ObjectChannel<Integer> ch = ObjectChannel.create(2);
+        ch.send(0);
+        ch.send(1);
+        final AtomicBoolean sent = new AtomicBoolean();
+        Fiber fiber = new Fiber(fjPool, new SuspendableRunnable() {
+            @Override
+            public void run() throws SuspendExecution, InterruptedException {
+                assertFalse(ch.send(2, 10, TimeUnit.MILLISECONDS));
+                sent.set(ch.send(2, 0, null));
+            }
+        }).start();
+        Thread.sleep(50);
+        assertThat(sent.get(), is(false));
+
+        assertThat(ch.tryReceive(), is(0));
+        fiber.join(1, TimeUnit.SECONDS);
+        assertThat(sent.get(), is(true));
+        assertThat(ch.tryReceive(), is(1));
+        assertThat(ch.tryReceive(), is(2));
+        assertThat(ch.getWaitingSendCount(), is(2L));
+    }
+
+    @Test
+    public void testWaitingSendersAreWokenUnderContention() throws Exception {
+        final int count = 20000;
+        final ObjectChannel<Integer> ch = ObjectChannel.create(1);
+        final Fiber receiver = new Fiber(fjPool, new SuspendableRunnable() {
+            @Override
+            public void run() throws SuspendExecution, InterruptedException {
+                final Integer[] buf = new Integer[4];
+                final int[] next = new int[2];
+                for (int received = 0; received < 2 * count;) {
+                    // alternate single receives with batch receives, which free the whole queue with a single consumed(n)
+                    final int n;
+                    if (received % 2 == 0) {
+                        buf[0] = ch.receive();
+                        n = 1;
+                    } else
+                        n = ch.receive(buf);
+                    for (int i = 0; i < n; i++) {
+                        final int m = buf[i];
+                        assertThat(m % count, is(next[m / count]++)); // each sender's messages in order
+                    }
+                    received += n;
+                }
+            }
+        }).start();
+        final Fiber[] senders = new Fiber[2];
+        for (int i = 0; i < senders.length; i++) {
+            final int base = i * count;
+            senders[i] = new Fiber(fjPool, new SuspendableRunnable() {
+                @Override
+                public void run() throws SuspendExecution, InterruptedException {
+                    for (int j = 0; j < count; j++)
+                        ch.send(base + j, 0, null); // untimed, so a lost wake-up would leave it parked forever
+                }
+            }).start();
+        }
+        for (Fiber sender : senders)
+            sender.join(30, TimeUnit.SECONDS);
+        receiver.join(30, TimeUnit.SECONDS);
+        assertTrue(ch.getWaitingSendCount() > 0);
+    }
+}
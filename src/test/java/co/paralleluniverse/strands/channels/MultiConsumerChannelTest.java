@@ -0,0 +1,294 @@
+/*
+ * Quasar: lightweight threads and actors for the JVM.
+ * Copyright (C) 2013, Parallel Universe Software Co. All rights reserved.
+ *
+ * This program and the accompanying materials are dual-licensed under
+ * either the terms of the Eclipse Public License v1.0 as published by
+ * the Eclipse Foundation
+ *
+ *   or (per the licensee's choosing)
+ *
+ * under the terms of the GNU Lesser General Public License version 3.0
+ * as published by the Free Software Foundation.
+ */
+package co.paralleluniverse.strands.channels;
+
+import co.paralleluniverse.fibers.Fiber;
+import co.paralleluniverse.fibers.SuspendExecution;
+import co.paralleluniverse.strands.SuspendableRunnable;
+import co.paralleluniverse.strands.queues.MultiConsumerArrayQueue;
+import co.paralleluniverse.strands.queues.QueueCapacityExceededException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import jsr166e.ForkJoinPool;
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ *
+ * @author pron
+ */
+public class MultiConsumerChannelTest {
+    private final ForkJoinPool fjPool;
+
+    public MultiConsumerChannelTest() {
+        fjPool = new ForkJoinPool(4, ForkJoinPool.defaultForkJoinWorkerThreadFactory, null, true);
+    }
+
+    @Test
+    public void testQueue() {
+        final MultiConsumerArrayQueue<Integer> queue = new MultiConsumerArrayQueue<Integer>(5);
+        assertThat(queue.capacity(), is(8));
+        assertTrue(queue.isEmpty());
+        assertThat(queue.poll(), is(nullValue()));
+
+        for (int round = 0; round < 3; round++) {
+            for (int i = 0; i < 8; i++)
+                assertTrue(queue.enq(i));
+            assertFalse(queue.enq(8));
+            assertThat(queue.size(), is(8));
+            for (int i = 0; i < 8; i++)
+                assertThat(queue.poll(), is(i));
+            assertTrue(queue.isEmpty());
+            assertThat(queue.poll(), is(nullValue()));
+        }
+    }
+
+    @Test
+    public void testReceiveTimeout() throws Exception {
+        final MultiConsumerChannel<Integer> ch = MultiConsumerChannel.create(4);
+        final AtomicLong elapsed = new AtomicLong();
+        Fiber fiber = new Fiber(fjPool, new SuspendableRunnable() {
+            @Override
+            public void run() throws SuspendExecution, InterruptedException {
+                final long start = System.nanoTime();
+                assertThat(ch.receive(20, TimeUnit.MILLISECONDS), is(nullValue()));
+                elapsed.set(System.nanoTime() - start);
+            }
+        }).start();
+        fiber.join(1, TimeUnit.SECONDS);
+        assertTrue(elapsed.get() >= TimeUnit.MILLISECONDS.toNanos(20));
+
+        ch.send(1);
+        assertThat(ch.tryReceive(), is(1));
+    }
+
+    @Test
+    public void testSendWakesOneReceiver() throws Exception {
+        final MultiConsumerChannel<Integer> ch = MultiConsumerChannel.create(4);
+        final AtomicInteger received = new AtomicInteger();
+        final Fiber[] fibers = new Fiber[3];
+        for (int i = 0; i < fibers.length; i++) {
+            fibers[i] = new Fiber(fjPool, new SuspendableRunnable() {
+                @Override
+                public void run() throws SuspendExecution, InterruptedException {
+                    ch.receive();
+                    received.incrementAndGet();
+                }
+            }).start();
+        }
+        Thread.sleep(50);
+
+        ch.send(1);
+        Thread.sleep(50);
+        assertThat(received.get(), is(1));
+
+        ch.send(2);
+        ch.send(3);
+        for (Fiber fiber : fibers)
+            fiber.join(1, TimeUnit.SECONDS);
+        assertThat(received.get(), is(3));
+    }
+
+    @Test
+    public void testTimedOutReceiverDoesNotLoseWakeup() throws Exception {
+        final MultiConsumerChannel<Integer> ch = MultiConsumerChannel.create(4);
+        for (int round = 0; round < 2000; round++) {
+            final AtomicInteger timedReceived = new AtomicInteger(-1);
+            final AtomicInteger received = new AtomicInteger(-1);
+            final Fiber timed = new Fiber(fjPool, new SuspendableRunnable() {
+                @Override
+                public void run() throws SuspendExecution, InterruptedException {
+                    final Integer m = ch.receive(50, TimeUnit.MICROSECONDS);
+                    if (m != null)
+                        timedReceived.set(m);
+                }
+            }).start();
+            final Fiber indefinite = new Fiber(fjPool, new SuspendableRunnable() {
+                @Override
+                public void run() throws SuspendExecution, InterruptedException {
+                    received.set(ch.receive());
+                }
+            }).start();
+            final long sendTime = System.nanoTime() + TimeUnit.MICROSECONDS.toNanos(round % 100);
+            while (System.nanoTime() < sendTime)
+                ; // send around the time the timed receiver times out
+
+            ch.send(round);
+            timed.join(1, TimeUnit.SECONDS);
+            if (timedReceived.get() == round)
+                ch.send(-1); // release the indefinite receiver
+            indefinite.join(1, TimeUnit.SECONDS); // times out if the wake-up is lost
+            assertThat(timedReceived.get() == round || received.get() == round, is(true));
+            assertThat(ch.getQueueLength(), is(0));
+        }
+    }
+
+    @Test
+    public void testWorkerPool() throws Exception {
+        final int messages = 20000;
+        final MultiConsumerChannel<Integer> ch = MultiConsumerChannel.create(64);
+        final AtomicLong sum = new AtomicLong();
+        final AtomicInteger count = new AtomicInteger();
+
+        final SuspendableRunnable worker = new SuspendableRunnable() {
+            @Override
+            public void run() throws SuspendExecution, InterruptedException {
+                for (;;) {
+                    final int m = ch.receive();
+                    if (m < 0)
+                        return;
+                    sum.addAndGet(m);
+                    count.incrementAndGet();
+                }
+            }
+        };
+        final Fiber[] fibers = new Fiber[8];
+        for (int i = 0; i < fibers.length; i++)
+            fibers[i] = new Fiber(fjPool, worker).start();
+
+        for (int i = 1; i <= messages; i++)
+            send(ch, i);
+        for (int i = 0; i < fibers.length; i++)
+            send(ch, -1);
+
+        for (Fiber fiber : fibers)
+            fiber.join(5, TimeUnit.SECONDS);
+
+        assertThat(count.get(), is(messages));
+        assertThat(sum.get(), is((long) messages * (messages + 1) / 2));
+    }
+
+    @Test
+    public void testMultipleProducersAndConsumers() throws Exception {
+        final int producers = 4;
+        final int messagesPerProducer = 50000;
+        final MultiConsumerChannel<Integer> ch = MultiConsumerChannel.create(8);
+        final AtomicLong sum = new AtomicLong();
+        final AtomicInteger count = new AtomicInteger();
+
+        final SuspendableRunnable consumer = new SuspendableRunnable() {
+            @Override
+            public void run() throws SuspendExecution, InterruptedException {
+                for (;;) {
+                    final int m = ch.receive(); // untimed, so a lost wake-up leaves the consumer parked for good
+                    if (m < 0)
+                        return;
+                    sum.addAndGet(m);
+                    count.incrementAndGet();
+                }
+            }
+        };
+        final Fiber[] fibers = new Fiber[8];
+        for (int i = 0; i < fibers.length; i++)
+            fibers[i] = new Fiber(fjPool, consumer).start();
+
+        final Thread[] threads = new Thread[producers];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int j = 1; j <= messagesPerProducer; j++) {
+                        send(ch, j);
+                        if (j % 64 == 0)
+                            Thread.yield(); // let the consumers drain the channel and park
+                    }
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads)
+            thread.join();
+        for (int i = 0; i < fibers.length; i++)
+            send(ch, -1);
+
+        for (Fiber fiber : fibers)
+            fiber.join(10, TimeUnit.SECONDS);
+
+        assertThat(count.get(), is(producers * messagesPerProducer));
+        assertThat(sum.get(), is((long) producers * messagesPerProducer * (messagesPerProducer + 1) / 2));
+    }
+
+    @Test
+    public void testThreadAndFiberConsumers() throws Exception {
+        final int messages = 50000;
+        final MultiConsumerChannel<Integer> ch = MultiConsumerChannel.create(8);
+        final AtomicLong sum = new AtomicLong();
+        final AtomicInteger count = new AtomicInteger();
+        final AtomicInteger threadCount = new AtomicInteger();
+
+        final SuspendableRunnable consumer = new SuspendableRunnable() {
+            @Override
+            public void run() throws SuspendExecution, InterruptedException {
+                for (;;) {
+                    final int m = ch.receive(); // untimed, on fibers and threads alike
+                    if (m < 0)
+                        return;
+                    sum.addAndGet(m);
+                    count.incrementAndGet();
+                    if (Fiber.currentFiber() == null)
+                        threadCount.incrementAndGet();
+                }
+            }
+        };
+        final Fiber[] fibers = new Fiber[4];
+        for (int i = 0; i < fibers.length; i++)
+            fibers[i] = new Fiber(fjPool, consumer).start();
+        final Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        consumer.run();
+                    } catch (Exception e) {
+                        throw new AssertionError(e);
+                    }
+                }
+            });
+            threads[i].start();
+        }
+
+        for (int i = 1; i <= messages; i++) {
+            send(ch, i);
+            if (i % 64 == 0)
+                Thread.yield(); // let the consumers drain the channel and park
+        }
+        for (int i = 0; i < fibers.length + threads.length; i++)
+            send(ch, -1);
+
+        for (Fiber fiber : fibers)
+            fiber.join(10, TimeUnit.SECONDS);
+        for (Thread thread : threads) {
+            thread.join(10000);
+            assertFalse(thread.isAlive());
+        }
+
+        assertThat(count.get(), is(messages));
+        assertThat(sum.get(), is((long) messages * (messages + 1) / 2));
+        assertTrue(threadCount.get() > 0);
+    }
+
+    private static void send(MultiConsumerChannel<Integer> ch, int m) {
+        for (;;) {
+            try {
+                ch.send(m);
+                return;
+            } catch (QueueCapacityExceededException e) {
+                Thread.yield();
+            }
+        }
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * Quasar: lightweight threads and actors for the JVM.
+ * Copyright (C) 2013, Parallel Universe Software Co. All rights reserved.
+ *
+ * This program and the accompanying materials are dual-licensed under
+ * either the terms of the Eclipse Public License v1.0 as published by
+ * the Eclipse Foundation
+ *
+ *   or (per the licensee's choosing)
+ *
+ * under the terms of the GNU Lesser General Public License version 3.0
+ * as published by the Free Software Foundation.
+ */
+package co.paralleluniverse.strands.channels;
+
+import co.paralleluniverse.fibers.Fiber;
+import co.paralleluniverse.fibers.SuspendExecution;
+import co.paralleluniverse.strands.SuspendableCallable;
+import java.util.concurrent.TimeUnit;
+import jsr166e.ForkJoinPool;
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ *
+ * @author pron
+ */
+public class SelectorTest {
+    private final ForkJoinPool fjPool;
+
+    public SelectorTest() {
+        fjPool = new ForkJoinPool(4, ForkJoinPool.defaultForkJoinWorkerThreadFactory, null, true);
+    }
+
+    @Test
+    public void testReceive() throws Exception {
+        final ObjectChannel<String> ch1 = ObjectChannel.create(5);
+        final IntChannel ch2 = IntChannel.create(5);
+        final ObjectChannel<String> ch3 = ObjectChannel.create(5);
+        final Fiber<SelectAction<Object>> fiber = new Fiber<SelectAction<Object>>(fjPool, new SuspendableCallable<SelectAction<Object>>() {
+            @Override
+            public SelectAction<Object> run() throws SuspendExecution, InterruptedException {
+                return Selector.select(Selector.<Object>receive(ch1), Selector.<Object>receive(ch2), Selector.<Object>receive(ch3));
+            }
+        }).start();
+        Thread.sleep(50);
+        assertThat(fiber.isAlive(), is(true));
+
+        ch2.send(42);
+        final SelectAction<Object> sa = fiber.get();
+        assertThat(sa.index(), is(1));
+        assertThat(sa.channel(), is((Object) ch2));
+        assertThat(sa.message(), is((Object) 42));
+        assertThat(ch2.getQueueLength(), is(0));
+    }
+
+    @Test
+    public void testReceivePriority() throws Exception {
+        final ObjectChannel<String> ch1 = ObjectChannel.create(5);
+        final ObjectChannel<String> ch2 = ObjectChannel.create(5);
+        ch2.send("b");
+        ch1.send("a");
+        final SelectAction<String> sa = Selector.trySelect(Selector.receive(ch1), Selector.receive(ch2));
+        assertThat(sa.index(), is(0));
+        assertThat(sa.message(), is("a"));
+        assertThat(Selector.trySelect(Selector.receive(ch1), Selector.receive(ch2)).message(), is("b"));
+        assertThat(Selector.trySelect(Selector.receive(ch1), Selector.receive(ch2)), is(nullValue()));
+    }
+
+    @Test
+    public void testTimeout() throws Exception {
+        final ObjectChannel<String> ch1 = ObjectChannel.create(5);
+        final ObjectChannel<String> ch2 = ObjectChannel.create(5);
+        final Fiber<SelectAction<String>> fiber = new Fiber<SelectAction<String>>(fjPool, new SuspendableCallable<SelectAction<String>>() {
+            @Override
+            public SelectAction<String> run() throws SuspendExecution, InterruptedException {
+                return Selector.select(20, TimeUnit.MILLISECONDS, Selector.receive(ch1), Selector.receive(ch2));
+            }
+        }).start();
+        assertThat(fiber.get(1, TimeUnit.SECONDS), is(nullValue()));
+
+        ch1.send("a"); // the selector must have unregistered
+        assertThat(ch1.tryReceive(), is("a"));
+    }
+
+    @Test
+    public void testSend() throws Exception {
+        final ObjectChannel<String> full = ObjectChannel.create(1);
+        final ObjectChannel<String> other = ObjectChannel.create(1);
+        full.send("x");
+        other.send("y");
+        final Fiber<SelectAction<String>> fiber = new Fiber<SelectAction<String>>(fjPool, new SuspendableCallable<SelectAction<String>>() {
+            @Override
+            public SelectAction<String> run() throws SuspendExecution, InterruptedException {
+                return Selector.select(Selector.send(full, "a"), Selector.send(other, "b"));
+            }
+        }).start();
+        Thread.sleep(50);
+        assertThat(fiber.isAlive(), is(true));
+
+        assertThat(other.tryReceive(), is("y")); // makes room in the second channel
+        final SelectAction<String> sa = fiber.get();
+        assertThat(sa.index(), is(1));
+        assertThat(sa.isSend(), is(true));
+        assertThat(other.tryReceive(), is("b"));
+        assertThat(full.tryReceive(), is("x"));
+        assertThat(full.tryReceive(), is(nullValue()));
+    }
+
+    @Test
+    public void testManySenders() throws Exception {
+        final ObjectChannel<Integer> ch1 = ObjectChannel.create(2);
+        final ObjectChannel<Integer> ch2 = ObjectChannel.create(2);
+        final Fiber<Integer> receiver = new Fiber<Integer>(fjPool, new SuspendableCallable<Integer>() {
+            @Override
+            public Integer run() throws SuspendExecution, InterruptedException {
+                int sum = 0;
+                for (int i = 0; i < 200; i++)
+                    sum += Selector.select(Selector.receive(ch1), Selector.receive(ch2)).message();
+                return sum;
+            }
+        }).start();
+        final Fiber<Void> sender = new Fiber<Void>(fjPool, new SuspendableCallable<Void>() {
+            @Override
+            public Void run() throws SuspendExecution, InterruptedException {
+                for (int i = 0; i < 200; i++)
+                    Selector.select(Selector.send(ch1, i), Selector.send(ch2, i));
+                return null;
+            }
+        }).start();
+        sender.join(5, TimeUnit.SECONDS);
+        assertThat(receiver.get(5, TimeUnit.SECONDS), is(199 * 100));
+    }
+}
@@ -0,0 +1,610 @@
+/*
+ * Quasar: lightweight threads and actors for the JVM.
+ * Copyright (C) 2013, Parallel Universe Software Co. All rights reserved.
+ *
+ * This program and the accompanying materials are dual-licensed under
+ * either the terms of the Eclipse Public License v1.0 as published by
+ * the Eclipse Foundation
+ *
+ *   or (per the licensee's choosing)
+ *
+ * under the terms of the GNU Lesser General Public License version 3.0
+ * as published by the Free Software Foundation.
+ */
+package co.paralleluniverse.strands.concurrent;
+
+import co.paralleluniverse.fibers.Fiber;
+import co.paralleluniverse.fibers.SuspendExecution;
+import co.paralleluniverse.strands.Strand;
+import co.paralleluniverse.strands.SuspendableRunnable;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import jsr166e.ForkJoinPool;
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ *
+ * @author pron
+ */
+public class SynchronizersTest {
+    private final ForkJoinPool fjPool;
+    private final AtomicReference<Throwable> threadError = new AtomicReference<Throwable>();
+
+    public SynchronizersTest() {
+        fjPool = new ForkJoinPool(4, ForkJoinPool.defaultForkJoinWorkerThreadFactory, null, true);
+    }
+
+    private Fiber[] startFibers(int n, SuspendableRunnable target) {
+        final Fiber[] fibers = new Fiber[n];
+        for (int i = 0; i < n; i++)
+            fibers[i] = new Fiber(fjPool, target).start();
+        return fibers;
+    }
+
+    private static void join(Fiber[] fibers) throws Exception {
+        for (Fiber fiber : fibers)
+            fiber.join(5, TimeUnit.SECONDS);
+    }
+
+    private Thread[] startThreads(int n, final SuspendableRunnable target) {
+        final Thread[] threads = new Thread[n];
+        for (int i = 0; i < n; i++) {
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        target.run();
+                    } catch (Throwable t) {
+                        threadError.compareAndSet(null, t);
+                    }
+                }
+            });
+            threads[i].start();
+        }
+        return threads;
+    }
+
+    private void join(Thread[] threads) throws Exception {
+        for (Thread thread : threads) {
+            thread.join(5000);
+            assertFalse(thread.isAlive());
+        }
+        if (threadError.get() != null)
+            throw new AssertionError(threadError.get());
+    }
+
+    @Test
+    public void testLock() throws Exception {
+        final ReentrantLock lock = new ReentrantLock();
+        final int[] counter = new int[1];
+        join(startFibers(8, new SuspendableRunnable() {
+            @Override
+            public void run() throws SuspendExecution, InterruptedException {
+                for (int i = 0; i < 200; i++) {
+                    lock.lock();
+                    try {
+                        lock.lock(); // reentrant
+                        assertThat(lock.getHoldCount(), is(2));
+                        lock.unlock();
+                        final int c = counter[0];
+                        if (i % 10 == 0)
+                            Fiber.sleep(1); // let others contend while we hold the lock
+                        counter[0] = c + 1;
+                    } finally {
+                        lock.unlock();
+                    }
+                }
+            }
+        }));
+        assertThat(counter[0], is(1600));
+        assertFalse(lock.isLocked());
+    }
+
+    @Test
+    public void testLockWithThreadsAndFibers() throws Exception {
+        final ReentrantLock lock = new ReentrantLock();
+        final int[] counter = new int[1];
+        final SuspendableRunnable target = new SuspendableRunnable() {
+            @Override
+            public void run() throws SuspendExecution, InterruptedException {
+                for (int i = 0; i < 200; i++) {
+                    lock.lock();
+                    try {
+                        final int c = counter[0];
+                        if (i % 10 == 0)
+                            Strand.sleep(1);
+                        counter[0] = c + 1;
+                    } finally {
+                        lock.unlock();
+                    }
+                }
+            }
+        };
+        final Fiber[] fibers = startFibers(4, target);
+        final Thread[] threads = startThreads(4, target);
+        join(fibers);
+        join(threads);
+        assertThat(counter[0], is(1600));
+        assertFalse(lock.isLocked());
+    }
+
+    @Test
+    public void testTryLockTimeout() throws Exception {
+        final ReentrantLock lock = new ReentrantLock();
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicBoolean acquired = new AtomicBoolean(true);
+        final Fiber holder = new Fiber(fjPool, new SuspendableRunnable() {
+            @Override
+            public void run() throws SuspendExecution, InterruptedException {
+                lock.lock();
+                try {
+                    release.await();
+                } finally {
+                    lock.unlock();
+                }
+            }
+        }).start();
+        while (!lock.isLocked())
+            Thread.sleep(1);
+        join(startFibers(1, new SuspendableRunnable() {
+            @Override
+            public void run() throws SuspendExecution, InterruptedException {
+                assertFalse(lock.tryLock());
+                acquired.set(lock.tryLock(10, TimeUnit.MILLISECONDS));
+                release.countDown();
+                assertTrue(lock.tryLock(1, TimeUnit.SECONDS));
+                lock.unlock();
+            }
+        }));
+        holder.join();
+        assertThat(acquired.get(), is(false));
+    }
+
+    @Test
+    public void testFairLock() throws Exception {
+        final ReentrantLock lock = new ReentrantLock(true);
+        final Queue<Integer> order = new ConcurrentLinkedQueue<Integer>();
+        final CountDownLatch release = new CountDownLatch(1);
+        final Fiber holder = new Fiber(fjPool, new SuspendableRunnable() {
+            @Override
+            public void run() throws SuspendExecution, InterruptedException {
+                lock.lock();
+                try {
+                    release.await();
+                } finally {
+                    lock.unlock();
+                }
+            }
+        }).start();
+        while (!lock.isLocked())
+            Thread.sleep(1);
+
+        final Fiber[] waiters = new Fiber[5];
+        for (int i = 0; i < waiters.length; i++) {
+            final int id = i;
+            waiters[i] = new Fiber(fjPool, new SuspendableRunnable() {
+                @Override
+                public void run() throws SuspendExecution, InterruptedException {
+                    lock.lock();
+                    try {
+                        order.add(id);
+                    } finally {
+                        lock.unlock();
+                    }
+                }
+            }).start();
+            while (lock.getQueueLength() < i + 1)
+                Thread.sleep(1);
+        }
+        assertTrue(lock.hasQueuedStrand(waiters[0]));
+        release.countDown();
+        holder.join();
+        join(waiters);
+        assertThat(new ArrayList<Integer>(order), equalTo(Arrays.asList(0, 1, 2, 3, 4)));
+    }
+
+    @Test
+    public void testCondition() throws Exception {
+        final ReentrantLock lock = new ReentrantLock();
+        final Condition notEmpty = lock.newCondition();
+        final Condition notFull = lock.newCondition();
+        final ArrayDeque<Integer> buffer = new ArrayDeque<Integer>();
+        final AtomicInteger sum = new AtomicInteger();
+
+        final Fiber[] producers = startFibers(3, new SuspendableRunnable() {
+            @Override
+            public void run() throws SuspendExecution, InterruptedException {
+                for (int i = 1; i <= 100; i++) {
+                    lock.lock();
+                    try {
+                        while (buffer.size() == 2)
+                            notFull.await();
+                        buffer.add(i);
+                        notEmpty.signal();
+                    } finally {
+                        lock.unlock();
+                    }
+                }
+            }
+        });
+        final Fiber[] consumers = startFibers(3, new SuspendableRunnable() {
+            @Override
+            public void run() throws SuspendExecution, InterruptedException {
+                for (int i = 0; i < 100; i++) {
+                    lock.lock();
+                    try {
+                        while (buffer.isEmpty())
+                            notEmpty.await();
+                        sum.addAndGet(buffer.poll());
+                        notFull.signal();
+                    } finally {
+                        lock.unlock();
+                    }
+                }
+            }
+        });
+        join(producers);
+        join(consumers);
+        assertThat(sum.get(), is(3 * 5050));
+    }
+
+    @Test
+    public void testConditionWithThreadsAndFibers() throws Exception {
+        final ReentrantLock lock = new ReentrantLock();
+        final Condition notEmpty = lock.newCondition();
+        final Condition notFull = lock.newCondition();
+        final ArrayDeque<Integer> buffer = new ArrayDeque<Integer>();
+        final AtomicInteger sum = new AtomicInteger();
+        final SuspendableRunnable producer = new SuspendableRunnable() {
+            @Override
+            public void run() throws SuspendExecution, InterruptedException {
+                for (int i = 1; i <= 100; i++) {
+                    lock.lock();
+                    try {
+                        while (buffer.size() == 2)
+                            notFull.await();
+                        buffer.add(i);
+                        notEmpty.signal();
+                    } finally {
+                        lock.unlock();
+                    }
+                }
+            }
+        };
+        final SuspendableRunnable consumer = new SuspendableRunnable() {
+            @Override
+            public void run() throws SuspendExecution, InterruptedException {
+                for (int i = 0; i < 100; i++) {
+                    lock.lock();
+                    try {
+                        while (buffer.isEmpty())
+                            notEmpty.await();
+                        sum.addAndGet(buffer.poll());
+                        notFull.signal();
+                    } finally {
+                        lock.unlock();
+                    }
+                }
+            }
+        };
+        final Fiber[] fibers = new Fiber[]{startFibers(1, producer)[0], startFibers(1, consumer)[0]};
+        final Thread[] threads = new Thread[]{startThreads(1, producer)[0], startThreads(1, consumer)[0]};
+        join(fibers);
+        join(threads);
+        assertThat(sum.get(), is(2 * 5050));
+    }
+
+    @Test
+    public void testConditionTimeout() throws Exception {
+        final ReentrantLock lock = new ReentrantLock();
+        final Condition cond = lock.newCondition();
+        join(startFibers(1, new SuspendableRunnable() {
+            @Override
+            public void run() throws SuspendExecution, InterruptedException {
+                lock.lock();
+                try {
+                    assertFalse(cond.await(10, TimeUnit.MILLISECONDS));
+                    assertThat(lock.getHoldCount(), is(1));
+                } finally {
+                    lock.unlock();
+                }
+            }
+        }));
+    }
+
+    @Test
+    public void testReadWriteLock() throws Exception {
+        final ReentrantReadWriteLock rwLock = new ReentrantReadWriteLock();
+        final AtomicInteger readers = new AtomicInteger();
+        final AtomicInteger maxReaders = new AtomicInteger();
+        final int[] value = new int[1];
+
+        final Fiber[] readerFibers = startFibers(4, new SuspendableRunnable() {
+            @Override
+            public void run() throws SuspendExecution, InterruptedException {
+                for (int i = 0; i < 20; i++) {
+                    rwLock.readLock().lock();
+                    try {
+                        final int r = readers.incrementAndGet();
+                        if (r > maxReaders.get())
+                            maxReaders.set(r);
+                        final int v = value[0];
+                        Fiber.sleep(1);
+                        assertThat(value[0], is(v)); // no writer while we read
+                        readers.decrementAndGet();
+                    } finally {
+                        rwLock.readLock().unlock();
+                    }
+                }
+            }
+        });
+        final Fiber[] writerFibers = startFibers(2, new SuspendableRunnable() {
+            @Override
+            public void run() throws SuspendExecution, InterruptedException {
+                for (int i = 0; i < 20; i++) {
+                    rwLock.writeLock().lock();
+                    try {
+                        assertThat(readers.get(), is(0));
+                        final int v = value[0];
+                        Fiber.sleep(1);
+                        value[0] = v + 1;
+                    } finally {
+                        rwLock.writeLock().unlock();
+                    }
+                }
+            }
+        });
+        join(readerFibers);
+        join(writerFibers);
+        assertThat(value[0], is(40));
+        assertTrue(maxReaders.get() > 1);
+        assertThat(rwLock.getReadLockCount(), is(0));
+        assertFalse(rwLock.isWriteLocked());
+    }
+
+    @Test
+    public void testReadWriteLockWithThreadsAndFibers() throws Exception {
+        final ReentrantReadWriteLock rwLock = new ReentrantReadWriteLock();
+        final AtomicInteger readers = new AtomicInteger();
+        final int[] value = new int[1];
+        final SuspendableRunnable reader = new SuspendableRunnable() {
+            @Override
+            public void run() throws SuspendExecution, InterruptedException {
+                for (int i = 0; i < 20; i++) {
+                    rwLock.readLock().lock();
+                    try {
+                        readers.incrementAndGet();
+                        final int v = value[0];
+                        Strand.sleep(1);
+                        assertThat(value[0], is(v)); // no writer while we read
+                        readers.decrementAndGet();
+                    } finally {
+                        rwLock.readLock().unlock();
+                    }
+                }
+            }
+        };
+        final SuspendableRunnable writer = new SuspendableRunnable() {
+            @Override
+            public void run() throws SuspendExecution, InterruptedException {
+                for (int i = 0; i < 20; i++) {
+                    rwLock.writeLock().lock();
+                    try {
+                        assertThat(readers.get(), is(0));
+                        final int v = value[0];
+                        Strand.sleep(1);
+                        value[0] = v + 1;
+                    } finally {
+                        rwLock.writeLock().unlock();
+                    }
+                }
+            }
+        };
+        final Fiber[] fibers = new Fiber[]{startFibers(1, reader)[0], startFibers(1, reader)[0], startFibers(1, writer)[0]};
+        final Thread[] threads = new Thread[]{startThreads(1, reader)[0], startThreads(1, reader)[0], startThreads(1, writer)[0]};
+        join(fibers);
+        join(threads);
+        assertThat(value[0], is(40));
+        assertThat(rwLock.getReadLockCount(), is(0));
+        assertFalse(rwLock.isWriteLocked());
+    }
+
+    @Test
+    public void testWriterNotStarvedByOverlappingReaders() throws Exception {
+        final ReentrantReadWriteLock rwLock = new ReentrantReadWriteLock();
+        final AtomicBoolean stop = new AtomicBoolean();
+        final Fiber[] readerFibers = startFibers(4, new SuspendableRunnable() {
+            @Override
+            public void run() throws SuspendExecution, InterruptedException {
+                while (!stop.get()) {
+                    rwLock.readLock().lock();
+                    try {
+                        Fiber.sleep(2);
+                    } finally {
+                        rwLock.readLock().unlock();
+                    }
+                }
+            }
+        });
+        while (rwLock.getReadLockCount() < 2)
+            Thread.sleep(1);
+
+        join(startFibers(1, new SuspendableRunnable() {
+            @Override
+            public void run() throws SuspendExecution, InterruptedException {
+                rwLock.writeLock().lock(); // join times out if the readers keep the lock forever
+                try {
+                    stop.set(true);
+                } finally {
+                    rwLock.writeLock().unlock();
+                }
+            }
+        }));
+        join(readerFibers);
+        assertThat(rwLock.getReadLockCount(), is(0));
+    }
+
+    @Test
+    public void testReentrantReadWithWaitingWriter() throws Exception {
+        final ReentrantReadWriteLock rwLock = new ReentrantReadWriteLock();
+        final CountDownLatch writerQueued = new CountDownLatch(1);
+        final Fiber reader = new Fiber(fjPool, new SuspendableRunnable() {
+            @Override
+            public void run() throws SuspendExecution, InterruptedException {
+                rwLock.readLock().lock();
+                try {
+                    writerQueued.await();
+                    rwLock.readLock().lock(); // must not wait behind the writer, which waits for us
+                    assertThat(rwLock.getReadHoldCount(), is(2));
+                    rwLock.readLock().unlock();
+                } finally {
+                    rwLock.readLock().unlock();
+                }
+            }
+        }).start();
+        while (rwLock.getReadLockCount() < 1) // the writer must queue behind the reader
+            Thread.sleep(1);
+        final Fiber writer = new Fiber(fjPool, new SuspendableRunnable() {
+            @Override
+            public void run() throws SuspendExecution, InterruptedException {
+                rwLock.writeLock().lock();
+                rwLock.writeLock().unlock();
+            }
+        }).start();
+        while (rwLock.getQueueLength() < 1)
+            Thread.sleep(1);
+        join(startFibers(1, new SuspendableRunnable() {
+            @Override
+            public void run() throws SuspendExecution, InterruptedException {
+                assertFalse(rwLock.readLock().tryLock(10, TimeUnit.MILLISECONDS)); // a new reader waits for the writer
+            }
+        }));
+        writerQueued.countDown();
+        reader.join(5, TimeUnit.SECONDS);
+        writer.join(5, TimeUnit.SECONDS);
+        assertFalse(rwLock.isWriteLocked());
+        assertThat(rwLock.getReadLockCount(), is(0));
+    }
+
+    @Test
+    public void testSemaphore() throws Exception {
+        final Semaphore semaphore = new Semaphore(2);
+        final AtomicInteger inside = new AtomicInteger();
+        final AtomicInteger maxInside = new AtomicInteger();
+        join(startFibers(6, new SuspendableRunnable() {
+            @Override
+            public void run() throws SuspendExecution, InterruptedException {
+                for (int i = 0; i < 10; i++) {
+                    semaphore.acquire();
+                    try {
+                        final int n = inside.incrementAndGet();
+                        if (n > maxInside.get())
+                            maxInside.set(n);
+                        Fiber.sleep(1);
+                        inside.decrementAndGet();
+                    } finally {
+                        semaphore.release();
+                    }
+                }
+            }
+        }));
+        assertThat(maxInside.get(), is(2));
+        assertThat(semaphore.availablePermits(), is(2));
+    }
+
+    @Test
+    public void testSemaphoreWithThreadsAndFibers() throws Exception {
+        final Semaphore semaphore = new Semaphore(2);
+        final AtomicInteger inside = new AtomicInteger();
+        final AtomicInteger maxInside = new AtomicInteger();
+        final SuspendableRunnable target = new SuspendableRunnable() {
+            @Override
+            public void run() throws SuspendExecution, InterruptedException {
+                for (int i = 0; i < 10; i++) {
+                    semaphore.acquire();
+                    try {
+                        final int n = inside.incrementAndGet();
+                        if (n > maxInside.get())
+                            maxInside.set(n);
+                        Strand.sleep(1);
+                        inside.decrementAndGet();
+                    } finally {
+                        semaphore.release();
+                    }
+                }
+            }
+        };
+        final Fiber[] fibers = startFibers(3, target);
+        final Thread[] threads = startThreads(3, target);
+        join(fibers);
+        join(threads);
+        assertThat(maxInside.get(), is(2));
+        assertThat(semaphore.availablePermits(), is(2));
+    }
+
+    @Test
+    public void testCountDownLatch() throws Exception {
+        final CountDownLatch latch = new CountDownLatch(3);
+        final AtomicInteger timedOut = new AtomicInteger();
+        final AtomicInteger passed = new AtomicInteger();
+        final Fiber[] fibers = startFibers(4, new SuspendableRunnable() {
+            @Override
+            public void run() throws SuspendExecution, InterruptedException {
+                assertFalse(latch.await(5, TimeUnit.MILLISECONDS));
+                timedOut.incrementAndGet();
+                latch.await();
+                passed.incrementAndGet();
+            }
+        });
+        while (timedOut.get() < 4)
+            Thread.sleep(1);
+        latch.countDown();
+        latch.countDown();
+        final AtomicBoolean released = new AtomicBoolean(true);
+        join(startFibers(1, new SuspendableRunnable() {
+            @Override
+            public void run() throws SuspendExecution, InterruptedException {
+                released.set(latch.await(10, TimeUnit.MILLISECONDS));
+            }
+        }));
+        assertThat(released.get(), is(false));
+        assertThat(passed.get(), is(0));
+        latch.countDown();
+        join(fibers);
+        assertThat(passed.get(), is(4));
+        assertThat(latch.getCount(), is(0L));
+    }
+
+    @Test
+    public void testCountDownLatchWithThreadsAndFibers() throws Exception {
+        final CountDownLatch latch = new CountDownLatch(1);
+        final AtomicInteger timedOut = new AtomicInteger();
+        final AtomicInteger passed = new AtomicInteger();
+        final SuspendableRunnable target = new SuspendableRunnable() {
+            @Override
+            public void run() throws SuspendExecution, InterruptedException {
+                assertFalse(latch.await(5, TimeUnit.MILLISECONDS));
+                timedOut.incrementAndGet();
+                latch.await();
+                passed.incrementAndGet();
+            }
+        };
+        final Fiber[] fibers = startFibers(2, target);
+        final Thread[] threads = startThreads(2, target);
+        while (timedOut.get() < 4)
+            Thread.sleep(1);
+        latch.countDown();
+        join(fibers);
+        join(threads);
+        assertThat(passed.get(), is(4));
+    }
+}
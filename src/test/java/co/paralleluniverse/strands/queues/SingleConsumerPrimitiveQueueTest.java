@@ -374,6 +374,31 @@ public class SingleConsumerPrimitiveQueueTest {
         }
     }
 
+    @Test
+    public void testDrainTo() {
+        final SingleConsumerIntQueue<?> intQueue = (SingleConsumerIntQueue<?>) wordQueue;
+        for (int i = 1; i <= 5; i++)
+            intQueue.enq(i);
+        assertThat(intQueue.drainTo(new int[5], 0, 5), is(5));
+
+        for (int i = 6; i <= 19; i++)
+            intQueue.enq(i);
+
+        int[] buf = new int[8];
+        assertThat(intQueue.drainTo(buf, 1, 6), is(6));
+        assertThat(buf, is(equalTo(new int[]{0, 6, 7, 8, 9, 10, 11, 0})));
+        assertThat(wordQueue.size(), is(8));
+
+        buf = new int[20];
+        assertThat(intQueue.drainTo(buf, 0, buf.length), is(8));
+        assertThat(Arrays.copyOf(buf, 8), is(equalTo(new int[]{12, 13, 14, 15, 16, 17, 18, 19})));
+        testEmptyQueue(wordQueue);
+        assertThat(intQueue.drainTo(buf, 0, buf.length), is(0));
+
+        wordQueue.offer(1);
+        assertThat(list(wordQueue), is(equalTo(list(1))));
+    }
+
     private static <E> List<E> list(Queue<E> queue) {
         return new ArrayList<>(queue);
     }
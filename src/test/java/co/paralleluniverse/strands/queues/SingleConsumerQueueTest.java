@@ -219,6 +219,74 @@ public class SingleConsumerQueueTest {
         assertThat(list(queue), is(equalTo(list("one"))));
     }
 
+    @Test
+    public void testDrainTo() {
+        int j = 1;
+        for (int i = 0; i < 5; i++) // move head forward so that the drained range wraps around the array
+            queue.offer("x" + (j++));
+        assertThat(queue.drainTo(new ArrayList<String>(), 5), is(5));
+
+        for (int i = 0; i < 14; i++)
+            queue.offer("x" + (j++));
+
+        List<String> drained = new ArrayList<>();
+        assertThat(queue.drainTo(drained, 4), is(4));
+        assertThat(drained, is(equalTo(list("x6", "x7", "x8", "x9"))));
+        assertThat(queue.size(), is(10));
+
+        String[] buf = new String[12];
+        assertThat(queue.drainTo(buf, 1, 6), is(6));
+        assertThat(Arrays.asList(buf).subList(1, 7), is(equalTo(list("x10", "x11", "x12", "x13", "x14", "x15"))));
+        assertThat(buf[0], is(nullValue()));
+        assertThat(buf[7], is(nullValue()));
+
+        drained.clear();
+        assertThat(queue.drainTo(drained), is(4));
+        assertThat(drained, is(equalTo(list("x16", "x17", "x18", "x19"))));
+        testEmptyQueue();
+        assertThat(queue.drainTo(drained), is(0));
+
+        queue.offer("one");
+        assertThat(list(queue), is(equalTo(list("one"))));
+    }
+
+    @Test
+    public void testEnqAll() {
+        queue.offer("x0");
+        final String[] items = new String[16];
+        for (int i = 0; i < items.length; i++)
+            items[i] = "x" + (i + 1);
+
+        assertThat(queue.enqAll(items, 0, 3), is(3));
+        assertThat(queue.poll(), is("x0"));
+        assertThat(queue.enqAll(items, 3, 12), is(12));
+        assertThat(queue.size(), is(15));
+
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < 15; i++)
+            expected.add(items[i]);
+        assertThat(list(queue), is(equalTo(expected)));
+
+        if (queue instanceof SingleConsumerArrayObjectQueue)
+            assertThat(queue.enqAll(items, 0, 2), is(1)); // as many as fit
+        else
+            assertThat(queue.enqAll(items, 0, 2), is(2));
+
+        for (int i = 0; i < 15; i++)
+            assertThat(queue.poll(), is(items[i]));
+        assertThat(queue.poll(), is(items[0]));
+        while (queue.poll() != null)
+            ;
+        testEmptyQueue();
+
+        try {
+            queue.enqAll(new String[]{"a", null}, 0, 2);
+            fail();
+        } catch (IllegalArgumentException e) {
+        }
+        testEmptyQueue();
+    }
+
     private static <E> List<E> list(Queue<E> queue) {
         return new ArrayList<>(queue);
     }